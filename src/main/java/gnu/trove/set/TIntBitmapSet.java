@@ -0,0 +1,1399 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package gnu.trove.set;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import gnu.trove.TIntCollection;
+import gnu.trove.impl.Constants;
+import gnu.trove.iterator.TIntIterator;
+import gnu.trove.procedure.TIntProcedure;
+
+/**
+ * A {@link TIntSet} implemented as a compressed bitmap, in the spirit of
+ * <a href="https://roaringbitmap.org">Roaring bitmaps</a>.
+ * <p>
+ * The 32-bit value range is split into chunks of 2<sup>16</sup> values by the
+ * upper 16 bits of each value. Each non-empty chunk is stored in a container
+ * that is chosen according to its content:
+ * <ul>
+ * <li>an <em>array</em> container (sorted {@code char[]}) for chunks with at
+ * most {@value #ARRAY_MAX_SIZE} values,</li>
+ * <li>a <em>bitmap</em> container ({@code long[1024]}) for denser chunks,
+ * and</li>
+ * <li>a <em>run</em> container (sorted start/length pairs) for chunks that
+ * consist of few consecutive ranges. Run containers are only created by
+ * {@link #runOptimize()}. They are converted back to array or bitmap
+ * containers when modified.</li>
+ * </ul>
+ * <p>
+ * Iteration is in ascending order of values, interpreted as unsigned integers.
+ * For non-negative values (such as pool indices) this is the natural order.
+ * <p>
+ * Intersection, union and difference with another {@link TIntBitmapSet} are
+ * performed container-by-container (see {@link #and(TIntBitmapSet)},
+ * {@link #or(TIntBitmapSet)}, {@link #andNot(TIntBitmapSet)}). The bulk
+ * methods {@link #retainAll(TIntCollection)}, {@link #addAll(TIntCollection)}
+ * and {@link #removeAll(TIntCollection)} use these if their argument is a
+ * {@link TIntBitmapSet}.
+ */
+public class TIntBitmapSet implements TIntSet
+{
+	/**
+	 * Maximum number of values in an array container. Chunks with more values
+	 * are stored as bitmaps.
+	 */
+	static final int ARRAY_MAX_SIZE = 4096;
+
+	/**
+	 * Number of {@code long} words in a bitmap container.
+	 */
+	private static final int BITMAP_WORDS = 1024;
+
+	/**
+	 * Upper 16 bits of the values in each container, sorted ascending.
+	 */
+	private int[] keys;
+
+	private Container[] containers;
+
+	private int numContainers;
+
+	private int size;
+
+	private final int no_entry_value;
+
+	/*
+	 * CONSTRUCTORS
+	 */
+
+	public TIntBitmapSet()
+	{
+		this( Constants.DEFAULT_INT_NO_ENTRY_VALUE );
+	}
+
+	public TIntBitmapSet( final int no_entry_value )
+	{
+		this.no_entry_value = no_entry_value;
+		keys = new int[ 4 ];
+		containers = new Container[ 4 ];
+		numContainers = 0;
+		size = 0;
+	}
+
+	/**
+	 * Creates a deep copy of {@code set}.
+	 *
+	 * @param set
+	 *            the set to copy.
+	 */
+	public TIntBitmapSet( final TIntBitmapSet set )
+	{
+		no_entry_value = set.no_entry_value;
+		numContainers = set.numContainers;
+		size = set.size;
+		keys = Arrays.copyOf( set.keys, Math.max( 4, numContainers ) );
+		containers = new Container[ keys.length ];
+		for ( int i = 0; i < numContainers; ++i )
+			containers[ i ] = set.containers[ i ].copy();
+	}
+
+	/*
+	 * SET ALGEBRA
+	 */
+
+	/**
+	 * Intersects this set with {@code other}, in place.
+	 *
+	 * @param other
+	 *            the set to intersect with.
+	 */
+	public void and( final TIntBitmapSet other )
+	{
+		if ( other == this )
+			return;
+
+		int i = 0;
+		int j = 0;
+		int k = 0;
+		while ( i < numContainers && j < other.numContainers )
+		{
+			final int ki = keys[ i ];
+			final int kj = other.keys[ j ];
+			if ( ki == kj )
+			{
+				final Container c = and( containers[ i ], other.containers[ j ] );
+				if ( c.cardinality() > 0 )
+				{
+					keys[ k ] = ki;
+					containers[ k++ ] = c;
+				}
+				++i;
+				++j;
+			}
+			else if ( ki < kj )
+				++i;
+			else
+				++j;
+		}
+		Arrays.fill( containers, k, numContainers, null );
+		numContainers = k;
+		updateSize();
+	}
+
+	/**
+	 * Adds all values of {@code other} to this set, in place.
+	 *
+	 * @param other
+	 *            the set to unite with.
+	 */
+	public void or( final TIntBitmapSet other )
+	{
+		if ( other == this || other.numContainers == 0 )
+			return;
+
+		final int capacity = numContainers + other.numContainers;
+		final int[] newKeys = new int[ capacity ];
+		final Container[] newContainers = new Container[ capacity ];
+		int i = 0;
+		int j = 0;
+		int k = 0;
+		while ( i < numContainers || j < other.numContainers )
+		{
+			final int ki = i < numContainers ? keys[ i ] : Integer.MAX_VALUE;
+			final int kj = j < other.numContainers ? other.keys[ j ] : Integer.MAX_VALUE;
+			if ( ki == kj )
+			{
+				newKeys[ k ] = ki;
+				newContainers[ k++ ] = or( containers[ i++ ], other.containers[ j++ ] );
+			}
+			else if ( ki < kj )
+			{
+				newKeys[ k ] = ki;
+				newContainers[ k++ ] = containers[ i++ ];
+			}
+			else
+			{
+				newKeys[ k ] = kj;
+				newContainers[ k++ ] = other.containers[ j++ ].copy();
+			}
+		}
+		keys = newKeys;
+		containers = newContainers;
+		numContainers = k;
+		updateSize();
+	}
+
+	/**
+	 * Removes all values of {@code other} from this set, in place.
+	 *
+	 * @param other
+	 *            the set to subtract.
+	 */
+	public void andNot( final TIntBitmapSet other )
+	{
+		if ( other == this )
+		{
+			clear();
+			return;
+		}
+
+		int i = 0;
+		int j = 0;
+		int k = 0;
+		while ( i < numContainers )
+		{
+			final int ki = keys[ i ];
+			while ( j < other.numContainers && other.keys[ j ] < ki )
+				++j;
+			final Container c = ( j < other.numContainers && other.keys[ j ] == ki )
+					? andNot( containers[ i ], other.containers[ j ] )
+					: containers[ i ];
+			if ( c.cardinality() > 0 )
+			{
+				keys[ k ] = ki;
+				containers[ k++ ] = c;
+			}
+			++i;
+		}
+		Arrays.fill( containers, k, numContainers, null );
+		numContainers = k;
+		updateSize();
+	}
+
+	/**
+	 * Converts containers to run containers wherever this reduces memory. This
+	 * is intended for sets that are mostly read after being built, for example
+	 * sets of consecutive pool indices.
+	 *
+	 * @return {@code true} if at least one container was converted.
+	 */
+	public boolean runOptimize()
+	{
+		boolean changed = false;
+		for ( int i = 0; i < numContainers; ++i )
+		{
+			final Container c = containers[ i ].runOptimize();
+			if ( c != containers[ i ] )
+			{
+				containers[ i ] = c;
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Returns the approximate number of bytes used to store the values of this
+	 * set (not counting object headers).
+	 *
+	 * @return approximate size in bytes.
+	 */
+	public long getSizeInBytes()
+	{
+		long bytes = 8L * keys.length;
+		for ( int i = 0; i < numContainers; ++i )
+			bytes += containers[ i ].sizeInBytes();
+		return bytes;
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	@Override
+	public int getNoEntryValue()
+	{
+		return no_entry_value;
+	}
+
+	@Override
+	public int size()
+	{
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	@Override
+	public boolean contains( final int entry )
+	{
+		final int i = indexOfKey( entry >>> 16 );
+		return i >= 0 && containers[ i ].contains( entry & 0xFFFF );
+	}
+
+	@Override
+	public boolean add( final int entry )
+	{
+		final int high = entry >>> 16;
+		int i = indexOfKey( high );
+		if ( i < 0 )
+		{
+			i = -i - 1;
+			insertContainer( i, high, new ArrayContainer() );
+		}
+		final Container c = containers[ i ];
+		final int before = c.cardinality();
+		final Container r = c.add( entry & 0xFFFF );
+		containers[ i ] = r;
+		if ( r.cardinality() != before )
+		{
+			++size;
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public boolean remove( final int entry )
+	{
+		final int i = indexOfKey( entry >>> 16 );
+		if ( i < 0 )
+			return false;
+		final Container c = containers[ i ];
+		final int before = c.cardinality();
+		final Container r = c.remove( entry & 0xFFFF );
+		if ( r.cardinality() == before )
+			return false;
+		--size;
+		if ( r.cardinality() == 0 )
+			removeContainer( i );
+		else
+			containers[ i ] = r;
+		return true;
+	}
+
+	@Override
+	public void clear()
+	{
+		Arrays.fill( containers, 0, numContainers, null );
+		numContainers = 0;
+		size = 0;
+	}
+
+	@Override
+	public TIntIterator iterator()
+	{
+		return new BitmapIterator();
+	}
+
+	@Override
+	public boolean forEach( final TIntProcedure procedure )
+	{
+		for ( int i = 0; i < numContainers; ++i )
+			if ( !containers[ i ].forEach( procedure, keys[ i ] << 16 ) )
+				return false;
+		return true;
+	}
+
+	@Override
+	public int[] toArray()
+	{
+		return toArray( new int[ size ] );
+	}
+
+	@Override
+	public int[] toArray( int[] dest )
+	{
+		if ( dest.length < size )
+			dest = new int[ size ];
+		final int[] array = dest;
+		forEach( new TIntProcedure()
+		{
+			int i = 0;
+
+			@Override
+			public boolean execute( final int value )
+			{
+				array[ i++ ] = value;
+				return true;
+			}
+		} );
+		if ( dest.length > size )
+			dest[ size ] = no_entry_value;
+		return dest;
+	}
+
+	@Override
+	public boolean containsAll( final Collection< ? > collection )
+	{
+		for ( final Object element : collection )
+			if ( !( element instanceof Integer ) || !contains( ( ( Integer ) element ).intValue() ) )
+				return false;
+		return true;
+	}
+
+	@Override
+	public boolean containsAll( final TIntCollection collection )
+	{
+		if ( collection instanceof TIntBitmapSet )
+		{
+			final TIntBitmapSet other = ( TIntBitmapSet ) collection;
+			if ( other.size > size )
+				return false;
+			final TIntBitmapSet intersection = new TIntBitmapSet( other );
+			intersection.and( this );
+			return intersection.size == other.size;
+		}
+		final TIntIterator iter = collection.iterator();
+		while ( iter.hasNext() )
+			if ( !contains( iter.next() ) )
+				return false;
+		return true;
+	}
+
+	@Override
+	public boolean containsAll( final int[] array )
+	{
+		for ( final int i : array )
+			if ( !contains( i ) )
+				return false;
+		return true;
+	}
+
+	@Override
+	public boolean addAll( final Collection< ? extends Integer > collection )
+	{
+		boolean changed = false;
+		for ( final Integer element : collection )
+			changed |= add( element.intValue() );
+		return changed;
+	}
+
+	@Override
+	public boolean addAll( final TIntCollection collection )
+	{
+		if ( collection instanceof TIntBitmapSet )
+		{
+			final int before = size;
+			or( ( TIntBitmapSet ) collection );
+			return size != before;
+		}
+		boolean changed = false;
+		final TIntIterator iter = collection.iterator();
+		while ( iter.hasNext() )
+			changed |= add( iter.next() );
+		return changed;
+	}
+
+	@Override
+	public boolean addAll( final int[] array )
+	{
+		boolean changed = false;
+		for ( final int i : array )
+			changed |= add( i );
+		return changed;
+	}
+
+	@Override
+	public boolean retainAll( final Collection< ? > collection )
+	{
+		boolean changed = false;
+		final TIntIterator iter = iterator();
+		while ( iter.hasNext() )
+		{
+			if ( !collection.contains( Integer.valueOf( iter.next() ) ) )
+			{
+				iter.remove();
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	@Override
+	public boolean retainAll( final TIntCollection collection )
+	{
+		if ( collection == this )
+			return false;
+		if ( collection instanceof TIntBitmapSet )
+		{
+			final int before = size;
+			and( ( TIntBitmapSet ) collection );
+			return size != before;
+		}
+		boolean changed = false;
+		final TIntIterator iter = iterator();
+		while ( iter.hasNext() )
+		{
+			if ( !collection.contains( iter.next() ) )
+			{
+				iter.remove();
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	@Override
+	public boolean retainAll( final int[] array )
+	{
+		final int[] sorted = array.clone();
+		Arrays.sort( sorted );
+		boolean changed = false;
+		final TIntIterator iter = iterator();
+		while ( iter.hasNext() )
+		{
+			if ( Arrays.binarySearch( sorted, iter.next() ) < 0 )
+			{
+				iter.remove();
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	@Override
+	public boolean removeAll( final Collection< ? > collection )
+	{
+		boolean changed = false;
+		for ( final Object element : collection )
+			if ( element instanceof Integer )
+				changed |= remove( ( ( Integer ) element ).intValue() );
+		return changed;
+	}
+
+	@Override
+	public boolean removeAll( final TIntCollection collection )
+	{
+		if ( collection instanceof TIntBitmapSet )
+		{
+			final int before = size;
+			andNot( ( TIntBitmapSet ) collection );
+			return size != before;
+		}
+		boolean changed = false;
+		final TIntIterator iter = collection.iterator();
+		while ( iter.hasNext() )
+			changed |= remove( iter.next() );
+		return changed;
+	}
+
+	@Override
+	public boolean removeAll( final int[] array )
+	{
+		boolean changed = false;
+		for ( final int i : array )
+			changed |= remove( i );
+		return changed;
+	}
+
+	@Override
+	public boolean equals( final Object other )
+	{
+		if ( other == this )
+			return true;
+		if ( !( other instanceof TIntSet ) )
+			return false;
+		final TIntSet that = ( TIntSet ) other;
+		return that.size() == size && containsAll( that );
+	}
+
+	@Override
+	public int hashCode()
+	{
+		final int[] hash = new int[ 1 ];
+		forEach( value -> {
+			hash[ 0 ] += value;
+			return true;
+		} );
+		return hash[ 0 ];
+	}
+
+	@Override
+	public String toString()
+	{
+		final StringBuilder sb = new StringBuilder( "{" );
+		forEach( value -> {
+			if ( sb.length() > 1 )
+				sb.append( ", " );
+			sb.append( value );
+			return true;
+		} );
+		return sb.append( "}" ).toString();
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private int indexOfKey( final int high )
+	{
+		return Arrays.binarySearch( keys, 0, numContainers, high );
+	}
+
+	private void insertContainer( final int i, final int high, final Container container )
+	{
+		if ( numContainers == keys.length )
+		{
+			final int capacity = keys.length * 2;
+			keys = Arrays.copyOf( keys, capacity );
+			containers = Arrays.copyOf( containers, capacity );
+		}
+		System.arraycopy( keys, i, keys, i + 1, numContainers - i );
+		System.arraycopy( containers, i, containers, i + 1, numContainers - i );
+		keys[ i ] = high;
+		containers[ i ] = container;
+		++numContainers;
+	}
+
+	private void removeContainer( final int i )
+	{
+		System.arraycopy( keys, i + 1, keys, i, numContainers - i - 1 );
+		System.arraycopy( containers, i + 1, containers, i, numContainers - i - 1 );
+		containers[ --numContainers ] = null;
+	}
+
+	private void updateSize()
+	{
+		int s = 0;
+		for ( int i = 0; i < numContainers; ++i )
+			s += containers[ i ].cardinality();
+		size = s;
+	}
+
+	/**
+	 * Iterates values in ascending order. Values are fetched in small batches
+	 * from the containers. The iterator remembers the next value to look at
+	 * (rather than a container index), so removing the last returned value is
+	 * safe, even if that changes or removes its container.
+	 */
+	private class BitmapIterator implements TIntIterator
+	{
+		private final int[] buf = new int[ 128 ];
+
+		private int pos = 0;
+
+		private int len = 0;
+
+		/**
+		 * The smallest (unsigned) value that has not been fetched into
+		 * {@code buf} yet.
+		 */
+		private long resume = 0;
+
+		private int last;
+
+		private boolean canRemove = false;
+
+		@Override
+		public boolean hasNext()
+		{
+			return pos < len || fetch();
+		}
+
+		@Override
+		public int next()
+		{
+			if ( !hasNext() )
+				throw new java.util.NoSuchElementException();
+			canRemove = true;
+			return last = buf[ pos++ ];
+		}
+
+		@Override
+		public void remove()
+		{
+			if ( !canRemove )
+				throw new IllegalStateException();
+			canRemove = false;
+			TIntBitmapSet.this.remove( last );
+		}
+
+		private boolean fetch()
+		{
+			pos = 0;
+			len = 0;
+			while ( resume <= 0xFFFFFFFFL )
+			{
+				final int high = ( int ) ( resume >>> 16 );
+				int i = indexOfKey( high );
+				if ( i < 0 )
+					i = -i - 1;
+				if ( i >= numContainers )
+					break;
+				final int key = keys[ i ];
+				final int from = ( key == high ) ? ( int ) ( resume & 0xFFFF ) : 0;
+				len = containers[ i ].fill( from, buf, key << 16 );
+				if ( len > 0 )
+				{
+					resume = ( buf[ len - 1 ] & 0xFFFFFFFFL ) + 1;
+					return true;
+				}
+				resume = ( ( long ) key + 1 ) << 16;
+			}
+			resume = 0x100000000L;
+			return false;
+		}
+	}
+
+	/*
+	 * CONTAINER OPERATIONS
+	 *
+	 * Operations may modify (and return) their first argument. The second
+	 * argument (which may belong to a different set) is never modified.
+	 */
+
+	private static Container and( final Container a, final Container b )
+	{
+		if ( a instanceof ArrayContainer )
+			return ( ( ArrayContainer ) a ).filter( b, true );
+		if ( b instanceof ArrayContainer )
+			return ( ( ArrayContainer ) b.copy() ).filter( a, true );
+		final BitmapContainer ba = a.toBitmap();
+		final long[] wa = ba.words;
+		final long[] wb = b.toBitmap().words;
+		for ( int i = 0; i < BITMAP_WORDS; ++i )
+			wa[ i ] &= wb[ i ];
+		return ba.repair();
+	}
+
+	private static Container or( final Container a, final Container b )
+	{
+		if ( a instanceof ArrayContainer && b instanceof ArrayContainer )
+			return ( ( ArrayContainer ) a ).merge( ( ArrayContainer ) b );
+		final BitmapContainer ba = a.toBitmap();
+		b.setBits( ba.words );
+		return ba.repair();
+	}
+
+	private static Container andNot( final Container a, final Container b )
+	{
+		if ( a instanceof ArrayContainer )
+			return ( ( ArrayContainer ) a ).filter( b, false );
+		final BitmapContainer ba = a.toBitmap();
+		b.clearBits( ba.words );
+		return ba.repair();
+	}
+
+	/*
+	 * CONTAINERS
+	 */
+
+	private static abstract class Container
+	{
+		abstract int cardinality();
+
+		abstract boolean contains( int low );
+
+		/**
+		 * Adds {@code low}, returns the container that holds the result
+		 * (either {@code this} or a converted container).
+		 */
+		abstract Container add( int low );
+
+		/**
+		 * Removes {@code low}, returns the container that holds the result
+		 * (either {@code this} or a converted container).
+		 */
+		abstract Container remove( int low );
+
+		/**
+		 * Writes values {@code >= from} (combined with {@code high}) into
+		 * {@code buf}, in ascending order, until {@code buf} is full.
+		 *
+		 * @return the number of values written.
+		 */
+		abstract int fill( int from, int[] buf, int high );
+
+		abstract boolean forEach( TIntProcedure procedure, int high );
+
+		/**
+		 * Returns a bitmap container with the same content. Bitmap
+		 * containers return themselves.
+		 */
+		abstract BitmapContainer toBitmap();
+
+		abstract void setBits( long[] words );
+
+		abstract void clearBits( long[] words );
+
+		abstract Container runOptimize();
+
+		abstract Container copy();
+
+		abstract int sizeInBytes();
+	}
+
+	private static final class ArrayContainer extends Container
+	{
+		private char[] content;
+
+		private int cardinality;
+
+		ArrayContainer()
+		{
+			this( new char[ 4 ], 0 );
+		}
+
+		ArrayContainer( final char[] content, final int cardinality )
+		{
+			this.content = content;
+			this.cardinality = cardinality;
+		}
+
+		@Override
+		int cardinality()
+		{
+			return cardinality;
+		}
+
+		@Override
+		boolean contains( final int low )
+		{
+			return Arrays.binarySearch( content, 0, cardinality, ( char ) low ) >= 0;
+		}
+
+		@Override
+		Container add( final int low )
+		{
+			int i = Arrays.binarySearch( content, 0, cardinality, ( char ) low );
+			if ( i >= 0 )
+				return this;
+			if ( cardinality >= ARRAY_MAX_SIZE )
+				return toBitmap().add( low );
+			i = -i - 1;
+			if ( cardinality == content.length )
+				content = Arrays.copyOf( content, Math.min( ARRAY_MAX_SIZE, cardinality * 2 ) );
+			System.arraycopy( content, i, content, i + 1, cardinality - i );
+			content[ i ] = ( char ) low;
+			++cardinality;
+			return this;
+		}
+
+		@Override
+		Container remove( final int low )
+		{
+			final int i = Arrays.binarySearch( content, 0, cardinality, ( char ) low );
+			if ( i >= 0 )
+			{
+				System.arraycopy( content, i + 1, content, i, cardinality - i - 1 );
+				--cardinality;
+			}
+			return this;
+		}
+
+		@Override
+		int fill( final int from, final int[] buf, final int high )
+		{
+			int i = Arrays.binarySearch( content, 0, cardinality, ( char ) from );
+			if ( i < 0 )
+				i = -i - 1;
+			final int len = Math.min( buf.length, cardinality - i );
+			for ( int j = 0; j < len; ++j )
+				buf[ j ] = high | content[ i + j ];
+			return len;
+		}
+
+		@Override
+		boolean forEach( final TIntProcedure procedure, final int high )
+		{
+			for ( int i = 0; i < cardinality; ++i )
+				if ( !procedure.execute( high | content[ i ] ) )
+					return false;
+			return true;
+		}
+
+		@Override
+		BitmapContainer toBitmap()
+		{
+			final BitmapContainer bitmap = new BitmapContainer();
+			setBits( bitmap.words );
+			bitmap.cardinality = cardinality;
+			return bitmap;
+		}
+
+		@Override
+		void setBits( final long[] words )
+		{
+			for ( int i = 0; i < cardinality; ++i )
+			{
+				final int low = content[ i ];
+				words[ low >>> 6 ] |= 1L << low;
+			}
+		}
+
+		@Override
+		void clearBits( final long[] words )
+		{
+			for ( int i = 0; i < cardinality; ++i )
+			{
+				final int low = content[ i ];
+				words[ low >>> 6 ] &= ~( 1L << low );
+			}
+		}
+
+		/**
+		 * Keeps only values that are ({@code keep == true}) or are not
+		 * ({@code keep == false}) contained in {@code other}.
+		 */
+		Container filter( final Container other, final boolean keep )
+		{
+			int k = 0;
+			for ( int i = 0; i < cardinality; ++i )
+			{
+				final char low = content[ i ];
+				if ( other.contains( low ) == keep )
+					content[ k++ ] = low;
+			}
+			cardinality = k;
+			return this;
+		}
+
+		Container merge( final ArrayContainer other )
+		{
+			final char[] merged = new char[ cardinality + other.cardinality ];
+			int i = 0;
+			int j = 0;
+			int k = 0;
+			while ( i < cardinality && j < other.cardinality )
+			{
+				final char a = content[ i ];
+				final char b = other.content[ j ];
+				if ( a < b )
+				{
+					merged[ k++ ] = a;
+					++i;
+				}
+				else if ( b < a )
+				{
+					merged[ k++ ] = b;
+					++j;
+				}
+				else
+				{
+					merged[ k++ ] = a;
+					++i;
+					++j;
+				}
+			}
+			while ( i < cardinality )
+				merged[ k++ ] = content[ i++ ];
+			while ( j < other.cardinality )
+				merged[ k++ ] = other.content[ j++ ];
+			final ArrayContainer result = new ArrayContainer( merged, k );
+			return k > ARRAY_MAX_SIZE ? result.toBitmap() : result;
+		}
+
+		@Override
+		Container runOptimize()
+		{
+			if ( cardinality == 0 )
+				return this;
+			int numRuns = 1;
+			for ( int i = 1; i < cardinality; ++i )
+				if ( content[ i ] != content[ i - 1 ] + 1 )
+					++numRuns;
+			if ( RunContainer.sizeInBytes( numRuns ) >= 2 * cardinality )
+				return this;
+			final RunContainer run = new RunContainer( numRuns, cardinality );
+			int start = content[ 0 ];
+			int prev = start;
+			int r = 0;
+			for ( int i = 1; i < cardinality; ++i )
+			{
+				final int low = content[ i ];
+				if ( low != prev + 1 )
+				{
+					run.setRun( r++, start, prev );
+					start = low;
+				}
+				prev = low;
+			}
+			run.setRun( r, start, prev );
+			return run;
+		}
+
+		@Override
+		Container copy()
+		{
+			return new ArrayContainer( Arrays.copyOf( content, Math.max( 4, cardinality ) ), cardinality );
+		}
+
+		@Override
+		int sizeInBytes()
+		{
+			return 2 * content.length;
+		}
+	}
+
+	private static final class BitmapContainer extends Container
+	{
+		private final long[] words;
+
+		private int cardinality;
+
+		BitmapContainer()
+		{
+			this( new long[ BITMAP_WORDS ], 0 );
+		}
+
+		BitmapContainer( final long[] words, final int cardinality )
+		{
+			this.words = words;
+			this.cardinality = cardinality;
+		}
+
+		@Override
+		int cardinality()
+		{
+			return cardinality;
+		}
+
+		@Override
+		boolean contains( final int low )
+		{
+			return ( words[ low >>> 6 ] & ( 1L << low ) ) != 0;
+		}
+
+		@Override
+		Container add( final int low )
+		{
+			final int i = low >>> 6;
+			final long w = words[ i ];
+			final long nw = w | ( 1L << low );
+			if ( nw != w )
+			{
+				words[ i ] = nw;
+				++cardinality;
+			}
+			return this;
+		}
+
+		@Override
+		Container remove( final int low )
+		{
+			final int i = low >>> 6;
+			final long w = words[ i ];
+			final long nw = w & ~( 1L << low );
+			if ( nw != w )
+			{
+				words[ i ] = nw;
+				--cardinality;
+				if ( cardinality <= ARRAY_MAX_SIZE )
+					return toArray();
+			}
+			return this;
+		}
+
+		@Override
+		int fill( final int from, final int[] buf, final int high )
+		{
+			int len = 0;
+			int i = from >>> 6;
+			long w = words[ i ] & ( -1L << from );
+			while ( true )
+			{
+				while ( w != 0 )
+				{
+					if ( len == buf.length )
+						return len;
+					final long t = w & -w;
+					buf[ len++ ] = high | ( i << 6 ) | Long.numberOfTrailingZeros( w );
+					w ^= t;
+				}
+				if ( ++i == BITMAP_WORDS )
+					return len;
+				w = words[ i ];
+			}
+		}
+
+		@Override
+		boolean forEach( final TIntProcedure procedure, final int high )
+		{
+			for ( int i = 0; i < BITMAP_WORDS; ++i )
+			{
+				long w = words[ i ];
+				while ( w != 0 )
+				{
+					final long t = w & -w;
+					if ( !procedure.execute( high | ( i << 6 ) | Long.numberOfTrailingZeros( w ) ) )
+						return false;
+					w ^= t;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		BitmapContainer toBitmap()
+		{
+			return this;
+		}
+
+		@Override
+		void setBits( final long[] words )
+		{
+			for ( int i = 0; i < BITMAP_WORDS; ++i )
+				words[ i ] |= this.words[ i ];
+		}
+
+		@Override
+		void clearBits( final long[] words )
+		{
+			for ( int i = 0; i < BITMAP_WORDS; ++i )
+				words[ i ] &= ~this.words[ i ];
+		}
+
+		/**
+		 * Recomputes the cardinality after bulk modification of
+		 * {@link #words}. Returns an equivalent array container if the
+		 * cardinality is small enough.
+		 */
+		Container repair()
+		{
+			int c = 0;
+			for ( int i = 0; i < BITMAP_WORDS; ++i )
+				c += Long.bitCount( words[ i ] );
+			cardinality = c;
+			return c <= ARRAY_MAX_SIZE ? toArray() : this;
+		}
+
+		private ArrayContainer toArray()
+		{
+			final char[] content = new char[ Math.max( 4, cardinality ) ];
+			int k = 0;
+			for ( int i = 0; i < BITMAP_WORDS; ++i )
+			{
+				long w = words[ i ];
+				while ( w != 0 )
+				{
+					final long t = w & -w;
+					content[ k++ ] = ( char ) ( ( i << 6 ) | Long.numberOfTrailingZeros( w ) );
+					w ^= t;
+				}
+			}
+			return new ArrayContainer( content, cardinality );
+		}
+
+		@Override
+		Container runOptimize()
+		{
+			int numRuns = 0;
+			long carry = 0;
+			for ( int i = 0; i < BITMAP_WORDS; ++i )
+			{
+				final long w = words[ i ];
+				numRuns += Long.bitCount( w & ~( ( w << 1 ) | carry ) );
+				carry = w >>> 63;
+			}
+			if ( RunContainer.sizeInBytes( numRuns ) >= 8 * BITMAP_WORDS )
+				return this;
+			final RunContainer run = new RunContainer( numRuns, cardinality );
+			int r = 0;
+			int start = -1;
+			for ( int low = 0; low < 65536; ++low )
+			{
+				final boolean set = contains( low );
+				if ( set && start < 0 )
+					start = low;
+				else if ( !set && start >= 0 )
+				{
+					run.setRun( r++, start, low - 1 );
+					start = -1;
+				}
+			}
+			if ( start >= 0 )
+				run.setRun( r, start, 65535 );
+			return run;
+		}
+
+		@Override
+		Container copy()
+		{
+			return new BitmapContainer( words.clone(), cardinality );
+		}
+
+		@Override
+		int sizeInBytes()
+		{
+			return 8 * BITMAP_WORDS;
+		}
+	}
+
+	private static final class RunContainer extends Container
+	{
+		/**
+		 * Pairs of (start, length - 1) for each run.
+		 */
+		private final char[] runs;
+
+		private final int numRuns;
+
+		private final int cardinality;
+
+		RunContainer( final int numRuns, final int cardinality )
+		{
+			this.runs = new char[ 2 * numRuns ];
+			this.numRuns = numRuns;
+			this.cardinality = cardinality;
+		}
+
+		static int sizeInBytes( final int numRuns )
+		{
+			return 2 + 4 * numRuns;
+		}
+
+		void setRun( final int r, final int first, final int last )
+		{
+			runs[ 2 * r ] = ( char ) first;
+			runs[ 2 * r + 1 ] = ( char ) ( last - first );
+		}
+
+		private int start( final int r )
+		{
+			return runs[ 2 * r ];
+		}
+
+		private int end( final int r )
+		{
+			return runs[ 2 * r ] + runs[ 2 * r + 1 ];
+		}
+
+		/**
+		 * Returns the index of the last run starting at or before
+		 * {@code low}, or -1 if there is no such run.
+		 */
+		private int findRun( final int low )
+		{
+			int lo = 0;
+			int hi = numRuns - 1;
+			while ( lo <= hi )
+			{
+				final int mid = ( lo + hi ) >>> 1;
+				if ( start( mid ) <= low )
+					lo = mid + 1;
+				else
+					hi = mid - 1;
+			}
+			return hi;
+		}
+
+		@Override
+		int cardinality()
+		{
+			return cardinality;
+		}
+
+		@Override
+		boolean contains( final int low )
+		{
+			final int r = findRun( low );
+			return r >= 0 && low <= end( r );
+		}
+
+		private Container toEfficientContainer()
+		{
+			if ( cardinality <= ARRAY_MAX_SIZE )
+			{
+				final char[] content = new char[ Math.max( 4, cardinality ) ];
+				int k = 0;
+				for ( int r = 0; r < numRuns; ++r )
+					for ( int low = start( r ); low <= end( r ); ++low )
+						content[ k++ ] = ( char ) low;
+				return new ArrayContainer( content, cardinality );
+			}
+			return toBitmap();
+		}
+
+		@Override
+		Container add( final int low )
+		{
+			return contains( low ) ? this : toEfficientContainer().add( low );
+		}
+
+		@Override
+		Container remove( final int low )
+		{
+			return contains( low ) ? toEfficientContainer().remove( low ) : this;
+		}
+
+		@Override
+		int fill( final int from, final int[] buf, final int high )
+		{
+			int len = 0;
+			int r = Math.max( 0, findRun( from ) );
+			for ( ; r < numRuns; ++r )
+			{
+				final int end = end( r );
+				for ( int low = Math.max( from, start( r ) ); low <= end; ++low )
+				{
+					if ( len == buf.length )
+						return len;
+					buf[ len++ ] = high | low;
+				}
+			}
+			return len;
+		}
+
+		@Override
+		boolean forEach( final TIntProcedure procedure, final int high )
+		{
+			for ( int r = 0; r < numRuns; ++r )
+			{
+				final int end = end( r );
+				for ( int low = start( r ); low <= end; ++low )
+					if ( !procedure.execute( high | low ) )
+						return false;
+			}
+			return true;
+		}
+
+		@Override
+		BitmapContainer toBitmap()
+		{
+			final BitmapContainer bitmap = new BitmapContainer();
+			setBits( bitmap.words );
+			bitmap.cardinality = cardinality;
+			return bitmap;
+		}
+
+		@Override
+		void setBits( final long[] words )
+		{
+			for ( int r = 0; r < numRuns; ++r )
+				setRange( words, start( r ), end( r ) + 1, true );
+		}
+
+		@Override
+		void clearBits( final long[] words )
+		{
+			for ( int r = 0; r < numRuns; ++r )
+				setRange( words, start( r ), end( r ) + 1, false );
+		}
+
+		/**
+		 * Sets or clears bits {@code [from, to)}.
+		 */
+		private static void setRange( final long[] words, final int from, final int to, final boolean set )
+		{
+			final int firstWord = from >>> 6;
+			final int lastWord = ( to - 1 ) >>> 6;
+			final long firstMask = -1L << from;
+			final long lastMask = -1L >>> -to;
+			for ( int i = firstWord; i <= lastWord; ++i )
+			{
+				long mask = -1L;
+				if ( i == firstWord )
+					mask &= firstMask;
+				if ( i == lastWord )
+					mask &= lastMask;
+				if ( set )
+					words[ i ] |= mask;
+				else
+					words[ i ] &= ~mask;
+			}
+		}
+
+		@Override
+		Container runOptimize()
+		{
+			return this;
+		}
+
+		@Override
+		Container copy()
+		{
+			final RunContainer copy = new RunContainer( numRuns, cardinality );
+			System.arraycopy( runs, 0, copy.runs, 0, runs.length );
+			return copy;
+		}
+
+		@Override
+		int sizeInBytes()
+		{
+			return sizeInBytes( numRuns );
+		}
+	}
+}
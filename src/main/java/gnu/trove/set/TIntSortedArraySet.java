@@ -0,0 +1,434 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package gnu.trove.set;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.NoSuchElementException;
+
+import gnu.trove.TIntCollection;
+import gnu.trove.impl.Constants;
+import gnu.trove.iterator.TIntIterator;
+import gnu.trove.procedure.TIntProcedure;
+
+/**
+ * An immutable {@link TIntSet} backed by a sorted {@code int[]} of distinct
+ * values.
+ * <p>
+ * This uses 4 bytes per value, {@link #contains(int)} is a binary search, and
+ * iteration is sequential in ascending order. Intersections with other
+ * {@link TIntSortedArraySet}s (see {@link #intersection(TIntSortedArraySet)})
+ * use galloping (exponential) search, which is linear in the size of the
+ * smaller set if the sizes differ a lot, and degrades gracefully to a plain
+ * merge if they are similar.
+ * <p>
+ * All modifying methods throw {@link UnsupportedOperationException}.
+ */
+public class TIntSortedArraySet implements TIntSet
+{
+	/**
+	 * Sorted, distinct values.
+	 */
+	private final int[] values;
+
+	private final int no_entry_value;
+
+	/*
+	 * CONSTRUCTORS
+	 */
+
+	/**
+	 * Creates a set of the values in {@code collection}.
+	 *
+	 * @param collection
+	 *            the values to store.
+	 */
+	public TIntSortedArraySet( final TIntCollection collection )
+	{
+		this( sortedDistinct( collection.toArray(), collection instanceof TIntSortedArraySet ), collection.getNoEntryValue() );
+	}
+
+	/**
+	 * Creates a set of the values in {@code array}.
+	 *
+	 * @param array
+	 *            the values to store. The array is not modified.
+	 */
+	public TIntSortedArraySet( final int[] array )
+	{
+		this( sortedDistinct( array.clone(), false ), Constants.DEFAULT_INT_NO_ENTRY_VALUE );
+	}
+
+	private TIntSortedArraySet( final int[] values, final int no_entry_value )
+	{
+		this.values = values;
+		this.no_entry_value = no_entry_value;
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Returns the value at position {@code i} in ascending order.
+	 *
+	 * @param i
+	 *            the position, {@code 0 <= i < size()}.
+	 * @return the {@code i}-th smallest value.
+	 */
+	public int get( final int i )
+	{
+		return values[ i ];
+	}
+
+	/**
+	 * Computes the intersection of this set and {@code other}.
+	 *
+	 * @param other
+	 *            the set to intersect with.
+	 * @return a new set containing the values present in both sets.
+	 */
+	public TIntSortedArraySet intersection( final TIntSortedArraySet other )
+	{
+		return new TIntSortedArraySet( intersect( values, other.values ), no_entry_value );
+	}
+
+	/**
+	 * Intersects two sorted arrays of distinct values, using galloping search
+	 * in the larger array for each value of the smaller array.
+	 *
+	 * @param a
+	 *            sorted array of distinct values.
+	 * @param b
+	 *            sorted array of distinct values.
+	 * @return sorted array of the values contained in both {@code a} and
+	 *         {@code b}.
+	 */
+	public static int[] intersect( final int[] a, final int[] b )
+	{
+		final int[] small = a.length <= b.length ? a : b;
+		final int[] large = small == a ? b : a;
+		final int[] intersection = new int[ small.length ];
+		int n = 0;
+		int lo = 0;
+		for ( int i = 0; i < small.length && lo < large.length; ++i )
+		{
+			final int value = small[ i ];
+			lo = gallop( large, lo, value );
+			if ( lo < large.length && large[ lo ] == value )
+			{
+				intersection[ n++ ] = value;
+				++lo;
+			}
+		}
+		return n == intersection.length ? intersection : Arrays.copyOf( intersection, n );
+	}
+
+	/**
+	 * Returns the smallest index {@code i >= from} such that
+	 * {@code array[i] >= value}, or {@code array.length} if there is no such
+	 * index. The range is first bracketed by doubling steps, then
+	 * binary-searched.
+	 */
+	private static int gallop( final int[] array, final int from, final int value )
+	{
+		int step = 1;
+		int lo = from;
+		int hi = from;
+		while ( hi < array.length && array[ hi ] < value )
+		{
+			lo = hi + 1;
+			hi += step;
+			step <<= 1;
+		}
+		hi = Math.min( hi, array.length );
+		// invariant: array[lo-1] < value (or lo == from), array[hi] >= value (or hi == length)
+		while ( lo < hi )
+		{
+			final int mid = ( lo + hi ) >>> 1;
+			if ( array[ mid ] < value )
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Returns the approximate memory used by this set.
+	 *
+	 * @return size of this set in bytes.
+	 */
+	public long getSizeInBytes()
+	{
+		return 4L * values.length;
+	}
+
+	@Override
+	public int getNoEntryValue()
+	{
+		return no_entry_value;
+	}
+
+	@Override
+	public int size()
+	{
+		return values.length;
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		return values.length == 0;
+	}
+
+	@Override
+	public boolean contains( final int entry )
+	{
+		return Arrays.binarySearch( values, entry ) >= 0;
+	}
+
+	@Override
+	public TIntIterator iterator()
+	{
+		return new Iter();
+	}
+
+	@Override
+	public boolean forEach( final TIntProcedure procedure )
+	{
+		for ( final int value : values )
+			if ( !procedure.execute( value ) )
+				return false;
+		return true;
+	}
+
+	@Override
+	public int[] toArray()
+	{
+		return values.clone();
+	}
+
+	@Override
+	public int[] toArray( final int[] dest )
+	{
+		if ( dest.length < values.length )
+			return values.clone();
+		System.arraycopy( values, 0, dest, 0, values.length );
+		if ( dest.length > values.length )
+			dest[ values.length ] = no_entry_value;
+		return dest;
+	}
+
+	@Override
+	public boolean containsAll( final Collection< ? > collection )
+	{
+		for ( final Object element : collection )
+			if ( !( element instanceof Integer ) || !contains( ( ( Integer ) element ).intValue() ) )
+				return false;
+		return true;
+	}
+
+	@Override
+	public boolean containsAll( final TIntCollection collection )
+	{
+		if ( collection instanceof TIntSortedArraySet )
+		{
+			final int[] other = ( ( TIntSortedArraySet ) collection ).values;
+			return other.length <= values.length && intersect( values, other ).length == other.length;
+		}
+		final TIntIterator iter = collection.iterator();
+		while ( iter.hasNext() )
+			if ( !contains( iter.next() ) )
+				return false;
+		return true;
+	}
+
+	@Override
+	public boolean containsAll( final int[] array )
+	{
+		for ( final int i : array )
+			if ( !contains( i ) )
+				return false;
+		return true;
+	}
+
+	@Override
+	public boolean add( final int entry )
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean remove( final int entry )
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void clear()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean addAll( final Collection< ? extends Integer > collection )
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean addAll( final TIntCollection collection )
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean addAll( final int[] array )
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean retainAll( final Collection< ? > collection )
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean retainAll( final TIntCollection collection )
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean retainAll( final int[] array )
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean removeAll( final Collection< ? > collection )
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean removeAll( final TIntCollection collection )
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean removeAll( final int[] array )
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean equals( final Object other )
+	{
+		if ( other == this )
+			return true;
+		if ( !( other instanceof TIntSet ) )
+			return false;
+		final TIntSet that = ( TIntSet ) other;
+		return that.size() == values.length && containsAll( that );
+	}
+
+	@Override
+	public int hashCode()
+	{
+		int hash = 0;
+		for ( final int value : values )
+			hash += value;
+		return hash;
+	}
+
+	@Override
+	public String toString()
+	{
+		final StringBuilder sb = new StringBuilder( "{" );
+		for ( int i = 0; i < values.length; ++i )
+		{
+			if ( i > 0 )
+				sb.append( ", " );
+			sb.append( values[ i ] );
+		}
+		return sb.append( "}" ).toString();
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * Sorts {@code array} in place (unless {@code sorted}) and removes
+	 * duplicates.
+	 */
+	private static int[] sortedDistinct( final int[] array, final boolean sorted )
+	{
+		if ( !sorted )
+			Arrays.sort( array );
+		int n = 0;
+		for ( int i = 0; i < array.length; ++i )
+			if ( n == 0 || array[ i ] != array[ n - 1 ] )
+				array[ n++ ] = array[ i ];
+		return n == array.length ? array : Arrays.copyOf( array, n );
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	private class Iter implements TIntIterator
+	{
+		private int i = 0;
+
+		@Override
+		public boolean hasNext()
+		{
+			return i < values.length;
+		}
+
+		@Override
+		public int next()
+		{
+			if ( i >= values.length )
+				throw new NoSuchElementException();
+			return values[ i++ ];
+		}
+
+		@Override
+		public void remove()
+		{
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -38,11 +38,15 @@ import java.util.List;
 import java.util.Set;
 
 import org.mastodon.RefPool;
+import org.mastodon.collection.ref.FrozenRefSet;
+import org.mastodon.collection.ref.IntBackedRefCollection;
 import org.mastodon.collection.ref.RefArrayDeque;
 import org.mastodon.collection.ref.RefArrayList;
 import org.mastodon.collection.ref.RefArrayStack;
+import org.mastodon.collection.ref.RefBitmapSet;
 import org.mastodon.collection.ref.RefPoolBackedRefCollection;
 import org.mastodon.collection.ref.RefSetImp;
+import org.mastodon.collection.ref.RefStampedSet;
 import org.mastodon.collection.wrap.RefCollectionWrapper;
 import org.mastodon.collection.wrap.RefDequeWrapper;
 import org.mastodon.collection.wrap.RefListWrapper;
@@ -96,6 +100,63 @@ public class RefCollections
 			return wrap( new HashSet< O >( initialCapacity ) );
 	}
 
+	/**
+	 * Creates a {@link RefSet} backed by a compressed bitmap of pool indices
+	 * (see {@link RefBitmapSet}), if {@code collection} is backed by a pool.
+	 * Otherwise, a wrapped {@link HashSet} is returned.
+	 *
+	 * @param collection
+	 *            the collection whose objects will be stored in the set.
+	 * @return a new, empty set.
+	 */
+	public static < O > RefSet< O > createRefBitmapSet( final RefCollection< O > collection )
+	{
+		final RefPool< O > pool = tryGetRefPool( collection );
+		if ( pool != null )
+			return new RefBitmapSet<>( pool );
+		else
+			return wrap( new HashSet< O >() );
+	}
+
+	/**
+	 * Creates a {@link RefSet} that can be cleared in constant time (see
+	 * {@link RefStampedSet}), if {@code collection} is backed by a pool. This
+	 * is intended for scratch sets that are cleared and reused many times.
+	 * Otherwise, a wrapped {@link HashSet} is returned.
+	 *
+	 * @param collection
+	 *            the collection whose objects will be stored in the set.
+	 * @return a new, empty set.
+	 */
+	public static < O > RefSet< O > createRefStampedSet( final RefCollection< O > collection )
+	{
+		final RefPool< O > pool = tryGetRefPool( collection );
+		if ( pool != null )
+			return new RefStampedSet<>( pool );
+		else
+			return wrap( new HashSet< O >() );
+	}
+
+	/**
+	 * Creates an immutable copy of {@code set} for read-only queries.
+	 * <p>
+	 * If {@code set} is backed by pool indices, the copy is a
+	 * {@link FrozenRefSet}, backed by a sorted array of pool indices.
+	 * Otherwise, an unmodifiable wrapped {@link HashSet} is returned.
+	 *
+	 * @param set
+	 *            the set to copy.
+	 * @return an immutable set with the same elements as {@code set}.
+	 */
+	public static < O > RefSet< O > freeze( final RefSet< O > set )
+	{
+		final RefPool< O > pool = tryGetRefPool( set );
+		if ( pool != null && set instanceof IntBackedRefCollection )
+			return new FrozenRefSet<>( pool, ( ( IntBackedRefCollection< ? > ) set ).getIndexCollection() );
+		else
+			return wrap( Collections.unmodifiableSet( new HashSet<>( set ) ) );
+	}
+
 	public static < O > RefList< O > createRefList( final RefCollection< O > collection )
 	{
 		final RefPool< O > pool = tryGetRefPool( collection );
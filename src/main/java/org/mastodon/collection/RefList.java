@@ -31,6 +31,9 @@ package org.mastodon.collection;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Random;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
 
 /**
  * A {@link List} that is a {@link RefCollection}. It provides variants of
@@ -148,6 +151,55 @@ public interface RefList< O > extends RefCollection< O >, List< O >
 	@Override
 	public void sort( Comparator< ? super O > comparator );
 
+	/**
+	 * Sort the values in the list, in ascending order of the {@code int} keys
+	 * computed by the specified function. The sort is stable.
+	 * <p>
+	 * The key of each element is computed exactly once. Depending on concrete
+	 * implementation, the object passed to {@code key} may be a reference
+	 * object that is re-used for other elements.
+	 *
+	 * @param key
+	 *            computes the sort key of an element.
+	 */
+	public default void sortByInt( final ToIntFunction< ? super O > key )
+	{
+		RefListSorts.sortByInt( this, key );
+	}
+
+	/**
+	 * Sort the values in the list, in ascending order of the {@code long} keys
+	 * computed by the specified function. The sort is stable.
+	 * <p>
+	 * The key of each element is computed exactly once. Depending on concrete
+	 * implementation, the object passed to {@code key} may be a reference
+	 * object that is re-used for other elements.
+	 *
+	 * @param key
+	 *            computes the sort key of an element.
+	 */
+	public default void sortByLong( final ToLongFunction< ? super O > key )
+	{
+		RefListSorts.sortByLong( this, key );
+	}
+
+	/**
+	 * Sort the values in the list, in ascending order of the {@code double}
+	 * keys computed by the specified function. Keys are ordered as by
+	 * {@link Double#compare(double, double)}. The sort is stable.
+	 * <p>
+	 * The key of each element is computed exactly once. Depending on concrete
+	 * implementation, the object passed to {@code key} may be a reference
+	 * object that is re-used for other elements.
+	 *
+	 * @param key
+	 *            computes the sort key of an element.
+	 */
+	public default void sortByDouble( final ToDoubleFunction< ? super O > key )
+	{
+		RefListSorts.sortByDouble( this, key );
+	}
+
 	/**
 	 * Swaps the elements at the specified positions in this list.
 	 *
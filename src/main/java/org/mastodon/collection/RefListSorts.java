@@ -0,0 +1,112 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection;
+
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+import org.mastodon.collection.algorithm.PrimitiveKeySort;
+
+/**
+ * Default implementations of the primitive-key sorts of {@link RefList}.
+ * <p>
+ * The key of each element is computed once, in iteration order, into a
+ * primitive array. The positions of the elements are sorted by these keys
+ * with {@link PrimitiveKeySort}, and the resulting permutation is applied to
+ * the list with {@link RefList#swap(int, int)}.
+ */
+final class RefListSorts
+{
+	static < O > void sortByInt( final RefList< O > list, final ToIntFunction< ? super O > key )
+	{
+		final int[] keys = new int[ list.size() ];
+		int i = 0;
+		for ( final O obj : list )
+			keys[ i++ ] = key.applyAsInt( obj );
+		final int[] order = positions( keys.length );
+		PrimitiveKeySort.sort( keys, order );
+		permute( list, order );
+	}
+
+	static < O > void sortByLong( final RefList< O > list, final ToLongFunction< ? super O > key )
+	{
+		final long[] keys = new long[ list.size() ];
+		int i = 0;
+		for ( final O obj : list )
+			keys[ i++ ] = key.applyAsLong( obj );
+		final int[] order = positions( keys.length );
+		PrimitiveKeySort.sort( keys, order );
+		permute( list, order );
+	}
+
+	static < O > void sortByDouble( final RefList< O > list, final ToDoubleFunction< ? super O > key )
+	{
+		final double[] keys = new double[ list.size() ];
+		int i = 0;
+		for ( final O obj : list )
+			keys[ i++ ] = key.applyAsDouble( obj );
+		final int[] order = positions( keys.length );
+		PrimitiveKeySort.sort( keys, order );
+		permute( list, order );
+	}
+
+	private static int[] positions( final int size )
+	{
+		final int[] positions = new int[ size ];
+		for ( int i = 0; i < size; ++i )
+			positions[ i ] = i;
+		return positions;
+	}
+
+	/**
+	 * Reorders {@code list} such that the element at position {@code i}
+	 * afterwards is the element that was at position {@code order[i]} before.
+	 */
+	private static void permute( final RefList< ? > list, final int[] order )
+	{
+		// target[ p ] is the position the element currently at p has to go to
+		final int[] target = new int[ order.length ];
+		for ( int i = 0; i < order.length; ++i )
+			target[ order[ i ] ] = i;
+		for ( int i = 0; i < target.length; ++i )
+		{
+			while ( target[ i ] != i )
+			{
+				final int j = target[ i ];
+				list.swap( i, j );
+				target[ i ] = target[ j ];
+				target[ j ] = j;
+			}
+		}
+	}
+
+	private RefListSorts()
+	{}
+}
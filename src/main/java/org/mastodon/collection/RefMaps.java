@@ -35,16 +35,27 @@ import java.util.Map;
 
 import org.mastodon.RefPool;
 import org.mastodon.collection.ref.IntRefHashMap;
+import org.mastodon.collection.ref.LongRefHashMap;
 import org.mastodon.collection.ref.ObjectRefHashMap;
+import org.mastodon.collection.ref.RefByteHashMap;
 import org.mastodon.collection.ref.RefDoubleHashMap;
+import org.mastodon.collection.ref.RefFloatHashMap;
 import org.mastodon.collection.ref.RefIntHashMap;
+import org.mastodon.collection.ref.RefIntStampedMap;
+import org.mastodon.collection.ref.RefLongHashMap;
 import org.mastodon.collection.ref.RefObjectHashMap;
 import org.mastodon.collection.ref.RefPoolBackedRefCollection;
 import org.mastodon.collection.ref.RefRefHashMap;
+import org.mastodon.collection.ref.RefShortHashMap;
 import org.mastodon.collection.wrap.IntRefMapWrapper;
+import org.mastodon.collection.wrap.LongRefMapWrapper;
+import org.mastodon.collection.wrap.RefByteMapWrapper;
 import org.mastodon.collection.wrap.RefDoubleMapWrapper;
+import org.mastodon.collection.wrap.RefFloatMapWrapper;
 import org.mastodon.collection.wrap.RefIntMapWrapper;
+import org.mastodon.collection.wrap.RefLongMapWrapper;
 import org.mastodon.collection.wrap.RefRefMapWrapper;
+import org.mastodon.collection.wrap.RefShortMapWrapper;
 import org.mastodon.pool.Pool;
 
 /**
@@ -175,6 +186,27 @@ public class RefMaps
 			return new RefIntMapWrapper<>( noEntryValue, initialCapacity );
 	}
 
+	/**
+	 * Creates a {@link RefIntMap} that can be cleared in constant time (see
+	 * {@link RefIntStampedMap}), if {@code keyCollection} is backed by a pool.
+	 * This is intended for scratch maps that are cleared and reused many
+	 * times. Otherwise, a wrapped standard map is returned.
+	 *
+	 * @param keyCollection
+	 *            the collection whose objects will be the keys of the map.
+	 * @param noEntryValue
+	 *            the value returned for keys that are not in the map.
+	 * @return a new, empty map.
+	 */
+	public static < K > RefIntMap< K > createRefIntStampedMap( final RefCollection< K > keyCollection, final int noEntryValue )
+	{
+		final RefPool< K > pool = tryGetRefPool( keyCollection );
+		if ( pool != null )
+			return new RefIntStampedMap<>( pool, noEntryValue );
+		else
+			return new RefIntMapWrapper<>( noEntryValue );
+	}
+
 	public static < K > RefDoubleMap< K > createRefDoubleMap( final RefCollection< K > keyCollection, final double noEntryValue )
 	{
 		final RefPool< K > pool = tryGetRefPool( keyCollection );
@@ -193,6 +225,78 @@ public class RefMaps
 			return new RefDoubleMapWrapper<>( noEntryValue, initialCapacity );
 	}
 
+	public static < K > RefFloatMap< K > createRefFloatMap( final RefCollection< K > keyCollection, final float noEntryValue )
+	{
+		final RefPool< K > pool = tryGetRefPool( keyCollection );
+		if ( pool != null )
+			return new RefFloatHashMap<>( pool, noEntryValue );
+		else
+			return new RefFloatMapWrapper<>( noEntryValue );
+	}
+
+	public static < K > RefFloatMap< K > createRefFloatMap( final RefCollection< K > keyCollection, final float noEntryValue, final int initialCapacity )
+	{
+		final RefPool< K > pool = tryGetRefPool( keyCollection );
+		if ( pool != null )
+			return new RefFloatHashMap<>( pool, noEntryValue, initialCapacity );
+		else
+			return new RefFloatMapWrapper<>( noEntryValue, initialCapacity );
+	}
+
+	public static < K > RefByteMap< K > createRefByteMap( final RefCollection< K > keyCollection, final byte noEntryValue )
+	{
+		final RefPool< K > pool = tryGetRefPool( keyCollection );
+		if ( pool != null )
+			return new RefByteHashMap<>( pool, noEntryValue );
+		else
+			return new RefByteMapWrapper<>( noEntryValue );
+	}
+
+	public static < K > RefByteMap< K > createRefByteMap( final RefCollection< K > keyCollection, final byte noEntryValue, final int initialCapacity )
+	{
+		final RefPool< K > pool = tryGetRefPool( keyCollection );
+		if ( pool != null )
+			return new RefByteHashMap<>( pool, noEntryValue, initialCapacity );
+		else
+			return new RefByteMapWrapper<>( noEntryValue, initialCapacity );
+	}
+
+	public static < K > RefShortMap< K > createRefShortMap( final RefCollection< K > keyCollection, final short noEntryValue )
+	{
+		final RefPool< K > pool = tryGetRefPool( keyCollection );
+		if ( pool != null )
+			return new RefShortHashMap<>( pool, noEntryValue );
+		else
+			return new RefShortMapWrapper<>( noEntryValue );
+	}
+
+	public static < K > RefShortMap< K > createRefShortMap( final RefCollection< K > keyCollection, final short noEntryValue, final int initialCapacity )
+	{
+		final RefPool< K > pool = tryGetRefPool( keyCollection );
+		if ( pool != null )
+			return new RefShortHashMap<>( pool, noEntryValue, initialCapacity );
+		else
+			return new RefShortMapWrapper<>( noEntryValue, initialCapacity );
+	}
+
+	public static < K > RefLongMap< K > createRefLongMap( final RefCollection< K > keyCollection, final long noEntryValue )
+	{
+		final RefPool< K > pool = tryGetRefPool( keyCollection );
+		if ( pool != null )
+			return new RefLongHashMap<>( pool, noEntryValue );
+		else
+			return new RefLongMapWrapper<>( noEntryValue );
+	}
+
+	public static < K > RefLongMap< K > createRefLongMap( final RefCollection< K > keyCollection, final long noEntryValue, final int initialCapacity )
+	{
+		final RefPool< K > pool = tryGetRefPool( keyCollection );
+		if ( pool != null )
+			return new RefLongHashMap<>( pool, noEntryValue, initialCapacity );
+		else
+			return new RefLongMapWrapper<>( noEntryValue, initialCapacity );
+	}
+
 	public static < V > IntRefMap< V > createIntRefMap( final RefCollection< V > keyCollection, final int noEntryKey )
 	{
 		final RefPool< V > pool = tryGetRefPool( keyCollection );
@@ -211,6 +315,24 @@ public class RefMaps
 			return new IntRefMapWrapper<>( noEntryKey, initialCapacity );
 	}
 
+	public static < V > LongRefMap< V > createLongRefMap( final RefCollection< V > valueCollection, final long noEntryKey )
+	{
+		final RefPool< V > pool = tryGetRefPool( valueCollection );
+		if ( pool != null )
+			return new LongRefHashMap<>( pool, noEntryKey );
+		else
+			return new LongRefMapWrapper<>( noEntryKey );
+	}
+
+	public static < V > LongRefMap< V > createLongRefMap( final RefCollection< V > valueCollection, final long noEntryKey, final int initialCapacity )
+	{
+		final RefPool< V > pool = tryGetRefPool( valueCollection );
+		if ( pool != null )
+			return new LongRefHashMap<>( pool, noEntryKey, initialCapacity );
+		else
+			return new LongRefMapWrapper<>( noEntryKey, initialCapacity );
+	}
+
 	private static < K, V > RefRefMap< K, V > wrapM( final Map< K, V > map )
 	{
 		return new RefRefMapWrapper.FromMap<>( map );
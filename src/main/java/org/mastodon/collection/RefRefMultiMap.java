@@ -0,0 +1,183 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection;
+
+/**
+ * A one-to-many mapping from object references to object references, for
+ * example parent to children, or label to objects. A key is associated with a
+ * list of values. The same value may occur more than once for a key.
+ * <p>
+ * The values of a key are accessed by position (see
+ * {@link #get(Object, int, Object)}), which allows allocation-free iteration
+ * using a single value reference:
+ *
+ * <pre>
+ * final V ref = map.createValueRef();
+ * final int n = map.count( key );
+ * for ( int i = 0; i &lt; n; ++i )
+ * {
+ * 	final V value = map.get( key, i, ref );
+ * 	...
+ * }
+ * map.releaseValueRef( ref );
+ * </pre>
+ *
+ * @param <K>
+ *            key type.
+ * @param <V>
+ *            value type.
+ */
+public interface RefRefMultiMap< K, V >
+{
+	/**
+	 * Generates a value object reference that can be used for retrieval.
+	 *
+	 * @return a new, uninitialized, reference object.
+	 */
+	public V createValueRef();
+
+	/**
+	 * Releases a previously created value object reference.
+	 *
+	 * @param obj
+	 *            the object reference to release.
+	 */
+	public void releaseValueRef( final V obj );
+
+	/**
+	 * Returns the number of keys that have at least one value.
+	 *
+	 * @return the number of keys.
+	 */
+	public int size();
+
+	/**
+	 * Returns the total number of (key, value) associations.
+	 *
+	 * @return the number of values over all keys.
+	 */
+	public int numValues();
+
+	public boolean isEmpty();
+
+	public boolean containsKey( final Object key );
+
+	/**
+	 * Returns whether {@code value} is associated with {@code key}.
+	 *
+	 * @param key
+	 *            the key.
+	 * @param value
+	 *            the value.
+	 * @return {@code true} if {@code value} is one of the values of
+	 *         {@code key}.
+	 */
+	public boolean containsEntry( final Object key, final Object value );
+
+	/**
+	 * Returns the number of values associated with {@code key}.
+	 *
+	 * @param key
+	 *            the key.
+	 * @return the number of values of {@code key}, or {@code 0} if the key is
+	 *         not in the map.
+	 */
+	public int count( final Object key );
+
+	/**
+	 * Returns the {@code i}-th value associated with {@code key}.
+	 *
+	 * @param key
+	 *            the key.
+	 * @param i
+	 *            the position, {@code 0 <= i < count(key)}.
+	 * @param ref
+	 *            a value object reference that can be used for retrieval.
+	 *            Depending on concrete implementation, this object can be
+	 *            cleared, ignored or re-used.
+	 * @return the {@code i}-th value of {@code key}. The object actually
+	 *         returned might be the one specified as parameter {@code ref}.
+	 * @throws IndexOutOfBoundsException
+	 *             if {@code i} is out of range.
+	 */
+	public V get( final Object key, final int i, final V ref );
+
+	/**
+	 * Returns the set of keys that have at least one value. Depending on
+	 * concrete implementation, this may be a snapshot or a view.
+	 *
+	 * @return the keys.
+	 */
+	public RefSet< K > keySet();
+
+	/**
+	 * Appends {@code value} to the values of {@code key} (optional operation).
+	 *
+	 * @param key
+	 *            the key.
+	 * @param value
+	 *            the value to add.
+	 * @throws UnsupportedOperationException
+	 *             if this map is immutable.
+	 */
+	public void put( final K key, final V value );
+
+	/**
+	 * Removes the first occurrence of {@code value} from the values of
+	 * {@code key} (optional operation).
+	 *
+	 * @param key
+	 *            the key.
+	 * @param value
+	 *            the value to remove.
+	 * @return {@code true} if the map changed.
+	 * @throws UnsupportedOperationException
+	 *             if this map is immutable.
+	 */
+	public boolean remove( final Object key, final Object value );
+
+	/**
+	 * Removes all values of {@code key} (optional operation).
+	 *
+	 * @param key
+	 *            the key.
+	 * @return the number of values removed.
+	 * @throws UnsupportedOperationException
+	 *             if this map is immutable.
+	 */
+	public int removeAll( final Object key );
+
+	/**
+	 * Removes all associations (optional operation).
+	 *
+	 * @throws UnsupportedOperationException
+	 *             if this map is immutable.
+	 */
+	public void clear();
+}
@@ -0,0 +1,313 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import org.mastodon.collection.ref.IntBackedRefCollection;
+
+import gnu.trove.TIntCollection;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.set.TIntBitmapSet;
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.TIntSortedArraySet;
+
+/**
+ * Set algebra on {@link IntBackedRefCollection}s, working directly on their
+ * {@link IntBackedRefCollection#getIndexCollection() index collections}
+ * without materializing object references.
+ * <p>
+ * Operands are interpreted as sets of pool indices, that is, duplicates in
+ * list operands are ignored. All operands and the result must refer to the
+ * same pool. Results are written into a caller-supplied collection, which is
+ * cleared first and must be different from the operands. If the result is a
+ * list, its elements are distinct but in unspecified order.
+ * <p>
+ * Operands that are {@link TIntSet}s are probed directly. Other operands
+ * (lists, etc.) are copied into sorted arrays, which are probed by binary
+ * search. Intersections of two sorted operands use galloping search (see
+ * {@link TIntSortedArraySet#intersect(int[], int[])}). Where there is a
+ * choice, the smaller operand is iterated and the larger one probed.
+ * <p>
+ * In parallel mode, large operands are iterated in parallel chunks (using
+ * the common {@link java.util.concurrent.ForkJoinPool}) and list operands are
+ * sorted in parallel. The result is still filled by the calling thread.
+ */
+public class RefSetOperations
+{
+	/**
+	 * Operands with at least this many elements are processed in parallel
+	 * chunks in parallel mode.
+	 */
+	private static final int PARALLEL_THRESHOLD = 1 << 16;
+
+	public static < O > void union( final IntBackedRefCollection< O > a, final IntBackedRefCollection< O > b, final IntBackedRefCollection< O > result )
+	{
+		union( a, b, result, false );
+	}
+
+	/**
+	 * Computes the union of {@code a} and {@code b}.
+	 *
+	 * @param a
+	 *            first operand.
+	 * @param b
+	 *            second operand.
+	 * @param result
+	 *            collection to store the result in.
+	 * @param parallel
+	 *            whether to process large operands in parallel.
+	 */
+	public static < O > void union( final IntBackedRefCollection< O > a, final IntBackedRefCollection< O > b, final IntBackedRefCollection< O > result, final boolean parallel )
+	{
+		final TIntCollection out = prepareResult( a, b, result );
+		final Operand oa = new Operand( a.getIndexCollection(), parallel );
+		final Operand ob = new Operand( b.getIndexCollection(), parallel );
+		final Operand large = oa.size() >= ob.size() ? oa : ob;
+		final Operand small = large == oa ? ob : oa;
+		large.addTo( out );
+		out.addAll( filter( small.ids(), large, false, parallel ) );
+	}
+
+	public static < O > void intersection( final IntBackedRefCollection< O > a, final IntBackedRefCollection< O > b, final IntBackedRefCollection< O > result )
+	{
+		intersection( a, b, result, false );
+	}
+
+	/**
+	 * Computes the intersection of {@code a} and {@code b}.
+	 *
+	 * @param a
+	 *            first operand.
+	 * @param b
+	 *            second operand.
+	 * @param result
+	 *            collection to store the result in.
+	 * @param parallel
+	 *            whether to process large operands in parallel.
+	 */
+	public static < O > void intersection( final IntBackedRefCollection< O > a, final IntBackedRefCollection< O > b, final IntBackedRefCollection< O > result, final boolean parallel )
+	{
+		final TIntCollection out = prepareResult( a, b, result );
+		final Operand oa = new Operand( a.getIndexCollection(), parallel );
+		final Operand ob = new Operand( b.getIndexCollection(), parallel );
+		final Operand large = oa.size() >= ob.size() ? oa : ob;
+		final Operand small = large == oa ? ob : oa;
+		if ( small.set instanceof TIntSortedArraySet && large.set instanceof TIntSortedArraySet )
+			out.addAll( ( ( TIntSortedArraySet ) small.set ).intersection( ( TIntSortedArraySet ) large.set ) );
+		else if ( small.sorted() && large.set == null )
+			out.addAll( TIntSortedArraySet.intersect( small.ids(), large.ids() ) );
+		else
+			out.addAll( filter( small.ids(), large, true, parallel ) );
+	}
+
+	public static < O > void difference( final IntBackedRefCollection< O > a, final IntBackedRefCollection< O > b, final IntBackedRefCollection< O > result )
+	{
+		difference( a, b, result, false );
+	}
+
+	/**
+	 * Computes the difference {@code a \ b}, that is, the elements of
+	 * {@code a} that are not in {@code b}.
+	 *
+	 * @param a
+	 *            first operand.
+	 * @param b
+	 *            second operand.
+	 * @param result
+	 *            collection to store the result in.
+	 * @param parallel
+	 *            whether to process large operands in parallel.
+	 */
+	public static < O > void difference( final IntBackedRefCollection< O > a, final IntBackedRefCollection< O > b, final IntBackedRefCollection< O > result, final boolean parallel )
+	{
+		final TIntCollection out = prepareResult( a, b, result );
+		final Operand oa = new Operand( a.getIndexCollection(), parallel );
+		final Operand ob = new Operand( b.getIndexCollection(), parallel );
+		out.addAll( filter( oa.ids(), ob, false, parallel ) );
+	}
+
+	public static < O > void symmetricDifference( final IntBackedRefCollection< O > a, final IntBackedRefCollection< O > b, final IntBackedRefCollection< O > result )
+	{
+		symmetricDifference( a, b, result, false );
+	}
+
+	/**
+	 * Computes the symmetric difference of {@code a} and {@code b}, that is,
+	 * the elements that are in exactly one of {@code a} and {@code b}.
+	 *
+	 * @param a
+	 *            first operand.
+	 * @param b
+	 *            second operand.
+	 * @param result
+	 *            collection to store the result in.
+	 * @param parallel
+	 *            whether to process large operands in parallel.
+	 */
+	public static < O > void symmetricDifference( final IntBackedRefCollection< O > a, final IntBackedRefCollection< O > b, final IntBackedRefCollection< O > result, final boolean parallel )
+	{
+		final TIntCollection out = prepareResult( a, b, result );
+		final Operand oa = new Operand( a.getIndexCollection(), parallel );
+		final Operand ob = new Operand( b.getIndexCollection(), parallel );
+		out.addAll( filter( oa.ids(), ob, false, parallel ) );
+		out.addAll( filter( ob.ids(), oa, false, parallel ) );
+	}
+
+	private static TIntCollection prepareResult( final IntBackedRefCollection< ? > a, final IntBackedRefCollection< ? > b, final IntBackedRefCollection< ? > result )
+	{
+		if ( result == a || result == b )
+			throw new IllegalArgumentException( "result must be different from the operands" );
+		final TIntCollection out = result.getIndexCollection();
+		out.clear();
+		return out;
+	}
+
+	/**
+	 * Returns the elements of {@code ids} that are ({@code keep == true}) or
+	 * are not ({@code keep == false}) contained in {@code other}, in the order
+	 * of {@code ids}.
+	 */
+	private static int[] filter( final int[] ids, final Operand other, final boolean keep, final boolean parallel )
+	{
+		final int n = ids.length;
+		if ( !parallel || n < PARALLEL_THRESHOLD )
+			return filter( ids, 0, n, other, keep );
+
+		final int chunkSize = PARALLEL_THRESHOLD / 4;
+		final int numChunks = ( n + chunkSize - 1 ) / chunkSize;
+		final int[][] chunks = new int[ numChunks ][];
+		IntStream.range( 0, numChunks ).parallel().forEach( c -> chunks[ c ] = filter( ids, c * chunkSize, Math.min( n, ( c + 1 ) * chunkSize ), other, keep ) );
+		int size = 0;
+		for ( final int[] chunk : chunks )
+			size += chunk.length;
+		final int[] filtered = new int[ size ];
+		int k = 0;
+		for ( final int[] chunk : chunks )
+		{
+			System.arraycopy( chunk, 0, filtered, k, chunk.length );
+			k += chunk.length;
+		}
+		return filtered;
+	}
+
+	private static int[] filter( final int[] ids, final int from, final int to, final Operand other, final boolean keep )
+	{
+		final TIntArrayList filtered = new TIntArrayList( to - from );
+		for ( int i = from; i < to; ++i )
+		{
+			final int id = ids[ i ];
+			if ( other.contains( id ) == keep )
+				filtered.add( id );
+		}
+		return filtered.toArray();
+	}
+
+	/**
+	 * An operand, either a {@link TIntSet}, or the sorted distinct elements of
+	 * some other {@link TIntCollection}. The elements of a {@link TIntSet}
+	 * operand are only copied into an array if the operand is iterated, not
+	 * if it is only probed.
+	 */
+	private static final class Operand
+	{
+		private final TIntSet set;
+
+		private int[] ids;
+
+		private final boolean sorted;
+
+		Operand( final TIntCollection indices, final boolean parallel )
+		{
+			if ( indices instanceof TIntSet )
+			{
+				set = ( TIntSet ) indices;
+				ids = null;
+				// bitmap sets iterate in ascending order (pool indices are non-negative)
+				sorted = set instanceof TIntSortedArraySet || set instanceof TIntBitmapSet;
+			}
+			else
+			{
+				set = null;
+				ids = sortedDistinct( indices.toArray(), parallel );
+				sorted = true;
+			}
+		}
+
+		int size()
+		{
+			return set != null ? set.size() : ids.length;
+		}
+
+		/**
+		 * Returns the distinct elements of this operand, in ascending order if
+		 * {@link #sorted()}.
+		 */
+		int[] ids()
+		{
+			if ( ids == null )
+				ids = set.toArray();
+			return ids;
+		}
+
+		void addTo( final TIntCollection out )
+		{
+			if ( set != null )
+				out.addAll( set );
+			else
+				out.addAll( ids );
+		}
+
+		boolean sorted()
+		{
+			return sorted;
+		}
+
+		boolean contains( final int id )
+		{
+			return set != null
+					? set.contains( id )
+					: Arrays.binarySearch( ids, id ) >= 0;
+		}
+
+		private static int[] sortedDistinct( final int[] values, final boolean parallel )
+		{
+			if ( parallel && values.length >= PARALLEL_THRESHOLD )
+				Arrays.parallelSort( values );
+			else
+				Arrays.sort( values );
+			int k = 0;
+			for ( int i = 0; i < values.length; ++i )
+				if ( k == 0 || values[ i ] != values[ k - 1 ] )
+					values[ k++ ] = values[ i ];
+			return k == values.length ? values : Arrays.copyOf( values, k );
+		}
+	}
+}
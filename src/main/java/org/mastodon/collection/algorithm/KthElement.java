@@ -28,7 +28,11 @@
  */
 package org.mastodon.collection.algorithm;
 
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 import org.mastodon.collection.RefList;
 
@@ -59,6 +63,13 @@ public class KthElement< O >
 		tjRef = list.createRef();
 	}
 
+	private void releaseRefs()
+	{
+		list.releaseRef( pivotRef );
+		list.releaseRef( tiRef );
+		list.releaseRef( tjRef );
+	}
+
 	public void kthElement( final int k, final Comparator< O > comparator )
 	{
 		kthElement( 0, list.size() - 1, k, comparator );
@@ -99,6 +110,166 @@ public class KthElement< O >
 		}
 	}
 
+	/**
+	 * Partition {@code RefList<O>} such that for each {@code k} in {@code ks}
+	 * the k-th smallest value is at position {@code k}. This is equivalent to
+	 * (but faster than) calling {@link #kthElement(int, Comparator)} for each
+	 * {@code k} in ascending order: Elements between two consecutive
+	 * requested positions are larger or equal than the element at the lower
+	 * position and smaller or equal than the element at the higher position.
+	 *
+	 * @param ks
+	 *            indices of the requested order statistics, in any order.
+	 * @param comparator
+	 *            element order
+	 */
+	public void kthElements( final int[] ks, final Comparator< O > comparator )
+	{
+		final int[] sorted = sortedIndices( ks, list.size() );
+		multiSelect( 0, list.size() - 1, sorted, 0, sorted.length, comparator, Integer.MAX_VALUE );
+	}
+
+	/**
+	 * Parallel version of {@link #kthElements(int[], Comparator)}. After each
+	 * partitioning step, the parts below and above the pivot are processed in
+	 * parallel (in the common {@link ForkJoinPool}), if they both contain
+	 * requested positions and the partitioned range is larger than
+	 * {@code threshold}. Elements of {@code list} are accessed concurrently
+	 * (through separate object references), so the comparator must be
+	 * thread-safe.
+	 *
+	 * @param list
+	 *            the list to partition
+	 * @param ks
+	 *            indices of the requested order statistics, in any order.
+	 * @param comparator
+	 *            element order
+	 * @param threshold
+	 *            size above which ranges are processed in parallel sub-tasks.
+	 */
+	public static < O > void parallelKthElements( final RefList< O > list, final int[] ks, final Comparator< O > comparator, final int threshold )
+	{
+		final int[] sorted = sortedIndices( ks, list.size() );
+		ForkJoinPool.commonPool().invoke( new MultiSelectTask<>( list, 0, list.size() - 1, sorted, 0, sorted.length, comparator, threshold ) );
+	}
+
+	/**
+	 * Parallel version of {@link #kthElements(int[], Comparator)}, with a
+	 * default threshold. See
+	 * {@link #parallelKthElements(RefList, int[], Comparator, int)}.
+	 *
+	 * @param list
+	 *            the list to partition
+	 * @param ks
+	 *            indices of the requested order statistics, in any order.
+	 * @param comparator
+	 *            element order
+	 */
+	public static < O > void parallelKthElements( final RefList< O > list, final int[] ks, final Comparator< O > comparator )
+	{
+		parallelKthElements( list, ks, comparator, ParallelMergeSort.DEFAULT_PARALLEL_THRESHOLD );
+	}
+
+	private static int[] sortedIndices( final int[] ks, final int size )
+	{
+		final int[] sorted = ks.clone();
+		Arrays.sort( sorted );
+		if ( sorted.length > 0 && ( sorted[ 0 ] < 0 || sorted[ sorted.length - 1 ] >= size ) )
+			throw new IndexOutOfBoundsException( "requested index out of range [0, " + size + ")" );
+		return sorted;
+	}
+
+	/**
+	 * Select the order statistics {@code ks[kFrom], ..., ks[kTo-1]} in the
+	 * sublist {@code [i, j]}. {@code ks} is sorted, and all requested indices
+	 * are in {@code [i, j]}. If the sublist is larger than {@code threshold},
+	 * the two parts remaining after partitioning are processed in parallel.
+	 * This must only happen inside a {@link ForkJoinPool}.
+	 */
+	private void multiSelect( final int i, final int j, final int[] ks, final int kFrom, final int kTo, final Comparator< O > comparator, final int threshold )
+	{
+		if ( kFrom >= kTo || i >= j )
+			return;
+		if ( kTo - kFrom == 1 )
+		{
+			select( i, j, ks[ kFrom ], comparator );
+			return;
+		}
+
+		moveMedianOfThreeToEnd( i, j, comparator );
+		final int pivotpos = partitionSubList( i, j, comparator );
+
+		// ks[kFrom, lo) are left of the pivot, ks[hi, kTo) are right of it.
+		int lo = Arrays.binarySearch( ks, kFrom, kTo, pivotpos );
+		final int hi;
+		if ( lo >= 0 )
+		{
+			while ( lo > kFrom && ks[ lo - 1 ] == pivotpos )
+				--lo;
+			int h = lo;
+			while ( h < kTo && ks[ h ] == pivotpos )
+				++h;
+			hi = h;
+		}
+		else
+			hi = lo = -lo - 1;
+
+		if ( j - i + 1 > threshold && lo > kFrom && hi < kTo )
+		{
+			ForkJoinTask.invokeAll(
+					new MultiSelectTask<>( list, i, pivotpos - 1, ks, kFrom, lo, comparator, threshold ),
+					new MultiSelectTask<>( list, pivotpos + 1, j, ks, hi, kTo, comparator, threshold ) );
+		}
+		else
+		{
+			multiSelect( i, pivotpos - 1, ks, kFrom, lo, comparator, threshold );
+			multiSelect( pivotpos + 1, j, ks, hi, kTo, comparator, threshold );
+		}
+	}
+
+	/**
+	 * Like {@link #kthElement(int, int, int, Comparator)}, but pivots on the
+	 * median of three (see
+	 * {@link #moveMedianOfThreeToEnd(int, int, Comparator)}).
+	 */
+	private void select( int i, int j, final int k, final Comparator< O > comparator )
+	{
+		while ( i < j )
+		{
+			moveMedianOfThreeToEnd( i, j, comparator );
+			final int pivotpos = partitionSubList( i, j, comparator );
+			if ( pivotpos > k )
+				j = pivotpos - 1;
+			else if ( pivotpos < k )
+				i = pivotpos + 1;
+			else
+				break;
+		}
+	}
+
+	/**
+	 * Swap the median of the first, middle, and last element of sublist
+	 * {@code [i, j]} to position {@code j}, where it will be used as the pivot
+	 * by {@link #partitionSubList(int, int, Comparator)}. This avoids
+	 * quadratic run-time on (partially) sorted lists.
+	 */
+	private void moveMedianOfThreeToEnd( final int i, final int j, final Comparator< O > comparator )
+	{
+		if ( j - i < 2 )
+			return;
+		final int m = ( i + j ) >>> 1;
+		final O a = list.get( i, tiRef );
+		final O b = list.get( m, tjRef );
+		final O c = list.get( j, pivotRef );
+		final int median;
+		if ( comparator.compare( a, b ) < 0 )
+			median = comparator.compare( b, c ) < 0 ? m : ( comparator.compare( a, c ) < 0 ? j : i );
+		else
+			median = comparator.compare( a, c ) < 0 ? i : ( comparator.compare( b, c ) < 0 ? j : m );
+		if ( median != j )
+			list.swap( median, j );
+	}
+
 	/**
 	 * Partition a sublist of {@code RefList<O>} by the specified
 	 * {@code comparator}.
@@ -163,4 +334,45 @@ public class KthElement< O >
 		}
 		return i;
 	}
+
+	private static final class MultiSelectTask< O > extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final RefList< O > list;
+
+		private final int i;
+
+		private final int j;
+
+		private final int[] ks;
+
+		private final int kFrom;
+
+		private final int kTo;
+
+		private final Comparator< O > comparator;
+
+		private final int threshold;
+
+		MultiSelectTask( final RefList< O > list, final int i, final int j, final int[] ks, final int kFrom, final int kTo, final Comparator< O > comparator, final int threshold )
+		{
+			this.list = list;
+			this.i = i;
+			this.j = j;
+			this.ks = ks;
+			this.kFrom = kFrom;
+			this.kTo = kTo;
+			this.comparator = comparator;
+			this.threshold = threshold;
+		}
+
+		@Override
+		protected void compute()
+		{
+			final KthElement< O > select = new KthElement<>( list );
+			select.multiSelect( i, j, ks, kFrom, kTo, comparator, threshold );
+			select.releaseRefs();
+		}
+	}
 }
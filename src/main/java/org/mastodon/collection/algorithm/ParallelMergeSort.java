@@ -0,0 +1,211 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.algorithm;
+
+import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.mastodon.RefPool;
+
+/**
+ * Stable fork/join merge sort of pool indices by a {@link Comparator} on the
+ * corresponding objects.
+ * <p>
+ * Ranges larger than a threshold are split in halves that are sorted in
+ * parallel (in the common {@link ForkJoinPool}) and then merged. Each task
+ * uses its own object references, so the comparator is called concurrently
+ * from several threads and must be thread-safe.
+ */
+public final class ParallelMergeSort
+{
+	/**
+	 * Default size above which ranges are split into parallel sub-tasks.
+	 */
+	public static final int DEFAULT_PARALLEL_THRESHOLD = 1 << 13;
+
+	/**
+	 * Ranges smaller than this are sorted by insertion sort.
+	 */
+	private static final int INSERTION_SORT_THRESHOLD = 32;
+
+	/**
+	 * Sorts {@code ids} in ascending order of the objects they refer to.
+	 *
+	 * @param ids
+	 *            the pool indices to sort.
+	 * @param pool
+	 *            the pool to which the indices refer.
+	 * @param comparator
+	 *            the object order.
+	 */
+	public static < O > void sort( final int[] ids, final RefPool< O > pool, final Comparator< ? super O > comparator )
+	{
+		sort( ids, pool, comparator, DEFAULT_PARALLEL_THRESHOLD );
+	}
+
+	/**
+	 * Sorts {@code ids} in ascending order of the objects they refer to.
+	 *
+	 * @param ids
+	 *            the pool indices to sort.
+	 * @param pool
+	 *            the pool to which the indices refer.
+	 * @param comparator
+	 *            the object order.
+	 * @param threshold
+	 *            size above which ranges are split into parallel sub-tasks.
+	 */
+	public static < O > void sort( final int[] ids, final RefPool< O > pool, final Comparator< ? super O > comparator, final int threshold )
+	{
+		if ( ids.length < 2 )
+			return;
+		final SortTask< O > task = new SortTask<>( ids, new int[ ids.length ], 0, ids.length, pool, comparator, Math.max( threshold, INSERTION_SORT_THRESHOLD ) );
+		if ( ids.length <= threshold )
+			task.compute();
+		else
+			ForkJoinPool.commonPool().invoke( task );
+	}
+
+	private static final class SortTask< O > extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final int[] ids;
+
+		private final int[] tmp;
+
+		private final int from;
+
+		private final int to;
+
+		private final RefPool< O > pool;
+
+		private final Comparator< ? super O > comparator;
+
+		private final int threshold;
+
+		private O ref1;
+
+		private O ref2;
+
+		SortTask( final int[] ids, final int[] tmp, final int from, final int to, final RefPool< O > pool, final Comparator< ? super O > comparator, final int threshold )
+		{
+			this.ids = ids;
+			this.tmp = tmp;
+			this.from = from;
+			this.to = to;
+			this.pool = pool;
+			this.comparator = comparator;
+			this.threshold = threshold;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if ( to - from > threshold )
+			{
+				final int mid = ( from + to ) >>> 1;
+				invokeAll(
+						new SortTask<>( ids, tmp, from, mid, pool, comparator, threshold ),
+						new SortTask<>( ids, tmp, mid, to, pool, comparator, threshold ) );
+				ref1 = pool.createRef();
+				ref2 = pool.createRef();
+				merge( from, mid, to );
+			}
+			else
+			{
+				ref1 = pool.createRef();
+				ref2 = pool.createRef();
+				mergeSort( from, to );
+			}
+			pool.releaseRef( ref1 );
+			pool.releaseRef( ref2 );
+		}
+
+		private int compare( final int id1, final int id2 )
+		{
+			return comparator.compare( pool.getObject( id1, ref1 ), pool.getObject( id2, ref2 ) );
+		}
+
+		private void mergeSort( final int from, final int to )
+		{
+			if ( to - from < INSERTION_SORT_THRESHOLD )
+			{
+				insertionSort( from, to );
+				return;
+			}
+			final int mid = ( from + to ) >>> 1;
+			mergeSort( from, mid );
+			mergeSort( mid, to );
+			merge( from, mid, to );
+		}
+
+		private void insertionSort( final int from, final int to )
+		{
+			for ( int i = from + 1; i < to; ++i )
+			{
+				final int id = ids[ i ];
+				int j = i - 1;
+				while ( j >= from && compare( ids[ j ], id ) > 0 )
+				{
+					ids[ j + 1 ] = ids[ j ];
+					--j;
+				}
+				ids[ j + 1 ] = id;
+			}
+		}
+
+		/**
+		 * Merges sorted ranges {@code [from, mid)} and {@code [mid, to)}. Ties
+		 * are taken from the left range first, so merging is stable.
+		 */
+		private void merge( final int from, final int mid, final int to )
+		{
+			if ( compare( ids[ mid - 1 ], ids[ mid ] ) <= 0 )
+				return;
+			System.arraycopy( ids, from, tmp, from, mid - from );
+			int i = from;
+			int j = mid;
+			int k = from;
+			while ( i < mid && j < to )
+			{
+				if ( compare( ids[ j ], tmp[ i ] ) < 0 )
+					ids[ k++ ] = ids[ j++ ];
+				else
+					ids[ k++ ] = tmp[ i++ ];
+			}
+			// elements remaining in [j, to) are already in place
+			System.arraycopy( tmp, i, ids, k, mid - i );
+		}
+	}
+
+	private ParallelMergeSort()
+	{}
+}
@@ -0,0 +1,350 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.algorithm;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Stable sorting of {@code int} values (typically pool indices) by primitive
+ * {@code int}, {@code long}, or {@code double} keys.
+ * <p>
+ * All methods take an array of keys and an array of values of the same
+ * length, and reorder both arrays such that keys are in ascending order.
+ * Values with equal keys keep their relative order. {@code double} keys are
+ * ordered as by {@link Double#compare(double, double)}, that is,
+ * {@code -0.0 < 0.0} and {@code NaN} is larger than all other values.
+ * <p>
+ * {@code int} keys are packed together with the value index into
+ * {@code long}s, which are sorted by {@link Arrays#sort(long[])} or
+ * {@link Arrays#parallelSort(long[])}. {@code long} and {@code double} keys
+ * are sorted by a LSD radix sort. The parallel variant sorts chunks in
+ * parallel and merges them.
+ */
+public final class PrimitiveKeySort
+{
+	/**
+	 * Ranges smaller than this are sorted by insertion sort.
+	 */
+	private static final int INSERTION_SORT_THRESHOLD = 64;
+
+	/**
+	 * Default size above which ranges are split into parallel sub-tasks.
+	 */
+	public static final int DEFAULT_PARALLEL_THRESHOLD = 1 << 16;
+
+	public static void sort( final int[] keys, final int[] values )
+	{
+		sort( keys, values, false );
+	}
+
+	public static void sort( final long[] keys, final int[] values )
+	{
+		checkLengths( keys.length, values.length );
+		radixSort( keys, values, new long[ keys.length ], new int[ keys.length ], 0, keys.length );
+	}
+
+	public static void sort( final double[] keys, final int[] values )
+	{
+		final long[] sortable = toSortable( keys );
+		sort( sortable, values );
+		fromSortable( sortable, keys );
+	}
+
+	public static void parallelSort( final int[] keys, final int[] values )
+	{
+		sort( keys, values, true );
+	}
+
+	public static void parallelSort( final long[] keys, final int[] values )
+	{
+		parallelSort( keys, values, DEFAULT_PARALLEL_THRESHOLD );
+	}
+
+	/**
+	 * Sorts in parallel, splitting ranges until they are smaller than
+	 * {@code threshold}.
+	 *
+	 * @param keys
+	 *            the keys to sort by.
+	 * @param values
+	 *            the values to reorder along with {@code keys}.
+	 * @param threshold
+	 *            size above which ranges are split into parallel sub-tasks.
+	 */
+	public static void parallelSort( final long[] keys, final int[] values, final int threshold )
+	{
+		checkLengths( keys.length, values.length );
+		final int n = keys.length;
+		if ( n <= threshold )
+			sort( keys, values );
+		else
+			ForkJoinPool.commonPool().invoke( new ParallelSortTask( keys, values, new long[ n ], new int[ n ], 0, n, Math.max( threshold, INSERTION_SORT_THRESHOLD ) ) );
+	}
+
+	public static void parallelSort( final double[] keys, final int[] values )
+	{
+		parallelSort( keys, values, DEFAULT_PARALLEL_THRESHOLD );
+	}
+
+	/**
+	 * Sorts in parallel, splitting ranges until they are smaller than
+	 * {@code threshold}.
+	 *
+	 * @param keys
+	 *            the keys to sort by.
+	 * @param values
+	 *            the values to reorder along with {@code keys}.
+	 * @param threshold
+	 *            size above which ranges are split into parallel sub-tasks.
+	 */
+	public static void parallelSort( final double[] keys, final int[] values, final int threshold )
+	{
+		final long[] sortable = toSortable( keys );
+		parallelSort( sortable, values, threshold );
+		fromSortable( sortable, keys );
+	}
+
+	private static void sort( final int[] keys, final int[] values, final boolean parallel )
+	{
+		final int n = keys.length;
+		checkLengths( n, values.length );
+		final long[] packed = new long[ n ];
+		for ( int i = 0; i < n; ++i )
+			packed[ i ] = ( ( long ) keys[ i ] << 32 ) | i;
+		if ( parallel )
+			Arrays.parallelSort( packed );
+		else
+			Arrays.sort( packed );
+		final int[] sortedValues = new int[ n ];
+		for ( int i = 0; i < n; ++i )
+		{
+			final long p = packed[ i ];
+			keys[ i ] = ( int ) ( p >> 32 );
+			sortedValues[ i ] = values[ ( int ) p ];
+		}
+		System.arraycopy( sortedValues, 0, values, 0, n );
+	}
+
+	private static void checkLengths( final int numKeys, final int numValues )
+	{
+		if ( numKeys != numValues )
+			throw new IllegalArgumentException( "keys and values must have the same length" );
+	}
+
+	/**
+	 * Maps {@code double} bits to {@code long}s with the same order (as by
+	 * {@link Double#compare(double, double)}). Applying the mapping twice
+	 * yields the original bits.
+	 */
+	private static long sortableBits( final long bits )
+	{
+		return bits ^ ( ( bits >> 63 ) & Long.MAX_VALUE );
+	}
+
+	private static long[] toSortable( final double[] keys )
+	{
+		final long[] sortable = new long[ keys.length ];
+		for ( int i = 0; i < keys.length; ++i )
+			sortable[ i ] = sortableBits( Double.doubleToLongBits( keys[ i ] ) );
+		return sortable;
+	}
+
+	private static void fromSortable( final long[] sortable, final double[] keys )
+	{
+		for ( int i = 0; i < keys.length; ++i )
+			keys[ i ] = Double.longBitsToDouble( sortableBits( sortable[ i ] ) );
+	}
+
+	/**
+	 * Sorts range {@code [from, to)} by LSD radix sort with 8-bit digits.
+	 * Digits that are the same for all keys are skipped. {@code tmpKeys} and
+	 * {@code tmpValues} are used as buffers in the same range.
+	 */
+	private static void radixSort( final long[] keys, final int[] values, final long[] tmpKeys, final int[] tmpValues, final int from, final int to )
+	{
+		final int n = to - from;
+		if ( n < INSERTION_SORT_THRESHOLD )
+		{
+			insertionSort( keys, values, from, to );
+			return;
+		}
+
+		// histograms for all digits in one pass. The sign bit is flipped so
+		// that unsigned digit order matches signed key order.
+		final int[] counts = new int[ 8 * 256 ];
+		for ( int i = from; i < to; ++i )
+		{
+			final long k = keys[ i ] ^ Long.MIN_VALUE;
+			for ( int d = 0; d < 8; ++d )
+				++counts[ ( d << 8 ) | ( int ) ( ( k >>> ( d << 3 ) ) & 0xff ) ];
+		}
+
+		long[] srcKeys = keys;
+		int[] srcValues = values;
+		long[] dstKeys = tmpKeys;
+		int[] dstValues = tmpValues;
+		for ( int d = 0; d < 8; ++d )
+		{
+			final int shift = d << 3;
+			final int offset = d << 8;
+			if ( counts[ offset | ( int ) ( ( ( srcKeys[ from ] ^ Long.MIN_VALUE ) >>> shift ) & 0xff ) ] == n )
+				continue;
+
+			int sum = from;
+			for ( int b = offset; b < offset + 256; ++b )
+			{
+				final int c = counts[ b ];
+				counts[ b ] = sum;
+				sum += c;
+			}
+			for ( int i = from; i < to; ++i )
+			{
+				final long k = srcKeys[ i ];
+				final int p = counts[ offset | ( int ) ( ( ( k ^ Long.MIN_VALUE ) >>> shift ) & 0xff ) ]++;
+				dstKeys[ p ] = k;
+				dstValues[ p ] = srcValues[ i ];
+			}
+
+			final long[] tk = srcKeys;
+			srcKeys = dstKeys;
+			dstKeys = tk;
+			final int[] tv = srcValues;
+			srcValues = dstValues;
+			dstValues = tv;
+		}
+
+		if ( srcKeys != keys )
+		{
+			System.arraycopy( srcKeys, from, keys, from, n );
+			System.arraycopy( srcValues, from, values, from, n );
+		}
+	}
+
+	private static void insertionSort( final long[] keys, final int[] values, final int from, final int to )
+	{
+		for ( int i = from + 1; i < to; ++i )
+		{
+			final long k = keys[ i ];
+			final int v = values[ i ];
+			int j = i - 1;
+			while ( j >= from && keys[ j ] > k )
+			{
+				keys[ j + 1 ] = keys[ j ];
+				values[ j + 1 ] = values[ j ];
+				--j;
+			}
+			keys[ j + 1 ] = k;
+			values[ j + 1 ] = v;
+		}
+	}
+
+	/**
+	 * Merges sorted ranges {@code [from, mid)} and {@code [mid, to)} of
+	 * {@code keys} into {@code tmpKeys}, then copies them back. Ties are taken
+	 * from the left range first, so merging is stable.
+	 */
+	private static void merge( final long[] keys, final int[] values, final long[] tmpKeys, final int[] tmpValues, final int from, final int mid, final int to )
+	{
+		if ( keys[ mid - 1 ] <= keys[ mid ] )
+			return;
+		int i = from;
+		int j = mid;
+		int k = from;
+		while ( i < mid && j < to )
+		{
+			if ( keys[ j ] < keys[ i ] )
+			{
+				tmpKeys[ k ] = keys[ j ];
+				tmpValues[ k++ ] = values[ j++ ];
+			}
+			else
+			{
+				tmpKeys[ k ] = keys[ i ];
+				tmpValues[ k++ ] = values[ i++ ];
+			}
+		}
+		final int rest = mid - i;
+		System.arraycopy( keys, i, tmpKeys, k, rest );
+		System.arraycopy( values, i, tmpValues, k, rest );
+		// elements remaining in [j, to) are already in place
+		final int n = k + rest - from;
+		System.arraycopy( tmpKeys, from, keys, from, n );
+		System.arraycopy( tmpValues, from, values, from, n );
+	}
+
+	private static final class ParallelSortTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final long[] keys;
+
+		private final int[] values;
+
+		private final long[] tmpKeys;
+
+		private final int[] tmpValues;
+
+		private final int from;
+
+		private final int to;
+
+		private final int threshold;
+
+		ParallelSortTask( final long[] keys, final int[] values, final long[] tmpKeys, final int[] tmpValues, final int from, final int to, final int threshold )
+		{
+			this.keys = keys;
+			this.values = values;
+			this.tmpKeys = tmpKeys;
+			this.tmpValues = tmpValues;
+			this.from = from;
+			this.to = to;
+			this.threshold = threshold;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if ( to - from <= threshold )
+				radixSort( keys, values, tmpKeys, tmpValues, from, to );
+			else
+			{
+				final int mid = ( from + to ) >>> 1;
+				invokeAll(
+						new ParallelSortTask( keys, values, tmpKeys, tmpValues, from, mid, threshold ),
+						new ParallelSortTask( keys, values, tmpKeys, tmpValues, mid, to, threshold ) );
+				merge( keys, values, tmpKeys, tmpValues, from, mid, to );
+			}
+		}
+	}
+
+	private PrimitiveKeySort()
+	{}
+}
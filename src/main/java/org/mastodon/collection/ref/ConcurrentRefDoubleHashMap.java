@@ -0,0 +1,602 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+import java.util.Map;
+import java.util.Set;
+
+import org.mastodon.RefPool;
+import org.mastodon.collection.RefDoubleMap;
+
+import gnu.trove.TDoubleCollection;
+import gnu.trove.function.TDoubleFunction;
+import gnu.trove.impl.Constants;
+import gnu.trove.iterator.TObjectDoubleIterator;
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TObjectDoubleMap;
+import gnu.trove.map.hash.TIntDoubleHashMap;
+import gnu.trove.procedure.TDoubleProcedure;
+import gnu.trove.procedure.TObjectDoubleProcedure;
+import gnu.trove.procedure.TObjectProcedure;
+import gnu.trove.set.hash.TIntHashSet;
+
+/**
+ * A thread-safe {@link RefDoubleMap} for objects from a {@link RefPool}.
+ * <p>
+ * Entries are distributed by pool index over a fixed number of segments. Each
+ * segment is a {@link TIntDoubleHashMap} guarded by its own lock, so that threads
+ * writing values for different objects rarely contend. Single-key operations,
+ * including {@link #putIfAbsent(Object, double)},
+ * {@link #adjustValue(Object, double)} and
+ * {@link #adjustOrPutValue(Object, double, double)}, are atomic.
+ * <p>
+ * Operations spanning the whole map ({@link #size()}, {@link #keySet()},
+ * {@link #iterator()}, {@code forEach...}, etc.) visit one segment after the
+ * other and are therefore only weakly consistent when other threads modify the
+ * map concurrently. {@link #keySet()}, {@link #keys()}, {@link #values()} and
+ * {@link #valueCollection()} return snapshots, not views. Procedures passed to
+ * {@code forEach...} and {@code retainEntries} are called outside of the
+ * segment locks.
+ *
+ * @param <K>
+ *            the type of the keys of the map.
+ */
+public class ConcurrentRefDoubleHashMap< K > implements RefDoubleMap< K >
+{
+	private static final int NO_ENTRY_KEY = -1;
+
+	private static final float DEFAULT_LOAD_FACTOR = Constants.DEFAULT_LOAD_FACTOR;
+
+	private final TIntDoubleHashMap[] segments;
+
+	private final int segmentMask;
+
+	private final double noEntryValue;
+
+	private final RefPool< K > pool;
+
+	private final Class< K > keyType;
+
+	/*
+	 * CONSTRUCTORS
+	 */
+
+	/**
+	 * Creates a new map.
+	 *
+	 * @param pool
+	 *            the pool of key objects.
+	 * @param noEntryValue
+	 *            the value returned for keys that are not in the map.
+	 * @param initialCapacity
+	 *            the expected number of entries.
+	 * @param concurrencyLevel
+	 *            the expected number of concurrently writing threads. This is
+	 *            rounded up to a power of two, which is used as the number of
+	 *            segments.
+	 */
+	public ConcurrentRefDoubleHashMap( final RefPool< K > pool, final double noEntryValue, final int initialCapacity, final int concurrencyLevel )
+	{
+		this.pool = pool;
+		this.keyType = pool.getRefClass();
+		this.noEntryValue = noEntryValue;
+		final int numSegments = ConcurrentSegments.numSegments( concurrencyLevel );
+		final int segmentCapacity = Math.max( 1, initialCapacity / numSegments );
+		segments = new TIntDoubleHashMap[ numSegments ];
+		for ( int i = 0; i < numSegments; ++i )
+			segments[ i ] = new TIntDoubleHashMap( segmentCapacity, DEFAULT_LOAD_FACTOR, NO_ENTRY_KEY, noEntryValue );
+		segmentMask = numSegments - 1;
+	}
+
+	public ConcurrentRefDoubleHashMap( final RefPool< K > pool, final double noEntryValue, final int initialCapacity )
+	{
+		this( pool, noEntryValue, initialCapacity, ConcurrentSegments.DEFAULT_CONCURRENCY_LEVEL );
+	}
+
+	public ConcurrentRefDoubleHashMap( final RefPool< K > pool, final double noEntryValue )
+	{
+		this( pool, noEntryValue, Constants.DEFAULT_CAPACITY );
+	}
+
+	private TIntDoubleHashMap segment( final int id )
+	{
+		return segments[ ConcurrentSegments.segmentIndex( id, segmentMask ) ];
+	}
+
+	/**
+	 * Collects the keys of all segments.
+	 */
+	private TIntArrayList keyIds()
+	{
+		final TIntArrayList ids = new TIntArrayList();
+		for ( final TIntDoubleHashMap segment : segments )
+			synchronized ( segment )
+			{
+				ids.addAll( segment.keySet() );
+			}
+		return ids;
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	@Override
+	public void clear()
+	{
+		for ( final TIntDoubleHashMap segment : segments )
+			synchronized ( segment )
+			{
+				segment.clear();
+			}
+	}
+
+	@SuppressWarnings( "unchecked" )
+	@Override
+	public boolean containsKey( final Object key )
+	{
+		if ( keyType.isInstance( key ) )
+		{
+			final int id = pool.getId( ( K ) key );
+			final TIntDoubleHashMap segment = segment( id );
+			synchronized ( segment )
+			{
+				return segment.containsKey( id );
+			}
+		}
+		else
+			return false;
+	}
+
+	@Override
+	public boolean containsValue( final double value )
+	{
+		for ( final TIntDoubleHashMap segment : segments )
+			synchronized ( segment )
+			{
+				if ( segment.containsValue( value ) )
+					return true;
+			}
+		return false;
+	}
+
+	@SuppressWarnings( "unchecked" )
+	@Override
+	public double get( final Object key )
+	{
+		if ( keyType.isInstance( key ) )
+		{
+			final int id = pool.getId( ( K ) key );
+			final TIntDoubleHashMap segment = segment( id );
+			synchronized ( segment )
+			{
+				return segment.get( id );
+			}
+		}
+		else
+			return noEntryValue;
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		for ( final TIntDoubleHashMap segment : segments )
+			synchronized ( segment )
+			{
+				if ( !segment.isEmpty() )
+					return false;
+			}
+		return true;
+	}
+
+	@Override
+	public Set< K > keySet()
+	{
+		return new RefSetImp<>( pool, new TIntHashSet( keyIds() ) );
+	}
+
+	@Override
+	public double put( final K key, final double value )
+	{
+		final int id = pool.getId( key );
+		final TIntDoubleHashMap segment = segment( id );
+		synchronized ( segment )
+		{
+			return segment.put( id, value );
+		}
+	}
+
+	@Override
+	public double putIfAbsent( final K key, final double value )
+	{
+		final int id = pool.getId( key );
+		final TIntDoubleHashMap segment = segment( id );
+		synchronized ( segment )
+		{
+			return segment.putIfAbsent( id, value );
+		}
+	}
+
+	@Override
+	public void putAll( final Map< ? extends K, ? extends Double > map )
+	{
+		for ( final Map.Entry< ? extends K, ? extends Double > entry : map.entrySet() )
+			put( entry.getKey(), entry.getValue().doubleValue() );
+	}
+
+	@SuppressWarnings( "unchecked" )
+	@Override
+	public double remove( final Object key )
+	{
+		if ( keyType.isInstance( key ) )
+		{
+			final int id = pool.getId( ( K ) key );
+			final TIntDoubleHashMap segment = segment( id );
+			synchronized ( segment )
+			{
+				return segment.remove( id );
+			}
+		}
+		else
+			return noEntryValue;
+	}
+
+	@Override
+	public double getNoEntryValue()
+	{
+		return noEntryValue;
+	}
+
+	@Override
+	public int size()
+	{
+		int size = 0;
+		for ( final TIntDoubleHashMap segment : segments )
+			synchronized ( segment )
+			{
+				size += segment.size();
+			}
+		return size;
+	}
+
+	@Override
+	public double[] values()
+	{
+		return valueCollection().toArray();
+	}
+
+	@Override
+	public double[] values( final double[] array )
+	{
+		return valueCollection().toArray( array );
+	}
+
+	@Override
+	public TDoubleCollection valueCollection()
+	{
+		final TDoubleArrayList values = new TDoubleArrayList();
+		for ( final TIntDoubleHashMap segment : segments )
+			synchronized ( segment )
+			{
+				values.addAll( segment.valueCollection() );
+			}
+		return values;
+	}
+
+	@Override
+	public void putAll( final TObjectDoubleMap< ? extends K > map )
+	{
+		for ( final K key : map.keySet() )
+			put( key, map.get( key ) );
+	}
+
+	@Override
+	public Object[] keys()
+	{
+		return keySet().toArray();
+	}
+
+	@Override
+	public K[] keys( final K[] array )
+	{
+		return keySet().toArray( array );
+	}
+
+	@Override
+	public TObjectDoubleIterator< K > iterator()
+	{
+		return new RefDoubleIterator();
+	}
+
+	@Override
+	public boolean increment( final K key )
+	{
+		return adjustValue( key, 1. );
+	}
+
+	@Override
+	public boolean adjustValue( final K key, final double amount )
+	{
+		final int id = pool.getId( key );
+		final TIntDoubleHashMap segment = segment( id );
+		synchronized ( segment )
+		{
+			return segment.adjustValue( id, amount );
+		}
+	}
+
+	@Override
+	public double adjustOrPutValue( final K key, final double adjust_amount, final double put_amount )
+	{
+		final int id = pool.getId( key );
+		final TIntDoubleHashMap segment = segment( id );
+		synchronized ( segment )
+		{
+			return segment.adjustOrPutValue( id, adjust_amount, put_amount );
+		}
+	}
+
+	@Override
+	public boolean forEachKey( final TObjectProcedure< ? super K > procedure, final K ref )
+	{
+		final TIntArrayList ids = keyIds();
+		for ( int i = 0; i < ids.size(); ++i )
+		{
+			final K key = pool.getObject( ids.getQuick( i ), ref );
+			if ( !procedure.execute( key ) )
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean forEachKey( final TObjectProcedure< ? super K > procedure )
+	{
+		final K ref = createRef();
+		return forEachKey( procedure, ref );
+	}
+
+	@Override
+	public boolean forEachValue( final TDoubleProcedure procedure )
+	{
+		return valueCollection().forEach( procedure );
+	}
+
+	@Override
+	public boolean forEachEntry( final TObjectDoubleProcedure< ? super K > procedure, final K ref )
+	{
+		final TIntArrayList ids = keyIds();
+		for ( int i = 0; i < ids.size(); ++i )
+		{
+			final int id = ids.getQuick( i );
+			final TIntDoubleHashMap segment = segment( id );
+			final double value;
+			synchronized ( segment )
+			{
+				if ( !segment.containsKey( id ) )
+					continue;
+				value = segment.get( id );
+			}
+			final K key = pool.getObject( id, ref );
+			if ( !procedure.execute( key, value ) )
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean forEachEntry( final TObjectDoubleProcedure< ? super K > procedure )
+	{
+		final K ref = createRef();
+		return forEachEntry( procedure, ref );
+	}
+
+	@Override
+	public void transformValues( final TDoubleFunction function )
+	{
+		for ( final TIntDoubleHashMap segment : segments )
+			synchronized ( segment )
+			{
+				segment.transformValues( function );
+			}
+	}
+
+	@Override
+	public boolean retainEntries( final TObjectDoubleProcedure< ? super K > procedure, final K ref )
+	{
+		boolean modified = false;
+		final TIntArrayList ids = keyIds();
+		for ( int i = 0; i < ids.size(); ++i )
+		{
+			final int id = ids.getQuick( i );
+			final TIntDoubleHashMap segment = segment( id );
+			final double value;
+			synchronized ( segment )
+			{
+				if ( !segment.containsKey( id ) )
+					continue;
+				value = segment.get( id );
+			}
+			final K key = pool.getObject( id, ref );
+			if ( !procedure.execute( key, value ) )
+			{
+				synchronized ( segment )
+				{
+					segment.remove( id );
+				}
+				modified = true;
+			}
+		}
+		return modified;
+	}
+
+	@Override
+	public boolean retainEntries( final TObjectDoubleProcedure< ? super K > procedure )
+	{
+		final K ref = createRef();
+		return retainEntries( procedure, ref );
+	}
+
+	@Override
+	public K createRef()
+	{
+		return pool.createRef();
+	}
+
+	@Override
+	public void releaseRef( final K obj )
+	{
+		pool.releaseRef( obj );
+	}
+
+	@Override
+	public boolean equals( final Object o )
+	{
+		if ( this == o )
+			return true;
+		if ( o == null || getClass() != o.getClass() )
+			return false;
+
+		final ConcurrentRefDoubleHashMap< ? > that = ( ConcurrentRefDoubleHashMap< ? > ) o;
+
+		if ( !pool.equals( that.pool ) || !keyType.equals( that.keyType ) )
+			return false;
+		if ( size() != that.size() )
+			return false;
+		final TIntArrayList ids = keyIds();
+		for ( int i = 0; i < ids.size(); ++i )
+		{
+			final int id = ids.getQuick( i );
+			final TIntDoubleHashMap a = segment( id );
+			final TIntDoubleHashMap b = that.segment( id );
+			final double va;
+			synchronized ( a )
+			{
+				va = a.get( id );
+			}
+			synchronized ( b )
+			{
+				if ( !b.containsKey( id ) || Double.compare( b.get( id ), va ) != 0 )
+					return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode()
+	{
+		// TIntDoubleHashMap.hashCode() is a sum over entries.
+		int result = 0;
+		for ( final TIntDoubleHashMap segment : segments )
+			synchronized ( segment )
+			{
+				result += segment.hashCode();
+			}
+		result = 31 * result + pool.hashCode();
+		result = 31 * result + keyType.hashCode();
+		return result;
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	/**
+	 * Iterates over a snapshot of the keys. Values are read from (and written
+	 * to) the map.
+	 */
+	private class RefDoubleIterator implements TObjectDoubleIterator< K >
+	{
+		private final TIntArrayList ids;
+
+		private final K obj;
+
+		private int i;
+
+		public RefDoubleIterator()
+		{
+			this.ids = keyIds();
+			this.obj = createRef();
+			this.i = -1;
+		}
+
+		@Override
+		public void advance()
+		{
+			++i;
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			return i + 1 < ids.size();
+		}
+
+		@Override
+		public void remove()
+		{
+			final int id = ids.getQuick( i );
+			final TIntDoubleHashMap segment = segment( id );
+			synchronized ( segment )
+			{
+				segment.remove( id );
+			}
+		}
+
+		@Override
+		public K key()
+		{
+			return pool.getObject( ids.getQuick( i ), obj );
+		}
+
+		@Override
+		public double value()
+		{
+			final int id = ids.getQuick( i );
+			final TIntDoubleHashMap segment = segment( id );
+			synchronized ( segment )
+			{
+				return segment.get( id );
+			}
+		}
+
+		@Override
+		public double setValue( final double val )
+		{
+			final int id = ids.getQuick( i );
+			final TIntDoubleHashMap segment = segment( id );
+			synchronized ( segment )
+			{
+				return segment.put( id, val );
+			}
+		}
+	}
+}
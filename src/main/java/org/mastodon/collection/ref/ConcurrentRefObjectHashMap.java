@@ -0,0 +1,469 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+import org.mastodon.RefPool;
+import org.mastodon.collection.RefObjectMap;
+
+import gnu.trove.impl.Constants;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.set.hash.TIntHashSet;
+
+/**
+ * A thread-safe {@link RefObjectMap} for keys from a {@link RefPool}.
+ * <p>
+ * Entries are distributed by pool index over a fixed number of segments. Each
+ * segment is a {@link TIntObjectHashMap} guarded by its own lock, so that
+ * threads writing values for different objects rarely contend. Single-key
+ * operations, including the {@link ConcurrentMap} methods
+ * {@link #putIfAbsent(Object, Object)}, {@link #replace(Object, Object)},
+ * {@link #replace(Object, Object, Object)}, {@link #remove(Object, Object)}
+ * and {@link #computeIfAbsent(Object, Function)}, are atomic. As for other
+ * {@link ConcurrentMap}s, {@code null} values are not permitted.
+ * <p>
+ * Operations spanning the whole map ({@link #size()}, iteration, etc.) visit
+ * one segment after the other and are therefore only weakly consistent when
+ * other threads modify the map concurrently. {@link #keySet()} and
+ * {@link #values()} return snapshots, {@link #entrySet()} iterates over a
+ * snapshot of the keys.
+ *
+ * @param <K>
+ *            key type.
+ * @param <V>
+ *            value type.
+ */
+public class ConcurrentRefObjectHashMap< K, V > implements RefObjectMap< K, V >, ConcurrentMap< K, V >
+{
+	private final TIntObjectHashMap< V >[] segments;
+
+	private final int segmentMask;
+
+	private final RefPool< K > pool;
+
+	private final Class< K > keyType;
+
+	private EntrySet entrySet;
+
+	/**
+	 * Creates a new map.
+	 *
+	 * @param pool
+	 *            the pool of key objects.
+	 * @param initialCapacity
+	 *            the expected number of entries.
+	 * @param concurrencyLevel
+	 *            the expected number of concurrently writing threads. This is
+	 *            rounded up to a power of two, which is used as the number of
+	 *            segments.
+	 */
+	@SuppressWarnings( { "unchecked", "rawtypes" } )
+	public ConcurrentRefObjectHashMap( final RefPool< K > pool, final int initialCapacity, final int concurrencyLevel )
+	{
+		this.pool = pool;
+		this.keyType = pool.getRefClass();
+		final int numSegments = ConcurrentSegments.numSegments( concurrencyLevel );
+		final int segmentCapacity = Math.max( 1, initialCapacity / numSegments );
+		segments = new TIntObjectHashMap[ numSegments ];
+		for ( int i = 0; i < numSegments; ++i )
+			segments[ i ] = new TIntObjectHashMap<>( segmentCapacity );
+		segmentMask = numSegments - 1;
+	}
+
+	public ConcurrentRefObjectHashMap( final RefPool< K > pool, final int initialCapacity )
+	{
+		this( pool, initialCapacity, ConcurrentSegments.DEFAULT_CONCURRENCY_LEVEL );
+	}
+
+	public ConcurrentRefObjectHashMap( final RefPool< K > pool )
+	{
+		this( pool, Constants.DEFAULT_CAPACITY );
+	}
+
+	private TIntObjectHashMap< V > segment( final int id )
+	{
+		return segments[ ConcurrentSegments.segmentIndex( id, segmentMask ) ];
+	}
+
+	/**
+	 * Collects the keys of all segments.
+	 */
+	private TIntArrayList keyIds()
+	{
+		final TIntArrayList ids = new TIntArrayList();
+		for ( final TIntObjectHashMap< V > segment : segments )
+			synchronized ( segment )
+			{
+				ids.addAll( segment.keySet() );
+			}
+		return ids;
+	}
+
+	private V getById( final int id )
+	{
+		final TIntObjectHashMap< V > segment = segment( id );
+		synchronized ( segment )
+		{
+			return segment.get( id );
+		}
+	}
+
+	private V putById( final int id, final V value )
+	{
+		final TIntObjectHashMap< V > segment = segment( id );
+		synchronized ( segment )
+		{
+			return segment.put( id, value );
+		}
+	}
+
+	@Override
+	public void clear()
+	{
+		for ( final TIntObjectHashMap< V > segment : segments )
+			synchronized ( segment )
+			{
+				segment.clear();
+			}
+	}
+
+	@SuppressWarnings( "unchecked" )
+	@Override
+	public boolean containsKey( final Object key )
+	{
+		if ( keyType.isInstance( key ) )
+		{
+			final int id = pool.getId( ( K ) key );
+			final TIntObjectHashMap< V > segment = segment( id );
+			synchronized ( segment )
+			{
+				return segment.containsKey( id );
+			}
+		}
+		else
+			return false;
+	}
+
+	@Override
+	public boolean containsValue( final Object value )
+	{
+		for ( final TIntObjectHashMap< V > segment : segments )
+			synchronized ( segment )
+			{
+				if ( segment.containsValue( value ) )
+					return true;
+			}
+		return false;
+	}
+
+	@SuppressWarnings( "unchecked" )
+	@Override
+	public V get( final Object key )
+	{
+		if ( keyType.isInstance( key ) )
+			return getById( pool.getId( ( K ) key ) );
+		else
+			return null;
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		for ( final TIntObjectHashMap< V > segment : segments )
+			synchronized ( segment )
+			{
+				if ( !segment.isEmpty() )
+					return false;
+			}
+		return true;
+	}
+
+	@Override
+	public V put( final K key, final V value )
+	{
+		Objects.requireNonNull( value );
+		return putById( pool.getId( key ), value );
+	}
+
+	@SuppressWarnings( "unchecked" )
+	@Override
+	public V remove( final Object key )
+	{
+		if ( keyType.isInstance( key ) )
+		{
+			final int id = pool.getId( ( K ) key );
+			final TIntObjectHashMap< V > segment = segment( id );
+			synchronized ( segment )
+			{
+				return segment.remove( id );
+			}
+		}
+		else
+			return null;
+	}
+
+	@Override
+	public V putIfAbsent( final K key, final V value )
+	{
+		Objects.requireNonNull( value );
+		final int id = pool.getId( key );
+		final TIntObjectHashMap< V > segment = segment( id );
+		synchronized ( segment )
+		{
+			return segment.putIfAbsent( id, value );
+		}
+	}
+
+	@SuppressWarnings( "unchecked" )
+	@Override
+	public boolean remove( final Object key, final Object value )
+	{
+		if ( !keyType.isInstance( key ) || value == null )
+			return false;
+		final int id = pool.getId( ( K ) key );
+		final TIntObjectHashMap< V > segment = segment( id );
+		synchronized ( segment )
+		{
+			if ( !value.equals( segment.get( id ) ) )
+				return false;
+			segment.remove( id );
+			return true;
+		}
+	}
+
+	@Override
+	public boolean replace( final K key, final V oldValue, final V newValue )
+	{
+		Objects.requireNonNull( oldValue );
+		Objects.requireNonNull( newValue );
+		final int id = pool.getId( key );
+		final TIntObjectHashMap< V > segment = segment( id );
+		synchronized ( segment )
+		{
+			if ( !oldValue.equals( segment.get( id ) ) )
+				return false;
+			segment.put( id, newValue );
+			return true;
+		}
+	}
+
+	@Override
+	public V replace( final K key, final V value )
+	{
+		Objects.requireNonNull( value );
+		final int id = pool.getId( key );
+		final TIntObjectHashMap< V > segment = segment( id );
+		synchronized ( segment )
+		{
+			return segment.containsKey( id ) ? segment.put( id, value ) : null;
+		}
+	}
+
+	/**
+	 * Atomically computes a value for {@code key} if there is none yet. The
+	 * mapping function is called at most once, while holding the lock of the
+	 * segment of {@code key}. It must not modify this map.
+	 */
+	@Override
+	public V computeIfAbsent( final K key, final Function< ? super K, ? extends V > mappingFunction )
+	{
+		final int id = pool.getId( key );
+		final TIntObjectHashMap< V > segment = segment( id );
+		synchronized ( segment )
+		{
+			final V value = segment.get( id );
+			if ( value != null )
+				return value;
+			final V computed = mappingFunction.apply( key );
+			if ( computed != null )
+				segment.put( id, computed );
+			return computed;
+		}
+	}
+
+	@Override
+	public int size()
+	{
+		int size = 0;
+		for ( final TIntObjectHashMap< V > segment : segments )
+			synchronized ( segment )
+			{
+				size += segment.size();
+			}
+		return size;
+	}
+
+	@Override
+	public Collection< V > values()
+	{
+		final ArrayList< V > values = new ArrayList<>();
+		for ( final TIntObjectHashMap< V > segment : segments )
+			synchronized ( segment )
+			{
+				values.addAll( segment.valueCollection() );
+			}
+		return values;
+	}
+
+	@Override
+	public RefSetImp< K > keySet()
+	{
+		return new RefSetImp<>( pool, new TIntHashSet( keyIds() ) );
+	}
+
+	@Override
+	public void putAll( final Map< ? extends K, ? extends V > m )
+	{
+		for ( final Entry< ? extends K, ? extends V > entry : m.entrySet() )
+			put( entry.getKey(), entry.getValue() );
+	}
+
+	@Override
+	public Set< Entry< K, V > > entrySet()
+	{
+		return ( entrySet == null ) ? ( entrySet = new EntrySet() ) : entrySet;
+	}
+
+	final class EntrySet extends AbstractSet< Entry< K, V > >
+	{
+		@Override
+		public Iterator< Entry< K, V > > iterator()
+		{
+			final TIntArrayList ids = keyIds();
+
+			final int[] i = new int[] { -1 };
+
+			final Entry< K, V > entry = new Entry< K, V >()
+			{
+				final K ref = pool.createRef();
+
+				@Override
+				public K getKey()
+				{
+					return pool.getObject( ids.getQuick( i[ 0 ] ), ref );
+				}
+
+				@Override
+				public V getValue()
+				{
+					return getById( ids.getQuick( i[ 0 ] ) );
+				}
+
+				@Override
+				public V setValue( final V value )
+				{
+					Objects.requireNonNull( value );
+					return putById( ids.getQuick( i[ 0 ] ), value );
+				}
+			};
+
+			return new Iterator< Entry< K, V > >()
+			{
+				@Override
+				public boolean hasNext()
+				{
+					return i[ 0 ] + 1 < ids.size();
+				}
+
+				@Override
+				public Entry< K, V > next()
+				{
+					++i[ 0 ];
+					return entry;
+				}
+
+				@Override
+				public void remove()
+				{
+					final int id = ids.getQuick( i[ 0 ] );
+					final TIntObjectHashMap< V > segment = segment( id );
+					synchronized ( segment )
+					{
+						segment.remove( id );
+					}
+				}
+			};
+		}
+
+		@Override
+		public int size()
+		{
+			return ConcurrentRefObjectHashMap.this.size();
+		}
+	}
+
+	@Override
+	public boolean equals( final Object o )
+	{
+		if ( this == o )
+			return true;
+		if ( o == null || getClass() != o.getClass() )
+			return false;
+
+		final ConcurrentRefObjectHashMap< ?, ? > that = ( ConcurrentRefObjectHashMap< ?, ? > ) o;
+
+		if ( !pool.equals( that.pool ) || !keyType.equals( that.keyType ) )
+			return false;
+		if ( size() != that.size() )
+			return false;
+		final TIntArrayList ids = keyIds();
+		for ( int i = 0; i < ids.size(); ++i )
+		{
+			final int id = ids.getQuick( i );
+			if ( !Objects.equals( getById( id ), that.getById( id ) ) )
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode()
+	{
+		// TIntObjectHashMap.hashCode() is a sum over entries.
+		int result = 0;
+		for ( final TIntObjectHashMap< V > segment : segments )
+			synchronized ( segment )
+			{
+				result += segment.hashCode();
+			}
+		result = 31 * result + pool.hashCode();
+		result = 31 * result + keyType.hashCode();
+		return result;
+	}
+}
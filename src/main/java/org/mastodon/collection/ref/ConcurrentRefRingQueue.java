@@ -0,0 +1,468 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.mastodon.RefPool;
+
+import gnu.trove.list.array.TIntArrayList;
+
+/**
+ * A bounded, lock-free, thread-safe FIFO queue of objects from a
+ * {@link RefPool}, for passing objects between the stages of a
+ * producer/consumer pipeline without boxing or locking.
+ * <p>
+ * The queue is a ring buffer of pool indices in which every slot carries a
+ * sequence number (after D. Vyukov's bounded MPMC queue). Producers and
+ * consumers claim slots by advancing a shared position with a
+ * compare-and-set and publish them by updating the sequence number of the
+ * slot. With {@link Consumers#SINGLE} only one thread may take elements from
+ * the queue, which saves the compare-and-set on the consumer side. Any number
+ * of threads may put elements into the queue.
+ * <p>
+ * {@link #offer(Object)} and {@link #poll(Object)} never block. What
+ * {@link #put(Object)} and {@link #take(Object)} do if the queue is full or
+ * empty is determined by the {@link BackPressure} strategy of the queue.
+ * <p>
+ * The queue stores pool indices: if an object is deleted from the pool while
+ * its index is in the queue, the consumer will receive whatever object
+ * occupies that index.
+ *
+ * @param <O>
+ *            the type of elements maintained by this queue.
+ */
+public class ConcurrentRefRingQueue< O >
+{
+	/**
+	 * Number of threads that may take elements from the queue.
+	 */
+	public enum Consumers
+	{
+		/**
+		 * Only one thread takes elements (multiple-producer single-consumer).
+		 */
+		SINGLE,
+
+		/**
+		 * Any number of threads take elements (multiple-producer
+		 * multiple-consumer).
+		 */
+		MULTIPLE
+	}
+
+	/**
+	 * What {@link ConcurrentRefRingQueue#put(Object)} and
+	 * {@link ConcurrentRefRingQueue#take(Object)} do while the queue is full
+	 * or empty, respectively.
+	 */
+	public enum BackPressure
+	{
+		/**
+		 * Fail immediately: {@code put} throws {@link IllegalStateException},
+		 * {@code take} throws {@link NoSuchElementException}.
+		 */
+		FAIL,
+
+		/**
+		 * Retry in a busy loop. Lowest latency, burns a core while waiting.
+		 */
+		SPIN,
+
+		/**
+		 * Retry, calling {@link Thread#yield()} between attempts.
+		 */
+		YIELD,
+
+		/**
+		 * Retry, parking the thread for an increasing time (up to 1 ms)
+		 * between attempts.
+		 */
+		PARK
+	}
+
+	private static final long MAX_PARK_NANOS = 1_000_000;
+
+	private final RefPool< O > pool;
+
+	private final int[] buffer;
+
+	private final AtomicLongArray sequence;
+
+	private final int mask;
+
+	private final AtomicLong tail;
+
+	private final AtomicLong head;
+
+	private final boolean singleConsumer;
+
+	private final BackPressure backPressure;
+
+	/*
+	 * CONSTRUCTORS
+	 */
+
+	/**
+	 * Creates a new queue.
+	 *
+	 * @param pool
+	 *            the pool of elements.
+	 * @param capacity
+	 *            the maximum number of elements in the queue. This is rounded
+	 *            up to a power of two (at least 2).
+	 * @param consumers
+	 *            whether one or several threads take elements from the queue.
+	 * @param backPressure
+	 *            what {@link #put(Object)} and {@link #take(Object)} do while
+	 *            the queue is full or empty.
+	 */
+	public ConcurrentRefRingQueue( final RefPool< O > pool, final int capacity, final Consumers consumers, final BackPressure backPressure )
+	{
+		if ( capacity < 1 || capacity > 1 << 30 )
+			throw new IllegalArgumentException( "Illegal capacity: " + capacity );
+		this.pool = pool;
+		final int n = Math.max( 2, Integer.highestOneBit( capacity - 1 ) << 1 );
+		buffer = new int[ n ];
+		sequence = new AtomicLongArray( n );
+		for ( int i = 0; i < n; ++i )
+			sequence.set( i, i );
+		mask = n - 1;
+		tail = new AtomicLong();
+		head = new AtomicLong();
+		singleConsumer = consumers == Consumers.SINGLE;
+		this.backPressure = backPressure;
+	}
+
+	/**
+	 * Creates a new multiple-producer multiple-consumer queue that parks
+	 * waiting threads.
+	 *
+	 * @param pool
+	 *            the pool of elements.
+	 * @param capacity
+	 *            the maximum number of elements in the queue. This is rounded
+	 *            up to a power of two (at least 2).
+	 */
+	public ConcurrentRefRingQueue( final RefPool< O > pool, final int capacity )
+	{
+		this( pool, capacity, Consumers.MULTIPLE, BackPressure.PARK );
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	public O createRef()
+	{
+		return pool.createRef();
+	}
+
+	public void releaseRef( final O obj )
+	{
+		pool.releaseRef( obj );
+	}
+
+	public RefPool< O > getRefPool()
+	{
+		return pool;
+	}
+
+	/**
+	 * Returns the maximum number of elements in the queue.
+	 *
+	 * @return the capacity.
+	 */
+	public int capacity()
+	{
+		return buffer.length;
+	}
+
+	/**
+	 * Returns the number of elements in the queue. This is only a snapshot
+	 * when other threads modify the queue concurrently.
+	 *
+	 * @return the number of elements.
+	 */
+	public int size()
+	{
+		while ( true )
+		{
+			final long h = head.get();
+			final long t = tail.get();
+			if ( h == head.get() )
+				return ( int ) Math.max( 0, Math.min( buffer.length, t - h ) );
+		}
+	}
+
+	public boolean isEmpty()
+	{
+		return size() == 0;
+	}
+
+	/**
+	 * Inserts the specified element at the tail of this queue if there is
+	 * space.
+	 *
+	 * @param obj
+	 *            the element to add.
+	 * @return {@code true} if the element was added, {@code false} if the
+	 *         queue is full.
+	 */
+	public boolean offer( final O obj )
+	{
+		return offerId( pool.getId( obj ) );
+	}
+
+	/**
+	 * Inserts the specified pool index at the tail of this queue if there is
+	 * space.
+	 *
+	 * @param id
+	 *            the pool index to add.
+	 * @return {@code true} if the index was added, {@code false} if the queue
+	 *         is full.
+	 */
+	public boolean offerId( final int id )
+	{
+		long pos = tail.get();
+		while ( true )
+		{
+			final int slot = ( int ) pos & mask;
+			final long dif = sequence.get( slot ) - pos;
+			if ( dif == 0 )
+			{
+				if ( tail.compareAndSet( pos, pos + 1 ) )
+				{
+					buffer[ slot ] = id;
+					sequence.lazySet( slot, pos + 1 );
+					return true;
+				}
+				pos = tail.get();
+			}
+			else if ( dif < 0 )
+				return false;
+			else
+				pos = tail.get();
+		}
+	}
+
+	/**
+	 * Inserts the specified element at the tail of this queue, waiting for
+	 * space according to the {@link BackPressure} strategy.
+	 *
+	 * @param obj
+	 *            the element to add.
+	 * @throws IllegalStateException
+	 *             if the queue is full and the strategy is
+	 *             {@link BackPressure#FAIL}.
+	 */
+	public void put( final O obj )
+	{
+		final int id = pool.getId( obj );
+		long parkNanos = 1;
+		while ( !offerId( id ) )
+		{
+			if ( backPressure == BackPressure.FAIL )
+				throw new IllegalStateException( "Queue full" );
+			parkNanos = backOff( parkNanos );
+		}
+	}
+
+	/**
+	 * Inserts the specified element at the tail of this queue, waiting up to
+	 * the specified time for space to become available.
+	 *
+	 * @param obj
+	 *            the element to add.
+	 * @param timeout
+	 *            how long to wait before giving up.
+	 * @param unit
+	 *            the unit of {@code timeout}.
+	 * @return {@code true} if the element was added, {@code false} if the
+	 *         timeout elapsed.
+	 */
+	public boolean offer( final O obj, final long timeout, final TimeUnit unit )
+	{
+		final int id = pool.getId( obj );
+		final long deadline = System.nanoTime() + unit.toNanos( timeout );
+		long parkNanos = 1;
+		while ( !offerId( id ) )
+		{
+			if ( System.nanoTime() - deadline >= 0 )
+				return false;
+			parkNanos = backOff( parkNanos );
+		}
+		return true;
+	}
+
+	/**
+	 * Retrieves and removes the head of this queue, or returns {@code null}
+	 * if this queue is empty.
+	 *
+	 * @param obj
+	 *            the pool object ref to update with the content of the head
+	 *            item.
+	 * @return the given object, updated to be the head of this queue, or
+	 *         {@code null} if this queue is empty.
+	 */
+	public O poll( final O obj )
+	{
+		final int id = pollId();
+		return id < 0 ? null : pool.getObject( id, obj );
+	}
+
+	/**
+	 * Retrieves and removes the pool index at the head of this queue.
+	 *
+	 * @return the pool index, or {@code -1} if this queue is empty.
+	 */
+	public int pollId()
+	{
+		long pos = head.get();
+		while ( true )
+		{
+			final int slot = ( int ) pos & mask;
+			final long dif = sequence.get( slot ) - ( pos + 1 );
+			if ( dif == 0 )
+			{
+				if ( singleConsumer )
+					head.lazySet( pos + 1 );
+				else if ( !head.compareAndSet( pos, pos + 1 ) )
+				{
+					pos = head.get();
+					continue;
+				}
+				final int id = buffer[ slot ];
+				sequence.lazySet( slot, pos + mask + 1 );
+				return id;
+			}
+			else if ( dif < 0 )
+				return -1;
+			else
+				pos = head.get();
+		}
+	}
+
+	/**
+	 * Retrieves and removes the head of this queue, waiting for an element
+	 * according to the {@link BackPressure} strategy.
+	 *
+	 * @param obj
+	 *            the pool object ref to update with the content of the head
+	 *            item.
+	 * @return the given object, updated to be the head of this queue.
+	 * @throws NoSuchElementException
+	 *             if the queue is empty and the strategy is
+	 *             {@link BackPressure#FAIL}.
+	 */
+	public O take( final O obj )
+	{
+		long parkNanos = 1;
+		int id;
+		while ( ( id = pollId() ) < 0 )
+		{
+			if ( backPressure == BackPressure.FAIL )
+				throw new NoSuchElementException();
+			parkNanos = backOff( parkNanos );
+		}
+		return pool.getObject( id, obj );
+	}
+
+	/**
+	 * Removes all available elements from this queue and adds their pool
+	 * indices to {@code ids}.
+	 *
+	 * @param ids
+	 *            the list to add pool indices to.
+	 * @return the number of elements transferred.
+	 */
+	public int drainTo( final TIntArrayList ids )
+	{
+		return drainTo( ids, Integer.MAX_VALUE );
+	}
+
+	/**
+	 * Removes at most {@code maxElements} available elements from this queue
+	 * and adds their pool indices to {@code ids}.
+	 *
+	 * @param ids
+	 *            the list to add pool indices to.
+	 * @param maxElements
+	 *            the maximum number of elements to transfer.
+	 * @return the number of elements transferred.
+	 */
+	public int drainTo( final TIntArrayList ids, final int maxElements )
+	{
+		int n = 0;
+		int id;
+		while ( n < maxElements && ( id = pollId() ) >= 0 )
+		{
+			ids.add( id );
+			++n;
+		}
+		return n;
+	}
+
+	/**
+	 * Removes all available elements from this queue.
+	 */
+	public void clear()
+	{
+		while ( pollId() >= 0 )
+			;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * Waits before the next attempt, according to the {@link BackPressure}
+	 * strategy. Returns the next park time.
+	 */
+	private long backOff( final long parkNanos )
+	{
+		switch ( backPressure )
+		{
+		case YIELD:
+			Thread.yield();
+			return parkNanos;
+		case PARK:
+			LockSupport.parkNanos( parkNanos );
+			return Math.min( parkNanos * 2, MAX_PARK_NANOS );
+		default:
+			return parkNanos;
+		}
+	}
+}
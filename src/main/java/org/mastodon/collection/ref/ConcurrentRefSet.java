@@ -0,0 +1,345 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+import java.util.Collection;
+import java.util.Iterator;
+
+import org.mastodon.RefPool;
+import org.mastodon.collection.MaybeRefIterator;
+import org.mastodon.collection.RefSet;
+
+import gnu.trove.impl.Constants;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.set.hash.TIntHashSet;
+
+/**
+ * A thread-safe {@link RefSet} for objects from a {@link RefPool}.
+ * <p>
+ * Pool indices are distributed over a fixed number of segments. Each segment
+ * is a {@link TIntHashSet} guarded by its own lock, so that threads adding
+ * different objects rarely contend. {@link #add(Object)},
+ * {@link #remove(Object)} and {@link #contains(Object)} are atomic.
+ * <p>
+ * Operations spanning the whole set ({@link #size()}, {@link #iterator()},
+ * bulk operations, etc.) visit one segment after the other and are therefore
+ * only weakly consistent when other threads modify the set concurrently.
+ * Iterators work on a snapshot of the set; {@link Iterator#remove()} removes
+ * the element from the set.
+ *
+ * @param <O>
+ *            the type of elements maintained by this set.
+ */
+public class ConcurrentRefSet< O > implements RefPoolBackedRefCollection< O >, RefSet< O >
+{
+	private final TIntHashSet[] segments;
+
+	private final int segmentMask;
+
+	private final RefPool< O > pool;
+
+	private final Class< O > elementType;
+
+	/**
+	 * Creates a new set.
+	 *
+	 * @param pool
+	 *            the pool of elements.
+	 * @param initialCapacity
+	 *            the expected number of elements.
+	 * @param concurrencyLevel
+	 *            the expected number of concurrently writing threads. This is
+	 *            rounded up to a power of two, which is used as the number of
+	 *            segments.
+	 */
+	public ConcurrentRefSet( final RefPool< O > pool, final int initialCapacity, final int concurrencyLevel )
+	{
+		this.pool = pool;
+		elementType = pool.getRefClass();
+		final int numSegments = ConcurrentSegments.numSegments( concurrencyLevel );
+		final int segmentCapacity = Math.max( 1, initialCapacity / numSegments );
+		segments = new TIntHashSet[ numSegments ];
+		for ( int i = 0; i < numSegments; ++i )
+			segments[ i ] = new TIntHashSet( segmentCapacity );
+		segmentMask = numSegments - 1;
+	}
+
+	public ConcurrentRefSet( final RefPool< O > pool, final int initialCapacity )
+	{
+		this( pool, initialCapacity, ConcurrentSegments.DEFAULT_CONCURRENCY_LEVEL );
+	}
+
+	public ConcurrentRefSet( final RefPool< O > pool )
+	{
+		this( pool, Constants.DEFAULT_CAPACITY );
+	}
+
+	private TIntHashSet segment( final int id )
+	{
+		return segments[ ConcurrentSegments.segmentIndex( id, segmentMask ) ];
+	}
+
+	/**
+	 * Collects the elements of all segments.
+	 */
+	private TIntArrayList ids()
+	{
+		final TIntArrayList ids = new TIntArrayList();
+		for ( final TIntHashSet segment : segments )
+			synchronized ( segment )
+			{
+				ids.addAll( segment );
+			}
+		return ids;
+	}
+
+	@Override
+	public O createRef()
+	{
+		return pool.createRef();
+	}
+
+	@Override
+	public void releaseRef( final O obj )
+	{
+		pool.releaseRef( obj );
+	}
+
+	@Override
+	public RefPool< O > getRefPool()
+	{
+		return pool;
+	}
+
+	@Override
+	public boolean add( final O obj )
+	{
+		final int id = pool.getId( obj );
+		final TIntHashSet segment = segment( id );
+		synchronized ( segment )
+		{
+			return segment.add( id );
+		}
+	}
+
+	@Override
+	public boolean addAll( final Collection< ? extends O > objs )
+	{
+		boolean changed = false;
+		for ( final O obj : objs )
+			if ( add( obj ) )
+				changed = true;
+		return changed;
+	}
+
+	@Override
+	public void clear()
+	{
+		for ( final TIntHashSet segment : segments )
+			synchronized ( segment )
+			{
+				segment.clear();
+			}
+	}
+
+	@SuppressWarnings( "unchecked" )
+	@Override
+	public boolean contains( final Object obj )
+	{
+		if ( !elementType.isInstance( obj ) )
+			return false;
+		final int id = pool.getId( ( O ) obj );
+		final TIntHashSet segment = segment( id );
+		synchronized ( segment )
+		{
+			return segment.contains( id );
+		}
+	}
+
+	@Override
+	public boolean containsAll( final Collection< ? > objs )
+	{
+		for ( final Object obj : objs )
+			if ( !contains( obj ) )
+				return false;
+		return true;
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		for ( final TIntHashSet segment : segments )
+			synchronized ( segment )
+			{
+				if ( !segment.isEmpty() )
+					return false;
+			}
+		return true;
+	}
+
+	@Override
+	public Iterator< O > iterator()
+	{
+		return new Iter();
+	}
+
+	class Iter implements Iterator< O >, MaybeRefIterator
+	{
+		final TIntArrayList ids = ids();
+
+		final O obj = pool.createRef();
+
+		int i = 0;
+
+		@Override
+		public boolean hasNext()
+		{
+			return i < ids.size();
+		}
+
+		@Override
+		public O next()
+		{
+			return pool.getObject( ids.getQuick( i++ ), obj );
+		}
+
+		@Override
+		public void remove()
+		{
+			final int id = ids.getQuick( i - 1 );
+			final TIntHashSet segment = segment( id );
+			synchronized ( segment )
+			{
+				segment.remove( id );
+			}
+		}
+
+		@Override
+		public boolean isRefIterator()
+		{
+			return true;
+		}
+	}
+
+	@SuppressWarnings( "unchecked" )
+	@Override
+	public boolean remove( final Object obj )
+	{
+		if ( !elementType.isInstance( obj ) )
+			return false;
+		final int id = pool.getId( ( O ) obj );
+		final TIntHashSet segment = segment( id );
+		synchronized ( segment )
+		{
+			return segment.remove( id );
+		}
+	}
+
+	@Override
+	public boolean removeAll( final Collection< ? > objs )
+	{
+		boolean changed = false;
+		for ( final Object obj : objs )
+			if ( remove( obj ) )
+				changed = true;
+		return changed;
+	}
+
+	@Override
+	public boolean retainAll( final Collection< ? > objs )
+	{
+		boolean changed = false;
+		final Iterator< O > it = iterator();
+		while ( it.hasNext() )
+		{
+			final O o = it.next();
+			if ( !objs.contains( o ) )
+			{
+				it.remove();
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	@Override
+	public int size()
+	{
+		int size = 0;
+		for ( final TIntHashSet segment : segments )
+			synchronized ( segment )
+			{
+				size += segment.size();
+			}
+		return size;
+	}
+
+	@Override
+	public Object[] toArray()
+	{
+		return toArray( new Object[ 0 ] );
+	}
+
+	@SuppressWarnings( "unchecked" )
+	@Override
+	public < A > A[] toArray( final A[] a )
+	{
+		final TIntArrayList ids = ids();
+		final int size = ids.size();
+		final A[] array = ( a.length < size )
+				? ( A[] ) new Object[ size ]
+				: a;
+		for ( int i = 0; i < size; ++i )
+			array[ i ] = ( A ) pool.getObject( ids.getQuick( i ), createRef() );
+
+		// nullify the rest
+		for ( int i = size; i < array.length; i++ )
+			array[ i ] = null;
+		return array;
+	}
+
+	@Override
+	public String toString()
+	{
+		final Iterator< O > i = iterator();
+		if ( !i.hasNext() )
+			return "[]";
+
+		final StringBuilder sb = new StringBuilder();
+		sb.append( '[' );
+		for ( ;; )
+		{
+			final O e = i.next();
+			sb.append( e );
+			if ( !i.hasNext() )
+				return sb.append( ']' ).toString();
+			sb.append( ", " );
+		}
+	}
+}
@@ -0,0 +1,60 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+/**
+ * Helpers for the lock-striped concurrent collections in this package, which
+ * distribute pool indices over a power-of-two number of segments.
+ */
+final class ConcurrentSegments
+{
+	static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+	/**
+	 * Returns the smallest power of two {@code >= concurrencyLevel} (at least
+	 * 1 and at most 2<sup>16</sup>).
+	 */
+	static int numSegments( final int concurrencyLevel )
+	{
+		final int level = Math.max( 1, Math.min( 1 << 16, concurrencyLevel ) );
+		return level == 1 ? 1 : Integer.highestOneBit( level - 1 ) << 1;
+	}
+
+	/**
+	 * Returns the index of the segment for pool index {@code id}. Pool indices
+	 * are dense, so the low bits distribute well.
+	 */
+	static int segmentIndex( final int id, final int segmentMask )
+	{
+		return ( id ^ ( id >>> 16 ) ) & segmentMask;
+	}
+
+	private ConcurrentSegments()
+	{}
+}
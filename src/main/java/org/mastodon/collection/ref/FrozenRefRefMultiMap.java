@@ -0,0 +1,211 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+import java.util.Arrays;
+
+import org.mastodon.RefPool;
+import org.mastodon.collection.RefRefMultiMap;
+import org.mastodon.collection.RefSet;
+
+import gnu.trove.set.TIntSortedArraySet;
+
+/**
+ * An immutable {@link RefRefMultiMap} implementation in compressed sparse row
+ * (CSR) layout.
+ * <p>
+ * The key pool indices are stored in a sorted {@code int[]}. The values of all
+ * keys are stored consecutively in a single {@code int[]} of value pool
+ * indices, and the values of the {@code k}-th key are found in the range
+ * {@code offsets[k]} (inclusive) to {@code offsets[k+1]} (exclusive). This
+ * uses 4 bytes per association plus 8 bytes per key. Looking up a key is a
+ * binary search.
+ * <p>
+ * Instances are created by {@link RefRefMultiHashMap#freeze()}. All modifying
+ * methods throw {@link UnsupportedOperationException}.
+ *
+ * @param <K>
+ *            key type.
+ * @param <V>
+ *            value type.
+ */
+public class FrozenRefRefMultiMap< K, V > implements RefRefMultiMap< K, V >
+{
+	/**
+	 * Sorted key pool indices.
+	 */
+	private final int[] keys;
+
+	/**
+	 * {@code offsets[k]} is the index in {@link #values} of the first value of
+	 * {@code keys[k]}. {@code offsets[keys.length] == values.length}.
+	 */
+	private final int[] offsets;
+
+	/**
+	 * Value pool indices, grouped by key.
+	 */
+	private final int[] values;
+
+	private final RefPool< K > keyPool;
+
+	private final RefPool< V > valuePool;
+
+	private final Class< K > keyType;
+
+	private final Class< V > valueType;
+
+	FrozenRefRefMultiMap( final RefPool< K > keyPool, final RefPool< V > valuePool, final int[] keys, final int[] offsets, final int[] values )
+	{
+		this.keys = keys;
+		this.offsets = offsets;
+		this.values = values;
+		this.keyPool = keyPool;
+		this.valuePool = valuePool;
+		this.keyType = keyPool.getRefClass();
+		this.valueType = valuePool.getRefClass();
+	}
+
+	/**
+	 * Returns the approximate memory used by the arrays of this map.
+	 *
+	 * @return size of this map in bytes.
+	 */
+	public long getSizeInBytes()
+	{
+		return 4L * ( keys.length + offsets.length + values.length );
+	}
+
+	@Override
+	public V createValueRef()
+	{
+		return valuePool.createRef();
+	}
+
+	@Override
+	public void releaseValueRef( final V obj )
+	{
+		valuePool.releaseRef( obj );
+	}
+
+	@Override
+	public int size()
+	{
+		return keys.length;
+	}
+
+	@Override
+	public int numValues()
+	{
+		return values.length;
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		return keys.length == 0;
+	}
+
+	@Override
+	public boolean containsKey( final Object key )
+	{
+		return slot( key ) >= 0;
+	}
+
+	@SuppressWarnings( "unchecked" )
+	@Override
+	public boolean containsEntry( final Object key, final Object value )
+	{
+		final int k = slot( key );
+		if ( k < 0 || !valueType.isInstance( value ) )
+			return false;
+		final int valueId = valuePool.getId( ( V ) value );
+		for ( int i = offsets[ k ]; i < offsets[ k + 1 ]; ++i )
+			if ( values[ i ] == valueId )
+				return true;
+		return false;
+	}
+
+	@Override
+	public int count( final Object key )
+	{
+		final int k = slot( key );
+		return k < 0 ? 0 : offsets[ k + 1 ] - offsets[ k ];
+	}
+
+	@Override
+	public V get( final Object key, final int i, final V ref )
+	{
+		final int k = slot( key );
+		final int count = k < 0 ? 0 : offsets[ k + 1 ] - offsets[ k ];
+		if ( i < 0 || i >= count )
+			throw new IndexOutOfBoundsException( "index " + i + ", count " + count );
+		return valuePool.getObject( values[ offsets[ k ] + i ], ref );
+	}
+
+	@Override
+	public RefSet< K > keySet()
+	{
+		return new FrozenRefSet<>( keyPool, new TIntSortedArraySet( keys ) );
+	}
+
+	@Override
+	public void put( final K key, final V value )
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean remove( final Object key, final Object value )
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public int removeAll( final Object key )
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void clear()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Returns the position of {@code key} in {@link #keys}, or a negative
+	 * number if {@code key} is not in the map.
+	 */
+	@SuppressWarnings( "unchecked" )
+	private int slot( final Object key )
+	{
+		return keyType.isInstance( key ) ? Arrays.binarySearch( keys, keyPool.getId( ( K ) key ) ) : -1;
+	}
+}
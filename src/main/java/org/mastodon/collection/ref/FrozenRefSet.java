@@ -0,0 +1,108 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+import org.mastodon.RefPool;
+import org.mastodon.collection.RefCollections;
+import org.mastodon.collection.RefSet;
+
+import gnu.trove.TIntCollection;
+import gnu.trove.set.TIntSortedArraySet;
+
+/**
+ * An immutable {@link RefSet} implementation backed by a sorted array of pool
+ * indices ({@link TIntSortedArraySet}).
+ * <p>
+ * This is intended for sets that are built once and then only queried (see
+ * {@link RefCollections#freeze(RefSet)}). It uses 4 bytes per element,
+ * {@link #contains(Object)} is a binary search, iteration is sequential in
+ * ascending index order, and intersections with other {@link FrozenRefSet}s
+ * (see {@link #intersection(FrozenRefSet)}) use galloping search.
+ * <p>
+ * All modifying methods throw {@link UnsupportedOperationException}.
+ *
+ * @param <O>
+ *            the type of elements maintained by this set.
+ */
+public class FrozenRefSet< O > extends RefSetImp< O >
+{
+	private final TIntSortedArraySet indices;
+
+	/**
+	 * Creates a set of the objects with the given pool indices.
+	 *
+	 * @param pool
+	 *            the pool of the objects in the set.
+	 * @param indices
+	 *            the pool indices of the objects in the set.
+	 */
+	public FrozenRefSet( final RefPool< O > pool, final TIntCollection indices )
+	{
+		this( pool, new TIntSortedArraySet( indices ) );
+	}
+
+	private FrozenRefSet( final RefPool< O > pool, final TIntSortedArraySet indices )
+	{
+		super( pool, indices );
+		this.indices = indices;
+	}
+
+	/**
+	 * Computes the intersection of this set and {@code other}.
+	 *
+	 * @param other
+	 *            the set to intersect with.
+	 * @return a new {@link FrozenRefSet} containing the objects present in
+	 *         both sets.
+	 */
+	public FrozenRefSet< O > intersection( final FrozenRefSet< O > other )
+	{
+		return new FrozenRefSet<>( getRefPool(), indices.intersection( other.indices ) );
+	}
+
+	/**
+	 * Returns the element at position {@code i} in ascending index order.
+	 *
+	 * @param i
+	 *            the position, {@code 0 <= i < size()}.
+	 * @param ref
+	 *            a reference that is used to return the element.
+	 * @return the element at position {@code i}.
+	 */
+	public O get( final int i, final O ref )
+	{
+		return getRefPool().getObject( indices.get( i ), ref );
+	}
+
+	@Override
+	public TIntSortedArraySet getIndexCollection()
+	{
+		return indices;
+	}
+}
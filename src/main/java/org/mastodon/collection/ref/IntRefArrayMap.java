@@ -114,6 +114,59 @@ public class IntRefArrayMap< V > implements IntRefMap< V >
 		pool.releaseRef( obj );
 	}
 
+	/**
+	 * Associates the object with pool index {@code ids[i]} with
+	 * {@code keys[i]}, for all {@code i}. The backing array is grown once up
+	 * front.
+	 *
+	 * @param keys
+	 *            the keys.
+	 * @param ids
+	 *            pool indices of the values (see
+	 *            {@link RefPool#getId(Object)}), {@code ids.length == keys.length}.
+	 */
+	public void putAll( final int[] keys, final int[] ids )
+	{
+		if ( keys.length != ids.length )
+			throw new IllegalArgumentException( "keys and ids must have the same length" );
+		int maxKey = -1;
+		for ( final int key : keys )
+			maxKey = Math.max( maxKey, key );
+		if ( maxKey >= keyToIndexMap.size() )
+			keyToIndexMap.fill( keyToIndexMap.size(), maxKey + 1, NO_ENTRY_VALUE );
+		for ( int i = 0; i < keys.length; ++i )
+			if ( keyToIndexMap.set( keys[ i ], ids[ i ] ) < 0 )
+				++size;
+	}
+
+	/**
+	 * Stores the pool index of the value associated with {@code keys[i]} into
+	 * {@code outIds[i]}, for all {@code i}. For keys that are not in the map,
+	 * {@code -1} is stored.
+	 *
+	 * @param keys
+	 *            the keys.
+	 * @param outIds
+	 *            array to store the pool indices in,
+	 *            {@code outIds.length >= keys.length}. If {@code null}, a new
+	 *            array is allocated.
+	 * @return {@code outIds}, or the newly allocated array.
+	 */
+	public int[] getIds( final int[] keys, final int[] outIds )
+	{
+		final int[] result = outIds == null ? new int[ keys.length ] : outIds;
+		if ( result.length < keys.length )
+			throw new IllegalArgumentException( "outIds is too small" );
+		final int n = keyToIndexMap.size();
+		for ( int i = 0; i < keys.length; ++i )
+		{
+			final int key = keys[ i ];
+			final int id = ( key >= 0 && key < n ) ? keyToIndexMap.getQuick( key ) : NO_ENTRY_VALUE;
+			result[ i ] = id >= 0 ? id : -1;
+		}
+		return result;
+	}
+
 	@Override
 	public void clear()
 	{
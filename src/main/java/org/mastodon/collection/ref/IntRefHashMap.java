@@ -41,7 +41,6 @@ import gnu.trove.impl.Constants;
 import gnu.trove.iterator.TIntIntIterator;
 import gnu.trove.iterator.TIntIterator;
 import gnu.trove.iterator.TIntObjectIterator;
-import gnu.trove.map.TIntIntMap;
 import gnu.trove.map.TIntObjectMap;
 import gnu.trove.map.hash.TIntIntHashMap;
 import gnu.trove.procedure.TIntObjectProcedure;
@@ -68,7 +67,7 @@ import gnu.trove.set.TIntSet;
  */
 public class IntRefHashMap< V > implements IntRefMap< V >
 {
-	private final TIntIntMap keyToIndexMap;
+	private final TIntIntHashMap keyToIndexMap;
 
 	private final RefPool< V > pool;
 
@@ -118,6 +117,49 @@ public class IntRefHashMap< V > implements IntRefMap< V >
 		pool.releaseRef( obj );
 	}
 
+	/**
+	 * Associates the object with pool index {@code ids[i]} with
+	 * {@code keys[i]}, for all {@code i}. The backing map is resized once up
+	 * front, so that it does not rehash during the batch.
+	 *
+	 * @param keys
+	 *            the keys.
+	 * @param ids
+	 *            pool indices of the values (see
+	 *            {@link RefPool#getId(Object)}), {@code ids.length == keys.length}.
+	 */
+	public void putAll( final int[] keys, final int[] ids )
+	{
+		if ( keys.length != ids.length )
+			throw new IllegalArgumentException( "keys and ids must have the same length" );
+		keyToIndexMap.ensureCapacity( keys.length );
+		for ( int i = 0; i < keys.length; ++i )
+			keyToIndexMap.put( keys[ i ], ids[ i ] );
+	}
+
+	/**
+	 * Stores the pool index of the value associated with {@code keys[i]} into
+	 * {@code outIds[i]}, for all {@code i}. For keys that are not in the map,
+	 * {@code -1} is stored.
+	 *
+	 * @param keys
+	 *            the keys.
+	 * @param outIds
+	 *            array to store the pool indices in,
+	 *            {@code outIds.length >= keys.length}. If {@code null}, a new
+	 *            array is allocated.
+	 * @return {@code outIds}, or the newly allocated array.
+	 */
+	public int[] getIds( final int[] keys, final int[] outIds )
+	{
+		final int[] result = outIds == null ? new int[ keys.length ] : outIds;
+		if ( result.length < keys.length )
+			throw new IllegalArgumentException( "outIds is too small" );
+		for ( int i = 0; i < keys.length; ++i )
+			result[ i ] = keyToIndexMap.get( keys[ i ] );
+		return result;
+	}
+
 	@Override
 	public void clear()
 	{
@@ -0,0 +1,561 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.mastodon.Ref;
+import org.mastodon.RefPool;
+import org.mastodon.collection.LongRefMap;
+
+import gnu.trove.function.TObjectFunction;
+import gnu.trove.impl.Constants;
+import gnu.trove.iterator.TIntIterator;
+import gnu.trove.iterator.TLongIntIterator;
+import gnu.trove.iterator.TLongObjectIterator;
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.procedure.TLongObjectProcedure;
+import gnu.trove.procedure.TLongProcedure;
+import gnu.trove.procedure.TObjectProcedure;
+import gnu.trove.set.TLongSet;
+
+
+/**
+ * A {@link LongRefMap} implementation for {@link Ref} objects, based on a Trove
+ * TLongIntHashMap.
+ * <p>
+ * This is intended for mapping 64-bit ids (for example, ids of objects in
+ * external files) to pool objects, without boxing the keys.
+ *
+ * @param <V>
+ *            value type.
+ */
+public class LongRefHashMap< V > implements LongRefMap< V >
+{
+	private final TLongIntMap keyToIndexMap;
+
+	private final RefPool< V > pool;
+
+	private final Class< V > valueType;
+
+	public LongRefHashMap( final RefPool< V > pool, final long noEntryKey )
+	{
+		this( pool, noEntryKey, Constants.DEFAULT_CAPACITY );
+	}
+
+	public LongRefHashMap( final RefPool< V > pool, final long noEntryKey, final int initialCapacity )
+	{
+		this.pool = pool;
+		valueType = pool.getRefClass();
+		keyToIndexMap = new TLongIntHashMap( initialCapacity, Constants.DEFAULT_LOAD_FACTOR, noEntryKey, -1 )
+		{
+			// We need to do this to honor exactly the contract on toArray(long[]).
+			@Override
+			public TLongSet keySet()
+			{
+				return new TLongIntHashMap.TKeyView()
+				{
+					@Override
+					public long[] toArray( final long[] dest )
+					{
+						final long[] arr = super.toArray( dest );
+						for ( int i = size(); i < arr.length; i++ )
+						{
+							arr[ i ] = noEntryKey;
+						}
+						return arr;
+					}
+				};
+			}
+		};
+	}
+
+	@Override
+	public V createRef()
+	{
+		return pool.createRef();
+	}
+
+	@Override
+	public void releaseRef( final V obj )
+	{
+		pool.releaseRef( obj );
+	}
+
+	@Override
+	public void clear()
+	{
+		keyToIndexMap.clear();
+	}
+
+	@Override
+	public V get( final long key )
+	{
+		return get( key, pool.createRef() );
+	}
+
+	@Override
+	public V get( final long key, final V obj )
+	{
+		final int index = keyToIndexMap.get( key );
+		if ( index >= 0 )
+			return pool.getObject( index, obj );
+		else
+			return null;
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		return keyToIndexMap.isEmpty();
+	}
+
+	@Override
+	public V put( final long key, final V obj )
+	{
+		return put( key, obj, pool.createRef() );
+	}
+
+	@Override
+	public V put( final long key, final V obj, final V replacedObj )
+	{
+		final int old = keyToIndexMap.put( key, pool.getId( obj ) );
+		if ( old >= 0 )
+			return pool.getObject( old, replacedObj );
+		else
+			return null;
+	}
+
+	@Override
+	public V remove( final long key )
+	{
+		return remove( key, pool.createRef() );
+	}
+
+	@Override
+	public V remove( final long key, final V obj )
+	{
+		final int old = keyToIndexMap.remove( key );
+		if ( old >= 0 )
+			return pool.getObject( old, obj );
+		else
+			return null;
+	}
+
+	@Override
+	public int size()
+	{
+		return keyToIndexMap.size();
+	}
+
+	@Override
+	public long getNoEntryKey()
+	{
+		return keyToIndexMap.getNoEntryKey();
+	}
+
+	@Override
+	public boolean containsKey( final long key )
+	{
+		return keyToIndexMap.containsKey( key );
+	}
+
+	@SuppressWarnings( "unchecked" )
+	@Override
+	public boolean containsValue( final Object value )
+	{
+		if ( valueType.isInstance( value ) )
+			return keyToIndexMap.containsValue( pool.getId( ( V ) value ) );
+		else
+			return false;
+	}
+
+	@Override
+	public V putIfAbsent( final long key, final V value )
+	{
+		return put( key, value, createRef() );
+	}
+
+	@Override
+	public V putIfAbsent( final long key, final V value, final V obj )
+	{
+		final int replaced = keyToIndexMap.putIfAbsent( key, pool.getId( value ) );
+		if ( replaced >= 0 )
+			return pool.getObject( replaced, obj );
+		else
+			return null;
+	}
+
+	@Override
+	public void putAll( final Map< ? extends Long, ? extends V > m )
+	{
+		final V ref = pool.createRef();
+		for ( final Long k : m.keySet() )
+		{
+			final V val = m.get( k );
+			put( k, val, ref );
+		}
+		pool.releaseRef( ref );
+	}
+
+	@Override
+	public void putAll( final TLongObjectMap< ? extends V > map )
+	{
+		final V ref = pool.createRef();
+		for ( final long key : map.keys() )
+		{
+			final V val = map.get( key );
+			put( key, val, ref );
+		}
+		pool.releaseRef( ref );
+	}
+
+	@Override
+	public TLongSet keySet()
+	{
+		return keyToIndexMap.keySet();
+	}
+
+	@Override
+	public long[] keys()
+	{
+		return keyToIndexMap.keys();
+	}
+
+	@Override
+	public long[] keys( final long[] array )
+	{
+		return keyToIndexMap.keys( array );
+	}
+
+	@Override
+	public Collection< V > valueCollection()
+	{
+		return new ValueCollection();
+	}
+
+	@Override
+	public Object[] values()
+	{
+		return valueCollection().toArray();
+	}
+
+	@Override
+	public V[] values( final V[] array )
+	{
+		return valueCollection().toArray( array );
+	}
+
+	@Override
+	public TLongObjectIterator< V > iterator()
+	{
+		return new TLongObjectIterator< V >()
+		{
+			private final TLongIntIterator it = keyToIndexMap.iterator();
+
+			private final V ref = pool.createRef();
+
+			@Override
+			public void advance()
+			{
+				it.advance();
+			}
+
+			@Override
+			public boolean hasNext()
+			{
+				return it.hasNext();
+			}
+
+			@Override
+			public void remove()
+			{
+				it.remove();
+			}
+
+			@Override
+			public long key()
+			{
+				return it.key();
+			}
+
+			@Override
+			public V value()
+			{
+				final int poolIndex = it.value();
+				return pool.getObject( poolIndex, ref );
+			}
+
+			@Override
+			public V setValue( final V val )
+			{
+				return put( it.key(), val, ref );
+			}
+		};
+	}
+
+	@Override
+	public boolean forEachKey( final TLongProcedure procedure )
+	{
+		return keyToIndexMap.forEachKey( procedure );
+	}
+
+	@Override
+	public boolean forEachValue( final TObjectProcedure< ? super V > procedure )
+	{
+		final TLongObjectIterator< V > it = iterator();
+		while ( it.hasNext() )
+		{
+			it.advance();
+			if ( !procedure.execute( it.value() ) )
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean forEachEntry( final TLongObjectProcedure< ? super V > procedure )
+	{
+		final TLongObjectIterator< V > it = iterator();
+		while ( it.hasNext() )
+		{
+			it.advance();
+			if ( !procedure.execute( it.key(), it.value() ) )
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	public void transformValues( final TObjectFunction< V, V > function )
+	{
+		final TLongObjectIterator< V > it = iterator();
+		while ( it.hasNext() )
+		{
+			it.advance();
+			final V newValue = function.execute( it.value() );
+			it.setValue( newValue );
+		}
+	}
+
+	@Override
+	public boolean retainEntries( final TLongObjectProcedure< ? super V > procedure )
+	{
+		final TLongObjectIterator< V > it = iterator();
+		boolean changed = false;
+		while ( it.hasNext() )
+		{
+			it.advance();
+			if ( !procedure.execute( it.key(), it.value() ) )
+			{
+				it.remove();
+				changed = true;
+
+			}
+		}
+		return changed;
+	}
+
+	/*
+	 * PRIVATE CLASS
+	 */
+
+	private class ValueCollection implements Collection< V >
+	{
+
+		@Override
+		public int size()
+		{
+			return LongRefHashMap.this.size();
+		}
+
+		@Override
+		public boolean isEmpty()
+		{
+			return LongRefHashMap.this.isEmpty();
+		}
+
+		@SuppressWarnings( "unchecked" )
+		@Override
+		public boolean contains( final Object value )
+		{
+			if ( valueType.isInstance( value ) )
+				return keyToIndexMap.containsValue( pool.getId( ( V ) value ) );
+			else
+				return false;
+		}
+
+		@Override
+		public Iterator< V > iterator()
+		{
+			return new Iterator< V >()
+			{
+				private final TIntIterator it = keyToIndexMap.valueCollection().iterator();
+
+				private final V ref = pool.createRef();
+
+				@Override
+				public boolean hasNext()
+				{
+					return it.hasNext();
+				}
+
+				@Override
+				public V next()
+				{
+					final int poolIndex = it.next();
+					return pool.getObject( poolIndex, ref );
+				}
+
+				@Override
+				public void remove()
+				{
+					it.remove();
+				}
+			};
+		}
+
+		@Override
+		public Object[] toArray()
+		{
+			final Object[] arr = new Object[ size() ];
+			return toArray( arr );
+		}
+
+		@SuppressWarnings( "unchecked" )
+		@Override
+		public < T > T[] toArray( final T[] a )
+		{
+			final Object[] arr;
+			if ( a.length < size() )
+			{
+				arr = new Object[ size() ];
+			}
+			else
+			{
+				arr = a;
+			}
+
+			int i = 0;
+			for ( final long key : keys() )
+			{
+				final V ref = pool.createRef();
+				arr[ i++ ] = get( key, ref );
+			}
+			// nullify the rest.
+			for ( int j = i; j < arr.length; j++ )
+			{
+				arr[ j ] = null;
+			}
+			return ( T[] ) arr;
+		}
+
+		@Override
+		public boolean remove( final Object o )
+		{
+			// Use iterator
+			final Iterator< V > it = iterator();
+			while ( it.hasNext() )
+			{
+				if ( it.next().equals( o ) )
+				{
+					it.remove();
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public boolean containsAll( final Collection< ? > c )
+		{
+			for ( final Object obj : c )
+			{
+				if ( !contains( obj ) )
+					return false;
+			}
+			return true;
+		}
+
+
+		@Override
+		public boolean removeAll( final Collection< ? > c )
+		{
+			boolean changed = false;
+			final Iterator< V > it = iterator();
+			while ( it.hasNext() )
+			{
+				if ( c.contains( it.next() ) )
+				{
+					it.remove();
+					changed = true;
+				}
+			}
+			return changed;
+		}
+
+		@Override
+		public boolean retainAll( final Collection< ? > c )
+		{
+			boolean changed = false;
+			final Iterator< V > it = iterator();
+			while ( it.hasNext() )
+			{
+				if ( !c.contains( it.next() ) )
+				{
+					it.remove();
+					changed = true;
+				}
+			}
+			return changed;
+		}
+
+		@Override
+		public void clear()
+		{
+			LongRefHashMap.this.clear();
+		}
+
+		@Override
+		public boolean add( final V e )
+		{
+			throw new UnsupportedOperationException( "add is not supported for valueCollection view." );
+		}
+
+		@Override
+		public boolean addAll( final Collection< ? extends V > c )
+		{
+			throw new UnsupportedOperationException( "addAll is not supported for valueCollection view." );
+		}
+	}
+}
@@ -36,10 +36,18 @@ import java.util.List;
 import java.util.ListIterator;
 import java.util.NoSuchElementException;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.ObjIntConsumer;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+import java.util.stream.IntStream;
 
 import org.mastodon.Ref;
 import org.mastodon.RefPool;
 import org.mastodon.collection.RefList;
+import org.mastodon.collection.algorithm.ParallelMergeSort;
+import org.mastodon.collection.algorithm.PrimitiveKeySort;
 
 import gnu.trove.TIntCollection;
 import gnu.trove.iterator.TIntIterator;
@@ -538,6 +546,40 @@ public class RefArrayList< O > implements IntBackedRefCollection< O >, RefPoolBa
 		quicksort( 0, size() - 1, comparator, createRef(), createRef() );
 	}
 
+	/**
+	 * Sort the values in the list, in ascending order according to the
+	 * specified {@link Comparator}, using a parallel merge sort (see
+	 * {@link ParallelMergeSort}). The sort is stable. The comparator is called
+	 * concurrently from several threads (with different reference objects),
+	 * so it must be thread-safe.
+	 *
+	 * @param comparator
+	 *            the comparator to use for ordering.
+	 */
+	public void parallelSort( final Comparator< ? super O > comparator )
+	{
+		parallelSort( comparator, ParallelMergeSort.DEFAULT_PARALLEL_THRESHOLD );
+	}
+
+	/**
+	 * Sort the values in the list, in ascending order according to the
+	 * specified {@link Comparator}, using a parallel merge sort (see
+	 * {@link ParallelMergeSort}). The sort is stable. The comparator is called
+	 * concurrently from several threads (with different reference objects),
+	 * so it must be thread-safe.
+	 *
+	 * @param comparator
+	 *            the comparator to use for ordering.
+	 * @param threshold
+	 *            size above which sublists are sorted in parallel sub-tasks.
+	 */
+	public void parallelSort( final Comparator< ? super O > comparator, final int threshold )
+	{
+		final int[] ids = indices.toArray();
+		ParallelMergeSort.sort( ids, pool, comparator, threshold );
+		indices.set( 0, ids );
+	}
+
 	private void quicksort( final int low, final int high, final Comparator< ? super O > comparator, final O tmpRef1, final O tmpRef2 )
 	{
 		final O pivot = get( ( low + high ) / 2, tmpRef1 );
@@ -566,6 +608,126 @@ public class RefArrayList< O > implements IntBackedRefCollection< O >, RefPoolBa
 			quicksort( i, high, comparator, tmpRef1, tmpRef2 );
 	}
 
+	@Override
+	public void sortByInt( final ToIntFunction< ? super O > key )
+	{
+		sortByInt( key, false );
+	}
+
+	@Override
+	public void sortByLong( final ToLongFunction< ? super O > key )
+	{
+		sortByLong( key, false );
+	}
+
+	@Override
+	public void sortByDouble( final ToDoubleFunction< ? super O > key )
+	{
+		sortByDouble( key, false );
+	}
+
+	/**
+	 * Parallel version of {@link #sortByInt(ToIntFunction)}. Keys are computed
+	 * and sorted using the common {@link ForkJoinPool}, so {@code key} must be
+	 * safe to call from several threads (with different reference objects).
+	 *
+	 * @param key
+	 *            computes the sort key of an element.
+	 */
+	public void parallelSortByInt( final ToIntFunction< ? super O > key )
+	{
+		sortByInt( key, true );
+	}
+
+	/**
+	 * Parallel version of {@link #sortByLong(ToLongFunction)}. Keys are
+	 * computed and sorted using the common {@link ForkJoinPool}, so
+	 * {@code key} must be safe to call from several threads (with different
+	 * reference objects).
+	 *
+	 * @param key
+	 *            computes the sort key of an element.
+	 */
+	public void parallelSortByLong( final ToLongFunction< ? super O > key )
+	{
+		sortByLong( key, true );
+	}
+
+	/**
+	 * Parallel version of {@link #sortByDouble(ToDoubleFunction)}. Keys are
+	 * computed and sorted using the common {@link ForkJoinPool}, so
+	 * {@code key} must be safe to call from several threads (with different
+	 * reference objects).
+	 *
+	 * @param key
+	 *            computes the sort key of an element.
+	 */
+	public void parallelSortByDouble( final ToDoubleFunction< ? super O > key )
+	{
+		sortByDouble( key, true );
+	}
+
+	private void sortByInt( final ToIntFunction< ? super O > key, final boolean parallel )
+	{
+		final int[] ids = indices.toArray();
+		final int[] keys = new int[ ids.length ];
+		forEachIndex( ids, parallel, ( obj, i ) -> keys[ i ] = key.applyAsInt( obj ) );
+		if ( parallel )
+			PrimitiveKeySort.parallelSort( keys, ids );
+		else
+			PrimitiveKeySort.sort( keys, ids );
+		indices.set( 0, ids );
+	}
+
+	private void sortByLong( final ToLongFunction< ? super O > key, final boolean parallel )
+	{
+		final int[] ids = indices.toArray();
+		final long[] keys = new long[ ids.length ];
+		forEachIndex( ids, parallel, ( obj, i ) -> keys[ i ] = key.applyAsLong( obj ) );
+		if ( parallel )
+			PrimitiveKeySort.parallelSort( keys, ids );
+		else
+			PrimitiveKeySort.sort( keys, ids );
+		indices.set( 0, ids );
+	}
+
+	private void sortByDouble( final ToDoubleFunction< ? super O > key, final boolean parallel )
+	{
+		final int[] ids = indices.toArray();
+		final double[] keys = new double[ ids.length ];
+		forEachIndex( ids, parallel, ( obj, i ) -> keys[ i ] = key.applyAsDouble( obj ) );
+		if ( parallel )
+			PrimitiveKeySort.parallelSort( keys, ids );
+		else
+			PrimitiveKeySort.sort( keys, ids );
+		indices.set( 0, ids );
+	}
+
+	/**
+	 * Calls {@code action} with the object for pool index {@code ids[i]} and
+	 * {@code i}, for every {@code i}. If {@code parallel}, ranges of
+	 * {@code ids} are processed concurrently, each with its own object
+	 * reference.
+	 */
+	private void forEachIndex( final int[] ids, final boolean parallel, final ObjIntConsumer< O > action )
+	{
+		final int n = ids.length;
+		final int chunkSize = parallel
+				? Math.max( 1024, n / ( 4 * ForkJoinPool.getCommonPoolParallelism() ) + 1 )
+				: Math.max( 1, n );
+		final int numChunks = ( n + chunkSize - 1 ) / chunkSize;
+		IntStream chunks = IntStream.range( 0, numChunks );
+		if ( parallel )
+			chunks = chunks.parallel();
+		chunks.forEach( c -> {
+			final O ref = createRef();
+			final int to = Math.min( n, ( c + 1 ) * chunkSize );
+			for ( int i = c * chunkSize; i < to; ++i )
+				action.accept( pool.getObject( ids[ i ], ref ), i );
+			releaseRef( ref );
+		} );
+	}
+
 	@Override
 	public void swap( final int i, final int j )
 	{
@@ -0,0 +1,124 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+import org.mastodon.RefPool;
+import org.mastodon.collection.RefSet;
+
+import gnu.trove.set.TIntBitmapSet;
+
+/**
+ * A {@link RefSet} implementation backed by a compressed bitmap of pool
+ * indices ({@link TIntBitmapSet}).
+ * <p>
+ * Compared to {@link RefSetImp}, this uses much less memory for large sets of
+ * densely packed pool indices, iterates in ascending index order, and
+ * intersections, unions and differences with other {@link RefBitmapSet}s (see
+ * {@link #and(RefBitmapSet)}, {@link #or(RefBitmapSet)},
+ * {@link #andNot(RefBitmapSet)}, or {@link #retainAll(java.util.Collection)}
+ * etc.) are computed container-wise instead of element by element.
+ *
+ * @param <O>
+ *            the type of elements maintained by this set.
+ */
+public class RefBitmapSet< O > extends RefSetImp< O >
+{
+	private final TIntBitmapSet bitmap;
+
+	public RefBitmapSet( final RefPool< O > pool )
+	{
+		this( pool, new TIntBitmapSet() );
+	}
+
+	private RefBitmapSet( final RefPool< O > pool, final TIntBitmapSet bitmap )
+	{
+		super( pool, bitmap );
+		this.bitmap = bitmap;
+	}
+
+	/**
+	 * Creates a copy of this set.
+	 *
+	 * @return a new {@link RefBitmapSet} with the same elements.
+	 */
+	public RefBitmapSet< O > copy()
+	{
+		return new RefBitmapSet<>( getRefPool(), new TIntBitmapSet( bitmap ) );
+	}
+
+	@Override
+	public TIntBitmapSet getIndexCollection()
+	{
+		return bitmap;
+	}
+
+	/**
+	 * Retains only the elements that are also contained in {@code other}.
+	 *
+	 * @param other
+	 *            the set to intersect with.
+	 */
+	public void and( final RefBitmapSet< O > other )
+	{
+		bitmap.and( other.bitmap );
+	}
+
+	/**
+	 * Adds all elements of {@code other} to this set.
+	 *
+	 * @param other
+	 *            the set to unite with.
+	 */
+	public void or( final RefBitmapSet< O > other )
+	{
+		bitmap.or( other.bitmap );
+	}
+
+	/**
+	 * Removes all elements of {@code other} from this set.
+	 *
+	 * @param other
+	 *            the set to subtract.
+	 */
+	public void andNot( final RefBitmapSet< O > other )
+	{
+		bitmap.andNot( other.bitmap );
+	}
+
+	/**
+	 * Compresses runs of consecutive pool indices. See
+	 * {@link TIntBitmapSet#runOptimize()}.
+	 *
+	 * @return {@code true} if the internal representation changed.
+	 */
+	public boolean runOptimize()
+	{
+		return bitmap.runOptimize();
+	}
+}
@@ -138,7 +138,7 @@ public class RefDoubleHashMap< K > implements RefDoubleMap< K >
 	{
 		for ( final Map.Entry< ? extends K, ? extends Double > entry : map.entrySet() )
 		{
-            indexmap.put( pool.getId( entry.getKey() ), entry.getValue().intValue() );
+			indexmap.put( pool.getId( entry.getKey() ), entry.getValue().doubleValue() );
 		}
 	}
 
@@ -306,6 +306,47 @@ public class RefDoubleHashMap< K > implements RefDoubleMap< K >
 		return retainEntries( procedure, ref );
 	}
 
+	/**
+	 * Associates {@code values[i]} with the object with pool index
+	 * {@code ids[i]}, for all {@code i}. The backing map is resized once up
+	 * front, so that it does not rehash during the batch.
+	 *
+	 * @param ids
+	 *            pool indices of the keys (see {@link RefPool#getId(Object)}).
+	 * @param values
+	 *            the values, {@code values.length == ids.length}.
+	 */
+	public void putAll( final int[] ids, final double[] values )
+	{
+		if ( ids.length != values.length )
+			throw new IllegalArgumentException( "ids and values must have the same length" );
+		indexmap.ensureCapacity( ids.length );
+		for ( int i = 0; i < ids.length; ++i )
+			indexmap.put( ids[ i ], values[ i ] );
+	}
+
+	/**
+	 * Stores the value associated with the object with pool index
+	 * {@code ids[i]} into {@code out[i]}, for all {@code i}. For keys that are
+	 * not in the map, {@link #getNoEntryValue()} is stored.
+	 *
+	 * @param ids
+	 *            pool indices of the keys (see {@link RefPool#getId(Object)}).
+	 * @param out
+	 *            array to store the values in, {@code out.length >= ids.length}.
+	 *            If {@code null}, a new array is allocated.
+	 * @return {@code out}, or the newly allocated array.
+	 */
+	public double[] getAll( final int[] ids, final double[] out )
+	{
+		final double[] values = out == null ? new double[ ids.length ] : out;
+		if ( values.length < ids.length )
+			throw new IllegalArgumentException( "out is too small" );
+		for ( int i = 0; i < ids.length; ++i )
+			values[ i ] = indexmap.get( ids[ i ] );
+		return values;
+	}
+
 	@Override
 	public K createRef()
 	{
@@ -0,0 +1,520 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.mastodon.RefPool;
+import org.mastodon.collection.MaybeRefIterator;
+
+import gnu.trove.impl.Constants;
+
+/**
+ * Indexed min-heap priority queue for Ref objects with primitive
+ * {@code double} priorities.
+ * <p>
+ * Each object can be contained at most once. The heap position of each object
+ * is tracked in an array indexed by pool index, so that
+ * {@link #contains(Object)} and {@link #getPriority(Object)} take constant
+ * time, and the priority of a contained object can be changed
+ * ({@link #decreaseKey(Object, double)}, {@link #setPriority(Object, double)})
+ * or the object can be {@link #remove(Object) removed} in logarithmic time.
+ * This makes it suitable for Dijkstra- or A*-style searches, which otherwise
+ * have to insert duplicate entries and skip stale ones.
+ * <p>
+ * The heap is a d-ary heap (4-ary by default) stored in parallel pool index
+ * and priority arrays. Priorities must not be {@code NaN}.
+ *
+ * @param <O>
+ *            the type of elements maintained by this queue.
+ */
+public class RefDoublePriorityQueue< O > implements RefPoolBackedRefCollection< O >
+{
+	private static final int DEFAULT_ARITY = 4;
+
+	private final RefPool< O > pool;
+
+	private final Class< O > elementType;
+
+	private final int arity;
+
+	/**
+	 * Pool indices of the elements in heap order.
+	 */
+	private int[] ids;
+
+	/**
+	 * Priorities of the elements in heap order.
+	 */
+	private double[] priorities;
+
+	/**
+	 * Heap position of each pool index, or -1 if not contained.
+	 */
+	private int[] positions;
+
+	private int size;
+
+	public RefDoublePriorityQueue( final RefPool< O > pool )
+	{
+		this( pool, Constants.DEFAULT_CAPACITY );
+	}
+
+	public RefDoublePriorityQueue( final RefPool< O > pool, final int initialCapacity )
+	{
+		this( pool, initialCapacity, DEFAULT_ARITY );
+	}
+
+	/**
+	 * Creates an empty queue.
+	 *
+	 * @param pool
+	 *            the pool of elements.
+	 * @param initialCapacity
+	 *            the expected number of elements.
+	 * @param arity
+	 *            the number of children of each heap node (at least 2).
+	 */
+	public RefDoublePriorityQueue( final RefPool< O > pool, final int initialCapacity, final int arity )
+	{
+		if ( arity < 2 )
+			throw new IllegalArgumentException( "arity must be at least 2" );
+		this.pool = pool;
+		this.elementType = pool.getRefClass();
+		this.arity = arity;
+		final int capacity = Math.max( 1, initialCapacity );
+		ids = new int[ capacity ];
+		priorities = new double[ capacity ];
+		positions = new int[ capacity ];
+		Arrays.fill( positions, -1 );
+		size = 0;
+	}
+
+	/**
+	 * Inserts the specified element with the specified priority, if it is not
+	 * already contained in the queue.
+	 *
+	 * @param obj
+	 *            the element to insert.
+	 * @param priority
+	 *            the priority of the element. Smaller values are polled
+	 *            first.
+	 * @return {@code true} if the element was inserted, {@code false} if it
+	 *         was already contained (its priority is not changed in that
+	 *         case).
+	 */
+	public boolean offer( final O obj, final double priority )
+	{
+		final int id = pool.getId( obj );
+		if ( positionOf( id ) >= 0 )
+			return false;
+		insert( id, priority );
+		return true;
+	}
+
+	/**
+	 * Decreases the priority of the specified element, or inserts it if it is
+	 * not contained in the queue. If the element is contained with a priority
+	 * smaller or equal to {@code priority}, nothing happens.
+	 *
+	 * @param obj
+	 *            the element.
+	 * @param priority
+	 *            the new priority.
+	 * @return {@code true} if the element was inserted or its priority was
+	 *         decreased.
+	 */
+	public boolean decreaseKey( final O obj, final double priority )
+	{
+		final int id = pool.getId( obj );
+		final int i = positionOf( id );
+		if ( i < 0 )
+		{
+			insert( id, priority );
+			return true;
+		}
+		if ( priority >= priorities[ i ] )
+			return false;
+		siftUp( i, id, priority );
+		return true;
+	}
+
+	/**
+	 * Sets the priority of the specified element, inserting the element if it
+	 * is not contained in the queue. The priority may be increased or
+	 * decreased.
+	 *
+	 * @param obj
+	 *            the element.
+	 * @param priority
+	 *            the new priority.
+	 */
+	public void setPriority( final O obj, final double priority )
+	{
+		final int id = pool.getId( obj );
+		final int i = positionOf( id );
+		if ( i < 0 )
+			insert( id, priority );
+		else if ( priority < priorities[ i ] )
+			siftUp( i, id, priority );
+		else
+			siftDown( i, id, priority );
+	}
+
+	/**
+	 * Returns the priority of the specified element.
+	 *
+	 * @param obj
+	 *            the element.
+	 * @return the priority of {@code obj}.
+	 * @throws NoSuchElementException
+	 *             if {@code obj} is not contained in the queue.
+	 */
+	public double getPriority( final O obj )
+	{
+		final int i = positionOf( pool.getId( obj ) );
+		if ( i < 0 )
+			throw new NoSuchElementException();
+		return priorities[ i ];
+	}
+
+	/**
+	 * Retrieves and removes the element with the smallest priority.
+	 *
+	 * @param obj
+	 *            an object reference that will be used to return the element.
+	 * @return the element with the smallest priority, or {@code null} if the
+	 *         queue is empty.
+	 */
+	public O poll( final O obj )
+	{
+		if ( size == 0 )
+			return null;
+		final int id = ids[ 0 ];
+		removeAt( 0 );
+		return pool.getObject( id, obj );
+	}
+
+	public O poll()
+	{
+		return poll( createRef() );
+	}
+
+	/**
+	 * Retrieves, but does not remove, the element with the smallest priority.
+	 *
+	 * @param obj
+	 *            an object reference that will be used to return the element.
+	 * @return the element with the smallest priority, or {@code null} if the
+	 *         queue is empty.
+	 */
+	public O peek( final O obj )
+	{
+		return size == 0 ? null : pool.getObject( ids[ 0 ], obj );
+	}
+
+	public O peek()
+	{
+		return peek( createRef() );
+	}
+
+	/**
+	 * Returns the smallest priority in the queue.
+	 *
+	 * @return the priority of the head of the queue.
+	 * @throws NoSuchElementException
+	 *             if the queue is empty.
+	 */
+	public double peekPriority()
+	{
+		if ( size == 0 )
+			throw new NoSuchElementException();
+		return priorities[ 0 ];
+	}
+
+	@SuppressWarnings( "unchecked" )
+	@Override
+	public boolean contains( final Object obj )
+	{
+		return elementType.isInstance( obj ) && positionOf( pool.getId( ( O ) obj ) ) >= 0;
+	}
+
+	@SuppressWarnings( "unchecked" )
+	@Override
+	public boolean remove( final Object obj )
+	{
+		if ( !elementType.isInstance( obj ) )
+			return false;
+		final int i = positionOf( pool.getId( ( O ) obj ) );
+		if ( i < 0 )
+			return false;
+		removeAt( i );
+		return true;
+	}
+
+	/**
+	 * Removes all of the elements from this priority queue. This takes time
+	 * proportional to the number of elements, not to the capacity.
+	 */
+	@Override
+	public void clear()
+	{
+		for ( int i = 0; i < size; ++i )
+			positions[ ids[ i ] ] = -1;
+		size = 0;
+	}
+
+	@Override
+	public int size()
+	{
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	@Override
+	public O createRef()
+	{
+		return pool.createRef();
+	}
+
+	@Override
+	public void releaseRef( final O obj )
+	{
+		pool.releaseRef( obj );
+	}
+
+	@Override
+	public RefPool< O > getRefPool()
+	{
+		return pool;
+	}
+
+	/**
+	 * Returns an iterator over the elements in heap order (not in priority
+	 * order).
+	 */
+	@Override
+	public Iterator< O > iterator()
+	{
+		return new Iter();
+	}
+
+	class Iter implements Iterator< O >, MaybeRefIterator
+	{
+		final O obj = pool.createRef();
+
+		int i = 0;
+
+		@Override
+		public boolean hasNext()
+		{
+			return i < size;
+		}
+
+		@Override
+		public O next()
+		{
+			if ( i >= size )
+				throw new NoSuchElementException();
+			return pool.getObject( ids[ i++ ], obj );
+		}
+
+		@Override
+		public boolean isRefIterator()
+		{
+			return true;
+		}
+	}
+
+	@Override
+	public boolean containsAll( final Collection< ? > c )
+	{
+		for ( final Object obj : c )
+			if ( !contains( obj ) )
+				return false;
+		return true;
+	}
+
+	@Override
+	public boolean removeAll( final Collection< ? > c )
+	{
+		boolean changed = false;
+		for ( final Object obj : c )
+			if ( remove( obj ) )
+				changed = true;
+		return changed;
+	}
+
+	@Override
+	public Object[] toArray()
+	{
+		final Object[] array = new Object[ size ];
+		for ( int i = 0; i < size; ++i )
+			array[ i ] = pool.getObject( ids[ i ], createRef() );
+		return array;
+	}
+
+	@Override
+	public < T > T[] toArray( final T[] a )
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Not supported, because elements need a priority. Use
+	 * {@link #offer(Object, double)}.
+	 */
+	@Override
+	public boolean add( final O e )
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean addAll( final Collection< ? extends O > c )
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean retainAll( final Collection< ? > c )
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private int positionOf( final int id )
+	{
+		return id < positions.length ? positions[ id ] : -1;
+	}
+
+	private void insert( final int id, final double priority )
+	{
+		if ( id >= positions.length )
+		{
+			final int oldLength = positions.length;
+			positions = Arrays.copyOf( positions, Math.max( id + 1, 2 * oldLength ) );
+			Arrays.fill( positions, oldLength, positions.length, -1 );
+		}
+		if ( size == ids.length )
+		{
+			final int capacity = 2 * ids.length;
+			ids = Arrays.copyOf( ids, capacity );
+			priorities = Arrays.copyOf( priorities, capacity );
+		}
+		siftUp( size++, id, priority );
+	}
+
+	private void removeAt( final int i )
+	{
+		positions[ ids[ i ] ] = -1;
+		final int last = --size;
+		if ( i == last )
+			return;
+		final int id = ids[ last ];
+		final double priority = priorities[ last ];
+		if ( i > 0 && priority < priorities[ ( i - 1 ) / arity ] )
+			siftUp( i, id, priority );
+		else
+			siftDown( i, id, priority );
+	}
+
+	/**
+	 * Moves ancestors of heap position {@code i} down until {@code priority}
+	 * fits, then places {@code id} there.
+	 */
+	private void siftUp( int i, final int id, final double priority )
+	{
+		while ( i > 0 )
+		{
+			final int parent = ( i - 1 ) / arity;
+			if ( priority >= priorities[ parent ] )
+				break;
+			move( parent, i );
+			i = parent;
+		}
+		place( i, id, priority );
+	}
+
+	/**
+	 * Moves the smallest child of heap position {@code i} up until
+	 * {@code priority} fits, then places {@code id} there.
+	 */
+	private void siftDown( int i, final int id, final double priority )
+	{
+		while ( true )
+		{
+			final int first = arity * i + 1;
+			if ( first >= size )
+				break;
+			final int end = Math.min( first + arity, size );
+			int min = first;
+			double minPriority = priorities[ first ];
+			for ( int c = first + 1; c < end; ++c )
+			{
+				if ( priorities[ c ] < minPriority )
+				{
+					min = c;
+					minPriority = priorities[ c ];
+				}
+			}
+			if ( minPriority >= priority )
+				break;
+			move( min, i );
+			i = min;
+		}
+		place( i, id, priority );
+	}
+
+	private void move( final int from, final int to )
+	{
+		final int id = ids[ from ];
+		ids[ to ] = id;
+		priorities[ to ] = priorities[ from ];
+		positions[ id ] = to;
+	}
+
+	private void place( final int i, final int id, final double priority )
+	{
+		ids[ i ] = id;
+		priorities[ i ] = priority;
+		positions[ id ] = i;
+	}
+}
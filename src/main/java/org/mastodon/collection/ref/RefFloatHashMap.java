@@ -0,0 +1,401 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+import java.util.Map;
+import java.util.Set;
+
+import org.mastodon.RefPool;
+import org.mastodon.collection.RefFloatMap;
+
+import gnu.trove.TFloatCollection;
+import gnu.trove.function.TFloatFunction;
+import gnu.trove.impl.Constants;
+import gnu.trove.iterator.TIntFloatIterator;
+import gnu.trove.iterator.TObjectFloatIterator;
+import gnu.trove.map.TObjectFloatMap;
+import gnu.trove.map.hash.TIntFloatHashMap;
+import gnu.trove.procedure.TFloatProcedure;
+import gnu.trove.procedure.TObjectFloatProcedure;
+import gnu.trove.procedure.TObjectProcedure;
+
+public class RefFloatHashMap< K > implements RefFloatMap< K >
+{
+	private static final int NO_ENTRY_KEY = -1;
+
+	private static final float DEFAULT_LOAD_FACTOR = Constants.DEFAULT_LOAD_FACTOR;
+
+	private final TIntFloatHashMap indexmap;
+
+	private final RefPool< K > pool;
+
+	private final Class< K > keyType;
+
+	/*
+	 * CONSTRUCTORS
+	 */
+
+	public RefFloatHashMap( final RefPool< K > pool, final float noEntryValue, final int initialCapacity )
+	{
+		this.pool = pool;
+		this.keyType = pool.getRefClass();
+		this.indexmap = new TIntFloatHashMap( initialCapacity, DEFAULT_LOAD_FACTOR, NO_ENTRY_KEY, noEntryValue );
+	}
+
+	public RefFloatHashMap( final RefPool< K > pool, final float noEntryValue )
+	{
+		this( pool, noEntryValue, Constants.DEFAULT_CAPACITY );
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	@Override
+	public void clear()
+	{
+		indexmap.clear();
+	}
+
+	@SuppressWarnings( "unchecked" )
+	@Override
+	public boolean containsKey( final Object key )
+	{
+		if ( keyType.isInstance( key ) )
+			return indexmap.containsKey( pool.getId( ( K ) key ) );
+		else
+			return false;
+	}
+
+	@Override
+	public boolean containsValue( final float value )
+	{
+		return indexmap.containsValue( value );
+	}
+
+	@SuppressWarnings( "unchecked" )
+	@Override
+	public float get( final Object key )
+	{
+		if ( keyType.isInstance( key ) )
+			return indexmap.get( pool.getId( ( K ) key ) );
+		else
+			return indexmap.getNoEntryValue();
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		return indexmap.isEmpty();
+	}
+
+	@Override
+	public Set< K > keySet()
+	{
+		return new RefSetImp<>( pool, indexmap.keySet() );
+	}
+
+	@Override
+	public float put( final K key, final float value )
+	{
+		return indexmap.put( pool.getId( key ), value );
+	}
+
+	@Override
+	public float putIfAbsent( final K key, final float value )
+	{
+		return indexmap.putIfAbsent( pool.getId( key ), value );
+	}
+
+	@Override
+	public void putAll( final Map< ? extends K, ? extends Float > map )
+	{
+		for ( final Map.Entry< ? extends K, ? extends Float > entry : map.entrySet() )
+		{
+			indexmap.put( pool.getId( entry.getKey() ), entry.getValue().floatValue() );
+		}
+	}
+
+	@SuppressWarnings( "unchecked" )
+	@Override
+	public float remove( final Object key )
+	{
+		if ( keyType.isInstance( key ) )
+			return indexmap.remove( pool.getId( ( K ) key ) );
+		else
+			return indexmap.getNoEntryValue();
+	}
+
+	@Override
+	public float getNoEntryValue()
+	{
+		return indexmap.getNoEntryValue();
+	}
+
+	@Override
+	public int size()
+	{
+		return indexmap.size();
+	}
+
+	@Override
+	public float[] values()
+	{
+		return indexmap.values();
+	}
+
+	@Override
+	public float[] values( final float[] array )
+	{
+		return indexmap.values( array );
+	}
+
+	@Override
+	public TFloatCollection valueCollection()
+	{
+		return indexmap.valueCollection();
+	}
+
+	@Override
+	public void putAll( final TObjectFloatMap< ? extends K > map )
+	{
+		for ( final K key : map.keySet() )
+		{
+			put( key, map.get( key ) );
+		}
+	}
+
+	@Override
+	public Object[] keys()
+	{
+		/*
+		 * This is just the method we would like people not to call. But hey,
+		 * it's there.
+		 */
+		return keySet().toArray();
+	}
+
+	@Override
+	public K[] keys( final K[] array )
+	{
+		return keySet().toArray( array );
+	}
+
+	@Override
+	public TObjectFloatIterator< K > iterator()
+	{
+		return new RefFloatIterator();
+	}
+
+	@Override
+	public boolean increment( final K key )
+	{
+		return indexmap.increment( pool.getId( key ) );
+	}
+
+	@Override
+	public boolean adjustValue( final K key, final float amount )
+	{
+		return indexmap.adjustValue( pool.getId( key ), amount );
+	}
+
+	@Override
+	public float adjustOrPutValue( final K key, final float adjust_amount, final float put_amount )
+	{
+		return indexmap.adjustOrPutValue( pool.getId( key ), adjust_amount, put_amount );
+	}
+
+	@Override
+	public boolean forEachKey( final TObjectProcedure< ? super K > procedure, final K ref )
+	{
+		for ( final int id : indexmap.keys() )
+		{
+			final K key = pool.getObject( id, ref );
+			if ( !procedure.execute( key ) )
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean forEachKey( final TObjectProcedure< ? super K > procedure )
+	{
+		final K ref = createRef();
+		return forEachKey( procedure, ref );
+	}
+
+	@Override
+	public boolean forEachValue( final TFloatProcedure procedure )
+	{
+		return indexmap.forEachValue( procedure );
+	}
+
+	@Override
+	public boolean forEachEntry( final TObjectFloatProcedure< ? super K > procedure, final K ref )
+	{
+		for ( final int id : indexmap.keys() )
+		{
+			final K key = pool.getObject( id, ref );
+			final float value = indexmap.get( id );
+			if ( !procedure.execute( key, value ) )
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean forEachEntry( final TObjectFloatProcedure< ? super K > procedure )
+	{
+		final K ref = createRef();
+		return forEachEntry( procedure, ref );
+	}
+
+	@Override
+	public void transformValues( final TFloatFunction function )
+	{
+		indexmap.transformValues( function );
+	}
+
+	@Override
+	public boolean retainEntries( final TObjectFloatProcedure< ? super K > procedure, final K ref )
+	{
+		boolean modified = false;
+		for ( final int id : indexmap.keys() )
+		{
+			final K key = pool.getObject( id, ref );
+			final float value = indexmap.get( id );
+			if ( !procedure.execute( key, value ) )
+			{
+				remove( ref );
+				modified = true;
+			}
+		}
+		return modified;
+	}
+
+	@Override
+	public boolean retainEntries( final TObjectFloatProcedure< ? super K > procedure )
+	{
+		final K ref = createRef();
+		return retainEntries( procedure, ref );
+	}
+
+	@Override
+	public K createRef()
+	{
+		return pool.createRef();
+	}
+
+	@Override
+	public void releaseRef( final K obj )
+	{
+		pool.releaseRef( obj );
+	}
+
+	@Override
+	public boolean equals( final Object o )
+	{
+		if ( this == o )
+			return true;
+		if ( o == null || getClass() != o.getClass() )
+			return false;
+
+		final RefFloatHashMap< ? > that = ( RefFloatHashMap< ? > ) o;
+
+		if ( !indexmap.equals( that.indexmap ) )
+			return false;
+		if ( !pool.equals( that.pool ) )
+			return false;
+		return keyType.equals( that.keyType );
+	}
+
+	@Override
+	public int hashCode()
+	{
+		int result = indexmap.hashCode();
+		result = 31 * result + pool.hashCode();
+		result = 31 * result + keyType.hashCode();
+		return result;
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	private class RefFloatIterator implements TObjectFloatIterator< K >
+	{
+
+		private final TIntFloatIterator it;
+
+		private final K obj;
+
+		public RefFloatIterator()
+		{
+			this.it = indexmap.iterator();
+			this.obj = createRef();
+		}
+
+		@Override
+		public void advance()
+		{
+			it.advance();
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			return it.hasNext();
+		}
+
+		@Override
+		public void remove()
+		{
+			it.remove();
+		}
+
+		@Override
+		public K key()
+		{
+			final int id = it.key();
+			return pool.getObject( id, obj );
+		}
+
+		@Override
+		public float value()
+		{
+			return it.value();
+		}
+
+		@Override
+		public float setValue( final float val )
+		{
+			return it.setValue( val );
+		}
+	}
+}
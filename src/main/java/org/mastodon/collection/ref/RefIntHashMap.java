@@ -306,6 +306,47 @@ public class RefIntHashMap< K > implements RefIntMap< K >
 		return retainEntries( procedure, ref );
 	}
 
+	/**
+	 * Associates {@code values[i]} with the object with pool index
+	 * {@code ids[i]}, for all {@code i}. The backing map is resized once up
+	 * front, so that it does not rehash during the batch.
+	 *
+	 * @param ids
+	 *            pool indices of the keys (see {@link RefPool#getId(Object)}).
+	 * @param values
+	 *            the values, {@code values.length == ids.length}.
+	 */
+	public void putAll( final int[] ids, final int[] values )
+	{
+		if ( ids.length != values.length )
+			throw new IllegalArgumentException( "ids and values must have the same length" );
+		indexmap.ensureCapacity( ids.length );
+		for ( int i = 0; i < ids.length; ++i )
+			indexmap.put( ids[ i ], values[ i ] );
+	}
+
+	/**
+	 * Stores the value associated with the object with pool index
+	 * {@code ids[i]} into {@code out[i]}, for all {@code i}. For keys that are
+	 * not in the map, {@link #getNoEntryValue()} is stored.
+	 *
+	 * @param ids
+	 *            pool indices of the keys (see {@link RefPool#getId(Object)}).
+	 * @param out
+	 *            array to store the values in, {@code out.length >= ids.length}.
+	 *            If {@code null}, a new array is allocated.
+	 * @return {@code out}, or the newly allocated array.
+	 */
+	public int[] getAll( final int[] ids, final int[] out )
+	{
+		final int[] values = out == null ? new int[ ids.length ] : out;
+		if ( values.length < ids.length )
+			throw new IllegalArgumentException( "out is too small" );
+		for ( int i = 0; i < ids.length; ++i )
+			values[ i ] = indexmap.get( ids[ i ] );
+		return values;
+	}
+
 	@Override
 	public K createRef()
 	{
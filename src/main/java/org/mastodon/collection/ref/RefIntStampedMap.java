@@ -0,0 +1,448 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+import org.mastodon.RefPool;
+import org.mastodon.collection.RefIntMap;
+
+import gnu.trove.TIntCollection;
+import gnu.trove.function.TIntFunction;
+import gnu.trove.impl.Constants;
+import gnu.trove.iterator.TObjectIntIterator;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.procedure.TIntProcedure;
+import gnu.trove.procedure.TObjectIntProcedure;
+import gnu.trove.procedure.TObjectProcedure;
+import gnu.trove.set.hash.TIntHashSet;
+
+/**
+ * A {@link RefIntMap} for scratch use in hot loops (e.g., distance maps of
+ * graph traversals), that can be cleared in constant time.
+ * <p>
+ * Keys are stored in a {@link RefStampedSet}, values in an {@code int[]}
+ * indexed by pool index. {@link #clear()} increments the epoch of the key set
+ * and takes constant time, regardless of how many entries the map held.
+ * Single-key operations take constant time too.
+ * <p>
+ * Memory use is proportional to the largest pool index ever added, not to the
+ * size of the map. {@link #keySet()} and {@link #valueCollection()} return
+ * snapshots, not views.
+ *
+ * @param <K>
+ *            the type of the keys of the map.
+ */
+public class RefIntStampedMap< K > implements RefIntMap< K >
+{
+	private final RefStampedSet< K > keys;
+
+	private int[] values;
+
+	private final int noEntryValue;
+
+	private final RefPool< K > pool;
+
+	private final Class< K > keyType;
+
+	/*
+	 * CONSTRUCTORS
+	 */
+
+	/**
+	 * Creates an empty map.
+	 *
+	 * @param pool
+	 *            the pool of key objects.
+	 * @param noEntryValue
+	 *            the value returned for keys that are not in the map.
+	 * @param initialCapacity
+	 *            the expected largest pool index + 1. Arrays grow as
+	 *            required.
+	 */
+	public RefIntStampedMap( final RefPool< K > pool, final int noEntryValue, final int initialCapacity )
+	{
+		this.pool = pool;
+		this.keyType = pool.getRefClass();
+		this.noEntryValue = noEntryValue;
+		this.keys = new RefStampedSet<>( pool, initialCapacity );
+		this.values = new int[ Math.max( 1, initialCapacity ) ];
+	}
+
+	public RefIntStampedMap( final RefPool< K > pool, final int noEntryValue )
+	{
+		this( pool, noEntryValue, Constants.DEFAULT_CAPACITY );
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private int getById( final int id )
+	{
+		return keys.containsId( id ) ? values[ id ] : noEntryValue;
+	}
+
+	/**
+	 * Stores {@code value} for {@code id}, returns the previous value or
+	 * {@code noEntryValue}.
+	 */
+	private int putById( final int id, final int value )
+	{
+		final int old = getById( id );
+		if ( keys.addId( id ) && id >= values.length )
+			values = Arrays.copyOf( values, Math.max( id + 1, 2 * values.length ) );
+		values[ id ] = value;
+		return old;
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Removes all entries from this map in constant time.
+	 */
+	@Override
+	public void clear()
+	{
+		keys.clear();
+	}
+
+	@SuppressWarnings( "unchecked" )
+	@Override
+	public boolean containsKey( final Object key )
+	{
+		return keyType.isInstance( key ) && keys.containsId( pool.getId( ( K ) key ) );
+	}
+
+	@Override
+	public boolean containsValue( final int value )
+	{
+		final TIntArrayList ids = keys.ids();
+		for ( int i = 0; i < ids.size(); ++i )
+			if ( values[ ids.getQuick( i ) ] == value )
+				return true;
+		return false;
+	}
+
+	@SuppressWarnings( "unchecked" )
+	@Override
+	public int get( final Object key )
+	{
+		if ( keyType.isInstance( key ) )
+			return getById( pool.getId( ( K ) key ) );
+		else
+			return noEntryValue;
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		return keys.isEmpty();
+	}
+
+	@Override
+	public Set< K > keySet()
+	{
+		return new RefSetImp<>( pool, new TIntHashSet( keys.ids() ) );
+	}
+
+	@Override
+	public int put( final K key, final int value )
+	{
+		return putById( pool.getId( key ), value );
+	}
+
+	@Override
+	public int putIfAbsent( final K key, final int value )
+	{
+		final int id = pool.getId( key );
+		if ( keys.containsId( id ) )
+			return values[ id ];
+		putById( id, value );
+		return noEntryValue;
+	}
+
+	@Override
+	public void putAll( final Map< ? extends K, ? extends Integer > map )
+	{
+		for ( final Map.Entry< ? extends K, ? extends Integer > entry : map.entrySet() )
+			put( entry.getKey(), entry.getValue().intValue() );
+	}
+
+	@SuppressWarnings( "unchecked" )
+	@Override
+	public int remove( final Object key )
+	{
+		if ( keyType.isInstance( key ) )
+		{
+			final int id = pool.getId( ( K ) key );
+			return keys.removeId( id ) ? values[ id ] : noEntryValue;
+		}
+		else
+			return noEntryValue;
+	}
+
+	@Override
+	public int getNoEntryValue()
+	{
+		return noEntryValue;
+	}
+
+	@Override
+	public int size()
+	{
+		return keys.size();
+	}
+
+	@Override
+	public int[] values()
+	{
+		return valueCollection().toArray();
+	}
+
+	@Override
+	public int[] values( final int[] array )
+	{
+		return valueCollection().toArray( array );
+	}
+
+	@Override
+	public TIntCollection valueCollection()
+	{
+		final TIntArrayList ids = keys.ids();
+		final TIntArrayList collection = new TIntArrayList( ids.size() );
+		for ( int i = 0; i < ids.size(); ++i )
+			collection.add( values[ ids.getQuick( i ) ] );
+		return collection;
+	}
+
+	@Override
+	public void putAll( final TObjectIntMap< ? extends K > map )
+	{
+		for ( final K key : map.keySet() )
+			put( key, map.get( key ) );
+	}
+
+	@Override
+	public Object[] keys()
+	{
+		return keys.toArray();
+	}
+
+	@Override
+	public K[] keys( final K[] array )
+	{
+		return keys.toArray( array );
+	}
+
+	@Override
+	public TObjectIntIterator< K > iterator()
+	{
+		return new RefIntIterator();
+	}
+
+	@Override
+	public boolean increment( final K key )
+	{
+		return adjustValue( key, 1 );
+	}
+
+	@Override
+	public boolean adjustValue( final K key, final int amount )
+	{
+		final int id = pool.getId( key );
+		if ( !keys.containsId( id ) )
+			return false;
+		values[ id ] += amount;
+		return true;
+	}
+
+	@Override
+	public int adjustOrPutValue( final K key, final int adjust_amount, final int put_amount )
+	{
+		final int id = pool.getId( key );
+		if ( keys.containsId( id ) )
+			return values[ id ] += adjust_amount;
+		putById( id, put_amount );
+		return put_amount;
+	}
+
+	@Override
+	public boolean forEachKey( final TObjectProcedure< ? super K > procedure, final K ref )
+	{
+		final TIntArrayList ids = keys.ids();
+		for ( int i = 0; i < ids.size(); ++i )
+			if ( !procedure.execute( pool.getObject( ids.getQuick( i ), ref ) ) )
+				return false;
+		return true;
+	}
+
+	@Override
+	public boolean forEachKey( final TObjectProcedure< ? super K > procedure )
+	{
+		final K ref = createRef();
+		return forEachKey( procedure, ref );
+	}
+
+	@Override
+	public boolean forEachValue( final TIntProcedure procedure )
+	{
+		final TIntArrayList ids = keys.ids();
+		for ( int i = 0; i < ids.size(); ++i )
+			if ( !procedure.execute( values[ ids.getQuick( i ) ] ) )
+				return false;
+		return true;
+	}
+
+	@Override
+	public boolean forEachEntry( final TObjectIntProcedure< ? super K > procedure, final K ref )
+	{
+		final TIntArrayList ids = keys.ids();
+		for ( int i = 0; i < ids.size(); ++i )
+		{
+			final int id = ids.getQuick( i );
+			if ( !procedure.execute( pool.getObject( id, ref ), values[ id ] ) )
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean forEachEntry( final TObjectIntProcedure< ? super K > procedure )
+	{
+		final K ref = createRef();
+		return forEachEntry( procedure, ref );
+	}
+
+	@Override
+	public void transformValues( final TIntFunction function )
+	{
+		final TIntArrayList ids = keys.ids();
+		for ( int i = 0; i < ids.size(); ++i )
+		{
+			final int id = ids.getQuick( i );
+			values[ id ] = function.execute( values[ id ] );
+		}
+	}
+
+	@Override
+	public boolean retainEntries( final TObjectIntProcedure< ? super K > procedure, final K ref )
+	{
+		boolean modified = false;
+		final TIntArrayList ids = keys.ids();
+		for ( int i = ids.size() - 1; i >= 0; --i )
+		{
+			// iterating backwards, so that swap-removal does not skip entries
+			final int id = ids.getQuick( i );
+			if ( !procedure.execute( pool.getObject( id, ref ), values[ id ] ) )
+			{
+				keys.removeId( id );
+				modified = true;
+			}
+		}
+		return modified;
+	}
+
+	@Override
+	public boolean retainEntries( final TObjectIntProcedure< ? super K > procedure )
+	{
+		final K ref = createRef();
+		return retainEntries( procedure, ref );
+	}
+
+	@Override
+	public K createRef()
+	{
+		return pool.createRef();
+	}
+
+	@Override
+	public void releaseRef( final K obj )
+	{
+		pool.releaseRef( obj );
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	private class RefIntIterator implements TObjectIntIterator< K >
+	{
+		private final TIntArrayList ids = keys.ids();
+
+		private final K obj = createRef();
+
+		private int i = -1;
+
+		@Override
+		public void advance()
+		{
+			++i;
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			return i + 1 < ids.size();
+		}
+
+		@Override
+		public void remove()
+		{
+			// the last entry is swapped into the slot of the removed one
+			keys.removeId( ids.getQuick( i-- ) );
+		}
+
+		@Override
+		public K key()
+		{
+			return pool.getObject( ids.getQuick( i ), obj );
+		}
+
+		@Override
+		public int value()
+		{
+			return values[ ids.getQuick( i ) ];
+		}
+
+		@Override
+		public int setValue( final int val )
+		{
+			final int id = ids.getQuick( i );
+			final int old = values[ id ];
+			values[ id ] = val;
+			return old;
+		}
+	}
+}
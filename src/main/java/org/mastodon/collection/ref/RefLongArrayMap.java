@@ -0,0 +1,450 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.mastodon.RefPool;
+import org.mastodon.collection.RefLongMap;
+
+import gnu.trove.TLongCollection;
+import gnu.trove.function.TLongFunction;
+import gnu.trove.impl.Constants;
+import gnu.trove.iterator.TObjectLongIterator;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.TObjectLongMap;
+import gnu.trove.procedure.TLongProcedure;
+import gnu.trove.procedure.TObjectLongProcedure;
+import gnu.trove.procedure.TObjectProcedure;
+import gnu.trove.set.hash.TIntHashSet;
+
+/**
+ * A {@link RefLongMap} that stores values in a {@code long[]} indexed by
+ * pool index, and marks present keys in a {@link BitSet}.
+ * <p>
+ * This is intended for maps that hold values for most objects of a pool (for
+ * example, a feature computed for all spots). Memory use is 8 bytes plus 1 bit
+ * per pool index up to the largest pool index ever added, regardless of the
+ * size of the map. For sparse maps, use {@link RefLongHashMap} instead.
+ * Single-key operations take constant time. Iteration is in ascending order of
+ * pool indices. {@link #keySet()} and {@link #valueCollection()} return
+ * snapshots, not views.
+ *
+ * @param <K>
+ *            the type of the keys of the map.
+ */
+public class RefLongArrayMap< K > implements RefLongMap< K >
+{
+	private final BitSet present;
+
+	private long[] values;
+
+	private int size;
+
+	private final long noEntryValue;
+
+	private final RefPool< K > pool;
+
+	private final Class< K > keyType;
+
+	/*
+	 * CONSTRUCTORS
+	 */
+
+	/**
+	 * Creates an empty map.
+	 *
+	 * @param pool
+	 *            the pool of key objects.
+	 * @param noEntryValue
+	 *            the value returned for keys that are not in the map.
+	 * @param initialCapacity
+	 *            the expected largest pool index + 1. Arrays grow as
+	 *            required.
+	 */
+	public RefLongArrayMap( final RefPool< K > pool, final long noEntryValue, final int initialCapacity )
+	{
+		this.pool = pool;
+		this.keyType = pool.getRefClass();
+		this.noEntryValue = noEntryValue;
+		this.present = new BitSet( initialCapacity );
+		this.values = new long[ Math.max( 1, initialCapacity ) ];
+		size = 0;
+	}
+
+	public RefLongArrayMap( final RefPool< K > pool, final long noEntryValue )
+	{
+		this( pool, noEntryValue, Constants.DEFAULT_CAPACITY );
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private long getById( final int id )
+	{
+		return present.get( id ) ? values[ id ] : noEntryValue;
+	}
+
+	/**
+	 * Stores {@code value} for {@code id}, returns the previous value or
+	 * {@code noEntryValue}.
+	 */
+	private long putById( final int id, final long value )
+	{
+		final long old;
+		if ( present.get( id ) )
+			old = values[ id ];
+		else
+		{
+			old = noEntryValue;
+			present.set( id );
+			++size;
+			if ( id >= values.length )
+				values = Arrays.copyOf( values, Math.max( id + 1, 2 * values.length ) );
+		}
+		values[ id ] = value;
+		return old;
+	}
+
+	private long removeById( final int id )
+	{
+		if ( !present.get( id ) )
+			return noEntryValue;
+		present.clear( id );
+		--size;
+		return values[ id ];
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	@Override
+	public void clear()
+	{
+		present.clear();
+		size = 0;
+	}
+
+	@SuppressWarnings( "unchecked" )
+	@Override
+	public boolean containsKey( final Object key )
+	{
+		return keyType.isInstance( key ) && present.get( pool.getId( ( K ) key ) );
+	}
+
+	@Override
+	public boolean containsValue( final long value )
+	{
+		for ( int id = present.nextSetBit( 0 ); id >= 0; id = present.nextSetBit( id + 1 ) )
+			if ( values[ id ] == value )
+				return true;
+		return false;
+	}
+
+	@SuppressWarnings( "unchecked" )
+	@Override
+	public long get( final Object key )
+	{
+		if ( keyType.isInstance( key ) )
+			return getById( pool.getId( ( K ) key ) );
+		else
+			return noEntryValue;
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	@Override
+	public Set< K > keySet()
+	{
+		final TIntHashSet ids = new TIntHashSet( size );
+		for ( int id = present.nextSetBit( 0 ); id >= 0; id = present.nextSetBit( id + 1 ) )
+			ids.add( id );
+		return new RefSetImp<>( pool, ids );
+	}
+
+	@Override
+	public long put( final K key, final long value )
+	{
+		return putById( pool.getId( key ), value );
+	}
+
+	@Override
+	public long putIfAbsent( final K key, final long value )
+	{
+		final int id = pool.getId( key );
+		if ( present.get( id ) )
+			return values[ id ];
+		putById( id, value );
+		return noEntryValue;
+	}
+
+	@Override
+	public void putAll( final Map< ? extends K, ? extends Long > map )
+	{
+		for ( final Map.Entry< ? extends K, ? extends Long > entry : map.entrySet() )
+			put( entry.getKey(), entry.getValue().longValue() );
+	}
+
+	@SuppressWarnings( "unchecked" )
+	@Override
+	public long remove( final Object key )
+	{
+		if ( keyType.isInstance( key ) )
+			return removeById( pool.getId( ( K ) key ) );
+		else
+			return noEntryValue;
+	}
+
+	@Override
+	public long getNoEntryValue()
+	{
+		return noEntryValue;
+	}
+
+	@Override
+	public int size()
+	{
+		return size;
+	}
+
+	@Override
+	public long[] values()
+	{
+		return valueCollection().toArray();
+	}
+
+	@Override
+	public long[] values( final long[] array )
+	{
+		return valueCollection().toArray( array );
+	}
+
+	@Override
+	public TLongCollection valueCollection()
+	{
+		final TLongArrayList collection = new TLongArrayList( size );
+		for ( int id = present.nextSetBit( 0 ); id >= 0; id = present.nextSetBit( id + 1 ) )
+			collection.add( values[ id ] );
+		return collection;
+	}
+
+	@Override
+	public void putAll( final TObjectLongMap< ? extends K > map )
+	{
+		for ( final K key : map.keySet() )
+			put( key, map.get( key ) );
+	}
+
+	@Override
+	public Object[] keys()
+	{
+		return keySet().toArray();
+	}
+
+	@Override
+	public K[] keys( final K[] array )
+	{
+		return keySet().toArray( array );
+	}
+
+	@Override
+	public TObjectLongIterator< K > iterator()
+	{
+		return new RefLongIterator();
+	}
+
+	@Override
+	public boolean increment( final K key )
+	{
+		return adjustValue( key, ( long ) 1 );
+	}
+
+	@Override
+	public boolean adjustValue( final K key, final long amount )
+	{
+		final int id = pool.getId( key );
+		if ( !present.get( id ) )
+			return false;
+		values[ id ] += amount;
+		return true;
+	}
+
+	@Override
+	public long adjustOrPutValue( final K key, final long adjust_amount, final long put_amount )
+	{
+		final int id = pool.getId( key );
+		if ( present.get( id ) )
+			return values[ id ] += adjust_amount;
+		putById( id, put_amount );
+		return put_amount;
+	}
+
+	@Override
+	public boolean forEachKey( final TObjectProcedure< ? super K > procedure, final K ref )
+	{
+		for ( int id = present.nextSetBit( 0 ); id >= 0; id = present.nextSetBit( id + 1 ) )
+			if ( !procedure.execute( pool.getObject( id, ref ) ) )
+				return false;
+		return true;
+	}
+
+	@Override
+	public boolean forEachKey( final TObjectProcedure< ? super K > procedure )
+	{
+		final K ref = createRef();
+		return forEachKey( procedure, ref );
+	}
+
+	@Override
+	public boolean forEachValue( final TLongProcedure procedure )
+	{
+		for ( int id = present.nextSetBit( 0 ); id >= 0; id = present.nextSetBit( id + 1 ) )
+			if ( !procedure.execute( values[ id ] ) )
+				return false;
+		return true;
+	}
+
+	@Override
+	public boolean forEachEntry( final TObjectLongProcedure< ? super K > procedure, final K ref )
+	{
+		for ( int id = present.nextSetBit( 0 ); id >= 0; id = present.nextSetBit( id + 1 ) )
+			if ( !procedure.execute( pool.getObject( id, ref ), values[ id ] ) )
+				return false;
+		return true;
+	}
+
+	@Override
+	public boolean forEachEntry( final TObjectLongProcedure< ? super K > procedure )
+	{
+		final K ref = createRef();
+		return forEachEntry( procedure, ref );
+	}
+
+	@Override
+	public void transformValues( final TLongFunction function )
+	{
+		for ( int id = present.nextSetBit( 0 ); id >= 0; id = present.nextSetBit( id + 1 ) )
+			values[ id ] = function.execute( values[ id ] );
+	}
+
+	@Override
+	public boolean retainEntries( final TObjectLongProcedure< ? super K > procedure, final K ref )
+	{
+		boolean modified = false;
+		for ( int id = present.nextSetBit( 0 ); id >= 0; id = present.nextSetBit( id + 1 ) )
+		{
+			if ( !procedure.execute( pool.getObject( id, ref ), values[ id ] ) )
+			{
+				removeById( id );
+				modified = true;
+			}
+		}
+		return modified;
+	}
+
+	@Override
+	public boolean retainEntries( final TObjectLongProcedure< ? super K > procedure )
+	{
+		final K ref = createRef();
+		return retainEntries( procedure, ref );
+	}
+
+	@Override
+	public K createRef()
+	{
+		return pool.createRef();
+	}
+
+	@Override
+	public void releaseRef( final K obj )
+	{
+		pool.releaseRef( obj );
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	private class RefLongIterator implements TObjectLongIterator< K >
+	{
+		private final K obj = createRef();
+
+		private int id = -1;
+
+		private int next = present.nextSetBit( 0 );
+
+		@Override
+		public void advance()
+		{
+			id = next;
+			next = present.nextSetBit( id + 1 );
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			return next >= 0;
+		}
+
+		@Override
+		public void remove()
+		{
+			removeById( id );
+		}
+
+		@Override
+		public K key()
+		{
+			return pool.getObject( id, obj );
+		}
+
+		@Override
+		public long value()
+		{
+			return values[ id ];
+		}
+
+		@Override
+		public long setValue( final long val )
+		{
+			final long old = values[ id ];
+			values[ id ] = val;
+			return old;
+		}
+	}
+}
@@ -0,0 +1,719 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+import org.mastodon.RefPool;
+import org.mastodon.properties.AbstractPropertyMap;
+import org.mastodon.properties.HasPropertyMaps;
+import org.mastodon.properties.Property;
+import org.mastodon.properties.PropertyChangeListener;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntIntHashMap;
+
+/**
+ * A size-bounded cache for values derived from {@link RefPool} objects, keyed
+ * by pool index.
+ * <p>
+ * Each value has a weight (by default 1, otherwise as computed by a
+ * user-specified weight function, for example the size of the value in
+ * bytes). When the total weight exceeds the maximum weight, entries are
+ * evicted according to the {@link EvictionPolicy}:
+ * <ul>
+ * <li>{@link EvictionPolicy#LRU LRU} evicts the least recently used
+ * entry. Every access moves the entry to the front of a doubly-linked
+ * list.</li>
+ * <li>{@link EvictionPolicy#CLOCK CLOCK} approximates LRU. An access only sets
+ * a reference bit. To evict, a clock hand sweeps over the entries, clearing
+ * set reference bits, until it finds an entry whose bit is not set.</li>
+ * </ul>
+ * <p>
+ * Entries can be invalidated explicitly ({@link #invalidate(Object)}), when
+ * a {@link Property} of the key changes (the cache is a
+ * {@link PropertyChangeListener}, see {@link #listenTo(Property)}), or when
+ * the key object is deleted (see {@link #beforeDeleteObject(Object)}). Note
+ * that pool indices of deleted objects are reused. Unless entries of deleted
+ * objects are invalidated, a new object may see the cached value of a deleted
+ * one.
+ * <p>
+ * If the pool implements {@link HasPropertyMaps}, the cache registers with
+ * the pool's {@link org.mastodon.properties.PropertyMaps PropertyMaps} and is
+ * invalidated automatically when objects are deleted or the pool is cleared.
+ * Call {@link #release()} to unregister a cache that is no longer used.
+ * Otherwise, {@link #beforeDeleteObject(Object)} must be called by the user
+ * (see {@link #isRegisteredWithPool()}).
+ * <p>
+ * Hits, misses and evictions are counted, see {@link #hitCount()},
+ * {@link #missCount()} and {@link #evictionCount()}.
+ * <p>
+ * This class is not thread-safe.
+ *
+ * @param <K>
+ *            key type.
+ * @param <V>
+ *            value type.
+ */
+public class RefObjectCache< K, V > implements PropertyChangeListener< K >
+{
+	/**
+	 * Strategy for choosing which entry to evict.
+	 */
+	public enum EvictionPolicy
+	{
+		/**
+		 * Evict the least recently used entry.
+		 */
+		LRU,
+
+		/**
+		 * Evict an entry that was not used since the clock hand last passed
+		 * it. Lower overhead per access than {@link #LRU}.
+		 */
+		CLOCK
+	}
+
+	/**
+	 * Int value used to declare that the requested key is not in the map.
+	 * Negative, so that it cannot be an index in the pool.
+	 */
+	private static final int NO_ENTRY_KEY = -1;
+
+	/**
+	 * Int value used to declare that there is no slot for the requested key.
+	 */
+	private static final int NO_SLOT = -1;
+
+	private final RefPool< K > pool;
+
+	private final Class< K > keyType;
+
+	private final EvictionPolicy policy;
+
+	private final long maxWeight;
+
+	private final ToLongFunction< ? super V > weigher;
+
+	/**
+	 * Maps key pool index to slot.
+	 */
+	private final TIntIntHashMap keyToSlot;
+
+	/**
+	 * Slots that were used and then freed.
+	 */
+	private final TIntArrayList freeSlots;
+
+	/**
+	 * Number of slots that were ever used. Slots {@code >= numSlots} have never
+	 * been used.
+	 */
+	private int numSlots;
+
+	/*
+	 * Per-slot data. A slot is free iff its value is null.
+	 */
+
+	private int[] slotKeys;
+
+	private Object[] slotValues;
+
+	private long[] slotWeights;
+
+	/**
+	 * LRU list links (only for {@link EvictionPolicy#LRU}). The list runs from
+	 * {@link #head} (most recently used) to {@link #tail} (least recently
+	 * used).
+	 */
+	private int[] prev;
+
+	private int[] next;
+
+	private int head;
+
+	private int tail;
+
+	/**
+	 * Reference bits (only for {@link EvictionPolicy#CLOCK}).
+	 */
+	private boolean[] referenced;
+
+	/**
+	 * Next slot to inspect (only for {@link EvictionPolicy#CLOCK}).
+	 */
+	private int hand;
+
+	private long totalWeight;
+
+	private long hits;
+
+	private long misses;
+
+	private long evictions;
+
+	/**
+	 * Receives deletion and clear notifications from the pool, or
+	 * {@code null} if the pool does not implement {@link HasPropertyMaps}.
+	 */
+	private final PoolListener poolListener;
+
+	/*
+	 * CONSTRUCTORS
+	 */
+
+	/**
+	 * Creates a cache for at most {@code maxSize} entries, with
+	 * {@link EvictionPolicy#LRU LRU} eviction.
+	 *
+	 * @param pool
+	 *            the pool of key objects.
+	 * @param maxSize
+	 *            the maximum number of entries.
+	 */
+	public RefObjectCache( final RefPool< K > pool, final long maxSize )
+	{
+		this( pool, maxSize, v -> 1, EvictionPolicy.LRU );
+	}
+
+	/**
+	 * Creates a cache for entries with a total weight of at most
+	 * {@code maxWeight}.
+	 *
+	 * @param pool
+	 *            the pool of key objects.
+	 * @param maxWeight
+	 *            the maximum total weight of entries.
+	 * @param weigher
+	 *            computes the (non-negative) weight of a value.
+	 * @param policy
+	 *            the eviction policy.
+	 */
+	public RefObjectCache( final RefPool< K > pool, final long maxWeight, final ToLongFunction< ? super V > weigher, final EvictionPolicy policy )
+	{
+		if ( maxWeight < 0 )
+			throw new IllegalArgumentException( "maxWeight must not be negative" );
+		this.pool = pool;
+		this.keyType = pool.getRefClass();
+		this.maxWeight = maxWeight;
+		this.weigher = weigher;
+		this.policy = policy;
+		keyToSlot = new TIntIntHashMap( 10, 0.5f, NO_ENTRY_KEY, NO_SLOT );
+		freeSlots = new TIntArrayList();
+		final int capacity = 16;
+		slotKeys = new int[ capacity ];
+		slotValues = new Object[ capacity ];
+		slotWeights = new long[ capacity ];
+		if ( policy == EvictionPolicy.LRU )
+		{
+			prev = new int[ capacity ];
+			next = new int[ capacity ];
+		}
+		else
+			referenced = new boolean[ capacity ];
+		head = NO_SLOT;
+		tail = NO_SLOT;
+		poolListener = pool instanceof HasPropertyMaps ? new PoolListener() : null;
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Returns the value cached for {@code key}, or {@code null} if there is
+	 * none. Counts as a hit or miss.
+	 *
+	 * @param key
+	 *            the key.
+	 * @return the cached value or {@code null}.
+	 */
+	@SuppressWarnings( "unchecked" )
+	public V get( final Object key )
+	{
+		final int slot = keyType.isInstance( key ) ? keyToSlot.get( pool.getId( ( K ) key ) ) : NO_SLOT;
+		if ( slot == NO_SLOT )
+		{
+			++misses;
+			return null;
+		}
+		++hits;
+		touch( slot );
+		return ( V ) slotValues[ slot ];
+	}
+
+	/**
+	 * Returns the value cached for {@code key}. If there is none, the value is
+	 * computed by {@code loader} and cached (unless it is {@code null}).
+	 *
+	 * @param key
+	 *            the key.
+	 * @param loader
+	 *            computes the value for a key.
+	 * @return the cached or computed value.
+	 */
+	public V get( final K key, final Function< ? super K, ? extends V > loader )
+	{
+		V value = get( key );
+		if ( value == null )
+		{
+			value = loader.apply( key );
+			if ( value != null )
+				put( key, value );
+		}
+		return value;
+	}
+
+	/**
+	 * Returns whether a value is cached for {@code key}. This does not count
+	 * as a hit or miss, and does not count as a use of the entry.
+	 *
+	 * @param key
+	 *            the key.
+	 * @return whether a value is cached for {@code key}.
+	 */
+	@SuppressWarnings( "unchecked" )
+	public boolean containsKey( final Object key )
+	{
+		return keyType.isInstance( key ) && keyToSlot.containsKey( pool.getId( ( K ) key ) );
+	}
+
+	/**
+	 * Caches {@code value} for {@code key}, replacing the previous value (if
+	 * any). Then evicts entries until the total weight does not exceed the
+	 * maximum weight. If {@code value} alone exceeds the maximum weight, it is
+	 * not cached: the previous entry for {@code key} is removed, and no other
+	 * entries are evicted.
+	 *
+	 * @param key
+	 *            the key.
+	 * @param value
+	 *            the value.
+	 * @return the previously cached value, or {@code null}.
+	 */
+	@SuppressWarnings( "unchecked" )
+	public V put( final K key, final V value )
+	{
+		Objects.requireNonNull( value );
+		final long weight = weigher.applyAsLong( value );
+		if ( weight < 0 )
+			throw new IllegalArgumentException( "negative weight " + weight );
+
+		final int id = pool.getId( key );
+		int slot = keyToSlot.get( id );
+		if ( weight > maxWeight )
+		{
+			if ( slot == NO_SLOT )
+				return null;
+			final V previous = ( V ) slotValues[ slot ];
+			removeSlot( slot );
+			return previous;
+		}
+
+		final V previous;
+		if ( slot == NO_SLOT )
+		{
+			previous = null;
+			slot = allocateSlot();
+			slotKeys[ slot ] = id;
+			keyToSlot.put( id, slot );
+			if ( policy == EvictionPolicy.LRU )
+				linkFirst( slot );
+			else
+				referenced[ slot ] = true;
+		}
+		else
+		{
+			previous = ( V ) slotValues[ slot ];
+			totalWeight -= slotWeights[ slot ];
+			touch( slot );
+		}
+		slotValues[ slot ] = value;
+		slotWeights[ slot ] = weight;
+		totalWeight += weight;
+		evict();
+		return previous;
+	}
+
+	/**
+	 * Removes the entry for {@code key}, if there is one.
+	 *
+	 * @param key
+	 *            the key.
+	 * @return whether an entry was removed.
+	 */
+	@SuppressWarnings( "unchecked" )
+	public boolean invalidate( final Object key )
+	{
+		if ( !keyType.isInstance( key ) )
+			return false;
+		final int slot = keyToSlot.get( pool.getId( ( K ) key ) );
+		if ( slot == NO_SLOT )
+			return false;
+		removeSlot( slot );
+		return true;
+	}
+
+	/**
+	 * Removes all entries. Statistics are not reset.
+	 */
+	public void invalidateAll()
+	{
+		keyToSlot.clear();
+		freeSlots.clear();
+		Arrays.fill( slotValues, 0, numSlots, null );
+		numSlots = 0;
+		head = NO_SLOT;
+		tail = NO_SLOT;
+		hand = 0;
+		totalWeight = 0;
+	}
+
+	/**
+	 * Invalidates the entry for {@code object}, when a property of
+	 * {@code object} changed.
+	 */
+	@Override
+	public void propertyChanged( final K object )
+	{
+		invalidate( object );
+	}
+
+	/**
+	 * Invalidates the entry for {@code object}. This must be called when
+	 * {@code object} is about to be deleted from the pool, because its pool
+	 * index will be reused. This happens automatically if the cache is
+	 * {@link #isRegisteredWithPool() registered with the pool}.
+	 *
+	 * @param object
+	 *            the object to be deleted.
+	 */
+	public void beforeDeleteObject( final K object )
+	{
+		invalidate( object );
+	}
+
+	/**
+	 * Returns whether this cache is invalidated automatically when objects are
+	 * deleted from the pool, or the pool is cleared. This is the case if the
+	 * pool implements {@link HasPropertyMaps} and {@link #release()} has not
+	 * been called.
+	 *
+	 * @return whether the cache receives deletion notifications from the pool.
+	 */
+	public boolean isRegisteredWithPool()
+	{
+		return poolListener != null && poolListener.registered;
+	}
+
+	/**
+	 * Removes all entries and unregisters this cache from the pool. After
+	 * this, {@link #beforeDeleteObject(Object)} must be called by the user to
+	 * invalidate entries of deleted objects.
+	 */
+	public void release()
+	{
+		invalidateAll();
+		if ( poolListener != null )
+			poolListener.release();
+	}
+
+	/**
+	 * Registers this cache as a {@link PropertyChangeListener} of
+	 * {@code property}, such that entries are invalidated when the
+	 * {@code property} value of their key changes.
+	 *
+	 * @param property
+	 *            the property to listen to.
+	 */
+	public void listenTo( final Property< K > property )
+	{
+		property.propertyChangeListeners().add( this );
+	}
+
+	/**
+	 * Unregisters this cache as a {@link PropertyChangeListener} of
+	 * {@code property}.
+	 *
+	 * @param property
+	 *            the property to stop listening to.
+	 */
+	public void stopListeningTo( final Property< K > property )
+	{
+		property.propertyChangeListeners().remove( this );
+	}
+
+	/**
+	 * Returns the number of cached entries.
+	 *
+	 * @return the number of entries.
+	 */
+	public int size()
+	{
+		return keyToSlot.size();
+	}
+
+	/**
+	 * Returns the total weight of cached entries.
+	 *
+	 * @return the total weight.
+	 */
+	public long weight()
+	{
+		return totalWeight;
+	}
+
+	public long maxWeight()
+	{
+		return maxWeight;
+	}
+
+	public EvictionPolicy policy()
+	{
+		return policy;
+	}
+
+	/**
+	 * Returns the number of {@link #get(Object)} calls that found a cached
+	 * value.
+	 *
+	 * @return the number of hits.
+	 */
+	public long hitCount()
+	{
+		return hits;
+	}
+
+	/**
+	 * Returns the number of {@link #get(Object)} calls that found no cached
+	 * value.
+	 *
+	 * @return the number of misses.
+	 */
+	public long missCount()
+	{
+		return misses;
+	}
+
+	/**
+	 * Returns the number of entries that were evicted because the maximum
+	 * weight was exceeded. Invalidated entries are not counted.
+	 *
+	 * @return the number of evictions.
+	 */
+	public long evictionCount()
+	{
+		return evictions;
+	}
+
+	/**
+	 * Resets hit, miss, and eviction counts to zero.
+	 */
+	public void resetStats()
+	{
+		hits = 0;
+		misses = 0;
+		evictions = 0;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private void touch( final int slot )
+	{
+		if ( policy == EvictionPolicy.LRU )
+		{
+			if ( slot != head )
+			{
+				unlink( slot );
+				linkFirst( slot );
+			}
+		}
+		else
+			referenced[ slot ] = true;
+	}
+
+	private void evict()
+	{
+		while ( totalWeight > maxWeight && !keyToSlot.isEmpty() )
+		{
+			removeSlot( policy == EvictionPolicy.LRU ? tail : clockVictim() );
+			++evictions;
+		}
+	}
+
+	/**
+	 * Advances the clock hand to the next occupied slot whose reference bit is
+	 * not set, clearing the reference bits of the occupied slots passed on the
+	 * way. Terminates after at most two sweeps, if there is at least one entry.
+	 */
+	private int clockVictim()
+	{
+		while ( true )
+		{
+			if ( hand >= numSlots )
+				hand = 0;
+			final int slot = hand++;
+			if ( slotValues[ slot ] == null )
+				continue;
+			if ( referenced[ slot ] )
+				referenced[ slot ] = false;
+			else
+				return slot;
+		}
+	}
+
+	private int allocateSlot()
+	{
+		if ( !freeSlots.isEmpty() )
+			return freeSlots.removeAt( freeSlots.size() - 1 );
+		if ( numSlots == slotKeys.length )
+		{
+			final int capacity = 2 * slotKeys.length;
+			slotKeys = Arrays.copyOf( slotKeys, capacity );
+			slotValues = Arrays.copyOf( slotValues, capacity );
+			slotWeights = Arrays.copyOf( slotWeights, capacity );
+			if ( policy == EvictionPolicy.LRU )
+			{
+				prev = Arrays.copyOf( prev, capacity );
+				next = Arrays.copyOf( next, capacity );
+			}
+			else
+				referenced = Arrays.copyOf( referenced, capacity );
+		}
+		return numSlots++;
+	}
+
+	private void removeSlot( final int slot )
+	{
+		keyToSlot.remove( slotKeys[ slot ] );
+		totalWeight -= slotWeights[ slot ];
+		slotValues[ slot ] = null;
+		if ( policy == EvictionPolicy.LRU )
+			unlink( slot );
+		freeSlots.add( slot );
+	}
+
+	private void linkFirst( final int slot )
+	{
+		prev[ slot ] = NO_SLOT;
+		next[ slot ] = head;
+		if ( head != NO_SLOT )
+			prev[ head ] = slot;
+		else
+			tail = slot;
+		head = slot;
+	}
+
+	private void unlink( final int slot )
+	{
+		final int p = prev[ slot ];
+		final int n = next[ slot ];
+		if ( p != NO_SLOT )
+			next[ p ] = n;
+		else
+			head = n;
+		if ( n != NO_SLOT )
+			prev[ n ] = p;
+		else
+			tail = p;
+	}
+
+	/**
+	 * Registers with the {@link HasPropertyMaps} pool, to be notified when
+	 * objects are deleted or the pool is cleared. This is a property map
+	 * without values.
+	 */
+	private class PoolListener extends AbstractPropertyMap< K, Void >
+	{
+		private boolean registered;
+
+		PoolListener()
+		{
+			tryRegisterPropertyMap( pool );
+			registered = true;
+		}
+
+		void release()
+		{
+			tryUnregisterPropertyMap();
+			registered = false;
+		}
+
+		@Override
+		public void beforeDeleteObject( final K key )
+		{
+			RefObjectCache.this.beforeDeleteObject( key );
+		}
+
+		@Override
+		public void beforeClearPool()
+		{
+			invalidateAll();
+		}
+
+		@Override
+		public Void set( final K key, final Void value )
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Void remove( final K key )
+		{
+			return null;
+		}
+
+		@Override
+		public Void get( final K key )
+		{
+			return null;
+		}
+
+		@Override
+		public boolean isSet( final K key )
+		{
+			return false;
+		}
+
+		@Override
+		public void clear()
+		{}
+
+		@Override
+		public int size()
+		{
+			return 0;
+		}
+	}
+}
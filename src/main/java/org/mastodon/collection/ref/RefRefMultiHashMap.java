@@ -0,0 +1,245 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+import java.util.Arrays;
+
+import org.mastodon.RefPool;
+import org.mastodon.collection.RefRefMultiMap;
+import org.mastodon.collection.RefSet;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntObjectHashMap;
+
+/**
+ * A mutable {@link RefRefMultiMap} implementation, mapping key pool indices to
+ * lists of value pool indices ({@code TIntObjectHashMap<TIntArrayList>}).
+ * <p>
+ * This is intended for building a relation. Once built, it can be converted
+ * into a compact, immutable {@link FrozenRefRefMultiMap} (see
+ * {@link #freeze()}).
+ *
+ * @param <K>
+ *            key type.
+ * @param <V>
+ *            value type.
+ */
+public class RefRefMultiHashMap< K, V > implements RefRefMultiMap< K, V >
+{
+	/**
+	 * Initial capacity of the value list of a new key.
+	 */
+	private static final int INITIAL_LIST_CAPACITY = 4;
+
+	private final TIntObjectHashMap< TIntArrayList > lists;
+
+	private final RefPool< K > keyPool;
+
+	private final RefPool< V > valuePool;
+
+	private final Class< K > keyType;
+
+	private final Class< V > valueType;
+
+	private int numValues;
+
+	/*
+	 * CONSTRUCTORS
+	 */
+
+	public RefRefMultiHashMap( final RefPool< K > keyPool, final RefPool< V > valuePool, final int initialCapacity )
+	{
+		this.lists = new TIntObjectHashMap<>( initialCapacity );
+		this.keyPool = keyPool;
+		this.valuePool = valuePool;
+		this.keyType = keyPool.getRefClass();
+		this.valueType = valuePool.getRefClass();
+		numValues = 0;
+	}
+
+	public RefRefMultiHashMap( final RefPool< K > keyPool, final RefPool< V > valuePool )
+	{
+		this( keyPool, valuePool, 10 );
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Creates an immutable, compact copy of this map.
+	 *
+	 * @return a new {@link FrozenRefRefMultiMap} with the same associations.
+	 */
+	public FrozenRefRefMultiMap< K, V > freeze()
+	{
+		final int[] keys = lists.keys();
+		Arrays.sort( keys );
+		final int[] offsets = new int[ keys.length + 1 ];
+		final int[] values = new int[ numValues ];
+		int o = 0;
+		for ( int k = 0; k < keys.length; ++k )
+		{
+			offsets[ k ] = o;
+			final TIntArrayList list = lists.get( keys[ k ] );
+			list.toArray( values, 0, o, list.size() );
+			o += list.size();
+		}
+		offsets[ keys.length ] = o;
+		return new FrozenRefRefMultiMap<>( keyPool, valuePool, keys, offsets, values );
+	}
+
+	@Override
+	public V createValueRef()
+	{
+		return valuePool.createRef();
+	}
+
+	@Override
+	public void releaseValueRef( final V obj )
+	{
+		valuePool.releaseRef( obj );
+	}
+
+	@Override
+	public int size()
+	{
+		return lists.size();
+	}
+
+	@Override
+	public int numValues()
+	{
+		return numValues;
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		return lists.isEmpty();
+	}
+
+	@SuppressWarnings( "unchecked" )
+	@Override
+	public boolean containsKey( final Object key )
+	{
+		return keyType.isInstance( key ) && lists.containsKey( keyPool.getId( ( K ) key ) );
+	}
+
+	@SuppressWarnings( "unchecked" )
+	@Override
+	public boolean containsEntry( final Object key, final Object value )
+	{
+		if ( !valueType.isInstance( value ) )
+			return false;
+		final TIntArrayList list = list( key );
+		return list != null && list.contains( valuePool.getId( ( V ) value ) );
+	}
+
+	@Override
+	public int count( final Object key )
+	{
+		final TIntArrayList list = list( key );
+		return list == null ? 0 : list.size();
+	}
+
+	@Override
+	public V get( final Object key, final int i, final V ref )
+	{
+		final TIntArrayList list = list( key );
+		if ( list == null || i < 0 || i >= list.size() )
+			throw new IndexOutOfBoundsException( "index " + i + ", count " + ( list == null ? 0 : list.size() ) );
+		return valuePool.getObject( list.getQuick( i ), ref );
+	}
+
+	/**
+	 * Returns a snapshot of the keys.
+	 */
+	@Override
+	public RefSet< K > keySet()
+	{
+		return new FrozenRefSet<>( keyPool, lists.keySet() );
+	}
+
+	@Override
+	public void put( final K key, final V value )
+	{
+		final int keyId = keyPool.getId( key );
+		TIntArrayList list = lists.get( keyId );
+		if ( list == null )
+		{
+			list = new TIntArrayList( INITIAL_LIST_CAPACITY );
+			lists.put( keyId, list );
+		}
+		list.add( valuePool.getId( value ) );
+		++numValues;
+	}
+
+	@SuppressWarnings( "unchecked" )
+	@Override
+	public boolean remove( final Object key, final Object value )
+	{
+		if ( !keyType.isInstance( key ) || !valueType.isInstance( value ) )
+			return false;
+		final int keyId = keyPool.getId( ( K ) key );
+		final TIntArrayList list = lists.get( keyId );
+		if ( list == null || !list.remove( valuePool.getId( ( V ) value ) ) )
+			return false;
+		--numValues;
+		if ( list.isEmpty() )
+			lists.remove( keyId );
+		return true;
+	}
+
+	@SuppressWarnings( "unchecked" )
+	@Override
+	public int removeAll( final Object key )
+	{
+		if ( !keyType.isInstance( key ) )
+			return 0;
+		final TIntArrayList list = lists.remove( keyPool.getId( ( K ) key ) );
+		if ( list == null )
+			return 0;
+		numValues -= list.size();
+		return list.size();
+	}
+
+	@Override
+	public void clear()
+	{
+		lists.clear();
+		numValues = 0;
+	}
+
+	@SuppressWarnings( "unchecked" )
+	private TIntArrayList list( final Object key )
+	{
+		return keyType.isInstance( key ) ? lists.get( keyPool.getId( ( K ) key ) ) : null;
+	}
+}
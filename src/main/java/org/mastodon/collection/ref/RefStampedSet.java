@@ -0,0 +1,361 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.mastodon.RefPool;
+import org.mastodon.collection.MaybeRefIterator;
+import org.mastodon.collection.RefSet;
+
+import gnu.trove.impl.Constants;
+import gnu.trove.list.array.TIntArrayList;
+
+/**
+ * A {@link RefSet} for scratch use in hot loops (e.g., "visited" sets of graph
+ * traversals), that can be cleared in constant time.
+ * <p>
+ * Membership is recorded in an {@code int[]} stamp array indexed by pool
+ * index: an element is contained if its stamp equals the current epoch.
+ * {@link #clear()} just increments the epoch, so it takes constant time
+ * regardless of how many elements the set held. {@link #add(Object)},
+ * {@link #remove(Object)} and {@link #contains(Object)} take constant time
+ * too. The contained pool indices are additionally kept in a dense list for
+ * iteration.
+ * <p>
+ * Memory use is proportional to the largest pool index ever added (two
+ * {@code int}s per index), not to the size of the set. This is intended for
+ * sets that are cleared and reused many times, rather than for many
+ * long-lived sets.
+ *
+ * @param <O>
+ *            the type of elements maintained by this set.
+ */
+public class RefStampedSet< O > implements RefPoolBackedRefCollection< O >, RefSet< O >
+{
+	private final RefPool< O > pool;
+
+	private final Class< O > elementType;
+
+	/**
+	 * For each pool index, the epoch in which it was last added (or 0 if
+	 * removed).
+	 */
+	private int[] stamps;
+
+	/**
+	 * For each contained pool index, its position in {@link #members}.
+	 */
+	private int[] slots;
+
+	/**
+	 * The contained pool indices.
+	 */
+	private final TIntArrayList members;
+
+	private int epoch;
+
+	public RefStampedSet( final RefPool< O > pool )
+	{
+		this( pool, Constants.DEFAULT_CAPACITY );
+	}
+
+	/**
+	 * Creates an empty set.
+	 *
+	 * @param pool
+	 *            the pool of elements.
+	 * @param initialCapacity
+	 *            the expected largest pool index + 1. The stamp arrays grow
+	 *            as required.
+	 */
+	public RefStampedSet( final RefPool< O > pool, final int initialCapacity )
+	{
+		this.pool = pool;
+		this.elementType = pool.getRefClass();
+		final int capacity = Math.max( 1, initialCapacity );
+		stamps = new int[ capacity ];
+		slots = new int[ capacity ];
+		members = new TIntArrayList();
+		epoch = 1;
+	}
+
+	/*
+	 * POOL INDEX METHODS
+	 */
+
+	boolean containsId( final int id )
+	{
+		return id < stamps.length && stamps[ id ] == epoch;
+	}
+
+	boolean addId( final int id )
+	{
+		if ( id >= stamps.length )
+		{
+			final int capacity = Math.max( id + 1, 2 * stamps.length );
+			stamps = Arrays.copyOf( stamps, capacity );
+			slots = Arrays.copyOf( slots, capacity );
+		}
+		else if ( stamps[ id ] == epoch )
+			return false;
+		stamps[ id ] = epoch;
+		slots[ id ] = members.size();
+		members.add( id );
+		return true;
+	}
+
+	boolean removeId( final int id )
+	{
+		if ( !containsId( id ) )
+			return false;
+		stamps[ id ] = 0;
+		final int slot = slots[ id ];
+		final int last = members.removeAt( members.size() - 1 );
+		if ( last != id )
+		{
+			members.setQuick( slot, last );
+			slots[ last ] = slot;
+		}
+		return true;
+	}
+
+	/**
+	 * The pool indices of the elements in this set. Must not be modified.
+	 */
+	TIntArrayList ids()
+	{
+		return members;
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	@Override
+	public O createRef()
+	{
+		return pool.createRef();
+	}
+
+	@Override
+	public void releaseRef( final O obj )
+	{
+		pool.releaseRef( obj );
+	}
+
+	@Override
+	public RefPool< O > getRefPool()
+	{
+		return pool;
+	}
+
+	@Override
+	public boolean add( final O obj )
+	{
+		return addId( pool.getId( obj ) );
+	}
+
+	@Override
+	public boolean addAll( final Collection< ? extends O > objs )
+	{
+		boolean changed = false;
+		for ( final O obj : objs )
+			if ( add( obj ) )
+				changed = true;
+		return changed;
+	}
+
+	/**
+	 * Removes all elements from this set in constant time.
+	 */
+	@Override
+	public void clear()
+	{
+		members.resetQuick();
+		if ( ++epoch == Integer.MAX_VALUE )
+		{
+			Arrays.fill( stamps, 0 );
+			epoch = 1;
+		}
+	}
+
+	@SuppressWarnings( "unchecked" )
+	@Override
+	public boolean contains( final Object obj )
+	{
+		return elementType.isInstance( obj ) && containsId( pool.getId( ( O ) obj ) );
+	}
+
+	@Override
+	public boolean containsAll( final Collection< ? > objs )
+	{
+		for ( final Object obj : objs )
+			if ( !contains( obj ) )
+				return false;
+		return true;
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		return members.isEmpty();
+	}
+
+	@Override
+	public int size()
+	{
+		return members.size();
+	}
+
+	@Override
+	public Iterator< O > iterator()
+	{
+		return new Iter();
+	}
+
+	class Iter implements Iterator< O >, MaybeRefIterator
+	{
+		final O obj = pool.createRef();
+
+		int i = 0;
+
+		int lastId = -1;
+
+		@Override
+		public boolean hasNext()
+		{
+			return i < members.size();
+		}
+
+		@Override
+		public O next()
+		{
+			if ( i >= members.size() )
+				throw new NoSuchElementException();
+			lastId = members.getQuick( i++ );
+			return pool.getObject( lastId, obj );
+		}
+
+		@Override
+		public void remove()
+		{
+			if ( lastId < 0 )
+				throw new IllegalStateException();
+			// the last member is swapped into the slot of the removed one
+			removeId( lastId );
+			lastId = -1;
+			--i;
+		}
+
+		@Override
+		public boolean isRefIterator()
+		{
+			return true;
+		}
+	}
+
+	@SuppressWarnings( "unchecked" )
+	@Override
+	public boolean remove( final Object obj )
+	{
+		return elementType.isInstance( obj ) && removeId( pool.getId( ( O ) obj ) );
+	}
+
+	@Override
+	public boolean removeAll( final Collection< ? > objs )
+	{
+		boolean changed = false;
+		for ( final Object obj : objs )
+			if ( remove( obj ) )
+				changed = true;
+		return changed;
+	}
+
+	@Override
+	public boolean retainAll( final Collection< ? > objs )
+	{
+		boolean changed = false;
+		final Iterator< O > it = iterator();
+		while ( it.hasNext() )
+		{
+			if ( !objs.contains( it.next() ) )
+			{
+				it.remove();
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	@Override
+	public Object[] toArray()
+	{
+		return toArray( new Object[ 0 ] );
+	}
+
+	@SuppressWarnings( "unchecked" )
+	@Override
+	public < A > A[] toArray( final A[] a )
+	{
+		final int size = members.size();
+		final A[] array = ( a.length < size )
+				? ( A[] ) new Object[ size ]
+				: a;
+		for ( int i = 0; i < size; ++i )
+			array[ i ] = ( A ) pool.getObject( members.getQuick( i ), createRef() );
+
+		// nullify the rest
+		for ( int i = size; i < array.length; i++ )
+			array[ i ] = null;
+		return array;
+	}
+
+	@Override
+	public String toString()
+	{
+		final Iterator< O > i = iterator();
+		if ( !i.hasNext() )
+			return "[]";
+
+		final StringBuilder sb = new StringBuilder();
+		sb.append( '[' );
+		for ( ;; )
+		{
+			final O e = i.next();
+			sb.append( e );
+			if ( !i.hasNext() )
+				return sb.append( ']' ).toString();
+			sb.append( ", " );
+		}
+	}
+}
@@ -0,0 +1,285 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.kdtree;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.mastodon.RefPool;
+import org.mastodon.kdtree.NearestNeighborSearchOnKDTree.FastDoubleSearch;
+import org.mastodon.pool.MappedElement;
+
+import net.imglib2.RealLocalizable;
+import net.imglib2.RealPoint;
+
+/**
+ * Nearest neighbor search for many query points at once.
+ * <p>
+ * Query coordinates are given as a flat {@code double[]} array (or a
+ * collection of {@link RealLocalizable}s, which is copied into such an
+ * array). Queries are sorted along a Z-order (Morton) curve over their
+ * bounding box, so that consecutive queries visit similar parts of the tree,
+ * and then split into chunks that are processed in parallel in a
+ * {@link ForkJoinPool}. Every task has its own search state, and traverses the
+ * {@code double[]} array of the tree directly if it is stored in a single
+ * array (the default). The pool indices of the nearest neighbors and their
+ * squared distances are written into {@code int[]} and {@code double[]}
+ * arrays, in the original order of the queries.
+ *
+ * @param <O>
+ *            type of objects stored in the tree.
+ * @param <T>
+ *            the MappedElement type of the {@link KDTreeNode tree nodes}.
+ */
+public class BatchNearestNeighborSearchOnKDTree< O extends RealLocalizable, T extends MappedElement >
+{
+	/**
+	 * Number of queries processed sequentially by a single task.
+	 */
+	static final int CHUNK_SIZE = 1024;
+
+	private final KDTree< O, T > tree;
+
+	private final int n;
+
+	private final ForkJoinPool forkJoinPool;
+
+	/**
+	 * Creates a batch search that runs in the common {@link ForkJoinPool}.
+	 *
+	 * @param tree
+	 *            the tree to search.
+	 */
+	public BatchNearestNeighborSearchOnKDTree( final KDTree< O, T > tree )
+	{
+		this( tree, ForkJoinPool.commonPool() );
+	}
+
+	/**
+	 * Creates a batch search that runs in the specified {@link ForkJoinPool}.
+	 *
+	 * @param tree
+	 *            the tree to search.
+	 * @param forkJoinPool
+	 *            the pool to run search tasks in.
+	 */
+	public BatchNearestNeighborSearchOnKDTree( final KDTree< O, T > tree, final ForkJoinPool forkJoinPool )
+	{
+		this.tree = tree;
+		this.forkJoinPool = forkJoinPool;
+		n = tree.numDimensions();
+	}
+
+	public int numDimensions()
+	{
+		return n;
+	}
+
+	/**
+	 * Finds the nearest neighbors of the specified query points.
+	 *
+	 * @param queries
+	 *            the query points.
+	 * @param dataIndices
+	 *            array to store the pool indices of the nearest neighbors
+	 *            into. Must have at least {@code queries.size()} elements.
+	 *            Entries are -1 if the tree is empty.
+	 * @param squDistances
+	 *            array to store the squared distances to the nearest neighbors
+	 *            into, or {@code null}.
+	 */
+	public void search( final Collection< ? extends RealLocalizable > queries, final int[] dataIndices, final double[] squDistances )
+	{
+		final double[] coordinates = new double[ queries.size() * n ];
+		final double[] pos = new double[ n ];
+		int offset = 0;
+		for ( final RealLocalizable q : queries )
+		{
+			q.localize( pos );
+			System.arraycopy( pos, 0, coordinates, offset, n );
+			offset += n;
+		}
+		search( coordinates, dataIndices, squDistances );
+	}
+
+	/**
+	 * Finds the nearest neighbors of the specified query points.
+	 *
+	 * @param coordinates
+	 *            the coordinates of the query points: the {@code d}-th
+	 *            coordinate of the {@code i}-th query is
+	 *            {@code coordinates[ i * numDimensions() + d ]}.
+	 * @param dataIndices
+	 *            array to store the pool indices of the nearest neighbors
+	 *            into. Must have at least
+	 *            {@code coordinates.length / numDimensions()} elements.
+	 *            Entries are -1 if the tree is empty.
+	 * @param squDistances
+	 *            array to store the squared distances to the nearest neighbors
+	 *            into, or {@code null}.
+	 */
+	public void search( final double[] coordinates, final int[] dataIndices, final double[] squDistances )
+	{
+		final int numQueries = coordinates.length / n;
+		if ( dataIndices.length < numQueries || ( squDistances != null && squDistances.length < numQueries ) )
+			throw new IllegalArgumentException( "output arrays must have at least " + numQueries + " elements" );
+		if ( tree.size() <= 0 )
+		{
+			Arrays.fill( dataIndices, 0, numQueries, -1 );
+			if ( squDistances != null )
+				Arrays.fill( squDistances, 0, numQueries, Double.POSITIVE_INFINITY );
+			return;
+		}
+
+		final int[] order = zOrder( coordinates, numQueries );
+		forkJoinPool.invoke( new SearchTask( coordinates, order, 0, numQueries, dataIndices, squDistances ) );
+	}
+
+	/**
+	 * Returns the indices of the queries sorted along a Z-order curve over
+	 * the bounding box of the queries.
+	 */
+	private int[] zOrder( final double[] coordinates, final int numQueries )
+	{
+		final double[] min = new double[ n ];
+		final double[] scale = new double[ n ];
+		Arrays.fill( min, Double.POSITIVE_INFINITY );
+		Arrays.fill( scale, Double.NEGATIVE_INFINITY );
+		for ( int i = 0, o = 0; i < numQueries; ++i )
+			for ( int d = 0; d < n; ++d, ++o )
+			{
+				min[ d ] = Math.min( min[ d ], coordinates[ o ] );
+				scale[ d ] = Math.max( scale[ d ], coordinates[ o ] );
+			}
+
+		// Morton codes are limited to 31 bits, so that (code, index) fits
+		// into a positive long.
+		final int bitsPerDim = Math.max( 1, 31 / n );
+		final int cells = 1 << bitsPerDim;
+		for ( int d = 0; d < n; ++d )
+		{
+			final double extent = scale[ d ] - min[ d ];
+			scale[ d ] = extent > 0 ? ( cells - 1 ) / extent : 0;
+		}
+
+		final long[] keys = new long[ numQueries ];
+		for ( int i = 0, o = 0; i < numQueries; ++i, o += n )
+		{
+			long code = 0;
+			for ( int d = 0; d < n; ++d )
+			{
+				final double x = coordinates[ o + d ];
+				final long cell = x >= min[ d ] ? Math.min( cells - 1, ( long ) ( ( x - min[ d ] ) * scale[ d ] ) ) : 0;
+				for ( int b = 0; b < bitsPerDim; ++b )
+					code |= ( ( cell >> b ) & 1 ) << ( b * n + d );
+			}
+			keys[ i ] = ( code << 32 ) | i;
+		}
+		Arrays.parallelSort( keys );
+
+		final int[] order = new int[ numQueries ];
+		for ( int i = 0; i < numQueries; ++i )
+			order[ i ] = ( int ) keys[ i ];
+		return order;
+	}
+
+	/**
+	 * Processes the queries {@code order[from]} to {@code order[to-1]},
+	 * splitting into subtasks until at most {@link #CHUNK_SIZE} queries are
+	 * left.
+	 */
+	private class SearchTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final double[] coordinates;
+
+		private final int[] order;
+
+		private final int from;
+
+		private final int to;
+
+		private final int[] dataIndices;
+
+		private final double[] squDistances;
+
+		SearchTask( final double[] coordinates, final int[] order, final int from, final int to, final int[] dataIndices, final double[] squDistances )
+		{
+			this.coordinates = coordinates;
+			this.order = order;
+			this.from = from;
+			this.to = to;
+			this.dataIndices = dataIndices;
+			this.squDistances = squDistances;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if ( to - from > CHUNK_SIZE )
+			{
+				final int mid = ( from + to ) >>> 1;
+				invokeAll(
+						new SearchTask( coordinates, order, from, mid, dataIndices, squDistances ),
+						new SearchTask( coordinates, order, mid, to, dataIndices, squDistances ) );
+			}
+			else if ( tree.getDoubles() != null )
+			{
+				final FastDoubleSearch search = new FastDoubleSearch( tree );
+				for ( int i = from; i < to; ++i )
+				{
+					final int q = order[ i ];
+					search.search( coordinates, q * n );
+					dataIndices[ q ] = search.getBestDataIndex();
+					if ( squDistances != null )
+						squDistances[ q ] = search.getBestSquDistance();
+				}
+			}
+			else
+			{
+				final NearestNeighborSearchOnKDTree< O, T > search = new NearestNeighborSearchOnKDTree<>( tree );
+				final RefPool< O > pool = tree.getObjectPool();
+				final RealPoint p = new RealPoint( n );
+				for ( int i = from; i < to; ++i )
+				{
+					final int q = order[ i ];
+					for ( int d = 0; d < n; ++d )
+						p.setPosition( coordinates[ q * n + d ], d );
+					search.search( p );
+					dataIndices[ q ] = pool.getId( search.get() );
+					if ( squDistances != null )
+						squDistances[ q ] = search.getSquareDistance();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,298 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.kdtree;
+
+import java.util.Collection;
+
+import org.mastodon.RefPool;
+
+import net.imglib2.RealLocalizable;
+
+/**
+ * KDTree of {@link RealLocalizable} objects whose leaves hold buckets of up to
+ * {@code bucketSize} points.
+ * <p>
+ * Point coordinates are stored in structure-of-arrays form (one
+ * {@code double[]} per dimension), ordered such that the points of every
+ * subtree, and in particular of every leaf bucket, are contiguous. Searches
+ * scan leaf buckets with a brute-force distance loop over these arrays, which
+ * is branch-free and amenable to auto-vectorization, instead of visiting one
+ * node per point. Compared to {@link KDTree} this reduces the depth of the
+ * tree by about {@code log2(bucketSize)} levels and the number of inner nodes
+ * by a factor of about {@code bucketSize}.
+ * <p>
+ * Inner nodes are stored in preorder: the left child of inner node {@code k}
+ * is {@code k + 1}.
+ * <p>
+ * Use {@link BucketKDTreeSearch} to query the tree.
+ *
+ * @param <O>
+ *            type of objects stored in the tree.
+ */
+public class BucketKDTree< O extends RealLocalizable >
+{
+	/**
+	 * Default maximum number of points per leaf.
+	 */
+	public static final int DEFAULT_BUCKET_SIZE = 32;
+
+	/**
+	 * Builds a BucketKDTree of the given {@code objects} with
+	 * {@link #DEFAULT_BUCKET_SIZE}.
+	 *
+	 * @param objects
+	 *            objects to build tree from.
+	 * @param objectPool
+	 *            the pool that contains the {@code objects}.
+	 * @return the tree.
+	 * @param <O>
+	 *            the type of objects stored in the tree.
+	 */
+	public static < O extends RealLocalizable > BucketKDTree< O > kdtree( final Collection< O > objects, final RefPool< O > objectPool )
+	{
+		return kdtree( objects, objectPool, DEFAULT_BUCKET_SIZE );
+	}
+
+	/**
+	 * Builds a BucketKDTree of the given {@code objects}.
+	 *
+	 * @param objects
+	 *            objects to build tree from.
+	 * @param objectPool
+	 *            the pool that contains the {@code objects}.
+	 * @param bucketSize
+	 *            the maximum number of points per leaf.
+	 * @return the tree.
+	 * @param <O>
+	 *            the type of objects stored in the tree.
+	 */
+	public static < O extends RealLocalizable > BucketKDTree< O > kdtree( final Collection< O > objects, final RefPool< O > objectPool, final int bucketSize )
+	{
+		if ( bucketSize < 1 )
+			throw new IllegalArgumentException( "bucketSize must be at least 1: " + bucketSize );
+		final int n = KDTree.getNumDimensions( objects, objectPool );
+		final BucketKDTree< O > kdtree = new BucketKDTree<>( n, objects.size(), bucketSize, objectPool );
+		kdtree.build( objects );
+		return kdtree;
+	}
+
+	private final RefPool< O > objectPool;
+
+	/**
+	 * the number of dimensions.
+	 */
+	private final int n;
+
+	private final int size;
+
+	private final int bucketSize;
+
+	/**
+	 * {@code coords[d][i]} is the coordinate in dimension {@code d} of point
+	 * {@code i}.
+	 */
+	private final double[][] coords;
+
+	/**
+	 * {@code dataIndices[i]} is the pool index of the object of point
+	 * {@code i}.
+	 */
+	private final int[] dataIndices;
+
+	/**
+	 * split dimension of each node, or {@code -1} for leaves.
+	 */
+	private final int[] splitDims;
+
+	/**
+	 * split value of each inner node.
+	 */
+	private final double[] splitValues;
+
+	/**
+	 * index of the right child of each inner node.
+	 */
+	private final int[] rightChildren;
+
+	/**
+	 * first point of each node.
+	 */
+	private final int[] starts;
+
+	/**
+	 * one past the last point of each node.
+	 */
+	private final int[] ends;
+
+	private int numNodes;
+
+	private BucketKDTree( final int numDimensions, final int size, final int bucketSize, final RefPool< O > objectPool )
+	{
+		this.objectPool = objectPool;
+		this.n = numDimensions;
+		this.size = size;
+		this.bucketSize = bucketSize;
+		coords = new double[ n ][ size ];
+		dataIndices = new int[ size ];
+		final int capacity = countNodes( size );
+		splitDims = new int[ capacity ];
+		splitValues = new double[ capacity ];
+		rightChildren = new int[ capacity ];
+		starts = new int[ capacity ];
+		ends = new int[ capacity ];
+	}
+
+	private int countNodes( final int numPoints )
+	{
+		if ( numPoints <= bucketSize )
+			return 1;
+		final int half = numPoints / 2;
+		return 1 + countNodes( half ) + countNodes( numPoints - half );
+	}
+
+	private void build( final Collection< O > objects )
+	{
+		final double[] points = new double[ size * n ];
+		final int[] ids = new int[ size ];
+		int i = 0;
+		for ( final O obj : objects )
+		{
+			for ( int d = 0; d < n; ++d )
+				points[ i * n + d ] = obj.getDoublePosition( d );
+			ids[ i ] = objectPool.getId( obj );
+			++i;
+		}
+		numNodes = 0;
+		makeNode( 0, size, 0, points, ids );
+		for ( int j = 0; j < size; ++j )
+			for ( int d = 0; d < n; ++d )
+				coords[ d ][ j ] = points[ j * n + d ];
+		System.arraycopy( ids, 0, dataIndices, 0, size );
+	}
+
+	/**
+	 * Create the node for the points {@code [i, j)}, splitting at the median
+	 * with respect to dimension {@code d} if there are more than
+	 * {@code bucketSize} points.
+	 */
+	private void makeNode( final int i, final int j, final int d, final double[] points, final int[] ids )
+	{
+		final int node = numNodes++;
+		starts[ node ] = i;
+		ends[ node ] = j;
+		if ( j - i <= bucketSize )
+		{
+			splitDims[ node ] = -1;
+			return;
+		}
+		final int m = i + ( j - i ) / 2;
+		KthElement.kthElement( i, j - 1, m, points, ids, n, d );
+		splitDims[ node ] = d;
+		splitValues[ node ] = points[ m * n + d ];
+		final int dChild = ( d + 1 == n ) ? 0 : d + 1;
+		makeNode( i, m, dChild, points, ids );
+		rightChildren[ node ] = numNodes;
+		makeNode( m, j, dChild, points, ids );
+	}
+
+	/**
+	 * Returns the number of points in the tree.
+	 *
+	 * @return the number of points.
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Returns the maximum number of points per leaf.
+	 *
+	 * @return the bucket size.
+	 */
+	public int getBucketSize()
+	{
+		return bucketSize;
+	}
+
+	/**
+	 * Returns the number of (inner and leaf) nodes in the tree.
+	 *
+	 * @return the number of nodes.
+	 */
+	public int numNodes()
+	{
+		return numNodes;
+	}
+
+	public int numDimensions()
+	{
+		return n;
+	}
+
+	RefPool< O > getObjectPool()
+	{
+		return objectPool;
+	}
+
+	double[][] getCoords()
+	{
+		return coords;
+	}
+
+	int[] getDataIndices()
+	{
+		return dataIndices;
+	}
+
+	int[] getSplitDims()
+	{
+		return splitDims;
+	}
+
+	double[] getSplitValues()
+	{
+		return splitValues;
+	}
+
+	int[] getRightChildren()
+	{
+		return rightChildren;
+	}
+
+	int[] getStarts()
+	{
+		return starts;
+	}
+
+	int[] getEnds()
+	{
+		return ends;
+	}
+}
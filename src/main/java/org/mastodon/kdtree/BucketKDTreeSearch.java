@@ -0,0 +1,239 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.kdtree;
+
+import net.imglib2.RealLocalizable;
+
+/**
+ * Nearest neighbor and k-nearest neighbors search on a {@link BucketKDTree}.
+ * <p>
+ * Leaf buckets are scanned dimension by dimension, accumulating squared
+ * distances of all points of the bucket in a scratch array. The inner loops
+ * run over contiguous coordinate arrays without branches so that the JIT can
+ * vectorize them.
+ * <p>
+ * Not thread-safe: use one instance per thread.
+ *
+ * @param <O>
+ *            type of objects stored in the tree.
+ */
+public class BucketKDTreeSearch< O extends RealLocalizable >
+{
+	private final BucketKDTree< O > tree;
+
+	private final int n;
+
+	private final double[][] coords;
+
+	private final int[] dataIndices;
+
+	private final int[] splitDims;
+
+	private final double[] splitValues;
+
+	private final int[] rightChildren;
+
+	private final int[] starts;
+
+	private final int[] ends;
+
+	private final double[] pos;
+
+	/**
+	 * squared distances of the points of the current leaf.
+	 */
+	private final double[] bucketSquDistances;
+
+	private int bestPoint;
+
+	private double bestSquDistance;
+
+	private KNearestNeighborHeap heap;
+
+	public BucketKDTreeSearch( final BucketKDTree< O > tree )
+	{
+		this.tree = tree;
+		n = tree.numDimensions();
+		coords = tree.getCoords();
+		dataIndices = tree.getDataIndices();
+		splitDims = tree.getSplitDims();
+		splitValues = tree.getSplitValues();
+		rightChildren = tree.getRightChildren();
+		starts = tree.getStarts();
+		ends = tree.getEnds();
+		pos = new double[ n ];
+		bucketSquDistances = new double[ tree.getBucketSize() ];
+		bestSquDistance = Double.POSITIVE_INFINITY;
+	}
+
+	public int numDimensions()
+	{
+		return n;
+	}
+
+	/**
+	 * Finds the nearest neighbor of {@code p}. Its squared distance to
+	 * {@code p} is available through {@link #getSquareDistance()} afterwards.
+	 *
+	 * @param p
+	 *            the query position.
+	 * @return the pool index of the nearest neighbor, or {@code -1} if the tree
+	 *         is empty.
+	 */
+	public int nearestNeighbor( final RealLocalizable p )
+	{
+		bestSquDistance = Double.POSITIVE_INFINITY;
+		if ( tree.size() == 0 )
+			return -1;
+		p.localize( pos );
+		bestPoint = -1;
+		searchNearest( 0 );
+		return dataIndices[ bestPoint ];
+	}
+
+	/**
+	 * Returns the squared distance of the nearest neighbor found by the last
+	 * {@link #nearestNeighbor(RealLocalizable)} call to the query position.
+	 *
+	 * @return the squared distance, or {@link Double#POSITIVE_INFINITY} if the
+	 *         tree is empty.
+	 */
+	public double getSquareDistance()
+	{
+		return bestSquDistance;
+	}
+
+	/**
+	 * Finds the {@code k} nearest neighbors of {@code p}, sorted by ascending
+	 * distance.
+	 *
+	 * @param p
+	 *            the query position.
+	 * @param k
+	 *            the number of neighbors to find.
+	 * @param neighborIndices
+	 *            array of length at least {@code k} to store the pool indices
+	 *            of the neighbors in.
+	 * @param squDistances
+	 *            array of length at least {@code k} to store the squared
+	 *            distances of the neighbors in, or {@code null}.
+	 * @return the number of neighbors found, {@code min(k, tree.size())}.
+	 */
+	public int kNearestNeighbors( final RealLocalizable p, final int k, final int[] neighborIndices, final double[] squDistances )
+	{
+		if ( heap == null || heap.capacity() != k )
+			heap = new KNearestNeighborHeap( k );
+		heap.reset();
+		if ( tree.size() == 0 )
+			return 0;
+		p.localize( pos );
+		searchKNearest( 0 );
+		heap.sort();
+		final int size = heap.size();
+		for ( int i = 0; i < size; ++i )
+		{
+			neighborIndices[ i ] = dataIndices[ heap.getIndex( i ) ];
+			if ( squDistances != null )
+				squDistances[ i ] = heap.getSquDistance( i );
+		}
+		return size;
+	}
+
+	/**
+	 * Computes the squared distances of the points of the given leaf to the
+	 * query position into {@link #bucketSquDistances}.
+	 */
+	private void scanBucket( final int start, final int end )
+	{
+		final int len = end - start;
+		final double[] dist = bucketSquDistances;
+		for ( int i = 0; i < len; ++i )
+			dist[ i ] = 0;
+		for ( int d = 0; d < n; ++d )
+		{
+			final double[] x = coords[ d ];
+			final double q = pos[ d ];
+			for ( int i = 0; i < len; ++i )
+			{
+				final double diff = q - x[ start + i ];
+				dist[ i ] += diff * diff;
+			}
+		}
+	}
+
+	private void searchNearest( final int node )
+	{
+		final int sd = splitDims[ node ];
+		if ( sd < 0 )
+		{
+			final int start = starts[ node ];
+			final int len = ends[ node ] - start;
+			scanBucket( start, ends[ node ] );
+			for ( int i = 0; i < len; ++i )
+			{
+				if ( bucketSquDistances[ i ] < bestSquDistance )
+				{
+					bestSquDistance = bucketSquDistances[ i ];
+					bestPoint = start + i;
+				}
+			}
+			return;
+		}
+
+		final double axisDiff = pos[ sd ] - splitValues[ node ];
+		final int left = node + 1;
+		final int right = rightChildren[ node ];
+		final boolean leftIsNearer = axisDiff < 0;
+		searchNearest( leftIsNearer ? left : right );
+		if ( axisDiff * axisDiff < bestSquDistance )
+			searchNearest( leftIsNearer ? right : left );
+	}
+
+	private void searchKNearest( final int node )
+	{
+		final int sd = splitDims[ node ];
+		if ( sd < 0 )
+		{
+			final int start = starts[ node ];
+			final int len = ends[ node ] - start;
+			scanBucket( start, ends[ node ] );
+			for ( int i = 0; i < len; ++i )
+				heap.insert( bucketSquDistances[ i ], start + i );
+			return;
+		}
+
+		final double axisDiff = pos[ sd ] - splitValues[ node ];
+		final int left = node + 1;
+		final int right = rightChildren[ node ];
+		final boolean leftIsNearer = axisDiff < 0;
+		searchKNearest( leftIsNearer ? left : right );
+		if ( axisDiff * axisDiff < heap.maxSquDistance() )
+			searchKNearest( leftIsNearer ? right : left );
+	}
+}
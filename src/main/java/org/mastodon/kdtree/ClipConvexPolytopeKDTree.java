@@ -50,6 +50,12 @@ import net.imglib2.algorithm.kdtree.HyperPlane;
  * node values inside and outside the polytope, respectively.
  *
  * <p>
+ * Optionally construct with {@link KDTreeAggregates} of the tree, to also
+ * count the nodes inside and sum their values, see {@link #getInsideCount()}
+ * and {@link #getInsideSum(int)}. Subtrees that are completely inside then
+ * contribute the size and subtree sums stored in the aggregates.
+ *
+ * <p>
  * The algorithm is described in <a
  * href="http://fly.mpi-cbg.de/~pietzsch/polytope.pdf">this note</a>.
  *
@@ -98,9 +104,39 @@ public class ClipConvexPolytopeKDTree< O extends RealLocalizable, T extends Mapp
 
 	private final FastDoubleSearch fastDoubleSearch;
 
+	/**
+	 * the aggregates to count and sum values with, or {@code null}.
+	 */
+	private final KDTreeAggregates< O, T > aggregates;
+
+	private int count;
+
+	/**
+	 * the sum of each value channel of {@link #aggregates} over the nodes
+	 * inside, or {@code null}.
+	 */
+	private double[] sums;
+
 	public ClipConvexPolytopeKDTree( final KDTree< O, T > tree )
 	{
+		this( tree, null );
+	}
+
+	/**
+	 * Create a clip on the given tree that also counts the nodes inside and
+	 * sums the value channels of {@code aggregates} over them.
+	 *
+	 * @param tree
+	 *            the tree.
+	 * @param aggregates
+	 *            aggregates of {@code tree}, or {@code null}.
+	 */
+	public ClipConvexPolytopeKDTree( final KDTree< O, T > tree, final KDTreeAggregates< O, T > aggregates )
+	{
+		if ( aggregates != null && aggregates.tree != tree )
+			throw new IllegalArgumentException( "aggregates must be computed on the same tree" );
 		this.tree = tree;
+		this.aggregates = aggregates;
 		n = tree.numDimensions();
 		xmin = new double[ n ];
 		xmax = new double[ n ];
@@ -126,6 +162,7 @@ public class ClipConvexPolytopeKDTree< O extends RealLocalizable, T extends Mapp
 
 	public void clip( final ConvexPolytope polytope )
 	{
+		resetAggregates();
 		if ( tree.size() <= 0 )
 			return;
 
@@ -152,6 +189,7 @@ public class ClipConvexPolytopeKDTree< O extends RealLocalizable, T extends Mapp
 
 	public void clip( final double[][] planes )
 	{
+		resetAggregates();
 		if ( tree.size() <= 0 )
 			return;
 
@@ -173,6 +211,39 @@ public class ClipConvexPolytopeKDTree< O extends RealLocalizable, T extends Mapp
 			clip( tree.rootIndex, 0 );
 	}
 
+	/**
+	 * Returns the number of nodes inside the polytope of the last
+	 * {@code clip}, including invalid nodes.
+	 *
+	 * @return the number of nodes inside.
+	 * @throws IllegalStateException
+	 *             if this clip was constructed without aggregates.
+	 */
+	public int getInsideCount()
+	{
+		if ( sums == null )
+			throw new IllegalStateException( "no aggregates" );
+		return count;
+	}
+
+	/**
+	 * Returns the sum of value channel {@code c} of the
+	 * {@link KDTreeAggregates} over the nodes inside the polytope of the last
+	 * {@code clip}, including invalid nodes.
+	 *
+	 * @param c
+	 *            the index of the value channel.
+	 * @return the sum over the nodes inside.
+	 * @throws IllegalStateException
+	 *             if this clip was constructed without aggregates.
+	 */
+	public double getInsideSum( final int c )
+	{
+		if ( sums == null )
+			throw new IllegalStateException( "no aggregates" );
+		return sums[ c ];
+	}
+
 	public Iterable< O > getInsideValues()
 	{
 		return new KDTreeValueIterable<>( inNodes, inSubtrees, tree, fastDoubleSearch != null );
@@ -193,6 +264,43 @@ public class ClipConvexPolytopeKDTree< O extends RealLocalizable, T extends Mapp
 		return new KDTreeValidValueIterable<>( outNodes, outSubtrees, tree, fastDoubleSearch != null );
 	}
 
+	private void resetAggregates()
+	{
+		count = 0;
+		if ( aggregates != null )
+		{
+			if ( sums == null || sums.length != aggregates.numValues() )
+				sums = new double[ aggregates.numValues() ];
+			else
+				Arrays.fill( sums, 0 );
+		}
+	}
+
+	/**
+	 * Add node {@code k} to the count and sums, if aggregates are available.
+	 */
+	private void addInsideNode( final int k )
+	{
+		if ( sums != null )
+		{
+			++count;
+			aggregates.addNodeValues( k, sums );
+		}
+	}
+
+	/**
+	 * Add the subtree rooted at node {@code k} to the count and sums, if
+	 * aggregates are available.
+	 */
+	private void addInsideSubtree( final int k )
+	{
+		if ( sums != null )
+		{
+			count += aggregates.subtreeSize( k );
+			aggregates.addSubtreeSums( k, sums );
+		}
+	}
+
 	private void initNewSearch( final int nPlanes )
 	{
 		this.nPlanes = nPlanes;
@@ -270,7 +378,10 @@ public class ClipConvexPolytopeKDTree< O extends RealLocalizable, T extends Mapp
 			}
 		}
 		if ( noneActive )
+		{
 			inSubtrees.add( currentIndex );
+			addInsideSubtree( currentIndex );
+		}
 		else
 			clip( currentIndex, recursionDepth + 1 );
 	}
@@ -301,7 +412,10 @@ public class ClipConvexPolytopeKDTree< O extends RealLocalizable, T extends Mapp
 		}
 
 		if ( p )
+		{
 			inNodes.add( currentIndex );
+			addInsideNode( currentIndex );
+		}
 		else
 			outNodes.add( currentIndex );
 
@@ -367,7 +481,10 @@ public class ClipConvexPolytopeKDTree< O extends RealLocalizable, T extends Mapp
 				}
 			}
 			if ( noneActive )
+			{
 				inSubtrees.add( currentIndex );
+				addInsideSubtree( currentIndex / nodeSizeInDoubles );
+			}
 			else
 				clip( currentIndex, recursionDepth + 1 );
 		}
@@ -399,7 +516,10 @@ public class ClipConvexPolytopeKDTree< O extends RealLocalizable, T extends Mapp
 			}
 
 			if ( p )
+			{
 				inNodes.add( currentIndex );
+				addInsideNode( currentIndex / nodeSizeInDoubles );
+			}
 			else
 				outNodes.add( currentIndex );
 
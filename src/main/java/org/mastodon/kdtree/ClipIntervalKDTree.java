@@ -0,0 +1,379 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.kdtree;
+
+import java.util.Arrays;
+
+import org.mastodon.pool.MappedElement;
+
+import gnu.trove.list.array.TIntArrayList;
+import net.imglib2.RealInterval;
+import net.imglib2.RealLocalizable;
+
+/**
+ * Partition nodes in a {@link KDTree} into disjoint sets of nodes that are
+ * inside and outside a given axis-aligned box, respectively.
+ *
+ * <p>
+ * Construct with the {@link KDTree}. Call {@link #clip(RealInterval)} to
+ * partition with respect to a {@link RealInterval}. Then call
+ * {@link #getInsideValues()} and {@link #getOutsideValues()} to get the sets of
+ * node values inside and outside the box, respectively. Call
+ * {@link #count(RealInterval)} to only count the nodes inside the box.
+ * Optionally construct with {@link KDTreeAggregates} of the tree, to also sum
+ * values over the nodes inside, see {@link #getInsideSum(int)}.
+ *
+ * <p>
+ * This is a specialization of {@link ClipConvexPolytopeKDTree} for boxes. The
+ * bounding box of each visited subtree is compared coordinate-wise with the
+ * query box, without evaluating hyperplane dot products. Subtrees that are
+ * completely inside or outside are reported in bulk. The subtree built from
+ * the sorted range {@code [i, j]} occupies the node indices {@code [i, j]}
+ * (see {@link KDTree}), so counting a subtree that is completely inside takes
+ * constant time. Summing its values takes constant time per value channel,
+ * using the subtree sums stored in the {@link KDTreeAggregates}.
+ *
+ * @param <O>
+ *            type of objects stored in the tree.
+ * @param <T>
+ *            the MappedElement type of the {@link KDTree tree nodes}.
+ */
+public class ClipIntervalKDTree< O extends RealLocalizable, T extends MappedElement >
+{
+	private final KDTree< O, T > tree;
+
+	private final int n;
+
+	private final double[] min;
+
+	private final double[] max;
+
+	private final double[] xmin;
+
+	private final double[] xmax;
+
+	private final TIntArrayList inNodes;
+
+	private final TIntArrayList inSubtrees;
+
+	private final TIntArrayList outNodes;
+
+	private final TIntArrayList outSubtrees;
+
+	private final KDTreeNode< O, T > current;
+
+	/**
+	 * the node data if the tree is backed by a single {@code double[]}
+	 * array, otherwise {@code null}.
+	 */
+	private final double[] doubles;
+
+	private final int nodeSizeInDoubles;
+
+	/**
+	 * whether to collect inside and outside nodes and subtrees, or only count.
+	 */
+	private boolean collect;
+
+	private int count;
+
+	/**
+	 * the aggregates to sum values with, or {@code null}.
+	 */
+	private final KDTreeAggregates< O, T > aggregates;
+
+	/**
+	 * the sum of each value channel of {@link #aggregates} over the nodes
+	 * inside, or {@code null}.
+	 */
+	private double[] sums;
+
+	public ClipIntervalKDTree( final KDTree< O, T > tree )
+	{
+		this( tree, null );
+	}
+
+	/**
+	 * Create a clip on the given tree that also sums the value channels of
+	 * {@code aggregates} over the nodes inside.
+	 *
+	 * @param tree
+	 *            the tree.
+	 * @param aggregates
+	 *            aggregates of {@code tree}, or {@code null}.
+	 */
+	public ClipIntervalKDTree( final KDTree< O, T > tree, final KDTreeAggregates< O, T > aggregates )
+	{
+		if ( aggregates != null && aggregates.tree != tree )
+			throw new IllegalArgumentException( "aggregates must be computed on the same tree" );
+		this.tree = tree;
+		this.aggregates = aggregates;
+		n = tree.numDimensions();
+		min = new double[ n ];
+		max = new double[ n ];
+		xmin = new double[ n ];
+		xmax = new double[ n ];
+		inNodes = new TIntArrayList();
+		inSubtrees = new TIntArrayList();
+		outNodes = new TIntArrayList();
+		outSubtrees = new TIntArrayList();
+		current = tree.createRef();
+		doubles = tree.getDoubles();
+		nodeSizeInDoubles = n + 2;
+	}
+
+	public int numDimensions()
+	{
+		return n;
+	}
+
+	/**
+	 * Partition the tree nodes into nodes inside and outside the given
+	 * interval (bounds inclusive).
+	 *
+	 * @param interval
+	 *            the interval.
+	 */
+	public void clip( final RealInterval interval )
+	{
+		interval.realMin( min );
+		interval.realMax( max );
+		clip( true );
+	}
+
+	/**
+	 * Partition the tree nodes into nodes inside and outside the interval
+	 * {@code [min, max]} (bounds inclusive).
+	 *
+	 * @param min
+	 *            minimum of the interval.
+	 * @param max
+	 *            maximum of the interval.
+	 */
+	public void clip( final double[] min, final double[] max )
+	{
+		System.arraycopy( min, 0, this.min, 0, n );
+		System.arraycopy( max, 0, this.max, 0, n );
+		clip( true );
+	}
+
+	/**
+	 * Count the tree nodes inside the given interval (bounds inclusive),
+	 * including invalid nodes. This does not modify the results of the last
+	 * {@link #clip(RealInterval)}.
+	 *
+	 * @param interval
+	 *            the interval.
+	 * @return the number of nodes inside the interval.
+	 */
+	public int count( final RealInterval interval )
+	{
+		interval.realMin( min );
+		interval.realMax( max );
+		return clip( false );
+	}
+
+	/**
+	 * Count the tree nodes inside the interval {@code [min, max]} (bounds
+	 * inclusive), including invalid nodes. This does not modify the results of
+	 * the last {@link #clip(double[], double[])}.
+	 *
+	 * @param min
+	 *            minimum of the interval.
+	 * @param max
+	 *            maximum of the interval.
+	 * @return the number of nodes inside the interval.
+	 */
+	public int count( final double[] min, final double[] max )
+	{
+		System.arraycopy( min, 0, this.min, 0, n );
+		System.arraycopy( max, 0, this.max, 0, n );
+		return clip( false );
+	}
+
+	/**
+	 * Returns the number of nodes inside the interval of the last
+	 * {@link #clip(RealInterval)} or {@link #count(RealInterval)}, including
+	 * invalid nodes.
+	 *
+	 * @return the number of nodes inside.
+	 */
+	public int getInsideCount()
+	{
+		return count;
+	}
+
+	/**
+	 * Returns the sum of value channel {@code c} of the
+	 * {@link KDTreeAggregates} over the nodes inside the interval of the last
+	 * {@link #clip(RealInterval)} or {@link #count(RealInterval)}, including
+	 * invalid nodes.
+	 *
+	 * @param c
+	 *            the index of the value channel.
+	 * @return the sum over the nodes inside.
+	 * @throws IllegalStateException
+	 *             if this clip was constructed without aggregates.
+	 */
+	public double getInsideSum( final int c )
+	{
+		if ( sums == null )
+			throw new IllegalStateException( "no aggregates" );
+		return sums[ c ];
+	}
+
+	public Iterable< O > getInsideValues()
+	{
+		return new KDTreeValueIterable<>( inNodes, inSubtrees, tree, doubles != null );
+	}
+
+	public Iterable< O > getOutsideValues()
+	{
+		return new KDTreeValueIterable<>( outNodes, outSubtrees, tree, doubles != null );
+	}
+
+	public Iterable< O > getValidInsideValues()
+	{
+		return new KDTreeValidValueIterable<>( inNodes, inSubtrees, tree, doubles != null );
+	}
+
+	public Iterable< O > getValidOutsideValues()
+	{
+		return new KDTreeValidValueIterable<>( outNodes, outSubtrees, tree, doubles != null );
+	}
+
+	private int clip( final boolean collect )
+	{
+		this.collect = collect;
+		count = 0;
+		if ( collect )
+		{
+			inNodes.clear();
+			inSubtrees.clear();
+			outNodes.clear();
+			outSubtrees.clear();
+		}
+		if ( aggregates != null )
+		{
+			if ( sums == null || sums.length != aggregates.numValues() )
+				sums = new double[ aggregates.numValues() ];
+			else
+				Arrays.fill( sums, 0 );
+		}
+		if ( tree.size() > 0 )
+		{
+			tree.realMin( xmin );
+			tree.realMax( xmax );
+			clipSubtree( 0, tree.size() - 1, 0 );
+		}
+		return count;
+	}
+
+	/**
+	 * Clip the subtree built from the range {@code [i, j]} with split
+	 * dimension {@code sd} at its root, whose bounding box is
+	 * {@code [xmin, xmax]}.
+	 */
+	private void clipSubtree( final int i, final int j, final int sd )
+	{
+		boolean inside = true;
+		for ( int d = 0; d < n; ++d )
+		{
+			if ( xmax[ d ] < min[ d ] || xmin[ d ] > max[ d ] )
+			{
+				if ( collect )
+					outSubtrees.add( index( i + ( j - i ) / 2 ) );
+				return;
+			}
+			inside &= xmin[ d ] >= min[ d ] && xmax[ d ] <= max[ d ];
+		}
+		if ( inside )
+		{
+			final int k = i + ( j - i ) / 2;
+			count += j - i + 1;
+			if ( sums != null )
+				aggregates.addSubtreeSums( k, sums );
+			if ( collect )
+				inSubtrees.add( index( k ) );
+		}
+		else
+			clip( i, j, sd );
+	}
+
+	private void clip( final int i, final int j, final int sd )
+	{
+		final int k = i + ( j - i ) / 2;
+		final int o = k * nodeSizeInDoubles;
+		if ( doubles == null )
+			tree.getObject( k, current );
+
+		boolean p = true;
+		for ( int d = 0; d < n && p; ++d )
+		{
+			final double x = doubles != null ? doubles[ o + d ] : current.getDoublePosition( d );
+			p = x >= min[ d ] && x <= max[ d ];
+		}
+		if ( p )
+		{
+			++count;
+			if ( sums != null )
+				aggregates.addNodeValues( k, sums );
+			if ( collect )
+				inNodes.add( index( k ) );
+		}
+		else if ( collect )
+			outNodes.add( index( k ) );
+
+		final double sc = doubles != null ? doubles[ o + sd ] : current.getDoublePosition( sd );
+		final int sdChild = ( sd + 1 == n ) ? 0 : sd + 1;
+		if ( k > i )
+		{
+			final double xm = xmax[ sd ];
+			xmax[ sd ] = sc;
+			clipSubtree( i, k - 1, sdChild );
+			xmax[ sd ] = xm;
+		}
+		if ( j > k )
+		{
+			final double xm = xmin[ sd ];
+			xmin[ sd ] = sc;
+			clipSubtree( k + 1, j, sdChild );
+			xmin[ sd ] = xm;
+		}
+	}
+
+	/**
+	 * Returns the index of node {@code k} as expected by
+	 * {@link KDTreeValueIterable}.
+	 */
+	private int index( final int k )
+	{
+		return doubles != null ? k * nodeSizeInDoubles : k;
+	}
+}
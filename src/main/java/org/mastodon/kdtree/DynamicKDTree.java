@@ -0,0 +1,596 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.kdtree;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import org.mastodon.RefPool;
+import org.mastodon.collection.RefCollection;
+import org.mastodon.collection.ref.RefArrayList;
+import org.mastodon.collection.ref.RefIntHashMap;
+import org.mastodon.pool.DoubleMappedElement;
+
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntIntHashMap;
+import net.imglib2.RealLocalizable;
+import net.imglib2.algorithm.kdtree.ConvexPolytope;
+import net.imglib2.algorithm.kdtree.HyperPlane;
+
+/**
+ * A spatial index of {@link RealLocalizable} objects that supports insertion
+ * and removal, built from static {@link KDTree}s with the logarithmic method.
+ * <p>
+ * New objects go into a small buffer of {@link #BUFFER_SIZE} objects that is
+ * searched exhaustively. When the buffer is full, it is merged with levels
+ * {@code 0..j-1} into a new {@link KDTree} at level {@code j}, where
+ * {@code j} is the first empty level. Level {@code i} holds at most
+ * {@code BUFFER_SIZE * 2^i} objects, so every object is rebuilt into a new
+ * tree at most {@code log(n)} times, and insertion takes amortized
+ * {@code O(log^2 n)} time.
+ * <p>
+ * Removed objects are marked {@link KDTreeNode#setValid(boolean) invalid} in
+ * their tree, and are skipped by the valid-only searches that are used for
+ * queries. A level is rebuilt when more than half of its nodes are invalid,
+ * and the whole index is rebuilt into a single level when more than half of
+ * all nodes are invalid. This keeps removal amortized {@code O(log^2 n)}.
+ * <p>
+ * Nearest neighbor, k-nearest neighbor, radius and convex polytope queries
+ * are answered by querying every level (and the buffer) and merging the
+ * results. Results are reported as pool indices of the objects.
+ * <p>
+ * Objects must not move while they are in the index: remove an object before
+ * changing its position and add it again afterwards. The index is not
+ * thread-safe.
+ *
+ * @param <O>
+ *            type of objects stored in the index.
+ */
+public class DynamicKDTree< O extends RealLocalizable >
+{
+	/**
+	 * Maximum number of objects in the insertion buffer.
+	 */
+	public static final int BUFFER_SIZE = 32;
+
+	private static final int NO_ENTRY_VALUE = -1;
+
+	private static final int IN_BUFFER = -2;
+
+	private final RefPool< O > objectPool;
+
+	private final int n;
+
+	/**
+	 * Maps objects to the level they are stored in, or to {@link #IN_BUFFER}.
+	 */
+	private final RefIntHashMap< O > levelOf;
+
+	/**
+	 * Pool indices of the objects in the insertion buffer.
+	 */
+	private final TIntArrayList buffer;
+
+	/**
+	 * Level {@code i} is {@code null} or a tree of at most
+	 * {@code BUFFER_SIZE * 2^i} objects.
+	 */
+	private final ArrayList< Level > levels;
+
+	/**
+	 * Total number of invalid nodes in all levels.
+	 */
+	private int numInvalid;
+
+	private final O ref;
+
+	private final double[] pos;
+
+	/*
+	 * Scratch state of kNearestNeighbors(), reused across calls. Replaced
+	 * when a query asks for a different (larger) k.
+	 */
+
+	private KNearestNeighborHeap heap;
+
+	private int[] levelIndices;
+
+	private double[] levelDistances;
+
+	/**
+	 * Creates an empty index.
+	 *
+	 * @param objectPool
+	 *            the pool of objects to index.
+	 */
+	public DynamicKDTree( final RefPool< O > objectPool )
+	{
+		this.objectPool = objectPool;
+		ref = objectPool.createRef();
+		n = ref.numDimensions();
+		pos = new double[ n ];
+		levelOf = new RefIntHashMap<>( objectPool, NO_ENTRY_VALUE );
+		buffer = new TIntArrayList( BUFFER_SIZE );
+		levels = new ArrayList<>();
+	}
+
+	/**
+	 * Creates an index containing the specified objects.
+	 *
+	 * @param objects
+	 *            the objects to add.
+	 * @param objectPool
+	 *            the pool of objects to index.
+	 */
+	public DynamicKDTree( final Collection< O > objects, final RefPool< O > objectPool )
+	{
+		this( objectPool );
+		final RefArrayList< O > list = new RefArrayList<>( objectPool, objects.size() );
+		for ( final O o : objects )
+			if ( levelOf.put( o, 0 ) == NO_ENTRY_VALUE )
+				list.add( o );
+		rebuildAll( list );
+	}
+
+	public int numDimensions()
+	{
+		return n;
+	}
+
+	/**
+	 * Returns the number of objects in the index.
+	 *
+	 * @return the number of objects.
+	 */
+	public int size()
+	{
+		return levelOf.size();
+	}
+
+	public boolean isEmpty()
+	{
+		return levelOf.isEmpty();
+	}
+
+	public boolean contains( final O obj )
+	{
+		return levelOf.containsKey( obj );
+	}
+
+	/**
+	 * Adds an object to the index.
+	 *
+	 * @param obj
+	 *            the object to add.
+	 * @return {@code true} if the object was added, {@code false} if it was
+	 *         already in the index.
+	 */
+	public boolean add( final O obj )
+	{
+		if ( levelOf.containsKey( obj ) )
+			return false;
+		levelOf.put( obj, IN_BUFFER );
+		buffer.add( objectPool.getId( obj ) );
+		if ( buffer.size() >= BUFFER_SIZE )
+			mergeBuffer();
+		return true;
+	}
+
+	/**
+	 * Removes an object from the index.
+	 *
+	 * @param obj
+	 *            the object to remove.
+	 * @return {@code true} if the object was removed, {@code false} if it was
+	 *         not in the index.
+	 */
+	public boolean remove( final O obj )
+	{
+		final int l = levelOf.remove( obj );
+		if ( l == NO_ENTRY_VALUE )
+			return false;
+		final int id = objectPool.getId( obj );
+		if ( l == IN_BUFFER )
+		{
+			buffer.remove( id );
+			return true;
+		}
+
+		final Level level = levels.get( l );
+		final KDTreeNode< O, DoubleMappedElement > node = level.tree.createRef();
+		level.tree.getObject( level.dataToNode.get( id ), node );
+		node.setValid( false );
+		level.tree.releaseRef( node );
+		++level.numInvalid;
+		++numInvalid;
+
+		if ( 2 * numInvalid > numInvalid + size() )
+			rebuildAll( collectAll() );
+		else if ( 2 * level.numInvalid > level.tree.size() )
+			rebuildLevel( l );
+		return true;
+	}
+
+	/**
+	 * Removes all objects from the index.
+	 */
+	public void clear()
+	{
+		levelOf.clear();
+		buffer.clear();
+		levels.clear();
+		numInvalid = 0;
+	}
+
+	/**
+	 * Finds the nearest neighbor of {@code p}.
+	 *
+	 * @param p
+	 *            the query point.
+	 * @param obj
+	 *            the pool object ref to update with the nearest neighbor.
+	 * @return {@code obj}, or {@code null} if the index is empty.
+	 */
+	public O nearestNeighbor( final RealLocalizable p, final O obj )
+	{
+		p.localize( pos );
+		int bestId = -1;
+		double bestSquDistance = Double.POSITIVE_INFINITY;
+		for ( int i = 0; i < buffer.size(); ++i )
+		{
+			final int id = buffer.getQuick( i );
+			final double d = squDistance( id );
+			if ( d < bestSquDistance )
+			{
+				bestSquDistance = d;
+				bestId = id;
+			}
+		}
+
+		for ( int l = 0; l < levels.size(); ++l )
+		{
+			final Level level = levels.get( l );
+			if ( level == null )
+				continue;
+			final NearestValidNeighborSearchOnKDTree< O, DoubleMappedElement > search = level.nearestNeighborSearch();
+			search.search( p );
+			if ( search.getSquareDistance() < bestSquDistance )
+			{
+				final O nearest = search.get();
+				if ( nearest != null )
+				{
+					bestSquDistance = search.getSquareDistance();
+					bestId = objectPool.getId( nearest );
+				}
+			}
+		}
+
+		return bestId < 0 ? null : objectPool.getObject( bestId, obj );
+	}
+
+	/**
+	 * Finds the {@code k} nearest neighbors of {@code p}, and writes their pool
+	 * indices and squared distances to {@code p}, sorted by increasing
+	 * distance, into the specified arrays. Either array may be {@code null}.
+	 *
+	 * @param p
+	 *            the query point.
+	 * @param k
+	 *            the number of neighbors to find.
+	 * @param dataIndices
+	 *            array to store the pool indices of the neighbors into, or
+	 *            {@code null}.
+	 * @param squDistances
+	 *            array to store the squared distances of the neighbors into,
+	 *            or {@code null}.
+	 * @return the number of neighbors found. This is {@code k} unless the
+	 *         index contains less than {@code k} objects.
+	 */
+	public int kNearestNeighbors( final RealLocalizable p, final int k, final int[] dataIndices, final double[] squDistances )
+	{
+		if ( heap == null || heap.capacity() != k )
+			heap = new KNearestNeighborHeap( k );
+		if ( levelIndices == null || levelIndices.length < k )
+		{
+			levelIndices = new int[ k ];
+			levelDistances = new double[ k ];
+		}
+		heap.reset();
+		p.localize( pos );
+		for ( int i = 0; i < buffer.size(); ++i )
+		{
+			final int id = buffer.getQuick( i );
+			heap.insert( squDistance( id ), id );
+		}
+
+		for ( int l = 0; l < levels.size(); ++l )
+		{
+			final Level level = levels.get( l );
+			if ( level == null )
+				continue;
+			final KNearestValidNeighborSearchOnKDTree< O, DoubleMappedElement > search = level.kNearestNeighborSearch( k );
+			search.search( p );
+			final int found = search.getResults( levelIndices, levelDistances );
+			for ( int i = 0; i < found && levelDistances[ i ] < heap.maxSquDistance(); ++i )
+				heap.insert( levelDistances[ i ], levelIndices[ i ] );
+		}
+
+		heap.sort();
+		final int size = heap.size();
+		for ( int i = 0; i < size; ++i )
+		{
+			if ( dataIndices != null )
+				dataIndices[ i ] = heap.getIndex( i );
+			if ( squDistances != null )
+				squDistances[ i ] = heap.getSquDistance( i );
+		}
+		return size;
+	}
+
+	/**
+	 * Finds all objects within distance {@code radius} (inclusive) of
+	 * {@code p}, and adds their pool indices and squared distances to
+	 * {@code p} to the specified lists. Results are not sorted.
+	 *
+	 * @param p
+	 *            the query point.
+	 * @param radius
+	 *            the search radius.
+	 * @param dataIndices
+	 *            list to add the pool indices to, or {@code null}.
+	 * @param squDistances
+	 *            list to add the squared distances to, or {@code null}.
+	 * @return the number of objects found.
+	 */
+	public int radiusNeighbors( final RealLocalizable p, final double radius, final TIntArrayList dataIndices, final TDoubleArrayList squDistances )
+	{
+		p.localize( pos );
+		final double squRadius = radius * radius;
+		int found = 0;
+		for ( int i = 0; i < buffer.size(); ++i )
+		{
+			final int id = buffer.getQuick( i );
+			final double d = squDistance( id );
+			if ( radius >= 0 && d <= squRadius )
+			{
+				if ( dataIndices != null )
+					dataIndices.add( id );
+				if ( squDistances != null )
+					squDistances.add( d );
+				++found;
+			}
+		}
+		for ( final Level level : levels )
+		{
+			if ( level == null )
+				continue;
+			final RadiusNeighborSearchOnKDTree< O, DoubleMappedElement > search = level.radiusNeighborSearch();
+			search.search( p, radius );
+			found += search.getResults( dataIndices, squDistances );
+		}
+		return found;
+	}
+
+	/**
+	 * Finds all objects inside the specified convex polytope and adds them to
+	 * {@code inside}.
+	 *
+	 * @param polytope
+	 *            the polytope.
+	 * @param inside
+	 *            the collection to add objects inside the polytope to.
+	 */
+	public void clip( final ConvexPolytope polytope, final RefCollection< O > inside )
+	{
+		A: for ( int i = 0; i < buffer.size(); ++i )
+		{
+			final O obj = objectPool.getObject( buffer.getQuick( i ), ref );
+			for ( final HyperPlane plane : polytope.getHyperplanes() )
+			{
+				final double[] normal = plane.getNormal();
+				double dot = 0;
+				for ( int d = 0; d < n; ++d )
+					dot += obj.getDoublePosition( d ) * normal[ d ];
+				if ( dot < plane.getDistance() )
+					continue A;
+			}
+			inside.add( obj );
+		}
+		for ( final Level level : levels )
+		{
+			if ( level == null )
+				continue;
+			final ClipConvexPolytopeKDTree< O, DoubleMappedElement > clip = level.clip();
+			clip.clip( polytope );
+			for ( final O obj : clip.getValidInsideValues() )
+				inside.add( obj );
+		}
+	}
+
+	/* PRIVATE METHODS */
+
+	private double squDistance( final int id )
+	{
+		final O obj = objectPool.getObject( id, ref );
+		double sum = 0;
+		for ( int d = 0; d < n; ++d )
+		{
+			final double diff = pos[ d ] - obj.getDoublePosition( d );
+			sum += diff * diff;
+		}
+		return sum;
+	}
+
+	/**
+	 * Merges the buffer and levels {@code 0..j-1} into a new tree at level
+	 * {@code j}, where {@code j} is the first empty level.
+	 */
+	private void mergeBuffer()
+	{
+		final RefArrayList< O > objects = new RefArrayList<>( objectPool );
+		addBuffer( objects );
+		int j = 0;
+		while ( j < levels.size() && levels.get( j ) != null )
+		{
+			addValid( levels.get( j ), objects );
+			setLevel( j, null );
+			++j;
+		}
+		buildLevel( j, objects );
+	}
+
+	/**
+	 * Rebuilds level {@code l} without its invalid nodes.
+	 */
+	private void rebuildLevel( final int l )
+	{
+		final RefArrayList< O > objects = new RefArrayList<>( objectPool );
+		addValid( levels.get( l ), objects );
+		setLevel( l, null );
+		buildLevel( l, objects );
+	}
+
+	/**
+	 * Collects all objects in the index, including the buffer.
+	 */
+	private RefArrayList< O > collectAll()
+	{
+		final RefArrayList< O > objects = new RefArrayList<>( objectPool, size() );
+		addBuffer( objects );
+		for ( final Level level : levels )
+			if ( level != null )
+				addValid( level, objects );
+		return objects;
+	}
+
+	/**
+	 * Replaces all levels and the buffer by a single level containing
+	 * {@code objects}.
+	 */
+	private void rebuildAll( final RefArrayList< O > objects )
+	{
+		buffer.clear();
+		levels.clear();
+		numInvalid = 0;
+		int l = 0;
+		while ( ( long ) BUFFER_SIZE << l < objects.size() )
+			++l;
+		buildLevel( l, objects );
+	}
+
+	private void addBuffer( final RefArrayList< O > objects )
+	{
+		for ( int i = 0; i < buffer.size(); ++i )
+			objects.add( objectPool.getObject( buffer.getQuick( i ), ref ) );
+		buffer.clear();
+	}
+
+	private void addValid( final Level level, final RefArrayList< O > objects )
+	{
+		for ( final KDTreeNode< O, DoubleMappedElement > node : level.tree )
+			if ( node.isValid() )
+				objects.add( objectPool.getObject( node.getDataIndex(), ref ) );
+		numInvalid -= level.numInvalid;
+	}
+
+	private void buildLevel( final int l, final RefArrayList< O > objects )
+	{
+		if ( objects.isEmpty() )
+			return;
+		final Level level = new Level( KDTree.kdtree( objects, objectPool ) );
+		for ( final O obj : objects )
+			levelOf.put( obj, l );
+		setLevel( l, level );
+	}
+
+	private void setLevel( final int l, final Level level )
+	{
+		while ( levels.size() <= l )
+			levels.add( null );
+		levels.set( l, level );
+	}
+
+	private final class Level
+	{
+		final KDTree< O, DoubleMappedElement > tree;
+
+		/**
+		 * Maps pool indices of objects to node indices in {@link #tree}.
+		 */
+		final TIntIntHashMap dataToNode;
+
+		int numInvalid;
+
+		private NearestValidNeighborSearchOnKDTree< O, DoubleMappedElement > nearestNeighborSearch;
+
+		private KNearestValidNeighborSearchOnKDTree< O, DoubleMappedElement > kNearestNeighborSearch;
+
+		private RadiusNeighborSearchOnKDTree< O, DoubleMappedElement > radiusNeighborSearch;
+
+		private ClipConvexPolytopeKDTree< O, DoubleMappedElement > clip;
+
+		Level( final KDTree< O, DoubleMappedElement > tree )
+		{
+			this.tree = tree;
+			dataToNode = new TIntIntHashMap( tree.size() );
+			for ( final KDTreeNode< O, DoubleMappedElement > node : tree )
+				dataToNode.put( node.getDataIndex(), node.getInternalPoolIndex() );
+			numInvalid = 0;
+		}
+
+		NearestValidNeighborSearchOnKDTree< O, DoubleMappedElement > nearestNeighborSearch()
+		{
+			if ( nearestNeighborSearch == null )
+				nearestNeighborSearch = new NearestValidNeighborSearchOnKDTree<>( tree );
+			return nearestNeighborSearch;
+		}
+
+		KNearestValidNeighborSearchOnKDTree< O, DoubleMappedElement > kNearestNeighborSearch( final int k )
+		{
+			if ( kNearestNeighborSearch == null || kNearestNeighborSearch.getK() != k )
+				kNearestNeighborSearch = new KNearestValidNeighborSearchOnKDTree<>( tree, k );
+			return kNearestNeighborSearch;
+		}
+
+		RadiusNeighborSearchOnKDTree< O, DoubleMappedElement > radiusNeighborSearch()
+		{
+			if ( radiusNeighborSearch == null )
+				radiusNeighborSearch = new RadiusNeighborSearchOnKDTree<>( tree, true );
+			return radiusNeighborSearch;
+		}
+
+		ClipConvexPolytopeKDTree< O, DoubleMappedElement > clip()
+		{
+			if ( clip == null )
+				clip = new ClipConvexPolytopeKDTree<>( tree );
+			return clip;
+		}
+	}
+}
@@ -0,0 +1,268 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.kdtree;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.mastodon.RefPool;
+
+import net.imglib2.RealInterval;
+import net.imglib2.RealLocalizable;
+import net.imglib2.RealPositionable;
+
+/**
+ * Compact single-precision KDTree of {@link RealLocalizable} objects.
+ * <p>
+ * Node positions are rounded to {@code float} and stored together with the
+ * pool index of the object in a single flat {@code float[]} array, using
+ * {@code numDimensions() + 1} floats per node (16 bytes per node in 3D,
+ * compared to 48 bytes for a {@link KDTree} node). No child indices are
+ * stored: the tree is built by recursively splitting a range of nodes
+ * {@code [i, j]} at its median {@code k = (i + j) / 2}, so the left and right
+ * subtrees of a node are the ranges {@code [i, k-1]} and {@code [k+1, j]},
+ * and every subtree is a contiguous range of the array.
+ * <p>
+ * Use {@link FloatKDTreeSearch} to query the tree.
+ *
+ * @param <O>
+ *            type of objects stored in the tree.
+ */
+public class FloatKDTree< O extends RealLocalizable > implements RealInterval
+{
+	/**
+	 * Builds a FloatKDTree of the given {@code objects}.
+	 *
+	 * @param objects
+	 *            objects to build tree from.
+	 * @param objectPool
+	 *            the pool that contains the {@code objects}.
+	 * @return the tree.
+	 * @param <O>
+	 *            the type of objects stored in the tree.
+	 */
+	public static < O extends RealLocalizable > FloatKDTree< O > kdtree( final Collection< O > objects, final RefPool< O > objectPool )
+	{
+		final int n = KDTree.getNumDimensions( objects, objectPool );
+		final FloatKDTree< O > kdtree = new FloatKDTree<>( n, objects.size(), objectPool );
+		kdtree.build( objects );
+		return kdtree;
+	}
+
+	private final RefPool< O > objectPool;
+
+	/**
+	 * the number of dimensions.
+	 */
+	private final int n;
+
+	/**
+	 * the number of floats per node.
+	 */
+	private final int stride;
+
+	private final int size;
+
+	/**
+	 * node data: {@code n} coordinates followed by the pool index (as float
+	 * bits) for every node.
+	 */
+	private final float[] data;
+
+	/**
+	 * minimum of each dimension.
+	 */
+	private final double[] min;
+
+	/**
+	 * maximum of each dimension.
+	 */
+	private final double[] max;
+
+	private FloatKDTree( final int numDimensions, final int size, final RefPool< O > objectPool )
+	{
+		this.objectPool = objectPool;
+		this.n = numDimensions;
+		this.size = size;
+		stride = n + 1;
+		data = new float[ size * stride ];
+		min = new double[ n ];
+		max = new double[ n ];
+		Arrays.fill( min, Double.POSITIVE_INFINITY );
+		Arrays.fill( max, Double.NEGATIVE_INFINITY );
+	}
+
+	private void build( final Collection< O > objects )
+	{
+		final double[] points = new double[ size * n ];
+		final int[] ids = new int[ size ];
+		int i = 0;
+		for ( final O obj : objects )
+		{
+			for ( int d = 0; d < n; ++d )
+			{
+				final float x = obj.getFloatPosition( d );
+				points[ i * n + d ] = x;
+				if ( x < min[ d ] )
+					min[ d ] = x;
+				if ( x > max[ d ] )
+					max[ d ] = x;
+			}
+			ids[ i ] = objectPool.getId( obj );
+			++i;
+		}
+		makeNode( 0, size - 1, 0, points, ids );
+		for ( int node = 0; node < size; ++node )
+		{
+			final int o = node * stride;
+			for ( int d = 0; d < n; ++d )
+				data[ o + d ] = ( float ) points[ node * n + d ];
+			data[ o + n ] = Float.intBitsToFloat( ids[ node ] );
+		}
+	}
+
+	/**
+	 * Recursively partition the range of nodes {@code [i, j]} such that the
+	 * median with respect to dimension {@code d} is at {@code (i + j) / 2},
+	 * and the subranges before and after it are partitioned with respect to
+	 * the next dimension.
+	 */
+	private void makeNode( final int i, final int j, final int d, final double[] points, final int[] ids )
+	{
+		if ( j > i )
+		{
+			final int k = ( i + j ) >>> 1;
+			KthElement.kthElement( i, j, k, points, ids, n, d );
+			final int dChild = ( d + 1 == n ) ? 0 : d + 1;
+			makeNode( i, k - 1, dChild, points, ids );
+			makeNode( k + 1, j, dChild, points, ids );
+		}
+	}
+
+	/**
+	 * Returns the number of nodes in the tree.
+	 *
+	 * @return the number of nodes.
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Returns the pool index of the object stored in the specified node.
+	 *
+	 * @param node
+	 *            the node index.
+	 * @return the pool index of the object.
+	 */
+	public int getDataIndex( final int node )
+	{
+		return Float.floatToRawIntBits( data[ node * stride + n ] );
+	}
+
+	/**
+	 * Returns the (rounded) coordinate of the specified node in dimension
+	 * {@code d}.
+	 *
+	 * @param node
+	 *            the node index.
+	 * @param d
+	 *            the dimension.
+	 * @return the coordinate.
+	 */
+	public float getFloatPosition( final int node, final int d )
+	{
+		return data[ node * stride + d ];
+	}
+
+	/**
+	 * Returns the size of the node data in bytes.
+	 *
+	 * @return the size in bytes.
+	 */
+	public long getSizeInBytes()
+	{
+		return 4L * data.length;
+	}
+
+	RefPool< O > getObjectPool()
+	{
+		return objectPool;
+	}
+
+	float[] getData()
+	{
+		return data;
+	}
+
+	@Override
+	public int numDimensions()
+	{
+		return n;
+	}
+
+	@Override
+	public double realMin( final int d )
+	{
+		return min[ d ];
+	}
+
+	@Override
+	public void realMin( final double[] m )
+	{
+		for ( int d = 0; d < n; ++d )
+			m[ d ] = min[ d ];
+	}
+
+	@Override
+	public void realMin( final RealPositionable m )
+	{
+		m.setPosition( min );
+	}
+
+	@Override
+	public double realMax( final int d )
+	{
+		return max[ d ];
+	}
+
+	@Override
+	public void realMax( final double[] m )
+	{
+		for ( int d = 0; d < n; ++d )
+			m[ d ] = max[ d ];
+	}
+
+	@Override
+	public void realMax( final RealPositionable m )
+	{
+		m.setPosition( max );
+	}
+}
@@ -0,0 +1,535 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.kdtree;
+
+import org.mastodon.RefPool;
+
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import net.imglib2.RealLocalizable;
+import net.imglib2.algorithm.kdtree.ConvexPolytope;
+import net.imglib2.algorithm.kdtree.HyperPlane;
+
+/**
+ * Nearest neighbor, k-nearest neighbors, radius and convex polytope queries on
+ * a {@link FloatKDTree}.
+ * <p>
+ * The query position is rounded to {@code float} and all distance
+ * computations during the traversal are done in single precision on the
+ * compact node array. If {@code refine} is set, the squared distances of the
+ * results are recomputed in double precision against the original objects
+ * (and k-nearest neighbor results are re-sorted accordingly). Because the
+ * traversal itself uses rounded coordinates, results may still differ from an
+ * exact search for points whose distances are equal up to float precision.
+ * <p>
+ * Not thread-safe: use one instance per thread.
+ *
+ * @param <O>
+ *            type of objects stored in the tree.
+ */
+public class FloatKDTreeSearch< O extends RealLocalizable >
+{
+	private final FloatKDTree< O > tree;
+
+	private final RefPool< O > pool;
+
+	private final boolean refine;
+
+	private final int n;
+
+	private final int stride;
+
+	private final float[] data;
+
+	private final float[] pos;
+
+	private final double[] xmin;
+
+	private final double[] xmax;
+
+	private final O ref;
+
+	private int bestNode;
+
+	private float bestSquDistance;
+
+	/**
+	 * Squared distance of the result of the last
+	 * {@link #nearestNeighbor(RealLocalizable)} call, refined if
+	 * {@link #refine} is set.
+	 */
+	private double nearestSquDistance;
+
+	private KNearestNeighborHeap heap;
+
+	private float radiusSqu;
+
+	private TIntArrayList resultIndices;
+
+	private TDoubleArrayList resultSquDistances;
+
+	private double[][] normals;
+
+	private double[] ms;
+
+	/**
+	 * Create a search on the given tree that does not refine distances.
+	 *
+	 * @param tree
+	 *            the tree to search.
+	 */
+	public FloatKDTreeSearch( final FloatKDTree< O > tree )
+	{
+		this( tree, false );
+	}
+
+	/**
+	 * Create a search on the given tree.
+	 *
+	 * @param tree
+	 *            the tree to search.
+	 * @param refine
+	 *            whether to recompute the squared distances of results in
+	 *            double precision against the original objects.
+	 */
+	public FloatKDTreeSearch( final FloatKDTree< O > tree, final boolean refine )
+	{
+		this.tree = tree;
+		this.refine = refine;
+		pool = tree.getObjectPool();
+		n = tree.numDimensions();
+		stride = n + 1;
+		data = tree.getData();
+		pos = new float[ n ];
+		xmin = new double[ n ];
+		xmax = new double[ n ];
+		ref = refine ? pool.createRef() : null;
+		nearestSquDistance = Double.POSITIVE_INFINITY;
+	}
+
+	public int numDimensions()
+	{
+		return n;
+	}
+
+	/**
+	 * Finds the nearest neighbor of {@code p}. Its squared distance to
+	 * {@code p} is available through {@link #getSquareDistance()} afterwards.
+	 *
+	 * @param p
+	 *            the query position.
+	 * @return the pool index of the nearest neighbor, or {@code -1} if the tree
+	 *         is empty.
+	 */
+	public int nearestNeighbor( final RealLocalizable p )
+	{
+		nearestSquDistance = Double.POSITIVE_INFINITY;
+		if ( tree.size() == 0 )
+			return -1;
+		p.localize( pos );
+		bestNode = -1;
+		bestSquDistance = Float.POSITIVE_INFINITY;
+		searchNearest( 0, tree.size() - 1, 0 );
+		final int dataIndex = tree.getDataIndex( bestNode );
+		nearestSquDistance = refine ? exactSquDistance( p, dataIndex ) : bestSquDistance;
+		return dataIndex;
+	}
+
+	/**
+	 * Returns the squared distance of the nearest neighbor found by the last
+	 * {@link #nearestNeighbor(RealLocalizable)} call to the query position.
+	 *
+	 * @return the squared distance, or {@link Double#POSITIVE_INFINITY} if the
+	 *         tree is empty.
+	 */
+	public double getSquareDistance()
+	{
+		return nearestSquDistance;
+	}
+
+	/**
+	 * Finds the {@code k} nearest neighbors of {@code p}, sorted by ascending
+	 * distance.
+	 *
+	 * @param p
+	 *            the query position.
+	 * @param k
+	 *            the number of neighbors to find.
+	 * @param dataIndices
+	 *            array of length at least {@code k} to store the pool indices
+	 *            of the neighbors in.
+	 * @param squDistances
+	 *            array of length at least {@code k} to store the squared
+	 *            distances of the neighbors in, or {@code null}.
+	 * @return the number of neighbors found, {@code min(k, tree.size())}.
+	 */
+	public int kNearestNeighbors( final RealLocalizable p, final int k, final int[] dataIndices, final double[] squDistances )
+	{
+		if ( heap == null || heap.capacity() != k )
+			heap = new KNearestNeighborHeap( k );
+		heap.reset();
+		if ( tree.size() == 0 )
+			return 0;
+		p.localize( pos );
+		searchKNearest( 0, tree.size() - 1, 0 );
+		heap.sort();
+		final int size = heap.size();
+		for ( int i = 0; i < size; ++i )
+			dataIndices[ i ] = tree.getDataIndex( heap.getIndex( i ) );
+		if ( refine )
+		{
+			final double[] tmp = squDistances != null ? squDistances : new double[ size ];
+			for ( int i = 0; i < size; ++i )
+				tmp[ i ] = exactSquDistance( p, dataIndices[ i ] );
+			sort( dataIndices, tmp, size );
+		}
+		else if ( squDistances != null )
+			for ( int i = 0; i < size; ++i )
+				squDistances[ i ] = heap.getSquDistance( i );
+		return size;
+	}
+
+	/**
+	 * Finds all objects within distance {@code radius} of {@code p}. Results
+	 * are appended to the given lists, in no particular order.
+	 *
+	 * @param p
+	 *            the query position.
+	 * @param radius
+	 *            the search radius. If negative, no neighbors are found.
+	 * @param dataIndices
+	 *            list to append the pool indices of the neighbors to.
+	 * @param squDistances
+	 *            list to append the squared distances of the neighbors to, or
+	 *            {@code null}.
+	 * @return the number of neighbors found.
+	 */
+	public int radiusNeighbors( final RealLocalizable p, final double radius, final TIntArrayList dataIndices, final TDoubleArrayList squDistances )
+	{
+		if ( tree.size() == 0 || radius < 0 )
+			return 0;
+		p.localize( pos );
+		radiusSqu = ( float ) ( radius * radius );
+		resultIndices = dataIndices;
+		resultSquDistances = squDistances;
+		final int start = dataIndices.size();
+		final int sStart = squDistances == null ? 0 : squDistances.size();
+		tree.realMin( xmin );
+		tree.realMax( xmax );
+		searchRadius( 0, tree.size() - 1, 0 );
+		resultIndices = null;
+		resultSquDistances = null;
+		if ( refine )
+		{
+			final double rr = radius * radius;
+			int j = 0;
+			final int found = dataIndices.size() - start;
+			for ( int i = 0; i < found; ++i )
+			{
+				final int dataIndex = dataIndices.get( start + i );
+				final double squDistance = exactSquDistance( p, dataIndex );
+				if ( squDistance <= rr )
+				{
+					dataIndices.set( start + j, dataIndex );
+					if ( squDistances != null )
+						squDistances.set( sStart + j, squDistance );
+					++j;
+				}
+			}
+			dataIndices.remove( start + j, found - j );
+			if ( squDistances != null )
+				squDistances.remove( sStart + j, found - j );
+		}
+		return dataIndices.size() - start;
+	}
+
+	/**
+	 * Finds all objects inside the given convex polytope. The pool indices of
+	 * the objects are appended to {@code dataIndices}, in no particular order.
+	 *
+	 * @param polytope
+	 *            the polytope.
+	 * @param dataIndices
+	 *            list to append the pool indices to.
+	 * @return the number of objects found.
+	 */
+	public int clip( final ConvexPolytope polytope, final TIntArrayList dataIndices )
+	{
+		if ( tree.size() == 0 )
+			return 0;
+		final int nPlanes = polytope.getHyperplanes().size();
+		normals = new double[ nPlanes ][];
+		ms = new double[ nPlanes ];
+		int i = 0;
+		for ( final HyperPlane plane : polytope.getHyperplanes() )
+		{
+			normals[ i ] = plane.getNormal();
+			ms[ i ] = plane.getDistance();
+			++i;
+		}
+		resultIndices = dataIndices;
+		final int start = dataIndices.size();
+		tree.realMin( xmin );
+		tree.realMax( xmax );
+		clip( 0, tree.size() - 1, 0 );
+		resultIndices = null;
+		return dataIndices.size() - start;
+	}
+
+	private float squDistance( final int o )
+	{
+		float sum = 0;
+		for ( int d = 0; d < n; ++d )
+		{
+			final float diff = pos[ d ] - data[ o + d ];
+			sum += diff * diff;
+		}
+		return sum;
+	}
+
+	private double exactSquDistance( final RealLocalizable p, final int dataIndex )
+	{
+		pool.getObject( dataIndex, ref );
+		double sum = 0;
+		for ( int d = 0; d < n; ++d )
+		{
+			final double diff = p.getDoublePosition( d ) - ref.getDoublePosition( d );
+			sum += diff * diff;
+		}
+		return sum;
+	}
+
+	private void searchNearest( final int i, final int j, final int d )
+	{
+		final int k = ( i + j ) >>> 1;
+		final int o = k * stride;
+		final float squDistance = squDistance( o );
+		if ( squDistance < bestSquDistance )
+		{
+			bestSquDistance = squDistance;
+			bestNode = k;
+		}
+
+		final float axisDiff = pos[ d ] - data[ o + d ];
+		final int dChild = ( d + 1 == n ) ? 0 : d + 1;
+		if ( axisDiff < 0 )
+		{
+			if ( k > i )
+				searchNearest( i, k - 1, dChild );
+			if ( j > k && axisDiff * axisDiff < bestSquDistance )
+				searchNearest( k + 1, j, dChild );
+		}
+		else
+		{
+			if ( j > k )
+				searchNearest( k + 1, j, dChild );
+			if ( k > i && axisDiff * axisDiff < bestSquDistance )
+				searchNearest( i, k - 1, dChild );
+		}
+	}
+
+	private void searchKNearest( final int i, final int j, final int d )
+	{
+		final int k = ( i + j ) >>> 1;
+		final int o = k * stride;
+		heap.insert( squDistance( o ), k );
+
+		final float axisDiff = pos[ d ] - data[ o + d ];
+		final int dChild = ( d + 1 == n ) ? 0 : d + 1;
+		if ( axisDiff < 0 )
+		{
+			if ( k > i )
+				searchKNearest( i, k - 1, dChild );
+			if ( j > k && axisDiff * axisDiff < heap.maxSquDistance() )
+				searchKNearest( k + 1, j, dChild );
+		}
+		else
+		{
+			if ( j > k )
+				searchKNearest( k + 1, j, dChild );
+			if ( k > i && axisDiff * axisDiff < heap.maxSquDistance() )
+				searchKNearest( i, k - 1, dChild );
+		}
+	}
+
+	/**
+	 * Search the subtree {@code [i, j]}, whose bounding box is
+	 * {@code [xmin, xmax]}, for neighbors within the radius.
+	 */
+	private void searchRadius( final int i, final int j, final int d )
+	{
+		float minSqu = 0;
+		float maxSqu = 0;
+		for ( int e = 0; e < n; ++e )
+		{
+			final float lo = pos[ e ] - ( float ) xmin[ e ];
+			final float hi = ( float ) xmax[ e ] - pos[ e ];
+			if ( lo < 0 )
+				minSqu += lo * lo;
+			else if ( hi < 0 )
+				minSqu += hi * hi;
+			final float far = Math.max( lo, hi );
+			maxSqu += far * far;
+		}
+		if ( minSqu > radiusSqu )
+			return;
+		if ( maxSqu <= radiusSqu )
+		{
+			// the whole subtree is inside the radius
+			for ( int k = i; k <= j; ++k )
+				addRadiusResult( k );
+			return;
+		}
+
+		final int k = ( i + j ) >>> 1;
+		final int o = k * stride;
+		final float squDistance = squDistance( o );
+		if ( squDistance <= radiusSqu )
+		{
+			resultIndices.add( tree.getDataIndex( k ) );
+			if ( resultSquDistances != null )
+				resultSquDistances.add( squDistance );
+		}
+
+		final double split = data[ o + d ];
+		final int dChild = ( d + 1 == n ) ? 0 : d + 1;
+		if ( k > i )
+		{
+			final double max = xmax[ d ];
+			xmax[ d ] = split;
+			searchRadius( i, k - 1, dChild );
+			xmax[ d ] = max;
+		}
+		if ( j > k )
+		{
+			final double min = xmin[ d ];
+			xmin[ d ] = split;
+			searchRadius( k + 1, j, dChild );
+			xmin[ d ] = min;
+		}
+	}
+
+	private void addRadiusResult( final int k )
+	{
+		resultIndices.add( tree.getDataIndex( k ) );
+		if ( resultSquDistances != null )
+			resultSquDistances.add( squDistance( k * stride ) );
+	}
+
+	/**
+	 * Clip the subtree {@code [i, j]}, whose bounding box is
+	 * {@code [xmin, xmax]}.
+	 */
+	private void clip( final int i, final int j, final int d )
+	{
+		boolean allInside = true;
+		for ( int p = 0; p < normals.length; ++p )
+		{
+			final double[] normal = normals[ p ];
+			double dotMin = 0;
+			double dotMax = 0;
+			for ( int e = 0; e < n; ++e )
+			{
+				if ( normal[ e ] >= 0 )
+				{
+					dotMin += normal[ e ] * xmin[ e ];
+					dotMax += normal[ e ] * xmax[ e ];
+				}
+				else
+				{
+					dotMin += normal[ e ] * xmax[ e ];
+					dotMax += normal[ e ] * xmin[ e ];
+				}
+			}
+			if ( dotMax < ms[ p ] )
+				return;
+			if ( dotMin < ms[ p ] )
+				allInside = false;
+		}
+		if ( allInside )
+		{
+			for ( int k = i; k <= j; ++k )
+				resultIndices.add( tree.getDataIndex( k ) );
+			return;
+		}
+
+		final int k = ( i + j ) >>> 1;
+		final int o = k * stride;
+		boolean inside = true;
+		for ( int p = 0; p < normals.length && inside; ++p )
+		{
+			final double[] normal = normals[ p ];
+			double dot = 0;
+			for ( int e = 0; e < n; ++e )
+				dot += normal[ e ] * data[ o + e ];
+			inside = dot >= ms[ p ];
+		}
+		if ( inside )
+			resultIndices.add( tree.getDataIndex( k ) );
+
+		final double split = data[ o + d ];
+		final int dChild = ( d + 1 == n ) ? 0 : d + 1;
+		if ( k > i )
+		{
+			final double max = xmax[ d ];
+			xmax[ d ] = split;
+			clip( i, k - 1, dChild );
+			xmax[ d ] = max;
+		}
+		if ( j > k )
+		{
+			final double min = xmin[ d ];
+			xmin[ d ] = split;
+			clip( k + 1, j, dChild );
+			xmin[ d ] = min;
+		}
+	}
+
+	/**
+	 * Insertion sort of the first {@code size} entries by ascending squared
+	 * distance (k is expected to be small, and the input nearly sorted).
+	 */
+	private static void sort( final int[] dataIndices, final double[] squDistances, final int size )
+	{
+		for ( int i = 1; i < size; ++i )
+		{
+			final double d = squDistances[ i ];
+			final int index = dataIndices[ i ];
+			int j = i - 1;
+			while ( j >= 0 && squDistances[ j ] > d )
+			{
+				squDistances[ j + 1 ] = squDistances[ j ];
+				dataIndices[ j + 1 ] = dataIndices[ j ];
+				--j;
+			}
+			squDistances[ j + 1 ] = d;
+			dataIndices[ j + 1 ] = index;
+		}
+	}
+}
@@ -31,6 +31,9 @@ package org.mastodon.kdtree;
 import java.nio.ByteOrder;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.IntStream;
 
 import org.mastodon.RefPool;
 import org.mastodon.collection.RefRefMap;
@@ -64,6 +67,12 @@ public class KDTree<
 {
 	private static final MemPool.Factory< DoubleMappedElement > defaultPoolFactory = SingleArrayMemPool.factory( DoubleMappedElementArray.factory );
 
+	/**
+	 * In parallel construction, sublists smaller than this are built
+	 * sequentially by a single task.
+	 */
+	static final int PARALLEL_THRESHOLD = 1 << 12;
+
 	/**
 	 * Builds a KDTree of the given {@code objects}. The KDTree is stored in a
 	 * {@link SingleArrayMemPool} of {@link DoubleMappedElement}s.
@@ -82,6 +91,28 @@ public class KDTree<
 		return kdtree( objects, objectPool, defaultPoolFactory );
 	}
 
+	/**
+	 * Builds a KDTree of the given {@code objects}, optionally in parallel. The
+	 * KDTree is stored in a {@link SingleArrayMemPool} of
+	 * {@link DoubleMappedElement}s.
+	 *
+	 * @param objects
+	 *            objects to build tree from.
+	 * @param objectPool
+	 *            the pool that contains the {@code objects}.
+	 * @param parallel
+	 *            whether to build the tree in parallel, see
+	 *            {@link #kdtree(Collection, RefPool, MemPool.Factory, boolean)}.
+	 * @return the tree.
+	 * @param <O>
+	 *            the type of objects stored in the tree.
+	 */
+	public static < O extends RealLocalizable >
+			KDTree< O, DoubleMappedElement > kdtree( final Collection< O > objects, final RefPool< O > objectPool, final boolean parallel )
+	{
+		return kdtree( objects, objectPool, defaultPoolFactory, parallel );
+	}
+
 	/**
 	 * Builds a KDTree of the given {@code objects}.
 	 *
@@ -100,12 +131,46 @@ public class KDTree<
 	 */
 	public static < O extends RealLocalizable, T extends MappedElement >
 			KDTree< O, T > kdtree( final Collection< O > objects, final RefPool< O > objectPool, final MemPool.Factory< T > poolFactory )
+	{
+		return kdtree( objects, objectPool, poolFactory, false );
+	}
+
+	/**
+	 * Builds a KDTree of the given {@code objects}, optionally in parallel.
+	 * <p>
+	 * In parallel construction, the bounding box is computed in parallel
+	 * chunks, and after each median partition the left and right sublists are
+	 * built as independent fork/join tasks in the common {@link ForkJoinPool},
+	 * until sublists become smaller than {@link #PARALLEL_THRESHOLD}. Creating
+	 * the nodes and the partition at the root are sequential. The resulting
+	 * tree is identical to the one built sequentially.
+	 *
+	 * @param objects
+	 *            objects to build tree from.
+	 * @param objectPool
+	 *            the pool that contains the {@code objects}.
+	 * @param poolFactory
+	 *            The {@link org.mastodon.pool.MemPool.Factory} that should be
+	 *            used to create storage for {@link KDTreeNode nodes}
+	 * @param parallel
+	 *            whether to build the tree in parallel.
+	 * @return the tree.
+	 * @param <O>
+	 *            the type of objects stored in the tree.
+	 * @param <T>
+	 *            the {@link MappedElement} type of the created pool of nodes.
+	 */
+	public static < O extends RealLocalizable, T extends MappedElement >
+			KDTree< O, T > kdtree( final Collection< O > objects, final RefPool< O > objectPool, final MemPool.Factory< T > poolFactory, final boolean parallel )
 	{
 		final int capacity = objects.size();
 		final int numDimensions = getNumDimensions( objects, objectPool );
 		final KDTreeNodeLayout layout = new KDTreeNodeLayout( numDimensions );
 		final KDTree< O, T > kdtree = new KDTree<>( capacity, layout, poolFactory, objectPool );
-		kdtree.build( objects );
+		if ( parallel )
+			kdtree.buildParallel( objects );
+		else
+			kdtree.build( objects );
 		return kdtree;
 	}
 
@@ -183,7 +248,11 @@ public class KDTree<
 		Arrays.fill( max, Double.NEGATIVE_INFINITY );
 	}
 
-	private static < O extends RealLocalizable > int getNumDimensions( final Collection< O > objects, final RefPool< O > objectPool )
+	/**
+	 * Returns the number of dimensions of the {@code objects}, or of the
+	 * objects in {@code objectPool} if {@code objects} is empty.
+	 */
+	static < O extends RealLocalizable > int getNumDimensions( final Collection< O > objects, final RefPool< O > objectPool )
 	{
 		final int n;
 		if ( objects.isEmpty() )
@@ -234,13 +303,122 @@ public class KDTree<
 			}
 		}
 		final int max = objects.size() - 1;
-		final int r = makeNode( 0, max, 0, n1, n2, n3 );
+		final int r = makeNode( 0, max, 0, n1, n2, n3, null );
 		releaseRef( n1 );
 		releaseRef( n2 );
 		releaseRef( n3 );
 		rootIndex = r;
 	}
 
+	private void buildParallel( final Collection< O > objects )
+	{
+		final KDTreeNode< O, T > n1 = createRef();
+		for ( final O obj : objects )
+			create( n1 ).init( obj );
+		releaseRef( n1 );
+		computeBoundingBoxParallel();
+		rootIndex = ForkJoinPool.commonPool().invoke( new MakeNodeTask( 0, objects.size() - 1, 0 ) );
+	}
+
+	/**
+	 * Computes {@link #min} and {@link #max} of the node positions, in
+	 * parallel chunks of {@link #PARALLEL_THRESHOLD} nodes.
+	 */
+	private void computeBoundingBoxParallel()
+	{
+		final int size = size();
+		final int numChunks = ( size + PARALLEL_THRESHOLD - 1 ) / PARALLEL_THRESHOLD;
+		final double[][] mins = new double[ numChunks ][];
+		final double[][] maxs = new double[ numChunks ][];
+		IntStream.range( 0, numChunks ).parallel().forEach( c -> {
+			final double[] cmin = new double[ n ];
+			final double[] cmax = new double[ n ];
+			Arrays.fill( cmin, Double.POSITIVE_INFINITY );
+			Arrays.fill( cmax, Double.NEGATIVE_INFINITY );
+			final KDTreeNode< O, T > node = createRef();
+			final int to = Math.min( size, ( c + 1 ) * PARALLEL_THRESHOLD );
+			for ( int i = c * PARALLEL_THRESHOLD; i < to; ++i )
+			{
+				getObject( i, node );
+				for ( int d = 0; d < n; ++d )
+				{
+					final double x = node.getPosition( d );
+					if ( x < cmin[ d ] )
+						cmin[ d ] = x;
+					if ( x > cmax[ d ] )
+						cmax[ d ] = x;
+				}
+			}
+			releaseRef( node );
+			mins[ c ] = cmin;
+			maxs[ c ] = cmax;
+		} );
+		for ( int c = 0; c < numChunks; ++c )
+			for ( int d = 0; d < n; ++d )
+			{
+				min[ d ] = Math.min( min[ d ], mins[ c ][ d ] );
+				max[ d ] = Math.max( max[ d ], maxs[ c ][ d ] );
+			}
+	}
+
+	/**
+	 * Builds the subtree of the sublist {@code [i, j]} like
+	 * {@link KDTree#makeNode(int, int, int, KDTreeNode, KDTreeNode, KDTreeNode, double[])},
+	 * processing the left and right partitions in parallel as long as the
+	 * sublist is larger than {@link #PARALLEL_THRESHOLD}. Every task uses its
+	 * own {@link KDTreeNode} refs, and swaps elements field by field because
+	 * {@link MemPool#swap(int, int)} is not thread-safe.
+	 */
+	private class MakeNodeTask extends RecursiveTask< Integer >
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final int i;
+
+		private final int j;
+
+		private final int d;
+
+		MakeNodeTask( final int i, final int j, final int d )
+		{
+			this.i = i;
+			this.j = j;
+			this.d = d;
+		}
+
+		@Override
+		protected Integer compute()
+		{
+			final KDTreeNode< O, T > n1 = createRef();
+			final KDTreeNode< O, T > n2 = createRef();
+			final KDTreeNode< O, T > n3 = createRef();
+			final double[] tmp = new double[ n ];
+			final int r;
+			if ( j - i < PARALLEL_THRESHOLD )
+				r = makeNode( i, j, d, n1, n2, n3, tmp );
+			else
+			{
+				final int k = i + ( j - i ) / 2;
+				kthElement( i, j, k, d, n1, n2, n3, tmp );
+
+				final int dChild = ( d + 1 == n ) ? 0 : d + 1;
+				final MakeNodeTask leftTask = new MakeNodeTask( i, k - 1, dChild );
+				leftTask.fork();
+				final int right = new MakeNodeTask( k + 1, j, dChild ).compute();
+				final int left = leftTask.join();
+
+				getObject( k, n1 );
+				n1.setLeftIndex( left );
+				n1.setRightIndex( right );
+				r = k;
+			}
+			releaseRef( n1 );
+			releaseRef( n2 );
+			releaseRef( n3 );
+			return r;
+		}
+	}
+
 	@Override
 	protected KDTreeNode< O, T > createEmptyRef()
 	{
@@ -272,7 +450,10 @@ public class KDTree<
 	 * at the median element with respect to coordinates in the given dimension
 	 * d. The median becomes the new node which is returned. The left and right
 	 * partitions of the sublist are processed recursively and form the left and
-	 * right subtrees of the node.
+	 * right subtrees of the node. Consequently, the subtree of the node
+	 * returned for the sublist {@code [i, j]} consists of exactly the nodes
+	 * with indices {@code i} to {@code j}, and its root is at index
+	 * {@code i + (j - i) / 2}.
 	 *
 	 * @param i
 	 *            start index of sublist to process
@@ -286,19 +467,22 @@ public class KDTree<
 	 *            temporary {@link KDTreeNode} reference.
 	 * @param n3
 	 *            temporary {@link KDTreeNode} reference.
+	 * @param tmp
+	 *            temporary position array for thread-safe swapping, or
+	 *            {@code null} to use {@link MemPool#swap(int, int)}.
 	 * @return index of the constructed node containing the subtree of the given
 	 *         sublist of positions.
 	 */
-	private int makeNode( final int i, final int j, final int d, final KDTreeNode< O, T > n1, final KDTreeNode< O, T > n2, final KDTreeNode< O, T > n3 )
+	private int makeNode( final int i, final int j, final int d, final KDTreeNode< O, T > n1, final KDTreeNode< O, T > n2, final KDTreeNode< O, T > n3, final double[] tmp )
 	{
 		if ( j > i )
 		{
 			final int k = i + ( j - i ) / 2;
-			kthElement( i, j, k, d, n1, n2, n3 );
+			kthElement( i, j, k, d, n1, n2, n3, tmp );
 
 			final int dChild = ( d + 1 == n ) ? 0 : d + 1;
-			final int left = makeNode( i, k - 1, dChild, n1, n2, n3 );
-			final int right = makeNode( k + 1, j, dChild, n1, n2, n3 );
+			final int left = makeNode( i, k - 1, dChild, n1, n2, n3, tmp );
+			final int right = makeNode( k + 1, j, dChild, n1, n2, n3, tmp );
 
 			getObject( k, n1 );
 			n1.setLeftIndex( left );
@@ -342,12 +526,15 @@ public class KDTree<
 	 *            temporary {@link KDTreeNode} reference.
 	 * @param tj
 	 *            temporary {@link KDTreeNode} reference.
+	 * @param tmp
+	 *            temporary position array for thread-safe swapping, or
+	 *            {@code null} to use {@link MemPool#swap(int, int)}.
 	 */
-	private void kthElement( int i, int j, final int k, final int compare_d, final KDTreeNode< O, T > pivot, final KDTreeNode< O, T > ti, final KDTreeNode< O, T > tj )
+	private void kthElement( int i, int j, final int k, final int compare_d, final KDTreeNode< O, T > pivot, final KDTreeNode< O, T > ti, final KDTreeNode< O, T > tj, final double[] tmp )
 	{
 		while ( true )
 		{
-			final int pivotpos = partitionSubList( i, j, compare_d, pivot, ti, tj );
+			final int pivotpos = partitionSubList( i, j, compare_d, pivot, ti, tj, tmp );
 			if ( pivotpos > k )
 			{
 				// partition lower half
@@ -387,9 +574,12 @@ public class KDTree<
 	 *            temporary {@link KDTreeNode} reference.
 	 * @param tj
 	 *            temporary {@link KDTreeNode} reference.
+	 * @param tmp
+	 *            temporary position array for thread-safe swapping, or
+	 *            {@code null} to use {@link MemPool#swap(int, int)}.
 	 * @return index of pivot element
 	 */
-	private int partitionSubList( int i, int j, final int compare_d, final KDTreeNode< O, T > pivot, final KDTreeNode< O, T > ti, final KDTreeNode< O, T > tj )
+	private int partitionSubList( int i, int j, final int compare_d, final KDTreeNode< O, T > pivot, final KDTreeNode< O, T > ti, final KDTreeNode< O, T > tj, final double[] tmp )
 	{
 		final int pivotIndex = j;
 		getObject( j--, pivot );
@@ -418,7 +608,7 @@ public class KDTree<
 				if ( tj.getPosition( compare_d ) < pivotPosition )
 				{
 					// swap [j] with [i]
-					getMemPool().swap( i++, j-- );
+					swap( i++, j--, ti, tj, tmp );
 					break;
 				}
 				else if ( j == i )
@@ -433,11 +623,42 @@ public class KDTree<
 		// check whether the element at iLastIndex is <
 		if ( i != pivotIndex )
 		{
-			getMemPool().swap( i, pivotIndex );
+			swap( i, pivotIndex, ti, tj, tmp );
 		}
 		return i;
 	}
 
+	/**
+	 * Swap the elements at indices {@code i} and {@code j}. If {@code tmp} is
+	 * {@code null}, this uses {@link MemPool#swap(int, int)}. Otherwise, the
+	 * position, data index, and flags are swapped field by field through the
+	 * {@code ti} and {@code tj} references, which is thread-safe for disjoint
+	 * indices. (Left and right indices are not yet set while partitioning,
+	 * and are not swapped.)
+	 */
+	private void swap( final int i, final int j, final KDTreeNode< O, T > ti, final KDTreeNode< O, T > tj, final double[] tmp )
+	{
+		if ( tmp == null )
+		{
+			getMemPool().swap( i, j );
+			return;
+		}
+		getObject( i, ti );
+		getObject( j, tj );
+		for ( int d = 0; d < n; ++d )
+		{
+			tmp[ d ] = ti.getPosition( d );
+			ti.setPosition( tj.getPosition( d ), d );
+			tj.setPosition( tmp[ d ], d );
+		}
+		final int dataIndex = ti.getDataIndex();
+		ti.setDataIndex( tj.getDataIndex() );
+		tj.setDataIndex( dataIndex );
+		final int flags = ti.getFlags();
+		ti.setFlags( tj.getFlags() );
+		tj.setFlags( flags );
+	}
+
 	@Override
 	public int numDimensions()
 	{
@@ -0,0 +1,213 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.kdtree;
+
+import java.util.ArrayList;
+import java.util.function.ToDoubleFunction;
+
+import org.mastodon.RefPool;
+import org.mastodon.pool.MappedElement;
+
+import net.imglib2.RealLocalizable;
+
+/**
+ * Subtree aggregates of per-object values on a {@link KDTree}, to count
+ * objects and sum values inside a box or convex polytope without visiting
+ * every object inside.
+ * <p>
+ * For each value channel added with {@link #addValues(ToDoubleFunction)}, the
+ * value of every node and the sum over every subtree are stored, the latter at
+ * the index of the subtree root. Pass the aggregates to a
+ * {@link ClipIntervalKDTree} or {@link ClipConvexPolytopeKDTree}, which then
+ * add up the stored sums of subtrees that are completely inside the clip
+ * region in constant time, and provide the totals through
+ * {@code getInsideSum(int)}.
+ * <p>
+ * Values are read when a channel is added and on {@link #update()}. Call
+ * {@link #update()} after values have changed. All nodes are aggregated,
+ * regardless of whether they are {@link KDTreeNode#isValid() valid}.
+ *
+ * @param <O>
+ *            type of objects stored in the tree.
+ * @param <T>
+ *            the MappedElement type of the {@link KDTree tree nodes}.
+ */
+public class KDTreeAggregates< O extends RealLocalizable, T extends MappedElement >
+{
+	final KDTree< O, T > tree;
+
+	private final ArrayList< ToDoubleFunction< ? super O > > valueFunctions;
+
+	/**
+	 * {@code values.get( c )[ k ]} is the value of channel {@code c} of node
+	 * {@code k}.
+	 */
+	private final ArrayList< double[] > values;
+
+	/**
+	 * {@code subtreeSums.get( c )[ k ]} is the sum of channel {@code c} over
+	 * the subtree rooted at node {@code k}.
+	 */
+	private final ArrayList< double[] > subtreeSums;
+
+	/**
+	 * {@code subtreeSizes[ k ]} is the number of nodes in the subtree rooted
+	 * at node {@code k}.
+	 */
+	private final int[] subtreeSizes;
+
+	/**
+	 * Create aggregates on the given tree, without value channels.
+	 *
+	 * @param tree
+	 *            the tree.
+	 */
+	public KDTreeAggregates( final KDTree< O, T > tree )
+	{
+		this.tree = tree;
+		valueFunctions = new ArrayList<>();
+		values = new ArrayList<>();
+		subtreeSums = new ArrayList<>();
+		subtreeSizes = new int[ tree.size() ];
+		if ( tree.size() > 0 )
+			sizeSubtree( 0, tree.size() - 1, subtreeSizes );
+	}
+
+	/**
+	 * Add a value channel. The {@code values} function could for example be
+	 * {@code propertyMap::getDouble} for a {@code DoublePropertyMap} or
+	 * {@code attribute::get} for a {@code DoubleAttribute}.
+	 *
+	 * @param values
+	 *            function that provides the value of an object.
+	 * @return the index of the new channel, to be passed to
+	 *         {@code getInsideSum(int)} of the clip classes.
+	 */
+	public int addValues( final ToDoubleFunction< ? super O > values )
+	{
+		final int size = tree.size();
+		valueFunctions.add( values );
+		this.values.add( new double[ size ] );
+		subtreeSums.add( new double[ size ] );
+		final int c = valueFunctions.size() - 1;
+		update( c );
+		return c;
+	}
+
+	/**
+	 * Returns the number of value channels.
+	 *
+	 * @return the number of value channels.
+	 */
+	public int numValues()
+	{
+		return valueFunctions.size();
+	}
+
+	/**
+	 * Re-read the values of all channels and recompute subtree sums.
+	 */
+	public void update()
+	{
+		for ( int c = 0; c < valueFunctions.size(); ++c )
+			update( c );
+	}
+
+	/**
+	 * Returns the number of nodes in the subtree rooted at node {@code k}.
+	 */
+	int subtreeSize( final int k )
+	{
+		return subtreeSizes[ k ];
+	}
+
+	/**
+	 * Add the values of node {@code k} to {@code sums}, one entry per channel.
+	 */
+	void addNodeValues( final int k, final double[] sums )
+	{
+		for ( int c = 0; c < sums.length; ++c )
+			sums[ c ] += values.get( c )[ k ];
+	}
+
+	/**
+	 * Add the sums over the subtree rooted at node {@code k} to {@code sums},
+	 * one entry per channel.
+	 */
+	void addSubtreeSums( final int k, final double[] sums )
+	{
+		for ( int c = 0; c < sums.length; ++c )
+			sums[ c ] += subtreeSums.get( c )[ k ];
+	}
+
+	private void update( final int c )
+	{
+		final ToDoubleFunction< ? super O > f = valueFunctions.get( c );
+		final double[] v = values.get( c );
+		final RefPool< O > pool = tree.getObjectPool();
+		final KDTreeNode< O, T > current = tree.createRef();
+		final O obj = pool.createRef();
+		for ( int k = 0; k < v.length; ++k )
+		{
+			tree.getObject( k, current );
+			v[ k ] = f.applyAsDouble( pool.getObject( current.getDataIndex(), obj ) );
+		}
+		pool.releaseRef( obj );
+		tree.releaseRef( current );
+		if ( v.length > 0 )
+			sumSubtree( 0, v.length - 1, v, subtreeSums.get( c ) );
+	}
+
+	/**
+	 * The subtree built from the sorted range {@code [i, j]} occupies the node
+	 * indices {@code [i, j]} and is rooted at {@code i + (j - i) / 2} (see
+	 * {@link KDTree}).
+	 */
+	private static double sumSubtree( final int i, final int j, final double[] v, final double[] s )
+	{
+		final int k = i + ( j - i ) / 2;
+		double sum = v[ k ];
+		if ( k > i )
+			sum += sumSubtree( i, k - 1, v, s );
+		if ( j > k )
+			sum += sumSubtree( k + 1, j, v, s );
+		s[ k ] = sum;
+		return sum;
+	}
+
+	private static void sizeSubtree( final int i, final int j, final int[] s )
+	{
+		final int k = i + ( j - i ) / 2;
+		s[ k ] = j - i + 1;
+		if ( k > i )
+			sizeSubtree( i, k - 1, s );
+		if ( j > k )
+			sizeSubtree( k + 1, j, s );
+	}
+}
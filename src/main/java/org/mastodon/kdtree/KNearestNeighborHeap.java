@@ -0,0 +1,168 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.kdtree;
+
+/**
+ * Fixed-capacity max-heap of {@code (squared distance, index)} pairs, used to
+ * collect the k nearest neighbors. Once {@code k} pairs are collected, a new
+ * pair is only accepted if it is closer than the current farthest one, which
+ * it then replaces.
+ */
+final class KNearestNeighborHeap
+{
+	private final int k;
+
+	private final double[] squDistances;
+
+	private final int[] indices;
+
+	private int size;
+
+	KNearestNeighborHeap( final int k )
+	{
+		if ( k < 1 )
+			throw new IllegalArgumentException( "k must be at least 1: " + k );
+		this.k = k;
+		squDistances = new double[ k ];
+		indices = new int[ k ];
+		size = 0;
+	}
+
+	void reset()
+	{
+		size = 0;
+	}
+
+	int size()
+	{
+		return size;
+	}
+
+	int capacity()
+	{
+		return k;
+	}
+
+	/**
+	 * Returns the squared distance below which a candidate is accepted:
+	 * infinity while the heap is not full, the largest squared distance in
+	 * the heap otherwise.
+	 */
+	double maxSquDistance()
+	{
+		return size < k ? Double.POSITIVE_INFINITY : squDistances[ 0 ];
+	}
+
+	/**
+	 * Inserts {@code (squDistance, index)} if {@code squDistance} is smaller
+	 * than {@link #maxSquDistance()}.
+	 */
+	void insert( final double squDistance, final int index )
+	{
+		if ( size < k )
+		{
+			int i = size++;
+			while ( i > 0 )
+			{
+				final int parent = ( i - 1 ) >>> 1;
+				if ( squDistances[ parent ] >= squDistance )
+					break;
+				squDistances[ i ] = squDistances[ parent ];
+				indices[ i ] = indices[ parent ];
+				i = parent;
+			}
+			squDistances[ i ] = squDistance;
+			indices[ i ] = index;
+		}
+		else if ( squDistance < squDistances[ 0 ] )
+			siftDown( 0, size, squDistance, index );
+	}
+
+	/**
+	 * Sorts the heap content by ascending squared distance (destroying the
+	 * heap property). After this, {@link #getSquDistance(int)} and
+	 * {@link #getIndex(int)} return the {@code i}-th nearest neighbor.
+	 */
+	void sort()
+	{
+		for ( int end = size - 1; end > 0; --end )
+		{
+			final double d = squDistances[ end ];
+			final int i = indices[ end ];
+			squDistances[ end ] = squDistances[ 0 ];
+			indices[ end ] = indices[ 0 ];
+			siftDown( 0, end, d, i );
+		}
+	}
+
+	double getSquDistance( final int i )
+	{
+		return squDistances[ i ];
+	}
+
+	int getIndex( final int i )
+	{
+		return indices[ i ];
+	}
+
+	void setIndex( final int i, final int index )
+	{
+		indices[ i ] = index;
+	}
+
+	void copyFrom( final KNearestNeighborHeap heap )
+	{
+		System.arraycopy( heap.squDistances, 0, squDistances, 0, heap.size );
+		System.arraycopy( heap.indices, 0, indices, 0, heap.size );
+		size = heap.size;
+	}
+
+	/**
+	 * Places {@code (squDistance, index)} at position {@code i} of the heap of
+	 * the given {@code size} and moves it down to restore the heap property.
+	 */
+	private void siftDown( int i, final int size, final double squDistance, final int index )
+	{
+		while ( true )
+		{
+			int child = 2 * i + 1;
+			if ( child >= size )
+				break;
+			if ( child + 1 < size && squDistances[ child + 1 ] > squDistances[ child ] )
+				++child;
+			if ( squDistances[ child ] <= squDistance )
+				break;
+			squDistances[ i ] = squDistances[ child ];
+			indices[ i ] = indices[ child ];
+			i = child;
+		}
+		squDistances[ i ] = squDistance;
+		indices[ i ] = index;
+	}
+}
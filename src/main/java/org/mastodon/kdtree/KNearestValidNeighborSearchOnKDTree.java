@@ -0,0 +1,396 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.kdtree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.mastodon.pool.MappedElement;
+
+import net.imglib2.RealLocalizable;
+import net.imglib2.Sampler;
+import net.imglib2.neighborsearch.KNearestNeighborSearch;
+
+/**
+ * Implementation of {@link KNearestNeighborSearch} for kd-trees, which only
+ * considers {@link KDTreeNode#isValid() valid} nodes.
+ * <p>
+ * The {@code k} nearest neighbors are collected in a fixed-size primitive
+ * max-heap. If the tree is stored in a single {@code double[]} array (the
+ * default), the tree is traversed directly on that array.
+ * After {@link #search(RealLocalizable)}, neighbors are sorted by increasing
+ * distance, and can be retrieved as pool indices and squared distances into
+ * reusable arrays using {@link #getResults(int[], double[])}.
+ * </p>
+ * <p>
+ * If the tree contains less than {@code k} valid elements, only
+ * {@link #numFound()} neighbors are found. Samplers and positions for
+ * {@code i >= numFound()} return {@code null}.
+ * </p>
+ */
+public final class KNearestValidNeighborSearchOnKDTree< O extends RealLocalizable, T extends MappedElement >
+	implements KNearestNeighborSearch< O >
+{
+	private final KDTree< O, T > tree;
+
+	private final int n;
+
+	private final int k;
+
+	private final double[] pos;
+
+	private final KDTreeNode< O, T > node;
+
+	/**
+	 * After search, the node indices and squared distances of the neighbors,
+	 * sorted by increasing distance.
+	 */
+	private final KNearestNeighborHeap heap;
+
+	private final ArrayList< NeighborSampler > samplers;
+
+	private final FastDoubleSearch fastDoubleSearch;
+
+	public KNearestValidNeighborSearchOnKDTree( final KDTree< O, T > tree, final int k )
+	{
+		n = tree.numDimensions();
+		this.k = k;
+		pos = new double[ n ];
+		this.tree = tree;
+		this.node = tree.createRef();
+		heap = new KNearestNeighborHeap( k );
+		samplers = new ArrayList<>( Collections.nCopies( k, null ) );
+		this.fastDoubleSearch = ( tree.getDoubles() != null ) ? new FastDoubleSearch( tree, heap ) : null;
+	}
+
+	@Override
+	public int numDimensions()
+	{
+		return n;
+	}
+
+	@Override
+	public int getK()
+	{
+		return k;
+	}
+
+	/**
+	 * Returns the number of neighbors found by the last search. This is
+	 * {@code k} unless the tree contains less than {@code k} valid elements.
+	 *
+	 * @return the number of neighbors found.
+	 */
+	public int numFound()
+	{
+		return heap.size();
+	}
+
+	@Override
+	public void search( final RealLocalizable p )
+	{
+		heap.reset();
+		if ( tree.size() <= 0 )
+			return;
+
+		if ( fastDoubleSearch != null )
+		{
+			fastDoubleSearch.search( p );
+			heap.sort();
+			final int nodeSizeInDoubles = fastDoubleSearch.nodeSizeInDoubles;
+			for ( int i = 0; i < heap.size(); ++i )
+				heap.setIndex( i, heap.getIndex( i ) / nodeSizeInDoubles );
+		}
+		else
+		{
+			p.localize( pos );
+			searchNode( tree.rootIndex, 0 );
+			heap.sort();
+		}
+	}
+
+	private void searchNode( final int currentNodeIndex, final int d )
+	{
+		// consider the current node
+		tree.getObject( currentNodeIndex, node );
+		final double distance = node.squDistanceTo( pos );
+		if ( distance < heap.maxSquDistance() && node.isValid() )
+			heap.insert( distance, currentNodeIndex );
+
+		final double axisDiff = pos[ d ] - node.getPosition( d );
+		final boolean leftIsNearBranch = axisDiff < 0;
+
+		// search the near branch
+		final int nearChildNodeIndex = leftIsNearBranch ? node.getLeftIndex() : node.getRightIndex();
+		final int awayChildNodeIndex = leftIsNearBranch ? node.getRightIndex() : node.getLeftIndex();
+		if ( nearChildNodeIndex != -1 )
+			searchNode( nearChildNodeIndex, d + 1 == n ? 0 : d + 1 );
+
+		// search the away branch - maybe
+		if ( ( awayChildNodeIndex != -1 ) && ( axisDiff * axisDiff <= heap.maxSquDistance() ) )
+			searchNode( awayChildNodeIndex, d + 1 == n ? 0 : d + 1 );
+	}
+
+	/**
+	 * Writes the pool indices of the objects found by the last search, and
+	 * their squared distances to the query, into the specified arrays, sorted
+	 * by increasing distance. Either array may be {@code null}. The arrays
+	 * must have at least {@link #numFound()} elements.
+	 *
+	 * @param dataIndices
+	 *            array to store the pool indices of the neighbors, or
+	 *            {@code null}.
+	 * @param squDistances
+	 *            array to store the squared distances of the neighbors, or
+	 *            {@code null}.
+	 * @return the number of neighbors found.
+	 */
+	public int getResults( final int[] dataIndices, final double[] squDistances )
+	{
+		final int size = heap.size();
+		for ( int i = 0; i < size; ++i )
+		{
+			if ( dataIndices != null )
+			{
+				tree.getObject( heap.getIndex( i ), node );
+				dataIndices[ i ] = node.getDataIndex();
+			}
+			if ( squDistances != null )
+				squDistances[ i ] = heap.getSquDistance( i );
+		}
+		return size;
+	}
+
+	@Override
+	public Sampler< O > getSampler( final int i )
+	{
+		return neighborSampler( i );
+	}
+
+	@Override
+	public RealLocalizable getPosition( final int i )
+	{
+		return neighborSampler( i ).getPosition();
+	}
+
+	@Override
+	public double getSquareDistance( final int i )
+	{
+		return i < heap.size() ? heap.getSquDistance( i ) : Double.POSITIVE_INFINITY;
+	}
+
+	@Override
+	public double getDistance( final int i )
+	{
+		return Math.sqrt( getSquareDistance( i ) );
+	}
+
+	@Override
+	public Sampler< O > getSampler()
+	{
+		return getSampler( 0 );
+	}
+
+	@Override
+	public RealLocalizable getPosition()
+	{
+		return getPosition( 0 );
+	}
+
+	@Override
+	public double getSquareDistance()
+	{
+		return getSquareDistance( 0 );
+	}
+
+	@Override
+	public double getDistance()
+	{
+		return getDistance( 0 );
+	}
+
+	@Override
+	public KNearestValidNeighborSearchOnKDTree< O, T > copy()
+	{
+		final KNearestValidNeighborSearchOnKDTree< O, T > copy = new KNearestValidNeighborSearchOnKDTree<>( tree, k );
+		System.arraycopy( pos, 0, copy.pos, 0, pos.length );
+		copy.heap.copyFrom( heap );
+		return copy;
+	}
+
+	private NeighborSampler neighborSampler( final int i )
+	{
+		NeighborSampler sampler = samplers.get( i );
+		if ( sampler == null )
+		{
+			sampler = new NeighborSampler( i );
+			samplers.set( i, sampler );
+		}
+		return sampler;
+	}
+
+	private final class NeighborSampler implements Sampler< O >
+	{
+		private final int i;
+
+		private final KDTreeNode< O, T > ref;
+
+		private final O obj;
+
+		NeighborSampler( final int i )
+		{
+			this.i = i;
+			ref = tree.createRef();
+			obj = tree.getObjectPool().createRef();
+		}
+
+		RealLocalizable getPosition()
+		{
+			if ( i >= heap.size() )
+				return null;
+
+			return tree.getObject( heap.getIndex( i ), ref );
+		}
+
+		@Override
+		public O get()
+		{
+			if ( i >= heap.size() )
+				return null;
+
+			tree.getObject( heap.getIndex( i ), ref );
+			return tree.getObjectPool().getObject( ref.getDataIndex(), obj );
+		}
+
+		@Override
+		public Sampler< O > copy()
+		{
+			return new NeighborSampler( i );
+		}
+	}
+
+	private static final class FastDoubleSearch
+	{
+		private final int n;
+
+		private final int nodeSizeInDoubles;
+
+		private final double[] pos;
+
+		private final KNearestNeighborHeap heap;
+
+		private final double[] doubles;
+
+		private final int doublesRootIndex;
+
+		private final double[] axisDiffs;
+
+		private final int[] awayChildNodeIndices;
+
+		private final int[] ds;
+
+		FastDoubleSearch( final KDTree< ?, ? > tree, final KNearestNeighborHeap heap )
+		{
+			n = tree.numDimensions();
+			nodeSizeInDoubles = n + 2;
+			final int depth = ( tree.size() <= 0 ) ? 0 :
+				( int ) ( Math.log( tree.size() ) / Math.log( 2 ) ) + 2;
+			pos = new double[ n ];
+			this.heap = heap;
+			doubles = tree.getDoubles();
+			doublesRootIndex = tree.rootIndex * nodeSizeInDoubles;
+			axisDiffs = new double[ depth ];
+			awayChildNodeIndices = new int[ depth ];
+			ds = new int[ depth ];
+			for ( int i = 0; i < depth; ++i )
+				ds[ i ] = i % n;
+		}
+
+		/**
+		 * Collects the nearest neighbors of {@code p} in the heap. The heap
+		 * contains indices into the {@code double[]} array of the tree.
+		 */
+		void search( final RealLocalizable p )
+		{
+			p.localize( pos );
+			int currentIndex = doublesRootIndex;
+			int depth = 0;
+			double maxSquDistance = heap.maxSquDistance();
+			while ( true )
+			{
+				final double distance = squDistance( currentIndex );
+				if ( distance < maxSquDistance )
+				{
+					final int flags = ( int ) ( Double.doubleToRawLongBits( doubles[ currentIndex + n + 1 ] ) >> 32 );
+					if ( flags == 0 ) // if node is valid
+					{
+						heap.insert( distance, currentIndex );
+						maxSquDistance = heap.maxSquDistance();
+					}
+				}
+
+				final int d = ds[ depth ];
+				final double axisDiff = pos[ d ] - doubles[ currentIndex + d ];
+				final boolean leftIsNearBranch = axisDiff < 0;
+
+				final long leftright = Double.doubleToRawLongBits( doubles[ currentIndex + n ] );
+				final int left = ( int ) ( leftright >> 32 );
+				final int right = ( int ) leftright;
+
+				// search the near branch
+				final int nearChildNodeIndex = leftIsNearBranch ? left : right;
+				final int awayChildNodeIndex = leftIsNearBranch ? right : left;
+				++depth;
+				awayChildNodeIndices[ depth ] = awayChildNodeIndex;
+				axisDiffs[ depth ] = axisDiff * axisDiff;
+				if ( nearChildNodeIndex < 0 )
+				{
+					while ( awayChildNodeIndices[ depth ] < 0 || axisDiffs[ depth ] > maxSquDistance )
+						if ( --depth == 0 )
+							return;
+					currentIndex = awayChildNodeIndices[ depth ];
+					awayChildNodeIndices[ depth ] = -1;
+				}
+				else
+					currentIndex = nearChildNodeIndex;
+			}
+		}
+
+		private double squDistance( final int index )
+		{
+			double sum = 0;
+			for ( int d = 0; d < n; ++d )
+			{
+				final double diff = ( pos[ d ] - doubles[ index + d ] );
+				sum += diff * diff;
+			}
+			return sum;
+		}
+	}
+}
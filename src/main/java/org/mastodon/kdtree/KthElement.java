@@ -0,0 +1,111 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.kdtree;
+
+/**
+ * Quickselect with median-of-three pivots, used to find the split points when
+ * building {@link FloatKDTree}, {@link BucketKDTree} and
+ * {@link LeftBalancedKDTree}.
+ * <p>
+ * The points are given as a flat array of coordinates ({@code n} per point)
+ * and a parallel array of pool indices, which are reordered in place. Each
+ * tree lays out its nodes from the partitioned arrays.
+ */
+final class KthElement
+{
+	/**
+	 * Partition the points {@code [i, j]} such that the point with the k-th
+	 * smallest coordinate in dimension {@code d} is at position {@code k},
+	 * points before are smaller or equal and points after are larger or equal.
+	 *
+	 * @param i
+	 *            first point of the range to partition.
+	 * @param j
+	 *            last point (inclusive) of the range to partition.
+	 * @param k
+	 *            the position to put the k-th smallest point at.
+	 * @param points
+	 *            point coordinates, the coordinate of point {@code p} in
+	 *            dimension {@code d} is {@code points[p * n + d]}.
+	 * @param ids
+	 *            pool indices of the points.
+	 * @param n
+	 *            number of dimensions.
+	 * @param d
+	 *            the dimension to partition by.
+	 */
+	static void kthElement( int i, int j, final int k, final double[] points, final int[] ids, final int n, final int d )
+	{
+		while ( j > i )
+		{
+			// median-of-three pivot, moved to position j
+			final int mid = ( i + j ) >>> 1;
+			if ( points[ mid * n + d ] < points[ i * n + d ] )
+				swap( mid, i, points, ids, n );
+			if ( points[ j * n + d ] < points[ i * n + d ] )
+				swap( j, i, points, ids, n );
+			if ( points[ mid * n + d ] < points[ j * n + d ] )
+				swap( mid, j, points, ids, n );
+			final double pivot = points[ j * n + d ];
+
+			int p = i;
+			for ( int q = i; q < j; ++q )
+				if ( points[ q * n + d ] < pivot )
+					swap( p++, q, points, ids, n );
+			swap( p, j, points, ids, n );
+
+			if ( p > k )
+				j = p - 1;
+			else if ( p < k )
+				i = p + 1;
+			else
+				break;
+		}
+	}
+
+	private static void swap( final int a, final int b, final double[] points, final int[] ids, final int n )
+	{
+		if ( a == b )
+			return;
+		final int oa = a * n;
+		final int ob = b * n;
+		for ( int d = 0; d < n; ++d )
+		{
+			final double t = points[ oa + d ];
+			points[ oa + d ] = points[ ob + d ];
+			points[ ob + d ] = t;
+		}
+		final int t = ids[ a ];
+		ids[ a ] = ids[ b ];
+		ids[ b ] = t;
+	}
+
+	private KthElement()
+	{}
+}
@@ -0,0 +1,220 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.kdtree;
+
+import java.util.Collection;
+
+import org.mastodon.RefPool;
+
+import net.imglib2.RealLocalizable;
+
+/**
+ * Pointer-free KDTree of {@link RealLocalizable} objects in implicit heap
+ * order.
+ * <p>
+ * The tree is left-balanced: all levels are full except possibly the last
+ * one, which is filled from the left. This allows to store the nodes in
+ * breadth-first order without gaps, with the children of node {@code i} at
+ * {@code 2i+1} and {@code 2i+2}. Unlike {@link KDTree}, nodes do not store
+ * child indices; each node is just its {@code numDimensions()} coordinates
+ * (in a flat {@code double[]}) and the pool index of its object (in an
+ * {@code int[]}). The split dimension of a node is its depth modulo
+ * {@code numDimensions()}.
+ * <p>
+ * Use {@link LeftBalancedKDTreeSearch} to query the tree.
+ *
+ * @param <O>
+ *            type of objects stored in the tree.
+ */
+public class LeftBalancedKDTree< O extends RealLocalizable >
+{
+	/**
+	 * Builds a LeftBalancedKDTree of the given {@code objects}.
+	 *
+	 * @param objects
+	 *            objects to build tree from.
+	 * @param objectPool
+	 *            the pool that contains the {@code objects}.
+	 * @return the tree.
+	 * @param <O>
+	 *            the type of objects stored in the tree.
+	 */
+	public static < O extends RealLocalizable > LeftBalancedKDTree< O > kdtree( final Collection< O > objects, final RefPool< O > objectPool )
+	{
+		final int n = KDTree.getNumDimensions( objects, objectPool );
+		final LeftBalancedKDTree< O > kdtree = new LeftBalancedKDTree<>( n, objects.size(), objectPool );
+		kdtree.build( objects );
+		return kdtree;
+	}
+
+	private final RefPool< O > objectPool;
+
+	/**
+	 * the number of dimensions.
+	 */
+	private final int n;
+
+	private final int size;
+
+	/**
+	 * coordinates of the nodes, {@code n} consecutive values per node.
+	 */
+	private final double[] positions;
+
+	/**
+	 * pool index of the object of each node.
+	 */
+	private final int[] dataIndices;
+
+	private LeftBalancedKDTree( final int numDimensions, final int size, final RefPool< O > objectPool )
+	{
+		this.objectPool = objectPool;
+		this.n = numDimensions;
+		this.size = size;
+		positions = new double[ size * n ];
+		dataIndices = new int[ size ];
+	}
+
+	private void build( final Collection< O > objects )
+	{
+		// collect points in input order, then partition them in place
+		final double[] points = new double[ size * n ];
+		final int[] ids = new int[ size ];
+		int i = 0;
+		for ( final O obj : objects )
+		{
+			for ( int d = 0; d < n; ++d )
+				points[ i * n + d ] = obj.getDoublePosition( d );
+			ids[ i ] = objectPool.getId( obj );
+			++i;
+		}
+		makeNode( 0, 0, size, 0, points, ids );
+	}
+
+	/**
+	 * Place the median (with respect to dimension {@code d}) of the points
+	 * {@code [lo, hi)} at {@code node}, such that the points
+	 * before it form a left-balanced left subtree, and recurse into the
+	 * children.
+	 */
+	private void makeNode( final int node, final int lo, final int hi, final int d, final double[] points, final int[] ids )
+	{
+		if ( hi <= lo )
+			return;
+		final int k = lo + leftSubtreeSize( hi - lo );
+		KthElement.kthElement( lo, hi - 1, k, points, ids, n, d );
+		System.arraycopy( points, k * n, positions, node * n, n );
+		dataIndices[ node ] = ids[ k ];
+		final int dChild = ( d + 1 == n ) ? 0 : d + 1;
+		makeNode( 2 * node + 1, lo, k, dChild, points, ids );
+		makeNode( 2 * node + 2, k + 1, hi, dChild, points, ids );
+	}
+
+	/**
+	 * Returns the number of nodes in the left subtree of a left-balanced tree
+	 * with {@code m > 0} nodes.
+	 */
+	static int leftSubtreeSize( final int m )
+	{
+		if ( m <= 1 )
+			return 0;
+		// height of the tree (number of full levels below the root)
+		final int h = 31 - Integer.numberOfLeadingZeros( m );
+		final int lastLevelCapacity = 1 << h;
+		final int lastLevel = m - ( lastLevelCapacity - 1 );
+		final int halfLastLevel = lastLevelCapacity >> 1;
+		return ( halfLastLevel - 1 ) + Math.min( lastLevel, halfLastLevel );
+	}
+
+	/**
+	 * Returns the number of nodes in the tree.
+	 *
+	 * @return the number of nodes.
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	public int numDimensions()
+	{
+		return n;
+	}
+
+	/**
+	 * Returns the pool index of the object stored in the specified node.
+	 *
+	 * @param node
+	 *            the node index.
+	 * @return the pool index of the object.
+	 */
+	public int getDataIndex( final int node )
+	{
+		return dataIndices[ node ];
+	}
+
+	/**
+	 * Returns the coordinate of the specified node in dimension {@code d}.
+	 *
+	 * @param node
+	 *            the node index.
+	 * @param d
+	 *            the dimension.
+	 * @return the coordinate.
+	 */
+	public double getDoublePosition( final int node, final int d )
+	{
+		return positions[ node * n + d ];
+	}
+
+	/**
+	 * Returns the size of the node data in bytes.
+	 *
+	 * @return the size in bytes.
+	 */
+	public long getSizeInBytes()
+	{
+		return 8L * positions.length + 4L * dataIndices.length;
+	}
+
+	RefPool< O > getObjectPool()
+	{
+		return objectPool;
+	}
+
+	double[] getPositions()
+	{
+		return positions;
+	}
+
+	int[] getDataIndices()
+	{
+		return dataIndices;
+	}
+}
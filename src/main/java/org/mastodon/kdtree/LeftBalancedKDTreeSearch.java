@@ -0,0 +1,253 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.kdtree;
+
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import net.imglib2.RealLocalizable;
+
+/**
+ * Nearest neighbor, k-nearest neighbors and radius search on a
+ * {@link LeftBalancedKDTree}. Children of node {@code i} are found at
+ * {@code 2i+1} and {@code 2i+2}, so no child indices need to be decoded
+ * during traversal.
+ * <p>
+ * Not thread-safe: use one instance per thread.
+ *
+ * @param <O>
+ *            type of objects stored in the tree.
+ */
+public class LeftBalancedKDTreeSearch< O extends RealLocalizable >
+{
+	private final int n;
+
+	private final int size;
+
+	private final double[] positions;
+
+	private final int[] dataIndices;
+
+	private final double[] pos;
+
+	private int bestNode;
+
+	private double bestSquDistance;
+
+	private KNearestNeighborHeap heap;
+
+	private double radiusSqu;
+
+	private TIntArrayList resultIndices;
+
+	private TDoubleArrayList resultSquDistances;
+
+	public LeftBalancedKDTreeSearch( final LeftBalancedKDTree< O > tree )
+	{
+		n = tree.numDimensions();
+		size = tree.size();
+		positions = tree.getPositions();
+		dataIndices = tree.getDataIndices();
+		pos = new double[ n ];
+		bestSquDistance = Double.POSITIVE_INFINITY;
+	}
+
+	public int numDimensions()
+	{
+		return n;
+	}
+
+	/**
+	 * Finds the nearest neighbor of {@code p}. Its squared distance to
+	 * {@code p} is available through {@link #getSquareDistance()} afterwards.
+	 *
+	 * @param p
+	 *            the query position.
+	 * @return the pool index of the nearest neighbor, or {@code -1} if the tree
+	 *         is empty.
+	 */
+	public int nearestNeighbor( final RealLocalizable p )
+	{
+		bestSquDistance = Double.POSITIVE_INFINITY;
+		if ( size == 0 )
+			return -1;
+		p.localize( pos );
+		bestNode = -1;
+		searchNearest( 0, 0 );
+		return dataIndices[ bestNode ];
+	}
+
+	/**
+	 * Returns the squared distance of the nearest neighbor found by the last
+	 * {@link #nearestNeighbor(RealLocalizable)} call to the query position.
+	 *
+	 * @return the squared distance, or {@link Double#POSITIVE_INFINITY} if the
+	 *         tree is empty.
+	 */
+	public double getSquareDistance()
+	{
+		return bestSquDistance;
+	}
+
+	/**
+	 * Finds the {@code k} nearest neighbors of {@code p}, sorted by ascending
+	 * distance.
+	 *
+	 * @param p
+	 *            the query position.
+	 * @param k
+	 *            the number of neighbors to find.
+	 * @param neighborIndices
+	 *            array of length at least {@code k} to store the pool indices
+	 *            of the neighbors in.
+	 * @param squDistances
+	 *            array of length at least {@code k} to store the squared
+	 *            distances of the neighbors in, or {@code null}.
+	 * @return the number of neighbors found, {@code min(k, tree.size())}.
+	 */
+	public int kNearestNeighbors( final RealLocalizable p, final int k, final int[] neighborIndices, final double[] squDistances )
+	{
+		if ( heap == null || heap.capacity() != k )
+			heap = new KNearestNeighborHeap( k );
+		heap.reset();
+		if ( size == 0 )
+			return 0;
+		p.localize( pos );
+		searchKNearest( 0, 0 );
+		heap.sort();
+		final int found = heap.size();
+		for ( int i = 0; i < found; ++i )
+		{
+			neighborIndices[ i ] = dataIndices[ heap.getIndex( i ) ];
+			if ( squDistances != null )
+				squDistances[ i ] = heap.getSquDistance( i );
+		}
+		return found;
+	}
+
+	/**
+	 * Finds all objects within distance {@code radius} of {@code p}. Results
+	 * are appended to the given lists, in no particular order.
+	 *
+	 * @param p
+	 *            the query position.
+	 * @param radius
+	 *            the search radius. If negative, no neighbors are found.
+	 * @param neighborIndices
+	 *            list to append the pool indices of the neighbors to.
+	 * @param squDistances
+	 *            list to append the squared distances of the neighbors to, or
+	 *            {@code null}.
+	 * @return the number of neighbors found.
+	 */
+	public int radiusNeighbors( final RealLocalizable p, final double radius, final TIntArrayList neighborIndices, final TDoubleArrayList squDistances )
+	{
+		if ( size == 0 || radius < 0 )
+			return 0;
+		p.localize( pos );
+		radiusSqu = radius * radius;
+		resultIndices = neighborIndices;
+		resultSquDistances = squDistances;
+		final int start = neighborIndices.size();
+		searchRadius( 0, 0 );
+		resultIndices = null;
+		resultSquDistances = null;
+		return neighborIndices.size() - start;
+	}
+
+	private double squDistance( final int node )
+	{
+		final int o = node * n;
+		double sum = 0;
+		for ( int d = 0; d < n; ++d )
+		{
+			final double diff = pos[ d ] - positions[ o + d ];
+			sum += diff * diff;
+		}
+		return sum;
+	}
+
+	private void searchNearest( final int node, final int d )
+	{
+		final double squDistance = squDistance( node );
+		if ( squDistance < bestSquDistance )
+		{
+			bestSquDistance = squDistance;
+			bestNode = node;
+		}
+
+		final double axisDiff = pos[ d ] - positions[ node * n + d ];
+		final int dChild = ( d + 1 == n ) ? 0 : d + 1;
+		final int left = 2 * node + 1;
+		final int right = left + 1;
+		final int near = axisDiff < 0 ? left : right;
+		final int far = axisDiff < 0 ? right : left;
+		if ( near < size )
+			searchNearest( near, dChild );
+		if ( far < size && axisDiff * axisDiff < bestSquDistance )
+			searchNearest( far, dChild );
+	}
+
+	private void searchKNearest( final int node, final int d )
+	{
+		heap.insert( squDistance( node ), node );
+
+		final double axisDiff = pos[ d ] - positions[ node * n + d ];
+		final int dChild = ( d + 1 == n ) ? 0 : d + 1;
+		final int left = 2 * node + 1;
+		final int right = left + 1;
+		final int near = axisDiff < 0 ? left : right;
+		final int far = axisDiff < 0 ? right : left;
+		if ( near < size )
+			searchKNearest( near, dChild );
+		if ( far < size && axisDiff * axisDiff < heap.maxSquDistance() )
+			searchKNearest( far, dChild );
+	}
+
+	private void searchRadius( final int node, final int d )
+	{
+		final double squDistance = squDistance( node );
+		if ( squDistance <= radiusSqu )
+		{
+			resultIndices.add( dataIndices[ node ] );
+			if ( resultSquDistances != null )
+				resultSquDistances.add( squDistance );
+		}
+
+		final double axisDiff = pos[ d ] - positions[ node * n + d ];
+		final int dChild = ( d + 1 == n ) ? 0 : d + 1;
+		final int left = 2 * node + 1;
+		final int right = left + 1;
+		final int near = axisDiff < 0 ? left : right;
+		final int far = axisDiff < 0 ? right : left;
+		if ( near < size )
+			searchRadius( near, dChild );
+		if ( far < size && axisDiff * axisDiff <= radiusSqu )
+			searchRadius( far, dChild );
+	}
+}
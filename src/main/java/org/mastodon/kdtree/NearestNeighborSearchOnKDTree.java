@@ -171,7 +171,12 @@ public final class NearestNeighborSearchOnKDTree< O extends RealLocalizable, T e
 		return copy;
 	}
 
-	private static final class FastDoubleSearch
+	/**
+	 * Nearest neighbor search directly on the {@code double[]} array of a
+	 * {@link KDTree}. Also used by
+	 * {@link BatchNearestNeighborSearchOnKDTree}.
+	 */
+	static final class FastDoubleSearch
 	{
 		private final int n;
 
@@ -214,6 +219,21 @@ public final class NearestNeighborSearchOnKDTree< O extends RealLocalizable, T e
 		void search( final RealLocalizable p )
 		{
 			p.localize( pos );
+			search();
+		}
+
+		/**
+		 * Search the nearest neighbor of the point with coordinates
+		 * {@code coordinates[offset]} to {@code coordinates[offset + n - 1]}.
+		 */
+		void search( final double[] coordinates, final int offset )
+		{
+			System.arraycopy( coordinates, offset, pos, 0, n );
+			search();
+		}
+
+		private void search()
+		{
 			int currentIndex = doublesRootIndex;
 			int depth = 0;
 			double bestSquDistanceL = Double.POSITIVE_INFINITY;
@@ -263,6 +283,15 @@ public final class NearestNeighborSearchOnKDTree< O extends RealLocalizable, T e
 			return bestIndex == -1 ? -1 : bestIndex / nodeSizeInDoubles;
 		}
 
+		/**
+		 * Returns the pool index of the object in the best node, or -1 if
+		 * there is none.
+		 */
+		int getBestDataIndex()
+		{
+			return bestIndex == -1 ? -1 : ( int ) Double.doubleToRawLongBits( doubles[ bestIndex + n + 1 ] );
+		}
+
 		double getBestSquDistance()
 		{
 			return bestSquDistance;
@@ -0,0 +1,518 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.kdtree;
+
+import org.mastodon.pool.MappedElement;
+
+import gnu.trove.deque.TIntArrayDeque;
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import net.imglib2.RealLocalizable;
+
+/**
+ * Finds all nodes in a {@link KDTree} that lie within a given radius of a
+ * query point.
+ *
+ * <p>
+ * Construct with the {@link KDTree}. Call
+ * {@link #search(RealLocalizable, double, boolean)} to find the nodes within
+ * the radius. Then call {@link #getValues()} to iterate the values of these
+ * nodes, or {@link #getResults(TIntArrayList, TDoubleArrayList)} to retrieve
+ * their pool indices and squared distances to the query point.
+ *
+ * <p>
+ * The tree is traversed depth-first while keeping track of the bounding box of
+ * the current subtree. Subtrees whose bounding box does not intersect the ball
+ * are pruned, and subtrees whose bounding box lies fully inside the ball are
+ * reported in bulk without visiting their nodes (as in
+ * {@link ClipConvexPolytopeKDTree}). {@link #getValues()} iterates bulk
+ * subtrees directly. A sorted search, {@link #numFound()} and
+ * {@link #getResults(TIntArrayList, TDoubleArrayList)} expand them into
+ * individual nodes and compute their squared distances, once per search. If
+ * the tree is stored in a single {@code double[]} array (the default), the
+ * tree is traversed directly on that array.
+ *
+ * <p>
+ * Optionally, only {@link KDTreeNode#isValid() valid} nodes are reported.
+ *
+ * @param <O>
+ *            type of objects stored in the tree.
+ * @param <T>
+ *            the MappedElement type of the {@link KDTreeNode tree nodes}.
+ */
+public class RadiusNeighborSearchOnKDTree< O extends RealLocalizable, T extends MappedElement >
+{
+	private final KDTree< O, T > tree;
+
+	private final int n;
+
+	private final boolean onlyValid;
+
+	private final double[] pos;
+
+	private double squRadius;
+
+	private final int[] sds;
+
+	private final double[] xmin;
+
+	private final double[] xmax;
+
+	/**
+	 * Nodes within the radius that are reported individually.
+	 */
+	private final TIntArrayList inNodes;
+
+	/**
+	 * Roots of subtrees that lie completely within the radius.
+	 */
+	private final TIntArrayList inSubtrees;
+
+	/**
+	 * After {@link #expand()}, the squared distances of {@link #inNodes}.
+	 */
+	private final TDoubleArrayList squDistances;
+
+	private boolean expanded;
+
+	/**
+	 * Scratch stack of node indices for {@link #expand()}.
+	 */
+	private final TIntArrayDeque stack;
+
+	private final KDTreeNode< O, T > current;
+
+	private final FastDoubleSearch fastDoubleSearch;
+
+	/**
+	 * Creates a search that reports all nodes.
+	 *
+	 * @param tree
+	 *            the tree to search.
+	 */
+	public RadiusNeighborSearchOnKDTree( final KDTree< O, T > tree )
+	{
+		this( tree, false );
+	}
+
+	/**
+	 * Creates a search.
+	 *
+	 * @param tree
+	 *            the tree to search.
+	 * @param onlyValid
+	 *            whether to report only {@link KDTreeNode#isValid() valid}
+	 *            nodes.
+	 */
+	public RadiusNeighborSearchOnKDTree( final KDTree< O, T > tree, final boolean onlyValid )
+	{
+		this.tree = tree;
+		this.onlyValid = onlyValid;
+		n = tree.numDimensions();
+		pos = new double[ n ];
+		xmin = new double[ n ];
+		xmax = new double[ n ];
+		final int depth = ( tree.size() <= 0 ) ? 0 :
+			( int ) ( Math.log( tree.size() ) / Math.log( 2 ) ) + 2;
+		sds = new int[ depth ];
+		for ( int i = 0; i < depth; ++i )
+			sds[ i ] = i % n;
+		inNodes = new TIntArrayList();
+		inSubtrees = new TIntArrayList();
+		squDistances = new TDoubleArrayList();
+		stack = new TIntArrayDeque();
+		current = tree.createRef();
+		fastDoubleSearch = ( tree.getDoubles() != null ) ? new FastDoubleSearch() : null;
+	}
+
+	public int numDimensions()
+	{
+		return n;
+	}
+
+	/**
+	 * Finds all nodes within distance {@code radius} (inclusive) of
+	 * {@code p}.
+	 *
+	 * @param p
+	 *            the query point.
+	 * @param radius
+	 *            the search radius.
+	 * @param sortResults
+	 *            whether results should be sorted by increasing distance to
+	 *            {@code p}. This requires to visit every node in the ball
+	 *            individually.
+	 */
+	public void search( final RealLocalizable p, final double radius, final boolean sortResults )
+	{
+		inNodes.clear();
+		inSubtrees.clear();
+		squDistances.clear();
+		expanded = false;
+		if ( tree.size() <= 0 || radius < 0 )
+			return;
+
+		p.localize( pos );
+		squRadius = radius * radius;
+		tree.realMin( xmin );
+		tree.realMax( xmax );
+		final int root = fastDoubleSearch != null ? fastDoubleSearch.doublesRootIndex : tree.rootIndex;
+		if ( fastDoubleSearch != null )
+			fastDoubleSearch.searchSubtree( root, 0 );
+		else
+			searchSubtree( root, 0 );
+
+		if ( sortResults )
+		{
+			expand();
+			sort( squDistances.toArray(), inNodes.toArray() );
+		}
+	}
+
+	/**
+	 * Finds all nodes within distance {@code radius} (inclusive) of
+	 * {@code p}. Results are not sorted.
+	 *
+	 * @param p
+	 *            the query point.
+	 * @param radius
+	 *            the search radius.
+	 */
+	public void search( final RealLocalizable p, final double radius )
+	{
+		search( p, radius, false );
+	}
+
+	/**
+	 * Returns the values of the nodes found by the last search. If the search
+	 * was sorted, values are iterated by increasing distance.
+	 *
+	 * @return the values within the radius.
+	 */
+	public Iterable< O > getValues()
+	{
+		final boolean isDoubleIndices = fastDoubleSearch != null;
+		return onlyValid
+				? new KDTreeValidValueIterable<>( inNodes, inSubtrees, tree, isDoubleIndices )
+				: new KDTreeValueIterable<>( inNodes, inSubtrees, tree, isDoubleIndices );
+	}
+
+	/**
+	 * Adds the pool indices of the objects found by the last search, and their
+	 * squared distances to the query point, to the specified lists. If the
+	 * search was sorted, results are added by increasing distance.
+	 *
+	 * @param dataIndices
+	 *            list to add the pool indices to, or {@code null}.
+	 * @param squDistances
+	 *            list to add the squared distances to, or {@code null}.
+	 * @return the number of objects found.
+	 */
+	public int getResults( final TIntArrayList dataIndices, final TDoubleArrayList squDistances )
+	{
+		expand();
+		final int size = inNodes.size();
+		if ( dataIndices != null )
+			for ( int i = 0; i < size; ++i )
+				dataIndices.add( getDataIndex( inNodes.getQuick( i ) ) );
+		if ( squDistances != null )
+			squDistances.addAll( this.squDistances );
+		return size;
+	}
+
+	/**
+	 * Returns the number of objects found by the last search.
+	 *
+	 * @return the number of objects found.
+	 */
+	public int numFound()
+	{
+		expand();
+		return inNodes.size();
+	}
+
+	/* PRIVATE METHODS */
+
+	/**
+	 * Returns the squared distance from the query point to the closest point
+	 * of the current bounding box.
+	 */
+	private double minSquDistanceToBox()
+	{
+		double sum = 0;
+		for ( int d = 0; d < n; ++d )
+		{
+			final double x = pos[ d ];
+			final double diff = x < xmin[ d ] ? xmin[ d ] - x : ( x > xmax[ d ] ? x - xmax[ d ] : 0 );
+			sum += diff * diff;
+		}
+		return sum;
+	}
+
+	/**
+	 * Returns the squared distance from the query point to the farthest point
+	 * of the current bounding box.
+	 */
+	private double maxSquDistanceToBox()
+	{
+		double sum = 0;
+		for ( int d = 0; d < n; ++d )
+		{
+			final double diff = Math.max( pos[ d ] - xmin[ d ], xmax[ d ] - pos[ d ] );
+			sum += diff * diff;
+		}
+		return sum;
+	}
+
+	private void searchSubtree( final int currentIndex, final int recursionDepth )
+	{
+		if ( minSquDistanceToBox() > squRadius )
+			return;
+		if ( maxSquDistanceToBox() <= squRadius )
+		{
+			inSubtrees.add( currentIndex );
+			return;
+		}
+
+		tree.getObject( currentIndex, current );
+		if ( current.squDistanceTo( pos ) <= squRadius )
+			inNodes.add( currentIndex );
+
+		final int sd = sds[ recursionDepth ];
+		final double sc = current.getPosition( sd );
+		final int left = current.getLeftIndex();
+		final int right = current.getRightIndex();
+		if ( left >= 0 )
+		{
+			final double max = xmax[ sd ];
+			xmax[ sd ] = sc;
+			searchSubtree( left, recursionDepth + 1 );
+			xmax[ sd ] = max;
+		}
+		if ( right >= 0 )
+		{
+			final double min = xmin[ sd ];
+			xmin[ sd ] = sc;
+			searchSubtree( right, recursionDepth + 1 );
+			xmin[ sd ] = min;
+		}
+	}
+
+	/**
+	 * Moves all nodes of {@link #inSubtrees} to {@link #inNodes}, drops
+	 * invalid nodes if {@link #onlyValid}, and computes
+	 * {@link #squDistances}.
+	 */
+	private void expand()
+	{
+		if ( expanded )
+			return;
+		for ( int i = 0; i < inSubtrees.size(); ++i )
+		{
+			stack.push( inSubtrees.getQuick( i ) );
+			while ( !stack.isEmpty() )
+			{
+				final int index = stack.pop();
+				inNodes.add( index );
+				final int left = getLeftIndex( index );
+				final int right = getRightIndex( index );
+				if ( left >= 0 )
+					stack.push( left );
+				if ( right >= 0 )
+					stack.push( right );
+			}
+		}
+		inSubtrees.clear();
+
+		int j = 0;
+		for ( int i = 0; i < inNodes.size(); ++i )
+		{
+			final int index = inNodes.getQuick( i );
+			if ( onlyValid && !isValid( index ) )
+				continue;
+			inNodes.setQuick( j++, index );
+			squDistances.add( squDistance( index ) );
+		}
+		inNodes.remove( j, inNodes.size() - j );
+		expanded = true;
+	}
+
+	private int getLeftIndex( final int index )
+	{
+		if ( fastDoubleSearch != null )
+			return ( int ) ( Double.doubleToRawLongBits( fastDoubleSearch.doubles[ index + n ] ) >> 32 );
+		return tree.getObject( index, current ).getLeftIndex();
+	}
+
+	private int getRightIndex( final int index )
+	{
+		if ( fastDoubleSearch != null )
+			return ( int ) Double.doubleToRawLongBits( fastDoubleSearch.doubles[ index + n ] );
+		return tree.getObject( index, current ).getRightIndex();
+	}
+
+	private int getDataIndex( final int index )
+	{
+		if ( fastDoubleSearch != null )
+			return ( int ) Double.doubleToRawLongBits( fastDoubleSearch.doubles[ index + n + 1 ] );
+		return tree.getObject( index, current ).getDataIndex();
+	}
+
+	private boolean isValid( final int index )
+	{
+		if ( fastDoubleSearch != null )
+			return ( int ) ( Double.doubleToRawLongBits( fastDoubleSearch.doubles[ index + n + 1 ] ) >> 32 ) == 0;
+		return tree.getObject( index, current ).isValid();
+	}
+
+	private double squDistance( final int index )
+	{
+		if ( fastDoubleSearch != null )
+			return fastDoubleSearch.squDistance( index );
+		return tree.getObject( index, current ).squDistanceTo( pos );
+	}
+
+	/**
+	 * Sorts {@link #inNodes} and {@link #squDistances} by increasing
+	 * distance, using the specified copies of their contents.
+	 */
+	private void sort( final double[] distances, final int[] nodes )
+	{
+		quicksort( distances, nodes, 0, distances.length - 1 );
+		inNodes.resetQuick();
+		inNodes.add( nodes );
+		squDistances.resetQuick();
+		squDistances.add( distances );
+	}
+
+	private static void quicksort( final double[] keys, final int[] values, final int left, final int right )
+	{
+		if ( right - left < 16 )
+		{
+			for ( int i = left + 1; i <= right; ++i )
+			{
+				final double k = keys[ i ];
+				final int v = values[ i ];
+				int j = i - 1;
+				for ( ; j >= left && keys[ j ] > k; --j )
+				{
+					keys[ j + 1 ] = keys[ j ];
+					values[ j + 1 ] = values[ j ];
+				}
+				keys[ j + 1 ] = k;
+				values[ j + 1 ] = v;
+			}
+			return;
+		}
+		final double pivot = keys[ ( left + right ) >>> 1 ];
+		int i = left;
+		int j = right;
+		while ( i <= j )
+		{
+			while ( keys[ i ] < pivot )
+				++i;
+			while ( keys[ j ] > pivot )
+				--j;
+			if ( i <= j )
+			{
+				final double tk = keys[ i ];
+				keys[ i ] = keys[ j ];
+				keys[ j ] = tk;
+				final int tv = values[ i ];
+				values[ i ] = values[ j ];
+				values[ j ] = tv;
+				++i;
+				--j;
+			}
+		}
+		quicksort( keys, values, left, j );
+		quicksort( keys, values, i, right );
+	}
+
+	private final class FastDoubleSearch
+	{
+		private final int nodeSizeInDoubles;
+
+		private final double[] doubles;
+
+		private final int doublesRootIndex;
+
+		private FastDoubleSearch()
+		{
+			nodeSizeInDoubles = n + 2;
+			doubles = tree.getDoubles();
+			doublesRootIndex = tree.rootIndex * nodeSizeInDoubles;
+		}
+
+		private double squDistance( final int index )
+		{
+			double sum = 0;
+			for ( int d = 0; d < n; ++d )
+			{
+				final double diff = ( pos[ d ] - doubles[ index + d ] );
+				sum += diff * diff;
+			}
+			return sum;
+		}
+
+		private void searchSubtree( final int currentIndex, final int recursionDepth )
+		{
+			if ( minSquDistanceToBox() > squRadius )
+				return;
+			if ( maxSquDistanceToBox() <= squRadius )
+			{
+				inSubtrees.add( currentIndex );
+				return;
+			}
+
+			if ( squDistance( currentIndex ) <= squRadius )
+				inNodes.add( currentIndex );
+
+			final int sd = sds[ recursionDepth ];
+			final double sc = doubles[ currentIndex + sd ];
+			final long leftright = Double.doubleToRawLongBits( doubles[ currentIndex + n ] );
+			final int left = ( int ) ( leftright >> 32 );
+			final int right = ( int ) leftright;
+			if ( left >= 0 )
+			{
+				final double max = xmax[ sd ];
+				xmax[ sd ] = sc;
+				searchSubtree( left, recursionDepth + 1 );
+				xmax[ sd ] = max;
+			}
+			if ( right >= 0 )
+			{
+				final double min = xmin[ sd ];
+				xmin[ sd ] = sc;
+				searchSubtree( right, recursionDepth + 1 );
+				xmin[ sd ] = min;
+			}
+		}
+	}
+}
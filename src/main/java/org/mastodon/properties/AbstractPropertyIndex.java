@@ -0,0 +1,236 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.properties;
+
+import java.util.Collection;
+
+import org.mastodon.RefPool;
+import org.mastodon.collection.RefCollection;
+
+/**
+ * Base class for secondary indices that keep the objects of a
+ * {@link PropertyMap} sorted by property value. This allows to count and
+ * enumerate the objects whose value lies in a given range, and to find the
+ * objects with the largest values, in logarithmic time instead of scanning the
+ * whole map.
+ * <p>
+ * The index registers itself as {@link BeforePropertyChangeListener} and
+ * {@link PropertyChangeListener} with the property map and is notified by the
+ * map when objects are deleted from the pool. Changes made while the listeners
+ * of the property map are paused (see {@link Property#pauseListeners()}) are
+ * not seen by the index, call {@link #rebuild()} after resuming them. Call
+ * {@link #release()} to detach the index from the property map.
+ * </p>
+ * <p>
+ * Internally, values are mapped to {@code long} keys that preserve their
+ * order. Entries with equal values are ordered by pool index. The index is not
+ * thread-safe.
+ * </p>
+ *
+ * @param <O>
+ *            type of object which the property is attached to.
+ */
+public abstract class AbstractPropertyIndex< O > implements BeforePropertyChangeListener< O >, PropertyChangeListener< O >
+{
+	private final RefPool< O > pool;
+
+	private final AbstractPropertyMap< O, ? > property;
+
+	final SortedEntryBlocks entries;
+
+	protected AbstractPropertyIndex( final RefPool< O > pool, final AbstractPropertyMap< O, ? > property )
+	{
+		this.pool = pool;
+		this.property = property;
+		entries = new SortedEntryBlocks();
+	}
+
+	/**
+	 * Returns the order preserving key of the property value of {@code obj}.
+	 * Only called if the property is set for {@code obj}.
+	 */
+	protected abstract long key( O obj );
+
+	/**
+	 * Returns the objects for which the property is currently set.
+	 */
+	protected abstract Collection< O > keys();
+
+	/**
+	 * Starts listening to the property map and fills the index. Must be called
+	 * by the constructor of derived classes.
+	 */
+	protected void attach()
+	{
+		property.beforePropertyChangeListeners().add( this );
+		property.propertyChangeListeners().add( this );
+		property.addIndex( this );
+		rebuild();
+	}
+
+	/**
+	 * Stops listening to the property map and clears the index.
+	 */
+	public void release()
+	{
+		property.beforePropertyChangeListeners().remove( this );
+		property.propertyChangeListeners().remove( this );
+		property.removeIndex( this );
+		entries.clear();
+	}
+
+	/**
+	 * Rebuilds the index from the current content of the property map.
+	 */
+	public void rebuild()
+	{
+		final Collection< O > objs = keys();
+		final int n = objs.size();
+		final long[] k = new long[ n ];
+		final int[] i = new int[ n ];
+		int j = 0;
+		for ( final O obj : objs )
+		{
+			k[ j ] = key( obj );
+			i[ j ] = pool.getId( obj );
+			++j;
+		}
+		SortedEntryBlocks.sort( k, i, n );
+		entries.build( k, i, n );
+	}
+
+	/**
+	 * Returns the number of objects in the index, that is, the number of
+	 * objects for which the property is set.
+	 */
+	public int size()
+	{
+		return entries.size();
+	}
+
+	/**
+	 * Adds the {@code k} objects with the largest property values to
+	 * {@code out}, in descending order of value. If the index contains less
+	 * than {@code k} objects, all of them are added.
+	 *
+	 * @param k
+	 *            the number of objects to add.
+	 * @param out
+	 *            the collection to add objects to.
+	 * @return {@code out}.
+	 */
+	public < C extends RefCollection< O > > C topK( final int k, final C out )
+	{
+		final int size = entries.size();
+		addAll( size, Math.max( 0, size - k ), out, true );
+		return out;
+	}
+
+	/**
+	 * Adds the {@code k} objects with the smallest property values to
+	 * {@code out}, in ascending order of value. If the index contains less
+	 * than {@code k} objects, all of them are added.
+	 *
+	 * @param k
+	 *            the number of objects to add.
+	 * @param out
+	 *            the collection to add objects to.
+	 * @return {@code out}.
+	 */
+	public < C extends RefCollection< O > > C bottomK( final int k, final C out )
+	{
+		addAll( 0, Math.min( k, entries.size() ), out, false );
+		return out;
+	}
+
+	@Override
+	public void beforePropertyChange( final O obj )
+	{
+		if ( property.isSet( obj ) )
+			entries.remove( key( obj ), pool.getId( obj ) );
+	}
+
+	@Override
+	public void propertyChanged( final O obj )
+	{
+		if ( property.isSet( obj ) )
+			entries.insert( key( obj ), pool.getId( obj ) );
+	}
+
+	/**
+	 * Called by the property map before it removes the value of {@code obj}
+	 * because {@code obj} is deleted from the pool.
+	 */
+	void beforeDeleteObject( final O obj )
+	{
+		beforePropertyChange( obj );
+	}
+
+	/**
+	 * Called by the property map before it removes all values, because the pool
+	 * or the property map is cleared.
+	 */
+	void beforeClearPool()
+	{
+		entries.clear();
+	}
+
+	/**
+	 * Returns the number of objects whose key lies in {@code [lo, hi]}.
+	 */
+	protected int countKeys( final long lo, final long hi )
+	{
+		if ( lo > hi )
+			return 0;
+		return entries.rank( hi, Integer.MAX_VALUE ) - entries.rank( lo, Integer.MIN_VALUE );
+	}
+
+	/**
+	 * Adds the objects whose key lies in {@code [lo, hi]} to {@code out}, in
+	 * ascending order of key.
+	 */
+	protected void rangeKeys( final long lo, final long hi, final RefCollection< O > out )
+	{
+		if ( lo > hi )
+			return;
+		addAll( entries.rank( lo, Integer.MIN_VALUE ), entries.rank( hi, Integer.MAX_VALUE ), out, false );
+	}
+
+	/* PRIVATE METHODS */
+
+	private void addAll( final int from, final int to, final RefCollection< O > out, final boolean descending )
+	{
+		final O ref = pool.createRef();
+		if ( descending )
+			entries.forEachIdDescending( from, to, id -> out.add( pool.getObject( id, ref ) ) );
+		else
+			entries.forEachId( from, to, id -> out.add( pool.getObject( id, ref ) ) );
+		pool.releaseRef( ref );
+	}
+}
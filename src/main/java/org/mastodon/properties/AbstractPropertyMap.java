@@ -28,6 +28,8 @@
  */
 package org.mastodon.properties;
 
+import java.util.ArrayList;
+
 import org.mastodon.RefPool;
 import org.mastodon.collection.RefCollection;
 import org.mastodon.collection.ref.RefPoolBackedRefCollection;
@@ -36,6 +38,8 @@ public abstract class AbstractPropertyMap< O, T > extends AbstractProperty< O >
 {
 	private PropertyMaps< O > propertyMaps;
 
+	private final ArrayList< AbstractPropertyIndex< O > > indices = new ArrayList<>();
+
 	protected AbstractPropertyMap()
 	{
 		super();
@@ -66,4 +70,39 @@ public abstract class AbstractPropertyMap< O, T > extends AbstractProperty< O >
 		if ( propertyMaps != null )
 			propertyMaps.removePropertyMap( this );
 	}
+
+	void addIndex( final AbstractPropertyIndex< O > index )
+	{
+		indices.add( index );
+	}
+
+	void removeIndex( final AbstractPropertyIndex< O > index )
+	{
+		indices.remove( index );
+	}
+
+	/**
+	 * Forward to {@link AbstractPropertyIndex#beforeDeleteObject(Object)} of
+	 * all attached indices. Must be called by derived classes that support
+	 * indices before they remove the value of a deleted object.
+	 *
+	 * @param key
+	 *            the object that will be deleted.
+	 */
+	protected void notifyIndicesBeforeDeleteObject( final O key )
+	{
+		for ( final AbstractPropertyIndex< O > index : indices )
+			index.beforeDeleteObject( key );
+	}
+
+	/**
+	 * Forward to {@link AbstractPropertyIndex#beforeClearPool()} of all
+	 * attached indices. Must be called by derived classes that support indices
+	 * before they remove all values.
+	 */
+	protected void notifyIndicesBeforeClearPool()
+	{
+		for ( final AbstractPropertyIndex< O > index : indices )
+			index.beforeClearPool();
+	}
 }
@@ -32,6 +32,7 @@ import org.mastodon.RefPool;
 import org.mastodon.collection.RefCollection;
 import org.mastodon.collection.RefDoubleMap;
 import org.mastodon.collection.RefMaps;
+import org.mastodon.collection.ref.ConcurrentRefDoubleHashMap;
 import org.mastodon.collection.ref.RefDoubleHashMap;
 import org.mastodon.properties.undo.DoublePropertyUndoRedoStack;
 import org.mastodon.properties.undo.PropertyUndoRedoStack;
@@ -70,6 +71,29 @@ public class DoublePropertyMap< O > extends AbstractPropertyMap< O, Double >
 		tryRegisterPropertyMap( pool );
 	}
 
+	/**
+	 * Creates a property map that stores values in the specified map. This can
+	 * be used to plug in a specialized map implementation, for example a
+	 * {@link ConcurrentRefDoubleHashMap} so that several threads can set values
+	 * concurrently. This is only safe while no
+	 * {@link BeforePropertyChangeListener}s, {@link PropertyChangeListener}s
+	 * (such as undo-redo stacks) or {@link DoublePropertyIndex}es are attached
+	 * to the property map, because change notification is not thread-safe.
+	 * <p>
+	 * The {@code noEntryValue} of the property map is the one of {@code map}.
+	 *
+	 * @param pool
+	 *            the pool of objects the property map is defined on.
+	 * @param map
+	 *            the (empty) map to store values in.
+	 */
+	public DoublePropertyMap( final RefPool< O > pool, final RefDoubleMap< O > map )
+	{
+		this.map = map;
+		this.noEntryValue = map.getNoEntryValue();
+		tryRegisterPropertyMap( pool );
+	}
+
 	public double set( final O key, final double value )
 	{
 		notifyBeforePropertyChange( key );
@@ -134,6 +158,7 @@ public class DoublePropertyMap< O > extends AbstractPropertyMap< O, Double >
 
 	public void release()
 	{
+		notifyIndicesBeforeClearPool();
 		map.clear();
 		tryUnregisterPropertyMap();
 	}
@@ -146,6 +171,7 @@ public class DoublePropertyMap< O > extends AbstractPropertyMap< O, Double >
 	@Override
 	public void beforeDeleteObject( final O key )
 	{
+		notifyIndicesBeforeDeleteObject( key );
 		map.remove( key );
 	}
 
@@ -158,13 +184,15 @@ public class DoublePropertyMap< O > extends AbstractPropertyMap< O, Double >
 	@Override
 	public void beforeClearPool()
 	{
+		notifyIndicesBeforeClearPool();
 		map.clear();
 	}
 
 	@Override
 	public void clear()
 	{
-		throw new UnsupportedOperationException( "TODO" );
+		notifyIndicesBeforeClearPool();
+		map.clear();
 	}
 
 	@Override
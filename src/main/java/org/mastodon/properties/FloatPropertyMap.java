@@ -0,0 +1,214 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.properties;
+
+import org.mastodon.RefPool;
+import org.mastodon.collection.RefCollection;
+import org.mastodon.collection.RefFloatMap;
+import org.mastodon.collection.RefMaps;
+import org.mastodon.collection.ref.RefFloatArrayMap;
+import org.mastodon.collection.ref.RefFloatHashMap;
+import org.mastodon.properties.undo.FloatPropertyUndoRedoStack;
+import org.mastodon.properties.undo.PropertyUndoRedoStack;
+
+/**
+ * A {@link PropertyMap} with {@code float} values.
+ *
+ * @param <O>
+ *            type of object which the property is attached to.
+ */
+public class FloatPropertyMap< O > extends AbstractPropertyMap< O, Float >
+{
+	private final RefFloatMap< O > map;
+
+	private final float noEntryValue;
+
+	public FloatPropertyMap( final RefCollection< O > pool, final float noEntryValue )
+	{
+		map = RefMaps.createRefFloatMap( pool, noEntryValue );
+		this.noEntryValue = noEntryValue;
+		tryRegisterPropertyMap( pool );
+	}
+
+	public FloatPropertyMap( final RefCollection< O > pool, final float noEntryValue, final int initialCapacity )
+	{
+		map = RefMaps.createRefFloatMap( pool, noEntryValue, initialCapacity );
+		this.noEntryValue = noEntryValue;
+		tryRegisterPropertyMap( pool );
+	}
+
+	public FloatPropertyMap( final RefPool< O > pool, final float noEntryValue )
+	{
+		map = new RefFloatHashMap<>( pool, noEntryValue );
+		this.noEntryValue = noEntryValue;
+		tryRegisterPropertyMap( pool );
+	}
+
+	public FloatPropertyMap( final RefPool< O > pool, final float noEntryValue, final int initialCapacity )
+	{
+		map = new RefFloatHashMap<>( pool, noEntryValue, initialCapacity );
+		this.noEntryValue = noEntryValue;
+		tryRegisterPropertyMap( pool );
+	}
+
+	/**
+	 * Creates a property map that stores values in the specified map. This can
+	 * be used to plug in a specialized map implementation, for example a
+	 * {@link RefFloatArrayMap} for properties that are set for most objects.
+	 * <p>
+	 * The {@code noEntryValue} of the property map is the one of {@code map}.
+	 *
+	 * @param pool
+	 *            the pool of objects the property map is defined on.
+	 * @param map
+	 *            the (empty) map to store values in.
+	 */
+	public FloatPropertyMap( final RefPool< O > pool, final RefFloatMap< O > map )
+	{
+		this.map = map;
+		this.noEntryValue = map.getNoEntryValue();
+		tryRegisterPropertyMap( pool );
+	}
+
+	public float set( final O key, final float value )
+	{
+		notifyBeforePropertyChange( key );
+		final float old = map.put( key, value );
+		notifyPropertyChanged( key );
+		return old;
+	}
+
+	@Override
+	public Float set( final O key, final Float value )
+	{
+		notifyBeforePropertyChange( key );
+		final float old = map.put( key, value );
+		notifyPropertyChanged( key );
+		return ( old == noEntryValue ) ? null : old;
+	}
+
+	@Override
+	public Float remove( final O key )
+	{
+		notifyBeforePropertyChange( key );
+		final float old = map.remove( key );
+		notifyPropertyChanged( key );
+		return ( old == noEntryValue ) ? null : old;
+	}
+
+	public float removeFloat( final O key )
+	{
+		notifyBeforePropertyChange( key );
+		final float old = map.remove( key );
+		notifyPropertyChanged( key );
+		return old;
+	}
+
+	public float getFloat( final O key )
+	{
+		return map.get( key );
+	}
+
+	@Override
+	public Float get( final O key )
+	{
+		return map.get( key );
+	}
+
+	@Override
+	public boolean isSet( final O key )
+	{
+		return map.containsKey( key );
+	}
+
+	@Override
+	public int size()
+	{
+		return map.size();
+	}
+
+	public RefFloatMap< O > getMap()
+	{
+		return map;
+	}
+
+	public void release()
+	{
+		map.clear();
+		tryUnregisterPropertyMap();
+	}
+
+	public float getNoEntryValue()
+	{
+		return noEntryValue;
+	}
+
+	@Override
+	public void beforeDeleteObject( final O key )
+	{
+		map.remove( key );
+	}
+
+	@Override
+	public PropertyUndoRedoStack< O > createUndoRedoStack()
+	{
+		return new FloatPropertyUndoRedoStack<>( this );
+	}
+
+	@Override
+	public void beforeClearPool()
+	{
+		map.clear();
+	}
+
+	@Override
+	public void clear()
+	{
+		map.clear();
+	}
+
+	@Override
+	public boolean equals( final Object o )
+	{
+		if ( this == o )
+			return true;
+		if ( o == null || getClass() != o.getClass() )
+			return false;
+
+		final FloatPropertyMap< ? > that = ( FloatPropertyMap< ? > ) o;
+
+		return map.equals( that.map );
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return map.hashCode();
+	}
+}
@@ -0,0 +1,133 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.properties;
+
+import java.util.Collection;
+
+import org.mastodon.RefPool;
+import org.mastodon.collection.RefCollection;
+
+/**
+ * A secondary index over a {@link IntPropertyMap} that keeps objects sorted
+ * by property value. Supports counting and enumerating the objects with values
+ * in a given range, and finding the objects with the largest or smallest
+ * values, in logarithmic time.
+ * <p>
+ * The index is attached to the property map on construction and kept in sync
+ * through the property change listeners. See {@link AbstractPropertyIndex}.
+ * </p>
+ *
+ * @param <O>
+ *            type of object which the property is attached to.
+ */
+public class IntPropertyIndex< O > extends AbstractPropertyIndex< O >
+{
+	private final IntPropertyMap< O > property;
+
+	/**
+	 * Creates an index over {@code property} and attaches it.
+	 *
+	 * @param pool
+	 *            the pool of objects the property map is defined on.
+	 * @param property
+	 *            the property map to index.
+	 */
+	public IntPropertyIndex( final RefPool< O > pool, final IntPropertyMap< O > property )
+	{
+		super( pool, property );
+		this.property = property;
+		attach();
+	}
+
+	/**
+	 * Returns the number of objects with property value in {@code [lo, hi]}.
+	 *
+	 * @param lo
+	 *            lower bound (inclusive).
+	 * @param hi
+	 *            upper bound (inclusive).
+	 * @return the number of objects with value in the range.
+	 */
+	public int count( final int lo, final int hi )
+	{
+		return countKeys( toKey( lo ), toKey( hi ) );
+	}
+
+	/**
+	 * Adds the objects with property value in {@code [lo, hi]} to {@code out},
+	 * in ascending order of value.
+	 *
+	 * @param lo
+	 *            lower bound (inclusive).
+	 * @param hi
+	 *            upper bound (inclusive).
+	 * @param out
+	 *            the collection to add objects to.
+	 * @return {@code out}.
+	 */
+	public < C extends RefCollection< O > > C range( final int lo, final int hi, final C out )
+	{
+		rangeKeys( toKey( lo ), toKey( hi ), out );
+		return out;
+	}
+
+	/**
+	 * Returns the {@code i}-th smallest property value in the index.
+	 *
+	 * @param i
+	 *            the rank of the value, {@code 0 <= i < size()}.
+	 * @return the value with rank {@code i}.
+	 */
+	public int getValue( final int i )
+	{
+		return fromKey( entries.getKey( i ) );
+	}
+
+	@Override
+	protected long key( final O obj )
+	{
+		return toKey( property.getInt( obj ) );
+	}
+
+	@Override
+	protected Collection< O > keys()
+	{
+		return property.getMap().keySet();
+	}
+
+	private static long toKey( final int value )
+	{
+		return value;
+	}
+
+	private static int fromKey( final long key )
+	{
+		return ( int ) key;
+	}
+}
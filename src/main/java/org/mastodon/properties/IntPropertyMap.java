@@ -32,6 +32,7 @@ import org.mastodon.RefPool;
 import org.mastodon.collection.RefCollection;
 import org.mastodon.collection.RefIntMap;
 import org.mastodon.collection.RefMaps;
+import org.mastodon.collection.ref.ConcurrentRefIntHashMap;
 import org.mastodon.collection.ref.RefIntHashMap;
 import org.mastodon.properties.undo.IntPropertyUndoRedoStack;
 import org.mastodon.properties.undo.PropertyUndoRedoStack;
@@ -70,6 +71,29 @@ public class IntPropertyMap< O > extends AbstractPropertyMap< O, Integer >
 		tryRegisterPropertyMap( pool );
 	}
 
+	/**
+	 * Creates a property map that stores values in the specified map. This can
+	 * be used to plug in a specialized map implementation, for example a
+	 * {@link ConcurrentRefIntHashMap} so that several threads can set values
+	 * concurrently. This is only safe while no
+	 * {@link BeforePropertyChangeListener}s, {@link PropertyChangeListener}s
+	 * (such as undo-redo stacks) or {@link IntPropertyIndex}es are attached
+	 * to the property map, because change notification is not thread-safe.
+	 * <p>
+	 * The {@code noEntryValue} of the property map is the one of {@code map}.
+	 *
+	 * @param pool
+	 *            the pool of objects the property map is defined on.
+	 * @param map
+	 *            the (empty) map to store values in.
+	 */
+	public IntPropertyMap( final RefPool< O > pool, final RefIntMap< O > map )
+	{
+		this.map = map;
+		this.noEntryValue = map.getNoEntryValue();
+		tryRegisterPropertyMap( pool );
+	}
+
 	public int set( final O key, final int value )
 	{
 		notifyBeforePropertyChange( key );
@@ -134,6 +158,7 @@ public class IntPropertyMap< O > extends AbstractPropertyMap< O, Integer >
 
 	public void release()
 	{
+		notifyIndicesBeforeClearPool();
 		map.clear();
 		tryUnregisterPropertyMap();
 	}
@@ -146,6 +171,7 @@ public class IntPropertyMap< O > extends AbstractPropertyMap< O, Integer >
 	@Override
 	public void beforeDeleteObject( final O key )
 	{
+		notifyIndicesBeforeDeleteObject( key );
 		map.remove( key );
 	}
 
@@ -158,12 +184,14 @@ public class IntPropertyMap< O > extends AbstractPropertyMap< O, Integer >
 	@Override
 	public void beforeClearPool()
 	{
+		notifyIndicesBeforeClearPool();
 		map.clear();
 	}
 
 	@Override
 	public void clear()
 	{
+		notifyIndicesBeforeClearPool();
 		map.clear();
 	}
 
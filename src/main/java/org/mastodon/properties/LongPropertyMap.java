@@ -0,0 +1,214 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.properties;
+
+import org.mastodon.RefPool;
+import org.mastodon.collection.RefCollection;
+import org.mastodon.collection.RefLongMap;
+import org.mastodon.collection.RefMaps;
+import org.mastodon.collection.ref.RefLongArrayMap;
+import org.mastodon.collection.ref.RefLongHashMap;
+import org.mastodon.properties.undo.LongPropertyUndoRedoStack;
+import org.mastodon.properties.undo.PropertyUndoRedoStack;
+
+/**
+ * A {@link PropertyMap} with {@code long} values.
+ *
+ * @param <O>
+ *            type of object which the property is attached to.
+ */
+public class LongPropertyMap< O > extends AbstractPropertyMap< O, Long >
+{
+	private final RefLongMap< O > map;
+
+	private final long noEntryValue;
+
+	public LongPropertyMap( final RefCollection< O > pool, final long noEntryValue )
+	{
+		map = RefMaps.createRefLongMap( pool, noEntryValue );
+		this.noEntryValue = noEntryValue;
+		tryRegisterPropertyMap( pool );
+	}
+
+	public LongPropertyMap( final RefCollection< O > pool, final long noEntryValue, final int initialCapacity )
+	{
+		map = RefMaps.createRefLongMap( pool, noEntryValue, initialCapacity );
+		this.noEntryValue = noEntryValue;
+		tryRegisterPropertyMap( pool );
+	}
+
+	public LongPropertyMap( final RefPool< O > pool, final long noEntryValue )
+	{
+		map = new RefLongHashMap<>( pool, noEntryValue );
+		this.noEntryValue = noEntryValue;
+		tryRegisterPropertyMap( pool );
+	}
+
+	public LongPropertyMap( final RefPool< O > pool, final long noEntryValue, final int initialCapacity )
+	{
+		map = new RefLongHashMap<>( pool, noEntryValue, initialCapacity );
+		this.noEntryValue = noEntryValue;
+		tryRegisterPropertyMap( pool );
+	}
+
+	/**
+	 * Creates a property map that stores values in the specified map. This can
+	 * be used to plug in a specialized map implementation, for example a
+	 * {@link RefLongArrayMap} for properties that are set for most objects.
+	 * <p>
+	 * The {@code noEntryValue} of the property map is the one of {@code map}.
+	 *
+	 * @param pool
+	 *            the pool of objects the property map is defined on.
+	 * @param map
+	 *            the (empty) map to store values in.
+	 */
+	public LongPropertyMap( final RefPool< O > pool, final RefLongMap< O > map )
+	{
+		this.map = map;
+		this.noEntryValue = map.getNoEntryValue();
+		tryRegisterPropertyMap( pool );
+	}
+
+	public long set( final O key, final long value )
+	{
+		notifyBeforePropertyChange( key );
+		final long old = map.put( key, value );
+		notifyPropertyChanged( key );
+		return old;
+	}
+
+	@Override
+	public Long set( final O key, final Long value )
+	{
+		notifyBeforePropertyChange( key );
+		final long old = map.put( key, value );
+		notifyPropertyChanged( key );
+		return ( old == noEntryValue ) ? null : old;
+	}
+
+	@Override
+	public Long remove( final O key )
+	{
+		notifyBeforePropertyChange( key );
+		final long old = map.remove( key );
+		notifyPropertyChanged( key );
+		return ( old == noEntryValue ) ? null : old;
+	}
+
+	public long removeLong( final O key )
+	{
+		notifyBeforePropertyChange( key );
+		final long old = map.remove( key );
+		notifyPropertyChanged( key );
+		return old;
+	}
+
+	public long getLong( final O key )
+	{
+		return map.get( key );
+	}
+
+	@Override
+	public Long get( final O key )
+	{
+		return map.get( key );
+	}
+
+	@Override
+	public boolean isSet( final O key )
+	{
+		return map.containsKey( key );
+	}
+
+	@Override
+	public int size()
+	{
+		return map.size();
+	}
+
+	public RefLongMap< O > getMap()
+	{
+		return map;
+	}
+
+	public void release()
+	{
+		map.clear();
+		tryUnregisterPropertyMap();
+	}
+
+	public long getNoEntryValue()
+	{
+		return noEntryValue;
+	}
+
+	@Override
+	public void beforeDeleteObject( final O key )
+	{
+		map.remove( key );
+	}
+
+	@Override
+	public PropertyUndoRedoStack< O > createUndoRedoStack()
+	{
+		return new LongPropertyUndoRedoStack<>( this );
+	}
+
+	@Override
+	public void beforeClearPool()
+	{
+		map.clear();
+	}
+
+	@Override
+	public void clear()
+	{
+		map.clear();
+	}
+
+	@Override
+	public boolean equals( final Object o )
+	{
+		if ( this == o )
+			return true;
+		if ( o == null || getClass() != o.getClass() )
+			return false;
+
+		final LongPropertyMap< ? > that = ( LongPropertyMap< ? > ) o;
+
+		return map.equals( that.map );
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return map.hashCode();
+	}
+}
@@ -0,0 +1,509 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.properties;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A sorted multiset of {@code (long key, int id)} entries, ordered by key and
+ * then by id. Entries are kept in a list of sorted blocks of bounded size, so
+ * that insertion and removal only shift elements within one block. Finding
+ * the block of an entry, the rank of an entry, and the entry with a given rank
+ * are logarithmic in the number of entries.
+ * <p>
+ * The block sizes are summed up in a Fenwick tree, such that the offset of a
+ * block (the number of entries in all preceding blocks) can be computed, and
+ * updated when an entry is inserted or removed, in time logarithmic in the
+ * number of blocks. Full blocks are split into two halves. A block that falls
+ * below {@code BLOCK_SIZE / 4} entries is merged with a neighbour, or entries
+ * are moved over from the neighbour if the merged block would be more than
+ * {@code 3/4} full. Thus every block (except a single one) holds at least
+ * {@code BLOCK_SIZE / 4} entries. When blocks are split or merged, the Fenwick
+ * tree is rebuilt in time linear in the number of blocks on the next rank
+ * query. Because split and merged blocks are at least {@code BLOCK_SIZE / 4}
+ * entries away from the next split or merge, this happens at most once per
+ * {@code BLOCK_SIZE / 4} insertions or removals, amortized.
+ * </p>
+ * <p>
+ * Used by {@link AbstractPropertyIndex}. Not thread-safe.
+ * </p>
+ */
+final class SortedEntryBlocks
+{
+	static final int BLOCK_SIZE = 512;
+
+	/**
+	 * Blocks with fewer entries are merged with a neighbour.
+	 */
+	private static final int MIN_BLOCK_SIZE = BLOCK_SIZE / 4;
+
+	/**
+	 * Maximum size of a block that is built or merged. Larger pairs of blocks
+	 * are redistributed instead.
+	 */
+	private static final int FILL_BLOCK_SIZE = BLOCK_SIZE * 3 / 4;
+
+	private long[][] keys;
+
+	private int[][] ids;
+
+	private int[] sizes;
+
+	private int numBlocks;
+
+	private int size;
+
+	/**
+	 * Fenwick tree over {@link #sizes}: {@code tree[i]} is the number of
+	 * entries in blocks {@code i - (i & -i) .. i-1}. Only valid if
+	 * {@link #treeValid}.
+	 */
+	private int[] tree;
+
+	private boolean treeValid;
+
+	/**
+	 * The number of entries in the blocks before the block returned by the
+	 * last {@link #blockOfRank(int)} call.
+	 */
+	private int blockOffset;
+
+	SortedEntryBlocks()
+	{
+		keys = new long[ 4 ][];
+		ids = new int[ 4 ][];
+		sizes = new int[ 4 ];
+		tree = new int[ 5 ];
+		numBlocks = 0;
+		size = 0;
+		treeValid = true;
+	}
+
+	int size()
+	{
+		return size;
+	}
+
+	void clear()
+	{
+		Arrays.fill( keys, 0, numBlocks, null );
+		Arrays.fill( ids, 0, numBlocks, null );
+		numBlocks = 0;
+		size = 0;
+		treeValid = false;
+	}
+
+	/**
+	 * Replace the content with the specified entries. {@code k} and {@code i}
+	 * must be sorted by key and then by id.
+	 */
+	void build( final long[] k, final int[] i, final int n )
+	{
+		clear();
+		// distribute evenly, such that all blocks are at least 3/8 full
+		final int nb = ( n + FILL_BLOCK_SIZE - 1 ) / FILL_BLOCK_SIZE;
+		for ( int from = 0, j = 0; j < nb; ++j )
+		{
+			final int len = n / nb + ( j < n % nb ? 1 : 0 );
+			final int b = insertBlock( numBlocks );
+			System.arraycopy( k, from, keys[ b ], 0, len );
+			System.arraycopy( i, from, ids[ b ], 0, len );
+			sizes[ b ] = len;
+			from += len;
+		}
+		size = n;
+	}
+
+	void insert( final long key, final int id )
+	{
+		if ( numBlocks == 0 )
+			insertBlock( 0 );
+		int b = findBlock( key, id );
+		int pos = lowerBound( b, key, id );
+		if ( sizes[ b ] == BLOCK_SIZE )
+		{
+			final int half = BLOCK_SIZE / 2;
+			final int nb = insertBlock( b + 1 );
+			System.arraycopy( keys[ b ], half, keys[ nb ], 0, BLOCK_SIZE - half );
+			System.arraycopy( ids[ b ], half, ids[ nb ], 0, BLOCK_SIZE - half );
+			sizes[ nb ] = BLOCK_SIZE - half;
+			sizes[ b ] = half;
+			if ( pos > half )
+			{
+				b = nb;
+				pos -= half;
+			}
+		}
+		final int n = sizes[ b ];
+		System.arraycopy( keys[ b ], pos, keys[ b ], pos + 1, n - pos );
+		System.arraycopy( ids[ b ], pos, ids[ b ], pos + 1, n - pos );
+		keys[ b ][ pos ] = key;
+		ids[ b ][ pos ] = id;
+		addToBlockSize( b, 1 );
+		++size;
+	}
+
+	boolean remove( final long key, final int id )
+	{
+		if ( numBlocks == 0 )
+			return false;
+		final int b = findBlock( key, id );
+		final int pos = lowerBound( b, key, id );
+		final int n = sizes[ b ];
+		if ( pos == n || keys[ b ][ pos ] != key || ids[ b ][ pos ] != id )
+			return false;
+		System.arraycopy( keys[ b ], pos + 1, keys[ b ], pos, n - pos - 1 );
+		System.arraycopy( ids[ b ], pos + 1, ids[ b ], pos, n - pos - 1 );
+		addToBlockSize( b, -1 );
+		--size;
+		if ( n - 1 < MIN_BLOCK_SIZE )
+			rebalance( b );
+		return true;
+	}
+
+	/**
+	 * Returns the number of entries that are smaller than
+	 * {@code (key, id)}.
+	 */
+	int rank( final long key, final int id )
+	{
+		if ( numBlocks == 0 )
+			return 0;
+		final int b = findBlock( key, id );
+		return offset( b ) + lowerBound( b, key, id );
+	}
+
+	/**
+	 * Returns the id of the entry with the specified rank.
+	 */
+	int getId( final int rank )
+	{
+		final int b = blockOfRank( rank );
+		return ids[ b ][ rank - blockOffset ];
+	}
+
+	/**
+	 * Returns the key of the entry with the specified rank.
+	 */
+	long getKey( final int rank )
+	{
+		final int b = blockOfRank( rank );
+		return keys[ b ][ rank - blockOffset ];
+	}
+
+	/**
+	 * Passes the ids of the entries with ranks {@code from} (inclusive) to
+	 * {@code to} (exclusive) to {@code action}, in ascending order.
+	 */
+	void forEachId( final int from, final int to, final IntConsumer action )
+	{
+		if ( from >= to )
+			return;
+		int b = blockOfRank( from );
+		int pos = from - blockOffset;
+		for ( int r = from; r < to; )
+		{
+			final int n = Math.min( sizes[ b ], pos + to - r );
+			final int[] bids = ids[ b ];
+			for ( int i = pos; i < n; ++i )
+				action.accept( bids[ i ] );
+			r += n - pos;
+			++b;
+			pos = 0;
+		}
+	}
+
+	/**
+	 * Passes the ids of the entries with ranks {@code from} (exclusive) down
+	 * to {@code to} (inclusive) to {@code action}, in descending order.
+	 */
+	void forEachIdDescending( final int from, final int to, final IntConsumer action )
+	{
+		if ( from <= to )
+			return;
+		int b = blockOfRank( from - 1 );
+		int pos = from - 1 - blockOffset;
+		for ( int r = from; r > to; )
+		{
+			final int n = Math.max( 0, pos + 1 - ( r - to ) );
+			final int[] bids = ids[ b ];
+			for ( int i = pos; i >= n; --i )
+				action.accept( bids[ i ] );
+			r -= pos + 1 - n;
+			if ( --b >= 0 )
+				pos = sizes[ b ] - 1;
+		}
+	}
+
+	/* PRIVATE METHODS */
+
+	private static int compare( final long k1, final int i1, final long k2, final int i2 )
+	{
+		final int c = Long.compare( k1, k2 );
+		return c != 0 ? c : Integer.compare( i1, i2 );
+	}
+
+	/**
+	 * Returns the index of the last block whose first entry is smaller or
+	 * equal to {@code (key, id)}, or 0 if there is no such block.
+	 */
+	private int findBlock( final long key, final int id )
+	{
+		int lo = 0;
+		int hi = numBlocks - 1;
+		while ( lo < hi )
+		{
+			final int mid = ( lo + hi + 1 ) >>> 1;
+			if ( compare( keys[ mid ][ 0 ], ids[ mid ][ 0 ], key, id ) <= 0 )
+				lo = mid;
+			else
+				hi = mid - 1;
+		}
+		return lo;
+	}
+
+	/**
+	 * Returns the position of the first entry in block {@code b} that is
+	 * greater or equal to {@code (key, id)}.
+	 */
+	private int lowerBound( final int b, final long key, final int id )
+	{
+		final long[] bkeys = keys[ b ];
+		final int[] bids = ids[ b ];
+		int lo = 0;
+		int hi = sizes[ b ];
+		while ( lo < hi )
+		{
+			final int mid = ( lo + hi ) >>> 1;
+			if ( compare( bkeys[ mid ], bids[ mid ], key, id ) < 0 )
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Returns the block that contains the entry with the specified rank, and
+	 * sets {@link #blockOffset} to the number of entries in preceding blocks.
+	 */
+	private int blockOfRank( final int rank )
+	{
+		if ( rank < 0 || rank >= size )
+			throw new IndexOutOfBoundsException( "rank: " + rank + ", size: " + size );
+		ensureTree();
+		// find the largest b such that offset( b ) <= rank
+		int b = 0;
+		int remaining = rank;
+		for ( int step = Integer.highestOneBit( numBlocks ); step > 0; step >>= 1 )
+		{
+			final int i = b + step;
+			if ( i <= numBlocks && tree[ i ] <= remaining )
+			{
+				b = i;
+				remaining -= tree[ i ];
+			}
+		}
+		blockOffset = rank - remaining;
+		return b;
+	}
+
+	/**
+	 * Returns the number of entries in blocks {@code 0..b-1}.
+	 */
+	private int offset( final int b )
+	{
+		ensureTree();
+		int o = 0;
+		for ( int i = b; i > 0; i -= i & -i )
+			o += tree[ i ];
+		return o;
+	}
+
+	private void addToBlockSize( final int b, final int d )
+	{
+		sizes[ b ] += d;
+		if ( treeValid )
+			for ( int i = b + 1; i <= numBlocks; i += i & -i )
+				tree[ i ] += d;
+	}
+
+	private void ensureTree()
+	{
+		if ( !treeValid )
+		{
+			for ( int i = 1; i <= numBlocks; ++i )
+				tree[ i ] = sizes[ i - 1 ];
+			for ( int i = 1; i <= numBlocks; ++i )
+			{
+				final int parent = i + ( i & -i );
+				if ( parent <= numBlocks )
+					tree[ parent ] += tree[ i ];
+			}
+			treeValid = true;
+		}
+	}
+
+	/**
+	 * Merges block {@code b}, which has fewer than {@link #MIN_BLOCK_SIZE}
+	 * entries, with a neighbour, or moves entries over from the neighbour if
+	 * the merged block would have more than {@link #FILL_BLOCK_SIZE} entries.
+	 */
+	private void rebalance( final int b )
+	{
+		if ( numBlocks == 1 )
+		{
+			if ( sizes[ b ] == 0 )
+				removeBlock( b );
+			return;
+		}
+		final int l = ( b + 1 < numBlocks ) ? b : b - 1;
+		final int r = l + 1;
+		final int nl = sizes[ l ];
+		final int nr = sizes[ r ];
+		if ( nl + nr <= FILL_BLOCK_SIZE )
+		{
+			System.arraycopy( keys[ r ], 0, keys[ l ], nl, nr );
+			System.arraycopy( ids[ r ], 0, ids[ l ], nl, nr );
+			sizes[ l ] = nl + nr;
+			removeBlock( r );
+		}
+		else
+		{
+			// the block sizes change, but not the number of blocks
+			final int d = ( nl + nr ) / 2 - nl;
+			if ( d > 0 )
+			{
+				// move the first d entries of r to the end of l
+				System.arraycopy( keys[ r ], 0, keys[ l ], nl, d );
+				System.arraycopy( ids[ r ], 0, ids[ l ], nl, d );
+				System.arraycopy( keys[ r ], d, keys[ r ], 0, nr - d );
+				System.arraycopy( ids[ r ], d, ids[ r ], 0, nr - d );
+			}
+			else
+			{
+				// move the last -d entries of l to the start of r
+				System.arraycopy( keys[ r ], 0, keys[ r ], -d, nr );
+				System.arraycopy( ids[ r ], 0, ids[ r ], -d, nr );
+				System.arraycopy( keys[ l ], nl + d, keys[ r ], 0, -d );
+				System.arraycopy( ids[ l ], nl + d, ids[ r ], 0, -d );
+			}
+			addToBlockSize( l, d );
+			addToBlockSize( r, -d );
+		}
+	}
+
+	private int insertBlock( final int b )
+	{
+		if ( numBlocks == sizes.length )
+		{
+			final int capacity = numBlocks * 2;
+			keys = Arrays.copyOf( keys, capacity );
+			ids = Arrays.copyOf( ids, capacity );
+			sizes = Arrays.copyOf( sizes, capacity );
+			tree = new int[ capacity + 1 ];
+		}
+		System.arraycopy( keys, b, keys, b + 1, numBlocks - b );
+		System.arraycopy( ids, b, ids, b + 1, numBlocks - b );
+		System.arraycopy( sizes, b, sizes, b + 1, numBlocks - b );
+		keys[ b ] = new long[ BLOCK_SIZE ];
+		ids[ b ] = new int[ BLOCK_SIZE ];
+		sizes[ b ] = 0;
+		++numBlocks;
+		treeValid = false;
+		return b;
+	}
+
+	private void removeBlock( final int b )
+	{
+		System.arraycopy( keys, b + 1, keys, b, numBlocks - b - 1 );
+		System.arraycopy( ids, b + 1, ids, b, numBlocks - b - 1 );
+		System.arraycopy( sizes, b + 1, sizes, b, numBlocks - b - 1 );
+		--numBlocks;
+		keys[ numBlocks ] = null;
+		ids[ numBlocks ] = null;
+		treeValid = false;
+	}
+
+	/**
+	 * Sorts the first {@code n} entries of the parallel arrays {@code k} and
+	 * {@code i} by key and then by id.
+	 */
+	static void sort( final long[] k, final int[] i, final int n )
+	{
+		final long[] tk = new long[ n ];
+		final int[] ti = new int[ n ];
+		mergeSort( k, i, tk, ti, 0, n );
+	}
+
+	private static void mergeSort( final long[] k, final int[] i, final long[] tk, final int[] ti, final int from, final int to )
+	{
+		final int n = to - from;
+		if ( n < 32 )
+		{
+			for ( int a = from + 1; a < to; ++a )
+			{
+				final long ka = k[ a ];
+				final int ia = i[ a ];
+				int b = a - 1;
+				for ( ; b >= from && compare( k[ b ], i[ b ], ka, ia ) > 0; --b )
+				{
+					k[ b + 1 ] = k[ b ];
+					i[ b + 1 ] = i[ b ];
+				}
+				k[ b + 1 ] = ka;
+				i[ b + 1 ] = ia;
+			}
+			return;
+		}
+		final int mid = ( from + to ) >>> 1;
+		mergeSort( k, i, tk, ti, from, mid );
+		mergeSort( k, i, tk, ti, mid, to );
+		if ( compare( k[ mid - 1 ], i[ mid - 1 ], k[ mid ], i[ mid ] ) <= 0 )
+			return;
+		System.arraycopy( k, from, tk, from, n );
+		System.arraycopy( i, from, ti, from, n );
+		int p = from;
+		int q = mid;
+		for ( int d = from; d < to; ++d )
+		{
+			if ( q >= to || ( p < mid && compare( tk[ p ], ti[ p ], tk[ q ], ti[ q ] ) <= 0 ) )
+			{
+				k[ d ] = tk[ p ];
+				i[ d ] = ti[ p++ ];
+			}
+			else
+			{
+				k[ d ] = tk[ q ];
+				i[ d ] = ti[ q++ ];
+			}
+		}
+	}
+}
@@ -0,0 +1,144 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.properties.undo;
+
+import org.mastodon.properties.LongPropertyMap;
+
+import gnu.trove.list.array.TLongArrayList;
+
+/**
+ * A {@link PropertyUndoRedoStack} to record {@link LongPropertyMap} changes.
+ */
+public class LongPropertyUndoRedoStack< O > implements PropertyUndoRedoStack< O >
+{
+	private final LongPropertyMap< O > property;
+
+	private final long noEntryValue;
+
+	private final TLongArrayList stack;
+
+	private int top;
+
+	private int end;
+
+	public LongPropertyUndoRedoStack( final LongPropertyMap< O > property )
+	{
+		this.property = property;
+		noEntryValue = property.getNoEntryValue();
+		stack = new TLongArrayList();
+		top = 0;
+		end = 0;
+	}
+
+	/**
+	 * Put the property value of {@code obj} at the top of the stack, expanding
+	 * the stack if necessary. Increment top.
+	 *
+	 * @param obj
+	 *            holder of the property value to push
+	 */
+	@Override
+	public void record( final O obj )
+	{
+		if ( top < stack.size() )
+			stack.set( top, property.getLong( obj ) );
+		else
+			stack.add( property.getLong( obj ) );
+		end = ++top;
+	}
+
+	/**
+	 * Decrement {@code top}. Then replace the element there with the property
+	 * value of {@code obj}. Set the previously stored element as the property
+	 * value of {@code obj}.
+	 *
+	 * @param obj
+	 *            object whose property value to swap with the element at
+	 *            {@code top-1}.
+	 */
+	@Override
+	public void undo( final O obj )
+	{
+		if ( top > 0 )
+		{
+			--top;
+			swap( obj );
+		}
+	}
+
+	/**
+	 * Replace the element at {@code top} with the property value of {@code obj}.
+	 * Set the previously stored element as the property value of {@code obj}.
+	 * Then increment {@code top}.
+	 *
+	 * @param obj
+	 *            object whose property value to swap with the element at
+	 *            {@code top}.
+	 */
+	@Override
+	public void redo( final O obj )
+	{
+		if ( top < end )
+		{
+			swap( obj );
+			++top;
+		}
+	}
+
+	@Override
+	public void clear()
+	{
+		stack.clear();
+		top = 0;
+		end = 0;
+	}
+
+	/**
+	 * Replace the element at {@code top} with the property value of {@code obj}.
+	 *
+	 * @param obj
+	 */
+	private void swap( final O obj )
+	{
+		final long stackValue = stack.getQuick( top );
+		final long value = ( stackValue != noEntryValue )
+			? property.set( obj, stackValue )
+			: property.removeLong( obj );
+		stack.setQuick( top, value );
+	}
+
+	/**
+	 * Truncate entries starting from {@code end}.
+	 */
+	public void trim()
+	{
+		stack.remove( end, stack.size() - end );
+		stack.trimToSize();
+	}
+}
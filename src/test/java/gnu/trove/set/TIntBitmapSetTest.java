@@ -0,0 +1,220 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package gnu.trove.set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import gnu.trove.iterator.TIntIterator;
+import gnu.trove.set.hash.TIntHashSet;
+
+public class TIntBitmapSetTest
+{
+	/**
+	 * Fills both sets with random values. Values are drawn from a few
+	 * chunks with different densities, so that all container types occur.
+	 */
+	private static void fill( final Random random, final TIntSet a, final TIntSet b, final int n )
+	{
+		for ( int i = 0; i < n; ++i )
+		{
+			final int v;
+			switch ( random.nextInt( 4 ) )
+			{
+			case 0:
+				v = random.nextInt( 1 << 16 ); // dense chunk
+				break;
+			case 1:
+				v = ( 1 << 16 ) + random.nextInt( 1 << 20 ); // sparse chunks
+				break;
+			case 2:
+				v = ( 5 << 16 ) + random.nextInt( 3000 ); // runs
+				break;
+			default:
+				v = random.nextInt();
+			}
+			a.add( v );
+			b.add( v );
+		}
+	}
+
+	private static int[] sorted( final TIntSet set )
+	{
+		final int[] values = set.toArray();
+		Arrays.sort( values );
+		return values;
+	}
+
+	private static int[] unsignedSorted( final TIntSet set )
+	{
+		final int[] values = sorted( set );
+		// Negative values come last in unsigned order.
+		int firstNegative = 0;
+		while ( firstNegative < values.length && values[ firstNegative ] < 0 )
+			++firstNegative;
+		final int[] result = new int[ values.length ];
+		System.arraycopy( values, firstNegative, result, 0, values.length - firstNegative );
+		System.arraycopy( values, 0, result, values.length - firstNegative, firstNegative );
+		return result;
+	}
+
+	private static void assertSameContent( final TIntSet expected, final TIntBitmapSet actual )
+	{
+		assertEquals( "Unexpected size.", expected.size(), actual.size() );
+		final int[] values = new int[ actual.size() ];
+		int i = 0;
+		final TIntIterator it = actual.iterator();
+		while ( it.hasNext() )
+			values[ i++ ] = it.next();
+		assertArrayEquals( "Iteration should yield values in ascending unsigned order.", unsignedSorted( expected ), values );
+		assertTrue( "Sets should be equal.", actual.equals( expected ) );
+		assertTrue( "Sets should be equal.", expected.equals( actual ) );
+	}
+
+	@Test
+	public void testAddRemoveContains()
+	{
+		final Random random = new Random( 1l );
+		final TIntHashSet expected = new TIntHashSet();
+		final TIntBitmapSet set = new TIntBitmapSet();
+		fill( random, expected, set, 50000 );
+		assertSameContent( expected, set );
+
+		for ( int i = 0; i < 100000; ++i )
+		{
+			final int v = random.nextInt( 1 << 18 );
+			assertEquals( "Unexpected result of contains().", expected.contains( v ), set.contains( v ) );
+			assertEquals( "Unexpected result of remove().", expected.remove( v ), set.remove( v ) );
+			assertFalse( "Removed value should not be contained.", set.contains( v ) );
+		}
+		assertSameContent( expected, set );
+
+		assertFalse( "Adding an existing value should not change the set.", set.add( set.iterator().next() ) );
+		set.clear();
+		assertTrue( "Set should be empty after clear().", set.isEmpty() );
+		assertFalse( "Set should be empty after clear().", set.iterator().hasNext() );
+	}
+
+	@Test
+	public void testIteratorRemove()
+	{
+		final Random random = new Random( 2l );
+		final TIntHashSet expected = new TIntHashSet();
+		final TIntBitmapSet set = new TIntBitmapSet();
+		fill( random, expected, set, 30000 );
+
+		final TIntIterator it = set.iterator();
+		while ( it.hasNext() )
+		{
+			final int v = it.next();
+			if ( random.nextBoolean() )
+			{
+				it.remove();
+				expected.remove( v );
+			}
+		}
+		assertSameContent( expected, set );
+	}
+
+	@Test
+	public void testSetOperations()
+	{
+		final Random random = new Random( 3l );
+		for ( int trial = 0; trial < 5; ++trial )
+		{
+			final TIntHashSet ea = new TIntHashSet();
+			final TIntHashSet eb = new TIntHashSet();
+			final TIntBitmapSet a = new TIntBitmapSet();
+			final TIntBitmapSet b = new TIntBitmapSet();
+			fill( random, ea, a, 20000 );
+			fill( random, eb, b, 20000 );
+			if ( trial % 2 == 0 )
+				b.runOptimize();
+
+			final TIntBitmapSet and = new TIntBitmapSet( a );
+			and.and( b );
+			final TIntHashSet eand = new TIntHashSet( ea );
+			eand.retainAll( eb );
+			assertSameContent( eand, and );
+
+			final TIntBitmapSet or = new TIntBitmapSet( a );
+			or.or( b );
+			final TIntHashSet eor = new TIntHashSet( ea );
+			eor.addAll( eb );
+			assertSameContent( eor, or );
+
+			final TIntBitmapSet andNot = new TIntBitmapSet( a );
+			andNot.andNot( b );
+			final TIntHashSet eandNot = new TIntHashSet( ea );
+			eandNot.removeAll( eb );
+			assertSameContent( eandNot, andNot );
+
+			// Operands must not be modified.
+			assertSameContent( ea, a );
+			assertSameContent( eb, b );
+
+			assertTrue( "Union should contain both operands.", or.containsAll( a ) && or.containsAll( b ) );
+			assertEquals( "addAll() should report whether the set changed.", and.size() != or.size(), new TIntBitmapSet( and ).addAll( or ) );
+		}
+	}
+
+	@Test
+	public void testRunOptimize()
+	{
+		final TIntBitmapSet set = new TIntBitmapSet();
+		final TIntHashSet expected = new TIntHashSet();
+		for ( int i = 0; i < 200000; ++i )
+		{
+			if ( i % 1000 < 900 )
+			{
+				set.add( i );
+				expected.add( i );
+			}
+		}
+		final long before = set.getSizeInBytes();
+		assertTrue( "Consecutive values should be run-compressed.", set.runOptimize() );
+		assertTrue( "Run-compressed set should be smaller.", set.getSizeInBytes() < before );
+		assertSameContent( expected, set );
+
+		// Modifying run containers.
+		for ( int i = 0; i < 200000; i += 7 )
+		{
+			assertEquals( "Unexpected result of remove().", expected.remove( i ), set.remove( i ) );
+			assertEquals( "Unexpected result of add().", expected.add( i + 3 ), set.add( i + 3 ) );
+		}
+		assertSameContent( expected, set );
+	}
+}
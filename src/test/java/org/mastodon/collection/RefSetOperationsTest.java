@@ -0,0 +1,194 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mastodon.collection.ref.IntBackedRefCollection;
+import org.mastodon.collection.ref.RefArrayList;
+import org.mastodon.collection.ref.RefBitmapSet;
+import org.mastodon.collection.ref.RefSetImp;
+import org.mastodon.pool.TestObject;
+import org.mastodon.pool.TestObjectPool;
+
+import gnu.trove.iterator.TIntIterator;
+
+public class RefSetOperationsTest
+{
+	private static final int N = 1000;
+
+	private TestObjectPool pool;
+
+	@Before
+	public void setUp()
+	{
+		pool = new TestObjectPool( N );
+		final TestObject ref = pool.createRef();
+		for ( int i = 0; i < N; i++ )
+			pool.create( ref ).init( i );
+		pool.releaseRef( ref );
+	}
+
+	private static Set< Integer > ids( final IntBackedRefCollection< ? > collection )
+	{
+		final Set< Integer > ids = new HashSet<>();
+		final TIntIterator it = collection.getIndexCollection().iterator();
+		while ( it.hasNext() )
+			assertTrue( "Result should not contain duplicates.", ids.add( it.next() ) );
+		return ids;
+	}
+
+	private void fill( final IntBackedRefCollection< TestObject > collection, final Set< Integer > expected, final int n, final int seed )
+	{
+		final Random random = new Random( seed );
+		for ( int i = 0; i < n; i++ )
+		{
+			final int id = random.nextInt( N );
+			expected.add( id );
+			collection.getIndexCollection().add( id );
+		}
+	}
+
+	private void check( final IntBackedRefCollection< TestObject > a, final IntBackedRefCollection< TestObject > b, final boolean parallel )
+	{
+		final Set< Integer > ea = new HashSet<>();
+		final Set< Integer > eb = new HashSet<>();
+		fill( a, ea, 600, 1 );
+		fill( b, eb, 300, 2 );
+
+		final Set< Integer > union = new HashSet<>( ea );
+		union.addAll( eb );
+		final Set< Integer > intersection = new HashSet<>( ea );
+		intersection.retainAll( eb );
+		final Set< Integer > difference = new HashSet<>( ea );
+		difference.removeAll( eb );
+		final Set< Integer > symmetricDifference = new HashSet<>( union );
+		symmetricDifference.removeAll( intersection );
+
+		final List< IntBackedRefCollection< TestObject > > results = Arrays.asList( new RefSetImp<>( pool ), new RefArrayList<>( pool ) );
+		for ( final IntBackedRefCollection< TestObject > result : results )
+		{
+			// leftover content must be cleared
+			result.getIndexCollection().add( N - 1 );
+
+			RefSetOperations.union( a, b, result, parallel );
+			assertEquals( union, ids( result ) );
+			RefSetOperations.union( b, a, result, parallel );
+			assertEquals( union, ids( result ) );
+
+			RefSetOperations.intersection( a, b, result, parallel );
+			assertEquals( intersection, ids( result ) );
+			RefSetOperations.intersection( b, a, result, parallel );
+			assertEquals( intersection, ids( result ) );
+
+			RefSetOperations.difference( a, b, result, parallel );
+			assertEquals( difference, ids( result ) );
+
+			RefSetOperations.symmetricDifference( a, b, result, parallel );
+			assertEquals( symmetricDifference, ids( result ) );
+		}
+	}
+
+	@Test
+	public void testSets()
+	{
+		check( new RefSetImp<>( pool ), new RefSetImp<>( pool ), false );
+	}
+
+	@Test
+	public void testLists()
+	{
+		check( new RefArrayList<>( pool ), new RefArrayList<>( pool ), false );
+	}
+
+	@Test
+	public void testMixed()
+	{
+		check( new RefArrayList<>( pool ), new RefSetImp<>( pool ), false );
+		check( new RefSetImp<>( pool ), new RefArrayList<>( pool ), false );
+		check( new RefBitmapSet<>( pool ), new RefArrayList<>( pool ), false );
+	}
+
+	@Test
+	public void testBitmapSets()
+	{
+		check( new RefBitmapSet<>( pool ), new RefBitmapSet<>( pool ), false );
+	}
+
+	@Test
+	public void testParallel()
+	{
+		// large enough to be split into parallel chunks
+		final int n = 1 << 17;
+		final TestObjectPool bigPool = new TestObjectPool( n );
+		final TestObject ref = bigPool.createRef();
+		final RefArrayList< TestObject > a = new RefArrayList<>( bigPool );
+		final RefSetImp< TestObject > b = new RefSetImp<>( bigPool );
+		for ( int i = 0; i < n; i++ )
+		{
+			bigPool.create( ref ).init( i );
+			if ( i % 2 == 0 )
+				a.getIndexCollection().add( i );
+			if ( i % 3 == 0 )
+				b.getIndexCollection().add( i );
+		}
+		bigPool.releaseRef( ref );
+
+		final RefArrayList< TestObject > result = new RefArrayList<>( bigPool );
+		RefSetOperations.intersection( a, b, result, true );
+		assertEquals( ( n + 5 ) / 6, result.size() );
+		final TIntIterator it = result.getIndexCollection().iterator();
+		while ( it.hasNext() )
+			assertEquals( 0, it.next() % 6 );
+
+		RefSetOperations.difference( a, b, result, true );
+		assertEquals( n / 2 - ( n + 5 ) / 6, result.size() );
+
+		RefSetOperations.union( a, b, result, true );
+		final Set< Integer > union = ids( result );
+		for ( int i = 0; i < n; i++ )
+			assertEquals( i % 2 == 0 || i % 3 == 0, union.contains( i ) );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testResultMustDifferFromOperands()
+	{
+		final RefSetImp< TestObject > a = new RefSetImp<>( pool );
+		RefSetOperations.union( a, new RefSetImp<>( pool ), a );
+	}
+}
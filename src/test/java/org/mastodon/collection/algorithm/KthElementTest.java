@@ -0,0 +1,147 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.algorithm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mastodon.collection.ref.RefArrayList;
+import org.mastodon.pool.TestObject;
+import org.mastodon.pool.TestObjectPool;
+
+public class KthElementTest
+{
+	private static final int N = 20000;
+
+	private static final Comparator< TestObject > BY_ID = Comparator.comparingInt( TestObject::getId );
+
+	private RefArrayList< TestObject > list;
+
+	private int[] sortedIds;
+
+	@Before
+	public void setUp()
+	{
+		final TestObjectPool pool = new TestObjectPool( N );
+		list = new RefArrayList<>( pool );
+		final Random random = new Random( 1l );
+		sortedIds = new int[ N ];
+		for ( int i = 0; i < N; i++ )
+		{
+			// many duplicates
+			final int id = random.nextInt( N / 4 );
+			sortedIds[ i ] = id;
+			list.add( pool.create( pool.createRef() ).init( id ) );
+		}
+		Arrays.sort( sortedIds );
+	}
+
+	private int[] ids()
+	{
+		final int[] ids = new int[ list.size() ];
+		final TestObject ref = list.createRef();
+		for ( int i = 0; i < ids.length; i++ )
+			ids[ i ] = list.get( i, ref ).getId();
+		list.releaseRef( ref );
+		return ids;
+	}
+
+	/**
+	 * Checks that the requested order statistics are in place and that the
+	 * list is partitioned around them.
+	 */
+	private void assertSelected( final int[] ks )
+	{
+		final int[] ids = ids();
+		final int[] sortedKs = ks.clone();
+		Arrays.sort( sortedKs );
+		for ( final int k : sortedKs )
+			assertEquals( "Wrong element at position " + k + ".", sortedIds[ k ], ids[ k ] );
+		int from = 0;
+		for ( final int k : sortedKs )
+		{
+			for ( int i = from; i < k; i++ )
+				assertTrue( "Element at " + i + " should not be larger than element at " + k + ".", ids[ i ] <= ids[ k ] );
+			for ( int i = k + 1; i < ids.length; i++ )
+				assertTrue( "Element at " + i + " should not be smaller than element at " + k + ".", ids[ i ] >= ids[ k ] );
+			from = k + 1;
+		}
+		final int[] all = ids.clone();
+		Arrays.sort( all );
+		assertTrue( "Selection should permute the list.", Arrays.equals( sortedIds, all ) );
+	}
+
+	@Test
+	public void testKthElements()
+	{
+		final int[] ks = { N / 2, 0, N - 1, N / 10, 9 * N / 10, N / 10 };
+		new KthElement<>( list ).kthElements( ks, BY_ID );
+		assertSelected( ks );
+	}
+
+	@Test
+	public void testKthElementsOnSortedList()
+	{
+		list.sort( BY_ID );
+		final int[] ks = { 1, N / 3, 2 * N / 3, N - 2 };
+		new KthElement<>( list ).kthElements( ks, BY_ID );
+		assertSelected( ks );
+	}
+
+	@Test
+	public void testSingleKthElementOnSortedList()
+	{
+		list.sort( BY_ID );
+		final int[] ks = { N / 2 };
+		// quadratic run-time would need about N * N / 8 comparisons
+		final int[] comparisons = new int[ 1 ];
+		new KthElement<>( list ).kthElements( ks, ( a, b ) -> {
+			++comparisons[ 0 ];
+			return BY_ID.compare( a, b );
+		} );
+		assertSelected( ks );
+		assertTrue( "Too many comparisons: " + comparisons[ 0 ], comparisons[ 0 ] < 10 * N );
+	}
+
+	@Test
+	public void testParallelKthElements()
+	{
+		final int[] ks = new int[ 99 ];
+		for ( int i = 0; i < ks.length; i++ )
+			ks[ i ] = ( i + 1 ) * N / 100;
+		KthElement.parallelKthElements( list, ks, BY_ID, 100 );
+		assertSelected( ks );
+	}
+}
@@ -0,0 +1,148 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.algorithm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PrimitiveKeySortTest
+{
+	private static final int N = 200_000;
+
+	/**
+	 * Returns the permutation that stably sorts {@code keys}.
+	 */
+	private static int[] expectedOrder( final Comparator< Integer > byKey, final int n )
+	{
+		final Integer[] order = new Integer[ n ];
+		for ( int i = 0; i < n; ++i )
+			order[ i ] = i;
+		Arrays.sort( order, byKey );
+		final int[] result = new int[ n ];
+		for ( int i = 0; i < n; ++i )
+			result[ i ] = order[ i ];
+		return result;
+	}
+
+	private static int[] identity( final int n )
+	{
+		final int[] values = new int[ n ];
+		for ( int i = 0; i < n; ++i )
+			values[ i ] = i;
+		return values;
+	}
+
+	@Test
+	public void testIntKeys()
+	{
+		final Random random = new Random( 1l );
+		for ( final boolean parallel : new boolean[] { false, true } )
+		{
+			final int[] keys = new int[ N ];
+			for ( int i = 0; i < N; ++i )
+				keys[ i ] = random.nextInt( 1000 ) - 500;
+			final int[] copy = keys.clone();
+			final int[] expected = expectedOrder( ( a, b ) -> Integer.compare( copy[ a ], copy[ b ] ), N );
+			final int[] values = identity( N );
+			if ( parallel )
+				PrimitiveKeySort.parallelSort( keys, values );
+			else
+				PrimitiveKeySort.sort( keys, values );
+			assertArrayEquals( "Values are not in stable key order.", expected, values );
+			Arrays.sort( copy );
+			assertArrayEquals( "Keys are not sorted.", copy, keys );
+		}
+	}
+
+	@Test
+	public void testLongKeys()
+	{
+		final Random random = new Random( 2l );
+		for ( final boolean parallel : new boolean[] { false, true } )
+		{
+			final long[] keys = new long[ N ];
+			for ( int i = 0; i < N; ++i )
+				keys[ i ] = ( i % 3 == 0 ) ? random.nextLong() : random.nextInt( 100 );
+			final long[] copy = keys.clone();
+			final int[] expected = expectedOrder( ( a, b ) -> Long.compare( copy[ a ], copy[ b ] ), N );
+			final int[] values = identity( N );
+			if ( parallel )
+				PrimitiveKeySort.parallelSort( keys, values, 1000 );
+			else
+				PrimitiveKeySort.sort( keys, values );
+			assertArrayEquals( "Values are not in stable key order.", expected, values );
+			Arrays.sort( copy );
+			assertArrayEquals( "Keys are not sorted.", copy, keys );
+		}
+	}
+
+	@Test
+	public void testDoubleKeys()
+	{
+		final Random random = new Random( 3l );
+		final double[] special = { Double.NaN, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, -0.0, 0.0, Double.MIN_VALUE, -Double.MAX_VALUE };
+		for ( final boolean parallel : new boolean[] { false, true } )
+		{
+			final double[] keys = new double[ N ];
+			for ( int i = 0; i < N; ++i )
+				keys[ i ] = ( i % 100 == 0 ) ? special[ random.nextInt( special.length ) ] : random.nextGaussian();
+			final double[] copy = keys.clone();
+			final int[] expected = expectedOrder( ( a, b ) -> Double.compare( copy[ a ], copy[ b ] ), N );
+			final int[] values = identity( N );
+			if ( parallel )
+				PrimitiveKeySort.parallelSort( keys, values, 1000 );
+			else
+				PrimitiveKeySort.sort( keys, values );
+			assertArrayEquals( "Values are not in stable key order.", expected, values );
+			Arrays.sort( copy );
+			assertArrayEquals( "Keys are not sorted.", copy, keys, 0 );
+		}
+	}
+
+	@Test
+	public void testSmallArrays()
+	{
+		for ( int n = 0; n < 5; ++n )
+		{
+			final long[] keys = new long[ n ];
+			for ( int i = 0; i < n; ++i )
+				keys[ i ] = n - i;
+			final int[] values = identity( n );
+			PrimitiveKeySort.sort( keys, values );
+			for ( int i = 0; i < n; ++i )
+				assertEquals( "Unexpected value.", n - 1 - i, values[ i ] );
+		}
+	}
+}
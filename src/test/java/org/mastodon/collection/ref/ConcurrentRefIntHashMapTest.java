@@ -0,0 +1,155 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mastodon.pool.TestObject;
+import org.mastodon.pool.TestObjectPool;
+import org.mastodon.properties.IntPropertyMap;
+
+import gnu.trove.iterator.TObjectIntIterator;
+
+public class ConcurrentRefIntHashMapTest
+{
+	private static final int N_OBJECTS = 1000;
+
+	private static final int N_THREADS = 8;
+
+	private TestObjectPool pool;
+
+	private ArrayList< TestObject > objs;
+
+	private ConcurrentRefIntHashMap< TestObject > map;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		pool = new TestObjectPool( N_OBJECTS );
+		objs = new ArrayList<>( N_OBJECTS );
+		for ( int i = 0; i < N_OBJECTS; i++ )
+			objs.add( pool.create( pool.createRef() ).init( i ) );
+		map = new ConcurrentRefIntHashMap<>( pool, -1, N_OBJECTS, N_THREADS );
+	}
+
+	private void runConcurrently( final Runnable task ) throws Exception
+	{
+		final ExecutorService service = Executors.newFixedThreadPool( N_THREADS );
+		final ArrayList< Future< ? > > futures = new ArrayList<>();
+		for ( int t = 0; t < N_THREADS; t++ )
+			futures.add( service.submit( task ) );
+		for ( final Future< ? > future : futures )
+			future.get();
+		service.shutdown();
+	}
+
+	@Test
+	public void testSingleThreaded()
+	{
+		for ( final TestObject o : objs )
+			map.put( o, o.getId() );
+		assertEquals( "Unexpected size.", N_OBJECTS, map.size() );
+		for ( final TestObject o : objs )
+			assertEquals( "Unexpected value.", o.getId(), map.get( o ) );
+
+		assertEquals( "Removing should return the old value.", 3, map.remove( objs.get( 3 ) ) );
+		assertFalse( "Removed key should not be in map.", map.containsKey( objs.get( 3 ) ) );
+		assertEquals( "Missing key should map to no-entry value.", -1, map.get( objs.get( 3 ) ) );
+		assertEquals( "Key set should match map size.", N_OBJECTS - 1, map.keySet().size() );
+
+		int count = 0;
+		final TObjectIntIterator< TestObject > it = map.iterator();
+		while ( it.hasNext() )
+		{
+			it.advance();
+			assertEquals( "Unexpected value while iterating.", it.key().getId(), it.value() );
+			it.setValue( -it.value() );
+			++count;
+		}
+		assertEquals( "Iterator should visit all entries.", N_OBJECTS - 1, count );
+		assertEquals( "Iterator setValue() should write to the map.", -5, map.get( objs.get( 5 ) ) );
+
+		map.clear();
+		assertTrue( "Map should be empty after clear().", map.isEmpty() );
+	}
+
+	@Test
+	public void testConcurrentAdjustOrPutValue() throws Exception
+	{
+		final int repeats = 50;
+		runConcurrently( () -> {
+			for ( int r = 0; r < repeats; r++ )
+				for ( final TestObject o : objs )
+					map.adjustOrPutValue( o, 1, 1 );
+		} );
+		assertEquals( "Unexpected size.", N_OBJECTS, map.size() );
+		for ( final TestObject o : objs )
+			assertEquals( "Lost update.", N_THREADS * repeats, map.get( o ) );
+	}
+
+	@Test
+	public void testConcurrentPutIfAbsent() throws Exception
+	{
+		final AtomicInteger threadIds = new AtomicInteger();
+		final AtomicInteger winners = new AtomicInteger();
+		runConcurrently( () -> {
+			final int threadId = threadIds.getAndIncrement();
+			for ( final TestObject o : objs )
+				if ( map.putIfAbsent( o, threadId ) == map.getNoEntryValue() )
+					winners.incrementAndGet();
+		} );
+		assertEquals( "Exactly one putIfAbsent() per key should succeed.", N_OBJECTS, winners.get() );
+	}
+
+	@Test
+	public void testBackingIntPropertyMap() throws Exception
+	{
+		final IntPropertyMap< TestObject > property = new IntPropertyMap<>( pool, map );
+		assertEquals( "Property map should use the no-entry value of the map.", -1, property.getNoEntryValue() );
+		final AtomicInteger threadIds = new AtomicInteger();
+		runConcurrently( () -> {
+			final int threadId = threadIds.getAndIncrement();
+			for ( int i = threadId; i < N_OBJECTS; i += N_THREADS )
+				property.set( objs.get( i ), 2 * i );
+		} );
+		assertEquals( "Unexpected size.", N_OBJECTS, property.size() );
+		for ( final TestObject o : objs )
+			assertEquals( "Unexpected property value.", 2 * o.getId(), property.getInt( o ) );
+	}
+}
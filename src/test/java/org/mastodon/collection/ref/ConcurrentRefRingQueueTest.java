@@ -0,0 +1,186 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mastodon.collection.ref.ConcurrentRefRingQueue.BackPressure;
+import org.mastodon.collection.ref.ConcurrentRefRingQueue.Consumers;
+import org.mastodon.pool.TestObject;
+import org.mastodon.pool.TestObjectPool;
+
+import gnu.trove.list.array.TIntArrayList;
+
+public class ConcurrentRefRingQueueTest
+{
+	private static final int N_OBJECTS = 1000;
+
+	private static final int N_PRODUCERS = 4;
+
+	private TestObjectPool pool;
+
+	private ArrayList< TestObject > objs;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		pool = new TestObjectPool( N_OBJECTS );
+		objs = new ArrayList<>( N_OBJECTS );
+		for ( int i = 0; i < N_OBJECTS; i++ )
+			objs.add( pool.create( pool.createRef() ).init( i ) );
+	}
+
+	@Test
+	public void testFifo()
+	{
+		final ConcurrentRefRingQueue< TestObject > queue = new ConcurrentRefRingQueue<>( pool, 5, Consumers.SINGLE, BackPressure.FAIL );
+		assertEquals( "Capacity should be rounded up to a power of two.", 8, queue.capacity() );
+		assertTrue( "New queue should be empty.", queue.isEmpty() );
+		for ( int i = 0; i < 8; i++ )
+			assertTrue( "Offer should succeed while there is space.", queue.offer( objs.get( i ) ) );
+		assertFalse( "Offer should fail when the queue is full.", queue.offer( objs.get( 8 ) ) );
+		assertEquals( "Unexpected size.", 8, queue.size() );
+
+		final TestObject ref = queue.createRef();
+		for ( int i = 0; i < 4; i++ )
+			assertEquals( "Unexpected head.", i, queue.poll( ref ).getId() );
+		for ( int i = 8; i < 12; i++ )
+			queue.put( objs.get( i ) );
+
+		final TIntArrayList ids = new TIntArrayList();
+		assertEquals( "Unexpected number of drained elements.", 3, queue.drainTo( ids, 3 ) );
+		assertEquals( "Unexpected number of drained elements.", 5, queue.drainTo( ids ) );
+		for ( int i = 0; i < 8; i++ )
+			assertEquals( "Unexpected drained element.", objs.get( i + 4 ).getInternalPoolIndex(), ids.get( i ) );
+		assertNull( "Poll on empty queue should return null.", queue.poll( ref ) );
+		queue.releaseRef( ref );
+	}
+
+	@Test( expected = NoSuchElementException.class )
+	public void testTakeFail()
+	{
+		final ConcurrentRefRingQueue< TestObject > queue = new ConcurrentRefRingQueue<>( pool, 4, Consumers.MULTIPLE, BackPressure.FAIL );
+		queue.take( pool.createRef() );
+	}
+
+	@Test( expected = IllegalStateException.class )
+	public void testPutFail()
+	{
+		final ConcurrentRefRingQueue< TestObject > queue = new ConcurrentRefRingQueue<>( pool, 2, Consumers.MULTIPLE, BackPressure.FAIL );
+		for ( int i = 0; i < 3; i++ )
+			queue.put( objs.get( i ) );
+	}
+
+	@Test
+	public void testOfferTimeout()
+	{
+		final ConcurrentRefRingQueue< TestObject > queue = new ConcurrentRefRingQueue<>( pool, 2 );
+		assertTrue( queue.offer( objs.get( 0 ), 1, TimeUnit.MILLISECONDS ) );
+		assertTrue( queue.offer( objs.get( 1 ), 1, TimeUnit.MILLISECONDS ) );
+		assertFalse( "Offer should time out on a full queue.", queue.offer( objs.get( 2 ), 1, TimeUnit.MILLISECONDS ) );
+	}
+
+	@Test
+	public void testMultipleProducersSingleConsumer() throws Exception
+	{
+		testConcurrent( Consumers.SINGLE, 1, BackPressure.YIELD, 50 );
+	}
+
+	@Test
+	public void testMultipleProducersMultipleConsumers() throws Exception
+	{
+		testConcurrent( Consumers.MULTIPLE, 4, BackPressure.PARK, 50 );
+		testConcurrent( Consumers.MULTIPLE, 4, BackPressure.YIELD, 50 );
+		/*
+		 * Busy-spinning threads starve each other when there are more threads
+		 * than cores. Use fewer repeats then, to keep the test fast.
+		 */
+		final boolean enoughCores = N_PRODUCERS + 4 <= Runtime.getRuntime().availableProcessors();
+		testConcurrent( Consumers.MULTIPLE, 4, BackPressure.SPIN, enoughCores ? 50 : 2 );
+	}
+
+	/**
+	 * Each producer puts every object {@code repeats} times. Checks that every
+	 * object is received {@code repeats * N_PRODUCERS} times in total.
+	 */
+	private void testConcurrent( final Consumers consumers, final int nConsumers, final BackPressure backPressure, final int repeats ) throws Exception
+	{
+		final int total = repeats * N_PRODUCERS * N_OBJECTS;
+		final ConcurrentRefRingQueue< TestObject > queue = new ConcurrentRefRingQueue<>( pool, 64, consumers, backPressure );
+		final AtomicIntegerArray received = new AtomicIntegerArray( N_OBJECTS );
+		final ExecutorService service = Executors.newFixedThreadPool( N_PRODUCERS + nConsumers );
+		final ArrayList< Future< ? > > futures = new ArrayList<>();
+		for ( int t = 0; t < N_PRODUCERS; t++ )
+			futures.add( service.submit( () -> {
+				for ( int r = 0; r < repeats; r++ )
+					for ( final TestObject o : objs )
+						queue.put( o );
+			} ) );
+		for ( int t = 0; t < nConsumers; t++ )
+			futures.add( service.submit( () -> {
+				final TestObject ref = queue.createRef();
+				final TIntArrayList ids = new TIntArrayList();
+				for ( int n = 0; n < total / nConsumers; )
+				{
+					if ( n % 2 == 0 )
+					{
+						received.incrementAndGet( queue.take( ref ).getId() );
+						++n;
+					}
+					else
+					{
+						ids.resetQuick();
+						n += queue.drainTo( ids, total / nConsumers - n );
+						for ( int i = 0; i < ids.size(); i++ )
+							received.incrementAndGet( pool.getObject( ids.get( i ), ref ).getId() );
+					}
+				}
+			} ) );
+		for ( final Future< ? > future : futures )
+			future.get();
+		service.shutdown();
+
+		assertTrue( "Queue should be empty.", queue.isEmpty() );
+		for ( int i = 0; i < N_OBJECTS; i++ )
+			assertEquals( "Each object should be received once per put.", repeats * N_PRODUCERS, received.get( i ) );
+	}
+}
@@ -0,0 +1,105 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mastodon.pool.TestObject;
+import org.mastodon.pool.TestObjectPool;
+
+public class ConcurrentRefSetTest
+{
+	private static final int N_OBJECTS = 1000;
+
+	private static final int N_THREADS = 8;
+
+	private TestObjectPool pool;
+
+	private ArrayList< TestObject > objs;
+
+	private ConcurrentRefSet< TestObject > set;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		pool = new TestObjectPool( N_OBJECTS );
+		objs = new ArrayList<>( N_OBJECTS );
+		for ( int i = 0; i < N_OBJECTS; i++ )
+			objs.add( pool.create( pool.createRef() ).init( i ) );
+		set = new ConcurrentRefSet<>( pool );
+	}
+
+	@Test
+	public void testConcurrentAdd() throws Exception
+	{
+		final AtomicInteger added = new AtomicInteger();
+		final ExecutorService service = Executors.newFixedThreadPool( N_THREADS );
+		final ArrayList< Future< ? > > futures = new ArrayList<>();
+		for ( int t = 0; t < N_THREADS; t++ )
+			futures.add( service.submit( () -> {
+				for ( final TestObject o : objs )
+					if ( set.add( o ) )
+						added.incrementAndGet();
+			} ) );
+		for ( final Future< ? > future : futures )
+			future.get();
+		service.shutdown();
+
+		assertEquals( "Each element should be added exactly once.", N_OBJECTS, added.get() );
+		assertEquals( "Unexpected size.", N_OBJECTS, set.size() );
+		assertTrue( "Set should contain all elements.", set.containsAll( objs ) );
+	}
+
+	@Test
+	public void testIteratorRemove()
+	{
+		set.addAll( objs );
+		final Iterator< TestObject > it = set.iterator();
+		while ( it.hasNext() )
+			if ( it.next().getId() % 2 == 0 )
+				it.remove();
+		assertEquals( "Unexpected size.", N_OBJECTS / 2, set.size() );
+		for ( final TestObject o : objs )
+			assertEquals( "Unexpected element.", o.getId() % 2 != 0, set.contains( o ) );
+		assertFalse( "Removing a missing element should return false.", set.remove( objs.get( 0 ) ) );
+		set.clear();
+		assertTrue( "Set should be empty after clear().", set.isEmpty() );
+	}
+}
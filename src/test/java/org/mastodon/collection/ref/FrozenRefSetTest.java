@@ -0,0 +1,169 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mastodon.collection.RefCollections;
+import org.mastodon.collection.RefSet;
+import org.mastodon.pool.TestObject;
+import org.mastodon.pool.TestObjectPool;
+
+import gnu.trove.set.TIntSortedArraySet;
+import gnu.trove.set.hash.TIntHashSet;
+
+public class FrozenRefSetTest
+{
+	private static final int N = 1000;
+
+	private TestObjectPool pool;
+
+	private ArrayList< TestObject > objs;
+
+	@Before
+	public void setUp()
+	{
+		pool = new TestObjectPool( N );
+		objs = new ArrayList<>( N );
+		for ( int i = 0; i < N; i++ )
+			objs.add( pool.create( pool.createRef() ).init( i ) );
+	}
+
+	private RefSet< TestObject > randomSet( final Random random, final int n )
+	{
+		final RefSet< TestObject > set = RefCollections.createRefSet( pool.asRefCollection() );
+		for ( int i = 0; i < n; i++ )
+			set.add( objs.get( random.nextInt( N ) ) );
+		return set;
+	}
+
+	@Test
+	public void testFreeze()
+	{
+		final RefSet< TestObject > set = randomSet( new Random( 1l ), 300 );
+		final RefSet< TestObject > frozen = RefCollections.freeze( set );
+		assertTrue( frozen instanceof FrozenRefSet );
+		assertEquals( set.size(), frozen.size() );
+		assertTrue( frozen.containsAll( set ) );
+		assertTrue( set.containsAll( frozen ) );
+		for ( final TestObject o : objs )
+			assertEquals( set.contains( o ), frozen.contains( o ) );
+
+		// iteration is in ascending index order
+		int previous = -1;
+		for ( final TestObject o : frozen )
+		{
+			assertTrue( o.getId() > previous );
+			previous = o.getId();
+		}
+
+		// the frozen set is a copy
+		set.clear();
+		assertFalse( frozen.isEmpty() );
+	}
+
+	@Test
+	public void testGet()
+	{
+		final FrozenRefSet< TestObject > frozen = ( FrozenRefSet< TestObject > ) RefCollections.freeze( randomSet( new Random( 2l ), 100 ) );
+		final TestObject ref = pool.createRef();
+		final Iterator< TestObject > it = frozen.iterator();
+		for ( int i = 0; i < frozen.size(); i++ )
+			assertEquals( it.next().getId(), frozen.get( i, ref ).getId() );
+	}
+
+	@Test
+	public void testIntersection()
+	{
+		final Random random = new Random( 3l );
+		// similar sizes and very different sizes
+		for ( final int[] sizes : new int[][] { { 400, 500 }, { 5, 800 }, { 800, 5 }, { 0, 100 } } )
+		{
+			final RefSet< TestObject > a = randomSet( random, sizes[ 0 ] );
+			final RefSet< TestObject > b = randomSet( random, sizes[ 1 ] );
+			final FrozenRefSet< TestObject > fa = ( FrozenRefSet< TestObject > ) RefCollections.freeze( a );
+			final FrozenRefSet< TestObject > fb = ( FrozenRefSet< TestObject > ) RefCollections.freeze( b );
+			final FrozenRefSet< TestObject > intersection = fa.intersection( fb );
+
+			final RefSet< TestObject > expected = RefCollections.createRefSet( pool.asRefCollection() );
+			expected.addAll( a );
+			expected.retainAll( b );
+			assertEquals( expected.size(), intersection.size() );
+			assertTrue( intersection.containsAll( expected ) );
+			assertEquals( intersection.getIndexCollection(), fb.intersection( fa ).getIndexCollection() );
+		}
+	}
+
+	@Test
+	public void testIntersect()
+	{
+		final int[] large = new int[ 10000 ];
+		for ( int i = 0; i < large.length; i++ )
+			large[ i ] = 3 * i;
+		final int[] small = { -1, 0, 4, 9, 29997, 29998, 40000 };
+		assertArrayEquals( new int[] { 0, 9, 29997 }, TIntSortedArraySet.intersect( small, large ) );
+		assertArrayEquals( new int[] { 0, 9, 29997 }, TIntSortedArraySet.intersect( large, small ) );
+		assertArrayEquals( new int[ 0 ], TIntSortedArraySet.intersect( new int[ 0 ], large ) );
+	}
+
+	@Test
+	public void testEqualsHashSet()
+	{
+		final TIntSortedArraySet set = new TIntSortedArraySet( new int[] { 5, 3, 3, 8 } );
+		final TIntHashSet expected = new TIntHashSet( new int[] { 3, 5, 8 } );
+		assertEquals( 3, set.size() );
+		assertEquals( expected, set );
+		assertEquals( set, expected );
+		assertEquals( expected.hashCode(), set.hashCode() );
+		assertArrayEquals( new int[] { 3, 5, 8 }, set.toArray() );
+	}
+
+	@Test( expected = UnsupportedOperationException.class )
+	public void testAddUnsupported()
+	{
+		RefCollections.freeze( randomSet( new Random( 4l ), 10 ) ).add( objs.get( 0 ) );
+	}
+
+	@Test( expected = UnsupportedOperationException.class )
+	public void testIteratorRemoveUnsupported()
+	{
+		final Iterator< TestObject > it = RefCollections.freeze( randomSet( new Random( 5l ), 10 ) ).iterator();
+		it.next();
+		it.remove();
+	}
+}
@@ -584,4 +584,10 @@ public class IntRefHashMapTest
 		final TestObject value = it.value();
 		assertEquals( "Remaining value is not the right one.", storedIds[ 0 ], value.getId() );
 	}
+
+	@Test
+	public void testBatch()
+	{
+		IntRefMapBatchChecks.testBatch( map, map::putAll, map::getIds, truthMap, storedIds.length );
+	}
 }
@@ -0,0 +1,88 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+
+import org.mastodon.collection.IntRefMap;
+import org.mastodon.pool.TestObject;
+
+/**
+ * Batch put/get checks shared by {@link IntRefHashMapTest} and
+ * {@link IntRefArrayMapTest}.
+ */
+class IntRefMapBatchChecks
+{
+	/**
+	 * Checks {@code getIds(int[], int[])} and {@code putAll(int[], int[])} of
+	 * an {@link IntRefMap} that maps the keys {@code 22, 23, 26, 28} to the
+	 * objects with the same ids.
+	 *
+	 * @param map
+	 *            the map to check.
+	 * @param putAll
+	 *            the {@code putAll(keys, ids)} method of {@code map}.
+	 * @param getIds
+	 *            the {@code getIds(keys, outIds)} method of {@code map}.
+	 * @param truthMap
+	 *            maps object ids to pool indices.
+	 * @param numStored
+	 *            the number of mappings in {@code map}.
+	 */
+	static void testBatch(
+			final IntRefMap< TestObject > map,
+			final BiConsumer< int[], int[] > putAll,
+			final BinaryOperator< int[] > getIds,
+			final Map< Integer, Integer > truthMap,
+			final int numStored )
+	{
+		final int[] keys = new int[] { 22, 23, 21, 26, 28, 100 };
+		final int[] ids = getIds.apply( keys, null );
+		for ( int i = 0; i < keys.length; i++ )
+		{
+			final Integer poolIndex = map.containsKey( keys[ i ] ) ? truthMap.get( keys[ i ] ) : null;
+			assertEquals( poolIndex == null ? -1 : poolIndex.intValue(), ids[ i ] );
+		}
+
+		final int[] newKeys = new int[] { 21, 22, 40 };
+		final int[] newIds = new int[] { truthMap.get( 21 ), truthMap.get( 29 ), truthMap.get( 20 ) };
+		putAll.accept( newKeys, newIds );
+		assertEquals( numStored + 2, map.size() );
+		assertArrayEquals( newIds, getIds.apply( newKeys, new int[ 3 ] ) );
+		final TestObject ref = map.createRef();
+		assertEquals( 29, map.get( 22, ref ).getId() );
+		assertEquals( 20, map.get( 40, ref ).getId() );
+		map.releaseRef( ref );
+	}
+}
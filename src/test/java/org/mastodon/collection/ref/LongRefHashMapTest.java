@@ -0,0 +1,178 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mastodon.collection.LongRefMap;
+import org.mastodon.collection.RefMaps;
+import org.mastodon.collection.wrap.RefSetWrapper;
+import org.mastodon.pool.TestObject;
+import org.mastodon.pool.TestObjectPool;
+
+import gnu.trove.iterator.TLongObjectIterator;
+
+public class LongRefHashMapTest
+{
+	private static final long NO_ENTRY_KEY = Long.MIN_VALUE;
+
+	private TestObjectPool pool;
+
+	private LongRefMap< TestObject > map;
+
+	/**
+	 * Maps keys to pool indices.
+	 */
+	private Map< Long, Integer > truthMap;
+
+	@Before
+	public void setUp()
+	{
+		pool = new TestObjectPool( 10 );
+		map = RefMaps.createLongRefMap( pool.asRefCollection(), NO_ENTRY_KEY );
+		truthMap = new HashMap<>();
+		final TestObject ref = pool.createRef();
+		for ( int i = 0; i < 10; i++ )
+		{
+			pool.create( ref ).init( i );
+			// keys that do not fit into an int
+			final long key = ( 1l << 40 ) * ( i + 1 ) + i;
+			if ( i % 2 == 0 )
+			{
+				map.put( key, ref );
+				truthMap.put( key, ref.getInternalPoolIndex() );
+			}
+		}
+		pool.releaseRef( ref );
+	}
+
+	@Test
+	public void testFactory()
+	{
+		assertTrue( map instanceof LongRefHashMap );
+		assertEquals( NO_ENTRY_KEY, map.getNoEntryKey() );
+	}
+
+	@Test
+	public void testGet()
+	{
+		assertEquals( truthMap.size(), map.size() );
+		final TestObject ref = map.createRef();
+		for ( final Map.Entry< Long, Integer > entry : truthMap.entrySet() )
+		{
+			assertTrue( map.containsKey( entry.getKey() ) );
+			assertEquals( entry.getValue().intValue(), map.get( entry.getKey(), ref ).getInternalPoolIndex() );
+		}
+		assertFalse( map.containsKey( 3l << 40 ) );
+		assertNull( map.get( 3l << 40, ref ) );
+		assertFalse( map.containsKey( 0 ) );
+		map.releaseRef( ref );
+	}
+
+	@Test
+	public void testPutRemove()
+	{
+		final TestObject ref1 = map.createRef();
+		final TestObject ref2 = map.createRef();
+		final long key = ( 1l << 40 ) + 0;
+		pool.getObject( 1, ref1 );
+		final TestObject previous = map.put( key, ref1, ref2 );
+		assertEquals( truthMap.get( key ).intValue(), previous.getInternalPoolIndex() );
+		assertEquals( 1, map.get( key, ref2 ).getInternalPoolIndex() );
+
+		assertEquals( 1, map.putIfAbsent( key, pool.getObject( 3, ref1 ), ref2 ).getInternalPoolIndex() );
+		assertEquals( 1, map.get( key, ref2 ).getInternalPoolIndex() );
+
+		assertEquals( 1, map.remove( key, ref2 ).getInternalPoolIndex() );
+		assertFalse( map.containsKey( key ) );
+		assertNull( map.remove( key, ref2 ) );
+		assertEquals( truthMap.size() - 1, map.size() );
+		map.releaseRef( ref1 );
+		map.releaseRef( ref2 );
+	}
+
+	@Test
+	public void testKeys()
+	{
+		final long[] keys = map.keys();
+		Arrays.sort( keys );
+		final long[] expected = new long[ truthMap.size() ];
+		int i = 0;
+		for ( final long key : truthMap.keySet() )
+			expected[ i++ ] = key;
+		Arrays.sort( expected );
+		assertArrayEquals( expected, keys );
+
+		final long[] array = new long[ keys.length + 2 ];
+		Arrays.fill( array, 7 );
+		map.keySet().toArray( array );
+		assertEquals( NO_ENTRY_KEY, array[ keys.length ] );
+	}
+
+	@Test
+	public void testIterationAndProcedures()
+	{
+		final TLongObjectIterator< TestObject > it = map.iterator();
+		int n = 0;
+		while ( it.hasNext() )
+		{
+			it.advance();
+			assertEquals( truthMap.get( it.key() ).intValue(), it.value().getInternalPoolIndex() );
+			++n;
+		}
+		assertEquals( truthMap.size(), n );
+
+		assertTrue( map.forEachEntry( ( key, value ) -> truthMap.get( key ) == value.getInternalPoolIndex() ) );
+
+		// keep pool indices 0, 4, 8
+		assertTrue( map.retainEntries( ( key, value ) -> value.getInternalPoolIndex() % 4 == 0 ) );
+		assertEquals( 3, map.size() );
+	}
+
+	@Test
+	public void testWrapper()
+	{
+		final LongRefMap< String > wrapped = RefMaps.createLongRefMap( new RefSetWrapper<>( new HashSet< String >() ), NO_ENTRY_KEY );
+		wrapped.put( 1l << 50, "a" );
+		assertEquals( "a", wrapped.get( 1l << 50, null ) );
+		assertEquals( "a", wrapped.remove( 1l << 50, null ) );
+		assertTrue( wrapped.isEmpty() );
+	}
+}
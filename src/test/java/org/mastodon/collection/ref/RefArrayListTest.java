@@ -28,15 +28,18 @@
  */
 package org.mastodon.collection.ref;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.mastodon.collection.ref.RefArrayList;
+import org.mastodon.collection.wrap.RefListWrapper;
 import org.mastodon.pool.TestObject;
 import org.mastodon.pool.TestObjectPool;
 
@@ -99,4 +102,128 @@ public class RefArrayListTest
 		}
 	}
 
+	@Test
+	public void testSortByInt()
+	{
+		list.sortByInt( o -> o.getId() );
+		assertAscendingIds();
+	}
+
+	@Test
+	public void testSortByDouble()
+	{
+		list.sortByDouble( o -> -0.5 * o.getId() );
+		int previousID = Integer.MAX_VALUE;
+		for ( final TestObject testObject : list )
+		{
+			assertTrue( "List around ID " + previousID + " is not sorted.", previousID > testObject.getId() );
+			previousID = testObject.getId();
+		}
+	}
+
+	@Test
+	public void testSortByLongIsStable()
+	{
+		list.sortByInt( o -> o.getId() );
+		list.sortByLong( o -> o.getId() % 10 );
+		assertStableModuloOrder();
+	}
+
+	@Test
+	public void testParallelSortBy()
+	{
+		list.parallelSortByDouble( o -> o.getId() );
+		assertAscendingIds();
+		list.shuffle( new Random( 1l ) );
+		list.parallelSortByInt( o -> o.getId() );
+		assertAscendingIds();
+		list.parallelSortByLong( o -> o.getId() % 10 );
+		assertStableModuloOrder();
+	}
+
+	@Test
+	public void testParallelSort()
+	{
+		list.parallelSort( Comparator.comparingInt( TestObject::getId ), 50 );
+		assertAscendingIds();
+		list.parallelSort( Comparator.comparingInt( o -> o.getId() % 10 ), 50 );
+		assertStableModuloOrder();
+	}
+
+	@Test
+	public void testSortByOnWrappedList()
+	{
+		// RefListWrapper uses the default RefList implementations
+		final RefListWrapper< TestObject > wrapped = new RefListWrapper<>( new ArrayList<>( objects ) );
+		final AtomicInteger calls = new AtomicInteger();
+		wrapped.sortByInt( o -> {
+			calls.incrementAndGet();
+			return o.getId();
+		} );
+		assertEquals( "Each key should be computed exactly once.", objects.size(), calls.get() );
+		int previousID = Integer.MIN_VALUE;
+		for ( final TestObject testObject : wrapped )
+		{
+			assertTrue( "List around ID " + previousID + " is not sorted.", previousID < testObject.getId() );
+			previousID = testObject.getId();
+		}
+
+		wrapped.sortByLong( o -> o.getId() % 10 );
+		previousID = -1;
+		for ( final TestObject testObject : wrapped )
+		{
+			final int id = testObject.getId();
+			if ( previousID >= 0 )
+			{
+				assertTrue( "List is not sorted by key.", previousID % 10 <= id % 10 );
+				if ( previousID % 10 == id % 10 )
+					assertTrue( "Sort is not stable.", previousID < id );
+			}
+			previousID = id;
+		}
+
+		calls.set( 0 );
+		wrapped.sortByDouble( o -> {
+			calls.incrementAndGet();
+			return -0.5 * o.getId();
+		} );
+		assertEquals( "Each key should be computed exactly once.", objects.size(), calls.get() );
+		previousID = Integer.MAX_VALUE;
+		for ( final TestObject testObject : wrapped )
+		{
+			assertTrue( "List around ID " + previousID + " is not sorted.", previousID > testObject.getId() );
+			previousID = testObject.getId();
+		}
+	}
+
+	private void assertAscendingIds()
+	{
+		assertEquals( "Sorting should not change the list size.", objects.size(), list.size() );
+		int previousID = Integer.MIN_VALUE;
+		for ( final TestObject testObject : list )
+		{
+			assertTrue( "List around ID " + previousID + " is not sorted.", previousID < testObject.getId() );
+			previousID = testObject.getId();
+		}
+	}
+
+	/**
+	 * Checks that the list is sorted by {@code id % 10}, and by {@code id}
+	 * within equal keys.
+	 */
+	private void assertStableModuloOrder()
+	{
+		int previousID = -1;
+		for ( final TestObject testObject : list )
+		{
+			final int id = testObject.getId();
+			if ( previousID >= 0 )
+			{
+				assertTrue( "List is not sorted by key.", previousID % 10 <= id % 10 );
+				if ( previousID % 10 == id % 10 )
+					assertTrue( "Sort is not stable.", previousID < id );
+			}
+			previousID = id;
+		}
+	}
 }
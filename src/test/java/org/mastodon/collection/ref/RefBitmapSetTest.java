@@ -0,0 +1,144 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mastodon.collection.RefCollections;
+import org.mastodon.collection.RefSet;
+import org.mastodon.pool.TestObject;
+import org.mastodon.pool.TestObjectPool;
+
+public class RefBitmapSetTest
+{
+	private ArrayList< TestObject > list;
+
+	private TestObjectPool pool;
+
+	private RefBitmapSet< TestObject > evens;
+
+	private RefBitmapSet< TestObject > thirds;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		pool = new TestObjectPool( 100 );
+		list = new ArrayList<>( 100 );
+		evens = new RefBitmapSet<>( pool );
+		thirds = new RefBitmapSet<>( pool );
+		for ( int i = 0; i < 100; i++ )
+		{
+			final TestObject o = pool.create( pool.createRef() ).init( i );
+			list.add( o );
+			if ( i % 2 == 0 )
+				evens.add( o );
+			if ( i % 3 == 0 )
+				thirds.add( o );
+		}
+	}
+
+	@Test
+	public void testContains()
+	{
+		for ( final TestObject o : list )
+		{
+			assertEquals( "Unexpected result of contains().", o.getId() % 2 == 0, evens.contains( o ) );
+			assertEquals( "Unexpected result of contains().", o.getId() % 3 == 0, thirds.contains( o ) );
+		}
+		assertEquals( "Unexpected size.", 50, evens.size() );
+		assertEquals( "Unexpected size.", 34, thirds.size() );
+	}
+
+	@Test
+	public void testIterationOrder()
+	{
+		int previous = -1;
+		final Iterator< TestObject > it = thirds.iterator();
+		while ( it.hasNext() )
+		{
+			final int index = it.next().getInternalPoolIndex();
+			assertTrue( "Elements should be iterated in ascending pool index order.", index > previous );
+			previous = index;
+		}
+	}
+
+	@Test
+	public void testAnd()
+	{
+		final RefBitmapSet< TestObject > set = evens.copy();
+		set.and( thirds );
+		for ( final TestObject o : list )
+			assertEquals( "Unexpected element after and().", o.getId() % 6 == 0, set.contains( o ) );
+		assertEquals( "Operand should not be modified.", 50, evens.size() );
+	}
+
+	@Test
+	public void testOr()
+	{
+		final RefBitmapSet< TestObject > set = evens.copy();
+		set.or( thirds );
+		for ( final TestObject o : list )
+			assertEquals( "Unexpected element after or().", o.getId() % 2 == 0 || o.getId() % 3 == 0, set.contains( o ) );
+	}
+
+	@Test
+	public void testAndNot()
+	{
+		final RefBitmapSet< TestObject > set = evens.copy();
+		set.andNot( thirds );
+		for ( final TestObject o : list )
+			assertEquals( "Unexpected element after andNot().", o.getId() % 2 == 0 && o.getId() % 3 != 0, set.contains( o ) );
+	}
+
+	@Test
+	public void testRetainAllWithOtherSetType()
+	{
+		final RefSetImp< TestObject > other = new RefSetImp<>( pool );
+		other.addAll( thirds );
+		final RefBitmapSet< TestObject > set = evens.copy();
+		assertTrue( "retainAll() should report a change.", set.retainAll( other ) );
+		for ( final TestObject o : list )
+			assertEquals( "Unexpected element after retainAll().", o.getId() % 6 == 0, set.contains( o ) );
+		assertFalse( "retainAll() should report no change.", set.retainAll( other ) );
+	}
+
+	@Test
+	public void testCreateRefBitmapSet()
+	{
+		final RefSet< TestObject > set = RefCollections.createRefBitmapSet( pool.asRefCollection() );
+		assertTrue( "Expected a bitmap-backed set for a pool-backed collection.", set instanceof RefBitmapSet );
+	}
+}
@@ -28,9 +28,11 @@
  */
 package org.mastodon.collection.ref;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
@@ -636,4 +638,27 @@ public class RefDoubleHashMapTest
 		assertTrue( "Procedure should have changed the map.", changed );
 		assertEquals( "After procedure filtering, the map has not the expcted size.", 1, map.size() );
 	}
+
+	@Test
+	public void testBatch()
+	{
+		final int[] inIds = new int[ ins.size() ];
+		for ( int i = 0; i < inIds.length; i++ )
+			inIds[ i ] = ins.get( i ).getInternalPoolIndex();
+		assertArrayEquals( values, map.getAll( inIds, null ), 0 );
+
+		final int[] notInIds = new int[ notIns.size() ];
+		for ( int i = 0; i < notInIds.length; i++ )
+			notInIds[ i ] = notIns.get( i ).getInternalPoolIndex();
+		final double[] out = new double[ notInIds.length + 1 ];
+		assertSame( out, map.getAll( notInIds, out ) );
+		for ( int i = 0; i < notInIds.length; i++ )
+			assertTrue( Double.isNaN( out[ i ] ) );
+
+		final double[] newValues = new double[] { 1.5, 2.5, 3.5 };
+		map.putAll( notInIds, newValues );
+		assertEquals( ins.size() + notIns.size(), map.size() );
+		for ( int i = 0; i < notIns.size(); i++ )
+			assertEquals( newValues[ i ], map.get( notIns.get( i ) ), 0 );
+	}
 }
@@ -0,0 +1,160 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mastodon.pool.TestObject;
+import org.mastodon.pool.TestObjectPool;
+
+public class RefDoublePriorityQueueTest
+{
+	private static final int N = 1000;
+
+	private TestObjectPool pool;
+
+	private ArrayList< TestObject > objs;
+
+	@Before
+	public void setUp()
+	{
+		pool = new TestObjectPool( N );
+		objs = new ArrayList<>( N );
+		for ( int i = 0; i < N; i++ )
+			objs.add( pool.create( pool.createRef() ).init( i ) );
+	}
+
+	@Test
+	public void testPollOrder()
+	{
+		final RefDoublePriorityQueue< TestObject > queue = new RefDoublePriorityQueue<>( pool, 10 );
+		final Random random = new Random( 1l );
+		for ( final TestObject o : objs )
+			assertTrue( "Element should be inserted.", queue.offer( o, random.nextDouble() ) );
+		assertFalse( "Element should not be inserted twice.", queue.offer( objs.get( 0 ), -1 ) );
+		assertEquals( "Unexpected size.", N, queue.size() );
+
+		final TestObject ref = queue.createRef();
+		double previous = Double.NEGATIVE_INFINITY;
+		while ( !queue.isEmpty() )
+		{
+			final double priority = queue.peekPriority();
+			assertTrue( "Elements should be polled in priority order.", priority >= previous );
+			final TestObject o = queue.poll( ref );
+			assertFalse( "Polled element should not be contained.", queue.contains( o ) );
+			previous = priority;
+		}
+		assertNull( "Polling an empty queue should return null.", queue.poll( ref ) );
+	}
+
+	@Test
+	public void testDecreaseKeyAndRemove()
+	{
+		final RefDoublePriorityQueue< TestObject > queue = new RefDoublePriorityQueue<>( pool, 10, 3 );
+		final Map< Integer, Double > expected = new HashMap<>();
+		final Random random = new Random( 2l );
+		for ( int step = 0; step < 20000; step++ )
+		{
+			final TestObject o = objs.get( random.nextInt( N ) );
+			final double p = random.nextDouble();
+			switch ( random.nextInt( 4 ) )
+			{
+			case 0:
+			{
+				final Double old = expected.get( o.getId() );
+				final boolean changed = queue.decreaseKey( o, p );
+				assertEquals( "Unexpected result of decreaseKey().", old == null || p < old, changed );
+				if ( changed )
+					expected.put( o.getId(), p );
+				break;
+			}
+			case 1:
+				queue.setPriority( o, p );
+				expected.put( o.getId(), p );
+				break;
+			case 2:
+				assertEquals( "Unexpected result of remove().", expected.remove( o.getId() ) != null, queue.remove( o ) );
+				break;
+			default:
+				assertEquals( "Unexpected result of contains().", expected.containsKey( o.getId() ), queue.contains( o ) );
+				if ( expected.containsKey( o.getId() ) )
+					assertEquals( "Unexpected priority.", expected.get( o.getId() ), queue.getPriority( o ), 0 );
+			}
+			assertEquals( "Unexpected size.", expected.size(), queue.size() );
+		}
+
+		final TestObject ref = queue.createRef();
+		double previous = Double.NEGATIVE_INFINITY;
+		while ( !queue.isEmpty() )
+		{
+			final double priority = queue.peekPriority();
+			final TestObject o = queue.poll( ref );
+			assertEquals( "Polled priority does not match.", expected.remove( o.getId() ), priority, 0 );
+			assertTrue( "Elements should be polled in priority order.", priority >= previous );
+			previous = priority;
+		}
+		assertTrue( "All elements should have been polled.", expected.isEmpty() );
+	}
+
+	@Test
+	public void testClear()
+	{
+		final RefDoublePriorityQueue< TestObject > queue = new RefDoublePriorityQueue<>( pool );
+		for ( final TestObject o : objs )
+			queue.offer( o, o.getId() );
+		queue.clear();
+		assertTrue( "Queue should be empty after clear().", queue.isEmpty() );
+		for ( final TestObject o : objs )
+			assertFalse( "Queue should not contain elements after clear().", queue.contains( o ) );
+		assertTrue( "Elements should be insertable after clear().", queue.offer( objs.get( 5 ), 1 ) );
+	}
+
+	@Test
+	public void testLongPriorities()
+	{
+		final RefLongPriorityQueue< TestObject > queue = new RefLongPriorityQueue<>( pool );
+		for ( final TestObject o : objs )
+			queue.offer( o, N - o.getId() );
+		queue.decreaseKey( objs.get( 0 ), -1 );
+		final TestObject ref = queue.createRef();
+		assertEquals( "Decreased element should come first.", 0, queue.poll( ref ).getId() );
+		for ( int i = N - 1; i > 0; i-- )
+			assertEquals( "Unexpected poll order.", i, queue.poll( ref ).getId() );
+	}
+}
@@ -0,0 +1,158 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mastodon.pool.TestObject;
+import org.mastodon.pool.TestObjectPool;
+import org.mastodon.properties.FloatPropertyMap;
+import org.mastodon.properties.undo.PropertyUndoRedoStack;
+
+import gnu.trove.iterator.TObjectFloatIterator;
+
+public class RefFloatArrayMapTest
+{
+	private static final int N = 200;
+
+	private static final float NO_ENTRY_VALUE = Float.NaN;
+
+	private TestObjectPool pool;
+
+	private ArrayList< TestObject > objs;
+
+	@Before
+	public void setUp()
+	{
+		pool = new TestObjectPool( N );
+		objs = new ArrayList<>( N );
+		for ( int i = 0; i < N; i++ )
+			objs.add( pool.create( pool.createRef() ).init( i ) );
+	}
+
+	private static void assertSameContent( final Map< Integer, Float > expected, final RefFloatArrayMap< TestObject > map, final RefFloatHashMap< TestObject > hashMap )
+	{
+		assertEquals( expected.size(), map.size() );
+		assertEquals( expected.size(), hashMap.size() );
+		final TObjectFloatIterator< TestObject > it = map.iterator();
+		int previous = -1;
+		while ( it.hasNext() )
+		{
+			it.advance();
+			final int id = it.key().getInternalPoolIndex();
+			assertTrue( "Iteration should be in ascending index order.", id > previous );
+			previous = id;
+			assertEquals( expected.get( id ), it.value(), 0 );
+			assertEquals( hashMap.get( it.key() ), it.value(), 0 );
+		}
+	}
+
+	@Test
+	public void testAgainstHashMap()
+	{
+		// small initial capacity, to exercise growing
+		final RefFloatArrayMap< TestObject > map = new RefFloatArrayMap<>( pool, NO_ENTRY_VALUE, 4 );
+		final RefFloatHashMap< TestObject > hashMap = new RefFloatHashMap<>( pool, NO_ENTRY_VALUE );
+		final Map< Integer, Float > expected = new HashMap<>();
+		final Random random = new Random( 1l );
+		for ( int i = 0; i < 2000; i++ )
+		{
+			final TestObject key = objs.get( random.nextInt( N ) );
+			switch ( random.nextInt( 4 ) )
+			{
+			case 0:
+				assertEquals( hashMap.remove( key ), map.remove( key ), 0 );
+				expected.remove( key.getInternalPoolIndex() );
+				break;
+			case 1:
+				assertEquals( hashMap.adjustOrPutValue( key, 1f, 2f ), map.adjustOrPutValue( key, 1f, 2f ), 0 );
+				expected.put( key.getInternalPoolIndex(), hashMap.get( key ) );
+				break;
+			default:
+				final float value = random.nextFloat();
+				assertEquals( hashMap.put( key, value ), map.put( key, value ), 0 );
+				expected.put( key.getInternalPoolIndex(), value );
+			}
+			assertEquals( hashMap.containsKey( key ), map.containsKey( key ) );
+			assertEquals( hashMap.get( key ), map.get( key ), 0 );
+		}
+		assertSameContent( expected, map, hashMap );
+		assertEquals( expected.size(), map.keySet().size() );
+		assertEquals( expected.size(), map.values().length );
+
+		// remove entries with value < 0.5 through the iterator
+		final TObjectFloatIterator< TestObject > it = map.iterator();
+		while ( it.hasNext() )
+		{
+			it.advance();
+			if ( it.value() < 0.5f )
+				it.remove();
+		}
+		hashMap.retainEntries( ( key, value ) -> value >= 0.5f );
+		expected.values().removeIf( value -> value < 0.5f );
+		assertSameContent( expected, map, hashMap );
+
+		map.clear();
+		assertTrue( map.isEmpty() );
+		assertFalse( map.containsKey( objs.get( 0 ) ) );
+		assertEquals( NO_ENTRY_VALUE, map.get( objs.get( 0 ) ), 0 );
+	}
+
+	@Test
+	public void testPropertyMapUndo()
+	{
+		final FloatPropertyMap< TestObject > property = new FloatPropertyMap<>( pool, new RefFloatArrayMap<>( pool, Float.NEGATIVE_INFINITY ) );
+		final PropertyUndoRedoStack< TestObject > undo = property.createUndoRedoStack();
+		final TestObject obj = objs.get( 3 );
+
+		undo.record( obj );
+		property.set( obj, 1f );
+		undo.record( obj );
+		property.set( obj, 2f );
+		assertEquals( 2f, property.getFloat( obj ), 0 );
+
+		undo.undo( obj );
+		assertEquals( 1f, property.getFloat( obj ), 0 );
+		undo.undo( obj );
+		assertFalse( property.isSet( obj ) );
+		undo.redo( obj );
+		assertEquals( 1f, property.getFloat( obj ), 0 );
+		undo.redo( obj );
+		assertEquals( 2f, property.getFloat( obj ), 0 );
+	}
+}
@@ -28,9 +28,11 @@
  */
 package org.mastodon.collection.ref;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
@@ -632,4 +634,27 @@ public class RefIntHashMapTest
 		assertTrue( "Procedure should have changed the map.", changed );
 		assertEquals( "After procedure filtering, the map has not the expcted size.", 1, map.size() );
 	}
+
+	@Test
+	public void testBatch()
+	{
+		final int[] inIds = new int[ ins.size() ];
+		for ( int i = 0; i < inIds.length; i++ )
+			inIds[ i ] = ins.get( i ).getInternalPoolIndex();
+		assertArrayEquals( values, map.getAll( inIds, null ) );
+
+		final int[] notInIds = new int[ notIns.size() ];
+		for ( int i = 0; i < notInIds.length; i++ )
+			notInIds[ i ] = notIns.get( i ).getInternalPoolIndex();
+		final int[] out = new int[ notInIds.length + 1 ];
+		assertSame( out, map.getAll( notInIds, out ) );
+		for ( int i = 0; i < notInIds.length; i++ )
+			assertEquals( noEntryValue, out[ i ] );
+
+		final int[] newValues = new int[] { 1, 2, 3 };
+		map.putAll( notInIds, newValues );
+		assertEquals( ins.size() + notIns.size(), map.size() );
+		for ( int i = 0; i < notIns.size(); i++ )
+			assertEquals( newValues[ i ], map.get( notIns.get( i ) ) );
+	}
 }
@@ -0,0 +1,214 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mastodon.collection.ref.RefObjectCache.EvictionPolicy;
+import org.mastodon.pool.TestObject;
+import org.mastodon.pool.TestObjectPool;
+import org.mastodon.properties.ObjPropertyMap;
+
+public class RefObjectCacheTest
+{
+	private static final int N = 100;
+
+	private TestObjectPool pool;
+
+	private ArrayList< TestObject > objs;
+
+	@Before
+	public void setUp()
+	{
+		pool = new TestObjectPool( N );
+		objs = new ArrayList<>( N );
+		for ( int i = 0; i < N; i++ )
+			objs.add( pool.create( pool.createRef() ).init( i ) );
+	}
+
+	@Test
+	public void testLRU()
+	{
+		final RefObjectCache< TestObject, String > cache = new RefObjectCache<>( pool, 3 );
+		cache.put( objs.get( 0 ), "a" );
+		cache.put( objs.get( 1 ), "b" );
+		cache.put( objs.get( 2 ), "c" );
+		assertEquals( "a", cache.get( objs.get( 0 ) ) ); // 1 is now least recently used
+		cache.put( objs.get( 3 ), "d" );
+		assertEquals( 3, cache.size() );
+		assertFalse( cache.containsKey( objs.get( 1 ) ) );
+		assertTrue( cache.containsKey( objs.get( 0 ) ) );
+		assertTrue( cache.containsKey( objs.get( 2 ) ) );
+		assertTrue( cache.containsKey( objs.get( 3 ) ) );
+		assertEquals( 1, cache.evictionCount() );
+
+		// replacing a value counts as use
+		assertEquals( "c", cache.put( objs.get( 2 ), "cc" ) );
+		cache.put( objs.get( 4 ), "e" );
+		assertFalse( cache.containsKey( objs.get( 0 ) ) );
+		assertEquals( "cc", cache.get( objs.get( 2 ) ) );
+	}
+
+	@Test
+	public void testClock()
+	{
+		final RefObjectCache< TestObject, String > cache = new RefObjectCache<>( pool, 3, v -> 1, EvictionPolicy.CLOCK );
+		cache.put( objs.get( 0 ), "a" );
+		cache.put( objs.get( 1 ), "b" );
+		cache.put( objs.get( 2 ), "c" );
+		// first eviction sweeps once, clearing all reference bits, then evicts 0
+		cache.put( objs.get( 3 ), "d" );
+		assertFalse( cache.containsKey( objs.get( 0 ) ) );
+		// 1 gets a second chance
+		cache.get( objs.get( 1 ) );
+		cache.put( objs.get( 4 ), "e" );
+		assertTrue( cache.containsKey( objs.get( 1 ) ) );
+		assertFalse( cache.containsKey( objs.get( 2 ) ) );
+		assertEquals( 3, cache.size() );
+		assertEquals( 2, cache.evictionCount() );
+	}
+
+	@Test
+	public void testRandomAccessStaysBounded()
+	{
+		for ( final EvictionPolicy policy : EvictionPolicy.values() )
+		{
+			final RefObjectCache< TestObject, int[] > cache = new RefObjectCache<>( pool, 400, v -> v.length, policy );
+			final Random random = new Random( 1l );
+			for ( int i = 0; i < 10000; i++ )
+			{
+				final TestObject key = objs.get( random.nextInt( N ) );
+				final int[] value = cache.get( key, k -> new int[ 1 + k.getId() % 20 ] );
+				assertEquals( 1 + key.getId() % 20, value.length );
+				assertTrue( cache.weight() <= 400 );
+			}
+			assertEquals( 10000, cache.hitCount() + cache.missCount() );
+			assertEquals( cache.missCount(), cache.size() + cache.evictionCount() );
+			long weight = 0;
+			for ( final TestObject key : objs )
+				if ( cache.containsKey( key ) )
+					weight += 1 + key.getId() % 20;
+			assertEquals( weight, cache.weight() );
+
+			cache.resetStats();
+			cache.invalidateAll();
+			assertEquals( 0, cache.size() );
+			assertEquals( 0, cache.weight() );
+			assertEquals( 0, cache.hitCount() );
+		}
+	}
+
+	@Test
+	public void testOverweightValueIsRejected()
+	{
+		for ( final EvictionPolicy policy : EvictionPolicy.values() )
+		{
+			final RefObjectCache< TestObject, int[] > cache = new RefObjectCache<>( pool, 10, v -> v.length, policy );
+			final int[] previous = new int[ 2 ];
+			cache.put( objs.get( 0 ), new int[ 5 ] );
+			cache.put( objs.get( 1 ), new int[ 3 ] );
+			cache.put( objs.get( 2 ), previous );
+
+			// other entries survive, the previous entry for the key is removed
+			assertNull( cache.put( objs.get( 3 ), new int[ 11 ] ) );
+			assertSame( previous, cache.put( objs.get( 2 ), new int[ 11 ] ) );
+			assertEquals( 2, cache.size() );
+			assertEquals( 8, cache.weight() );
+			assertTrue( cache.containsKey( objs.get( 0 ) ) );
+			assertTrue( cache.containsKey( objs.get( 1 ) ) );
+			assertFalse( cache.containsKey( objs.get( 2 ) ) );
+			assertFalse( cache.containsKey( objs.get( 3 ) ) );
+			assertEquals( 0, cache.evictionCount() );
+		}
+	}
+
+	@Test
+	public void testInvalidation()
+	{
+		final ObjPropertyMap< TestObject, String > property = new ObjPropertyMap<>( pool );
+		final RefObjectCache< TestObject, String > cache = new RefObjectCache<>( pool, 10 );
+		cache.listenTo( property );
+		cache.put( objs.get( 0 ), "a" );
+		cache.put( objs.get( 1 ), "b" );
+		cache.put( objs.get( 2 ), "c" );
+
+		property.set( objs.get( 0 ), "x" );
+		assertNull( cache.get( objs.get( 0 ) ) );
+		assertEquals( "b", cache.get( objs.get( 1 ) ) );
+
+		cache.beforeDeleteObject( objs.get( 1 ) );
+		assertFalse( cache.containsKey( objs.get( 1 ) ) );
+
+		assertTrue( cache.invalidate( objs.get( 2 ) ) );
+		assertFalse( cache.invalidate( objs.get( 2 ) ) );
+		assertEquals( 0, cache.size() );
+		assertEquals( 0, cache.evictionCount() );
+
+		cache.stopListeningTo( property );
+		cache.put( objs.get( 0 ), "a" );
+		property.set( objs.get( 0 ), "y" );
+		assertEquals( "a", cache.get( objs.get( 0 ) ) );
+	}
+	@Test
+	public void testPoolDeletion()
+	{
+		final RefObjectCache< TestObject, String > cache = new RefObjectCache<>( pool, 10 );
+		assertTrue( cache.isRegisteredWithPool() );
+		final TestObject obj = objs.get( 3 );
+		final int id = obj.getInternalPoolIndex();
+		cache.put( obj, "a" );
+		cache.put( objs.get( 4 ), "b" );
+
+		// the new object reuses the pool index of the deleted one
+		pool.delete( obj );
+		final TestObject reused = pool.create( pool.createRef() ).init( 1000 );
+		assertEquals( id, reused.getInternalPoolIndex() );
+		assertNull( cache.get( reused ) );
+		assertEquals( "b", cache.get( objs.get( 4 ) ) );
+
+		pool.clear();
+		assertEquals( 0, cache.size() );
+
+		cache.release();
+		assertFalse( cache.isRegisteredWithPool() );
+		final TestObject other = pool.create( pool.createRef() ).init( 1 );
+		cache.put( other, "c" );
+		pool.delete( other );
+		assertEquals( 1, cache.size() );
+	}
+}
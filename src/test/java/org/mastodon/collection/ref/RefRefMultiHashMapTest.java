@@ -0,0 +1,166 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mastodon.collection.RefRefMultiMap;
+import org.mastodon.pool.TestObject;
+import org.mastodon.pool.TestObjectPool;
+
+public class RefRefMultiHashMapTest
+{
+	private static final int N = 200;
+
+	private TestObjectPool pool;
+
+	private ArrayList< TestObject > objs;
+
+	private RefRefMultiHashMap< TestObject, TestObject > map;
+
+	private Map< Integer, List< Integer > > expected;
+
+	@Before
+	public void setUp()
+	{
+		pool = new TestObjectPool( N );
+		objs = new ArrayList<>( N );
+		for ( int i = 0; i < N; i++ )
+			objs.add( pool.create( pool.createRef() ).init( i ) );
+
+		map = new RefRefMultiHashMap<>( pool, pool );
+		expected = new HashMap<>();
+		final Random random = new Random( 1l );
+		for ( int i = 0; i < 1000; i++ )
+		{
+			final int key = random.nextInt( N / 2 );
+			final int value = random.nextInt( N );
+			map.put( objs.get( key ), objs.get( value ) );
+			expected.computeIfAbsent( key, k -> new ArrayList<>() ).add( value );
+		}
+	}
+
+	private void assertContent( final RefRefMultiMap< TestObject, TestObject > actual )
+	{
+		int numValues = 0;
+		for ( final List< Integer > values : expected.values() )
+			numValues += values.size();
+		assertEquals( expected.size(), actual.size() );
+		assertEquals( numValues, actual.numValues() );
+		assertEquals( expected.size(), actual.keySet().size() );
+
+		final TestObject ref = actual.createValueRef();
+		for ( final TestObject key : objs )
+		{
+			final List< Integer > values = expected.get( key.getId() );
+			assertEquals( values != null, actual.containsKey( key ) );
+			final int n = actual.count( key );
+			assertEquals( values == null ? 0 : values.size(), n );
+			for ( int i = 0; i < n; i++ )
+				assertEquals( values.get( i ).intValue(), actual.get( key, i, ref ).getId() );
+			if ( values != null )
+			{
+				assertTrue( actual.keySet().contains( key ) );
+				for ( final TestObject value : objs )
+					assertEquals( values.contains( value.getId() ), actual.containsEntry( key, value ) );
+			}
+		}
+		actual.releaseValueRef( ref );
+	}
+
+	@Test
+	public void testPutGet()
+	{
+		assertContent( map );
+	}
+
+	@Test
+	public void testRemove()
+	{
+		final TestObject key = objs.get( 0 );
+		final List< Integer > values = expected.get( 0 );
+		final int first = values.get( 0 );
+		assertTrue( map.remove( key, objs.get( first ) ) );
+		values.remove( Integer.valueOf( first ) );
+		assertContent( map );
+
+		assertEquals( expected.get( 1 ).size(), map.removeAll( objs.get( 1 ) ) );
+		expected.remove( 1 );
+		assertEquals( 0, map.removeAll( objs.get( 1 ) ) );
+		assertContent( map );
+
+		// removing the last value removes the key
+		final TestObject single = objs.get( N - 1 );
+		map.put( single, key );
+		assertTrue( map.containsKey( single ) );
+		assertTrue( map.remove( single, key ) );
+		assertFalse( map.containsKey( single ) );
+		assertFalse( map.remove( single, key ) );
+
+		map.clear();
+		expected.clear();
+		assertTrue( map.isEmpty() );
+		assertContent( map );
+	}
+
+	@Test
+	public void testFreeze()
+	{
+		final FrozenRefRefMultiMap< TestObject, TestObject > frozen = map.freeze();
+		assertContent( frozen );
+		assertEquals( 4l * ( frozen.size() + frozen.size() + 1 + frozen.numValues() ), frozen.getSizeInBytes() );
+
+		// the frozen map is a copy
+		map.clear();
+		assertContent( frozen );
+	}
+
+	@Test( expected = IndexOutOfBoundsException.class )
+	public void testGetOutOfBounds()
+	{
+		final TestObject key = objs.get( 0 );
+		map.freeze().get( key, map.count( key ), pool.createRef() );
+	}
+
+	@Test( expected = UnsupportedOperationException.class )
+	public void testFrozenPutUnsupported()
+	{
+		map.freeze().put( objs.get( 0 ), objs.get( 1 ) );
+	}
+}
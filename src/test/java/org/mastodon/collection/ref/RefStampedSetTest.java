@@ -0,0 +1,153 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mastodon.collection.RefCollections;
+import org.mastodon.collection.RefMaps;
+import org.mastodon.pool.TestObject;
+import org.mastodon.pool.TestObjectPool;
+
+public class RefStampedSetTest
+{
+	private static final int N = 500;
+
+	private TestObjectPool pool;
+
+	private ArrayList< TestObject > objs;
+
+	@Before
+	public void setUp()
+	{
+		pool = new TestObjectPool( N );
+		objs = new ArrayList<>( N );
+		for ( int i = 0; i < N; i++ )
+			objs.add( pool.create( pool.createRef() ).init( i ) );
+	}
+
+	private static Set< Integer > ids( final Iterable< TestObject > objs )
+	{
+		final Set< Integer > ids = new HashSet<>();
+		for ( final TestObject o : objs )
+			assertTrue( "Iteration should not return duplicates.", ids.add( o.getId() ) );
+		return ids;
+	}
+
+	@Test
+	public void testAddRemoveClear()
+	{
+		// small initial capacity, to exercise growing
+		final RefStampedSet< TestObject > set = new RefStampedSet<>( pool, 2 );
+		final Set< Integer > expected = new HashSet<>();
+		final Random random = new Random( 1l );
+		for ( int round = 0; round < 20; round++ )
+		{
+			for ( int step = 0; step < 300; step++ )
+			{
+				final TestObject o = objs.get( random.nextInt( N ) );
+				if ( random.nextInt( 3 ) == 0 )
+					assertEquals( "Unexpected result of remove().", expected.remove( o.getId() ), set.remove( o ) );
+				else
+					assertEquals( "Unexpected result of add().", expected.add( o.getId() ), set.add( o ) );
+			}
+			assertEquals( "Unexpected size.", expected.size(), set.size() );
+			assertEquals( "Unexpected elements.", expected, ids( set ) );
+			for ( final TestObject o : objs )
+				assertEquals( "Unexpected result of contains().", expected.contains( o.getId() ), set.contains( o ) );
+
+			set.clear();
+			expected.clear();
+			assertTrue( "Set should be empty after clear().", set.isEmpty() );
+			assertFalse( "Set should be empty after clear().", set.contains( objs.get( 0 ) ) );
+		}
+	}
+
+	@Test
+	public void testIteratorRemove()
+	{
+		final RefStampedSet< TestObject > set = new RefStampedSet<>( pool );
+		set.addAll( objs );
+		final Iterator< TestObject > it = set.iterator();
+		int visited = 0;
+		while ( it.hasNext() )
+		{
+			++visited;
+			if ( it.next().getId() % 3 == 0 )
+				it.remove();
+		}
+		assertEquals( "Iterator should visit every element once.", N, visited );
+		for ( final TestObject o : objs )
+			assertEquals( "Unexpected element.", o.getId() % 3 != 0, set.contains( o ) );
+	}
+
+	@Test
+	public void testIntStampedMap()
+	{
+		final RefIntStampedMap< TestObject > map = new RefIntStampedMap<>( pool, -1, 4 );
+		for ( int round = 0; round < 3; round++ )
+		{
+			for ( final TestObject o : objs )
+				if ( o.getId() % 2 == round % 2 )
+					assertEquals( "Key should be new after clear().", -1, map.put( o, o.getId() + round ) );
+			assertEquals( "Unexpected size.", N / 2, map.size() );
+			for ( final TestObject o : objs )
+			{
+				final boolean in = o.getId() % 2 == round % 2;
+				assertEquals( "Unexpected result of containsKey().", in, map.containsKey( o ) );
+				assertEquals( "Unexpected value.", in ? o.getId() + round : -1, map.get( o ) );
+			}
+			assertTrue( "adjustValue() should succeed for contained key.", map.adjustValue( objs.get( round ), 10 ) );
+			assertEquals( "Unexpected adjusted value.", round + round + 10, map.get( objs.get( round ) ) );
+			assertEquals( "Unexpected removed value.", round + round + 10, map.remove( objs.get( round ) ) );
+			assertFalse( "Removed key should not be contained.", map.containsKey( objs.get( round ) ) );
+			map.clear();
+			assertTrue( "Map should be empty after clear().", map.isEmpty() );
+		}
+	}
+
+	@Test
+	public void testFactories()
+	{
+		assertTrue( "Expected a stamped set for a pool-backed collection.",
+				RefCollections.createRefStampedSet( pool.asRefCollection() ) instanceof RefStampedSet );
+		assertTrue( "Expected a stamped map for a pool-backed collection.",
+				RefMaps.createRefIntStampedMap( pool.asRefCollection(), -1 ) instanceof RefIntStampedMap );
+	}
+}
@@ -0,0 +1,166 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.kdtree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mastodon.kdtree.KDTreeTestUtils.createPoints;
+import static org.mastodon.kdtree.KDTreeTestUtils.randomQuery;
+import static org.mastodon.kdtree.KDTreeTestUtils.sortedSquDistances;
+import static org.mastodon.kdtree.KDTreeTestUtils.squDistance;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mastodon.collection.ref.RefArrayList;
+
+import gnu.trove.set.hash.TIntHashSet;
+import net.imglib2.RealLocalizable;
+
+public class BucketKDTreeTest
+{
+	private static final int NUM_POINTS = 5000;
+
+	private static final int NUM_QUERIES = 200;
+
+	private RealPointPool pool;
+
+	private RefArrayList< RealPoint > points;
+
+	private Random rnd;
+
+	@Before
+	public void setUp()
+	{
+		pool = new RealPointPool( 3, NUM_POINTS );
+		rnd = new Random( 1234 );
+		points = createPoints( pool, NUM_POINTS, () -> rnd.nextDouble() * 10 - 5 );
+	}
+
+	@Test
+	public void testStructure()
+	{
+		for ( final int bucketSize : new int[] { 1, 16, 64 } )
+		{
+			final BucketKDTree< RealPoint > kdtree = BucketKDTree.kdtree( points, pool, bucketSize );
+			assertEquals( NUM_POINTS, kdtree.size() );
+			assertTrue( kdtree.numNodes() < 4 * NUM_POINTS / bucketSize );
+
+			final int[] dataIndices = kdtree.getDataIndices();
+			final TIntHashSet indices = new TIntHashSet( dataIndices );
+			assertEquals( NUM_POINTS, indices.size() );
+
+			final RealPoint ref = pool.createRef();
+			for ( int i = 0; i < NUM_POINTS; ++i )
+			{
+				pool.getObject( dataIndices[ i ], ref );
+				for ( int d = 0; d < 3; ++d )
+					assertEquals( ref.getDoublePosition( d ), kdtree.getCoords()[ d ][ i ], 0 );
+			}
+			pool.releaseRef( ref );
+
+			for ( int node = 0; node < kdtree.numNodes(); ++node )
+			{
+				final int sd = kdtree.getSplitDims()[ node ];
+				if ( sd < 0 )
+					assertTrue( kdtree.getEnds()[ node ] - kdtree.getStarts()[ node ] <= bucketSize );
+				else
+				{
+					final double split = kdtree.getSplitValues()[ node ];
+					final int right = kdtree.getRightChildren()[ node ];
+					for ( int i = kdtree.getStarts()[ node + 1 ]; i < kdtree.getEnds()[ node + 1 ]; ++i )
+						assertTrue( kdtree.getCoords()[ sd ][ i ] <= split );
+					for ( int i = kdtree.getStarts()[ right ]; i < kdtree.getEnds()[ right ]; ++i )
+						assertTrue( kdtree.getCoords()[ sd ][ i ] >= split );
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testNearestNeighbor()
+	{
+		for ( final int bucketSize : new int[] { 1, 16, 64 } )
+		{
+			final BucketKDTree< RealPoint > kdtree = BucketKDTree.kdtree( points, pool, bucketSize );
+			final BucketKDTreeSearch< RealPoint > search = new BucketKDTreeSearch<>( kdtree );
+			final RealPoint ref = pool.createRef();
+			for ( int i = 0; i < NUM_QUERIES; ++i )
+			{
+				final RealLocalizable q = randomQuery( rnd, 6 );
+				final int dataIndex = search.nearestNeighbor( q );
+				assertEquals( sortedSquDistances( q, points )[ 0 ], search.getSquareDistance(), 0 );
+				assertEquals( squDistance( q, pool.getObject( dataIndex, ref ) ), search.getSquareDistance(), 0 );
+			}
+			pool.releaseRef( ref );
+		}
+	}
+
+	@Test
+	public void testKNearestNeighbors()
+	{
+		final int k = 10;
+		final BucketKDTree< RealPoint > kdtree = BucketKDTree.kdtree( points, pool );
+		final BucketKDTreeSearch< RealPoint > search = new BucketKDTreeSearch<>( kdtree );
+		final int[] dataIndices = new int[ k ];
+		final double[] squDistances = new double[ k ];
+		final RealPoint ref = pool.createRef();
+		for ( int i = 0; i < NUM_QUERIES; ++i )
+		{
+			final RealLocalizable q = randomQuery( rnd, 6 );
+			assertEquals( k, search.kNearestNeighbors( q, k, dataIndices, squDistances ) );
+			final double[] expected = sortedSquDistances( q, points );
+			for ( int j = 0; j < k; ++j )
+			{
+				assertEquals( expected[ j ], squDistances[ j ], 0 );
+				assertEquals( squDistance( q, pool.getObject( dataIndices[ j ], ref ) ), squDistances[ j ], 0 );
+			}
+		}
+		pool.releaseRef( ref );
+	}
+
+	@Test
+	public void testEmpty()
+	{
+		pool.clear();
+		points.clear();
+		final BucketKDTree< RealPoint > kdtree = BucketKDTree.kdtree( points, pool );
+		final BucketKDTreeSearch< RealPoint > search = new BucketKDTreeSearch<>( kdtree );
+		assertEquals( -1, search.nearestNeighbor( randomQuery( rnd, 6 ) ) );
+		assertEquals( Double.POSITIVE_INFINITY, search.getSquareDistance(), 0 );
+		assertEquals( 0, search.kNearestNeighbors( randomQuery( rnd, 6 ), 3, new int[ 3 ], null ) );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testIllegalBucketSize()
+	{
+		BucketKDTree.kdtree( points, pool, 0 );
+	}
+}
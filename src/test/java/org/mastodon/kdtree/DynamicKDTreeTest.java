@@ -0,0 +1,199 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.kdtree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mastodon.collection.ref.RefArrayList;
+import org.mastodon.collection.ref.RefSetImp;
+
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.set.hash.TIntHashSet;
+import net.imglib2.RealLocalizable;
+import net.imglib2.algorithm.kdtree.ConvexPolytope;
+import net.imglib2.algorithm.kdtree.HyperPlane;
+import net.imglib2.util.Util;
+
+public class DynamicKDTreeTest
+{
+	private static final int NUM_POINTS = 3000;
+
+	private RealPointPool pool;
+
+	private RefArrayList< RealPoint > points;
+
+	private Random rnd;
+
+	@Before
+	public void createPoints()
+	{
+		pool = new RealPointPool( 3, NUM_POINTS );
+		points = new RefArrayList<>( pool, NUM_POINTS );
+		rnd = new Random( 2718 );
+		final RealPoint vertex = pool.createRef();
+		final double[] p = new double[ 3 ];
+		for ( int i = 0; i < NUM_POINTS; ++i )
+		{
+			for ( int d = 0; d < 3; ++d )
+				p[ d ] = rnd.nextDouble() * 10 - 5;
+			pool.create( vertex );
+			vertex.setPosition( p );
+			points.add( vertex );
+		}
+		pool.releaseRef( vertex );
+	}
+
+	@Test
+	public void testAddRemove()
+	{
+		final DynamicKDTree< RealPoint > index = new DynamicKDTree<>( pool );
+		final RefSetImp< RealPoint > truth = new RefSetImp<>( pool );
+		final RealPoint ref = pool.createRef();
+		assertNull( index.nearestNeighbor( points.get( 0 ), ref ) );
+		for ( int step = 0; step < 8000; ++step )
+		{
+			final RealPoint p = points.get( rnd.nextInt( NUM_POINTS ), ref );
+			if ( rnd.nextInt( 3 ) == 0 )
+				assertEquals( truth.remove( p ), index.remove( p ) );
+			else
+				assertEquals( truth.add( p ), index.add( p ) );
+			assertEquals( truth.size(), index.size() );
+			if ( step % 500 == 0 )
+				checkQueries( index, truth );
+		}
+		for ( final RealPoint p : points )
+			assertEquals( truth.contains( p ), index.contains( p ) );
+		checkQueries( index, truth );
+
+		// remove everything
+		for ( final RealPoint p : points )
+			index.remove( p );
+		assertTrue( index.isEmpty() );
+		assertEquals( 0, index.kNearestNeighbors( points.get( 0 ), 3, null, null ) );
+		pool.releaseRef( ref );
+	}
+
+	@Test
+	public void testBulkConstruction()
+	{
+		final DynamicKDTree< RealPoint > index = new DynamicKDTree<>( points, pool );
+		assertEquals( NUM_POINTS, index.size() );
+		assertFalse( index.add( points.get( 5 ) ) );
+		final RefSetImp< RealPoint > truth = new RefSetImp<>( pool );
+		truth.addAll( points );
+		for ( int i = 0; i < NUM_POINTS; i += 3 )
+		{
+			index.remove( points.get( i ) );
+			truth.remove( points.get( i ) );
+		}
+		checkQueries( index, truth );
+		index.clear();
+		assertEquals( 0, index.size() );
+	}
+
+	private void checkQueries( final DynamicKDTree< RealPoint > index, final RefSetImp< RealPoint > truth )
+	{
+		final int k = 5;
+		final int[] indices = new int[ k ];
+		final double[] squDistances = new double[ k ];
+		final RefArrayList< RealPoint > sorted = new RefArrayList<>( pool );
+		final RealPoint ref = pool.createRef();
+		for ( int q = 0; q < 20; ++q )
+		{
+			final net.imglib2.RealPoint query = new net.imglib2.RealPoint( rnd.nextDouble() * 12 - 6, rnd.nextDouble() * 12 - 6, rnd.nextDouble() * 12 - 6 );
+			sorted.resetQuick();
+			sorted.addAll( truth );
+			sorted.sort( ( p1, p2 ) -> Double.compare( Util.distance( query, p1 ), Util.distance( query, p2 ) ) );
+
+			// k nearest neighbors
+			final int found = index.kNearestNeighbors( query, k, indices, squDistances );
+			assertEquals( Math.min( k, truth.size() ), found );
+			for ( int i = 0; i < found; ++i )
+				assertEquals( sorted.get( i ).getInternalPoolIndex(), indices[ i ] );
+			if ( !truth.isEmpty() )
+				assertEquals( sorted.get( 0 ), index.nearestNeighbor( query, ref ) );
+
+			// scratch state is reused for a different k
+			final int found2 = index.kNearestNeighbors( query, 2, indices, null );
+			assertEquals( Math.min( 2, truth.size() ), found2 );
+			for ( int i = 0; i < found2; ++i )
+				assertEquals( sorted.get( i ).getInternalPoolIndex(), indices[ i ] );
+
+			// radius
+			final double radius = rnd.nextDouble() * 3;
+			final TIntArrayList radiusIndices = new TIntArrayList();
+			final TDoubleArrayList radiusDistances = new TDoubleArrayList();
+			final int inRadius = index.radiusNeighbors( query, radius, radiusIndices, radiusDistances );
+			final TIntHashSet expected = new TIntHashSet();
+			for ( final RealPoint p : truth )
+				if ( Util.distance( query, p ) <= radius )
+					expected.add( p.getInternalPoolIndex() );
+			assertEquals( expected.size(), inRadius );
+			assertEquals( expected, new TIntHashSet( radiusIndices ) );
+			for ( int i = 0; i < inRadius; ++i )
+				assertEquals( Util.distance( query, pool.getObject( radiusIndices.get( i ), ref ) ), Math.sqrt( radiusDistances.get( i ) ), 1e-10 );
+
+			// clip with an axis-aligned box around the query
+			final ConvexPolytope box = new ConvexPolytope( Arrays.asList(
+					new HyperPlane( new double[] { 1, 0, 0 }, query.getDoublePosition( 0 ) - 1 ),
+					new HyperPlane( new double[] { -1, 0, 0 }, -query.getDoublePosition( 0 ) - 1 ),
+					new HyperPlane( new double[] { 0, 1, 0 }, query.getDoublePosition( 1 ) - 2 ),
+					new HyperPlane( new double[] { 0, -1, 0 }, -query.getDoublePosition( 1 ) - 2 ),
+					new HyperPlane( new double[] { 0, 0, 1 }, query.getDoublePosition( 2 ) - 1 ),
+					new HyperPlane( new double[] { 0, 0, -1 }, -query.getDoublePosition( 2 ) - 1 ) ) );
+			final RefSetImp< RealPoint > inside = new RefSetImp<>( pool );
+			index.clip( box, inside );
+			final RefSetImp< RealPoint > expectedInside = new RefSetImp<>( pool );
+			for ( final RealPoint p : truth )
+				if ( inBox( p, query ) )
+					expectedInside.add( p );
+			assertEquals( expectedInside.size(), inside.size() );
+			assertTrue( inside.containsAll( expectedInside ) );
+		}
+		pool.releaseRef( ref );
+	}
+
+	private static boolean inBox( final RealPoint p, final RealLocalizable center )
+	{
+		final double[] halfSize = { 1, 2, 1 };
+		for ( int d = 0; d < 3; ++d )
+			if ( Math.abs( p.getDoublePosition( d ) - center.getDoublePosition( d ) ) > halfSize[ d ] )
+				return false;
+		return true;
+	}
+}
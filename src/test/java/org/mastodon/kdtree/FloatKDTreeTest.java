@@ -0,0 +1,220 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.kdtree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mastodon.kdtree.KDTreeTestUtils.createPoints;
+import static org.mastodon.kdtree.KDTreeTestUtils.randomQuery;
+import static org.mastodon.kdtree.KDTreeTestUtils.sortedSquDistances;
+import static org.mastodon.kdtree.KDTreeTestUtils.squDistance;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mastodon.collection.ref.RefArrayList;
+
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.set.hash.TIntHashSet;
+import net.imglib2.RealLocalizable;
+import net.imglib2.algorithm.kdtree.ConvexPolytope;
+import net.imglib2.algorithm.kdtree.HyperPlane;
+
+public class FloatKDTreeTest
+{
+	private static final int NUM_POINTS = 5000;
+
+	private static final int NUM_QUERIES = 200;
+
+	private static final double EPSILON = 1e-4;
+
+	private RealPointPool pool;
+
+	private RefArrayList< RealPoint > points;
+
+	private Random rnd;
+
+	@Before
+	public void setUp()
+	{
+		pool = new RealPointPool( 3, NUM_POINTS );
+		rnd = new Random( 4711 );
+		// coordinates that are exactly representable as float
+		points = createPoints( pool, NUM_POINTS, () -> rnd.nextInt( 1 << 14 ) / 1024.0 - 8 );
+	}
+
+	@Test
+	public void testLayout()
+	{
+		final FloatKDTree< RealPoint > kdtree = FloatKDTree.kdtree( points, pool );
+		assertEquals( NUM_POINTS, kdtree.size() );
+		assertEquals( 16L * NUM_POINTS, kdtree.getSizeInBytes() );
+
+		final TIntHashSet indices = new TIntHashSet();
+		final RealPoint ref = pool.createRef();
+		for ( int k = 0; k < kdtree.size(); ++k )
+		{
+			final int dataIndex = kdtree.getDataIndex( k );
+			indices.add( dataIndex );
+			pool.getObject( dataIndex, ref );
+			for ( int d = 0; d < 3; ++d )
+				assertEquals( ref.getDoublePosition( d ), kdtree.getFloatPosition( k, d ), 0 );
+		}
+		pool.releaseRef( ref );
+		assertEquals( NUM_POINTS, indices.size() );
+	}
+
+	@Test
+	public void testNearestNeighbor()
+	{
+		final FloatKDTree< RealPoint > kdtree = FloatKDTree.kdtree( points, pool );
+		final FloatKDTreeSearch< RealPoint > search = new FloatKDTreeSearch<>( kdtree, true );
+		final RealPoint ref = pool.createRef();
+		for ( int i = 0; i < NUM_QUERIES; ++i )
+		{
+			final RealLocalizable q = randomQuery( rnd, 9 );
+			final int dataIndex = search.nearestNeighbor( q );
+			final double expected = sortedSquDistances( q, points )[ 0 ];
+			assertEquals( expected, search.getSquareDistance(), EPSILON );
+			assertEquals( squDistance( q, pool.getObject( dataIndex, ref ) ), search.getSquareDistance(), 0 );
+		}
+		pool.releaseRef( ref );
+	}
+
+	@Test
+	public void testKNearestNeighbors()
+	{
+		final int k = 10;
+		final FloatKDTree< RealPoint > kdtree = FloatKDTree.kdtree( points, pool );
+		final FloatKDTreeSearch< RealPoint > search = new FloatKDTreeSearch<>( kdtree, true );
+		final int[] dataIndices = new int[ k ];
+		final double[] squDistances = new double[ k ];
+		for ( int i = 0; i < NUM_QUERIES; ++i )
+		{
+			final RealLocalizable q = randomQuery( rnd, 9 );
+			assertEquals( k, search.kNearestNeighbors( q, k, dataIndices, squDistances ) );
+			final double[] expected = sortedSquDistances( q, points );
+			for ( int j = 0; j < k; ++j )
+				assertEquals( expected[ j ], squDistances[ j ], EPSILON );
+		}
+
+		final FloatKDTreeSearch< RealPoint > unrefined = new FloatKDTreeSearch<>( kdtree );
+		assertEquals( 3, unrefined.kNearestNeighbors( randomQuery( rnd, 9 ), 3, dataIndices, squDistances ) );
+		assertTrue( squDistances[ 0 ] <= squDistances[ 1 ] && squDistances[ 1 ] <= squDistances[ 2 ] );
+	}
+
+	@Test
+	public void testRadiusNeighbors()
+	{
+		final double radius = 1.5;
+		final FloatKDTree< RealPoint > kdtree = FloatKDTree.kdtree( points, pool );
+		final FloatKDTreeSearch< RealPoint > search = new FloatKDTreeSearch<>( kdtree, true );
+		final TIntArrayList dataIndices = new TIntArrayList();
+		final TDoubleArrayList squDistances = new TDoubleArrayList();
+		final RealPoint ref = pool.createRef();
+		for ( int i = 0; i < NUM_QUERIES; ++i )
+		{
+			final RealLocalizable q = randomQuery( rnd, 9 );
+			dataIndices.clear();
+			squDistances.clear();
+			final int found = search.radiusNeighbors( q, radius, dataIndices, squDistances );
+			assertEquals( found, dataIndices.size() );
+			assertEquals( found, squDistances.size() );
+
+			final TIntHashSet result = new TIntHashSet( dataIndices );
+			assertEquals( found, result.size() );
+			for ( int j = 0; j < found; ++j )
+				assertEquals( squDistance( q, pool.getObject( dataIndices.get( j ), ref ) ), squDistances.get( j ), 0 );
+			for ( final RealPoint p : points )
+			{
+				final double d = squDistance( q, p );
+				if ( Math.abs( d - radius * radius ) > EPSILON )
+					assertEquals( d <= radius * radius, result.contains( pool.getId( p ) ) );
+			}
+		}
+
+		// a negative radius finds nothing
+		dataIndices.clear();
+		assertEquals( 0, search.radiusNeighbors( randomQuery( rnd, 9 ), -radius, dataIndices, null ) );
+		assertEquals( 0, dataIndices.size() );
+		pool.releaseRef( ref );
+	}
+
+	@Test
+	public void testClip()
+	{
+		final FloatKDTree< RealPoint > kdtree = FloatKDTree.kdtree( points, pool );
+		final FloatKDTreeSearch< RealPoint > search = new FloatKDTreeSearch<>( kdtree );
+		final ConvexPolytope polytope = new ConvexPolytope(
+				new HyperPlane( new double[] { 1, 0, 0 }, -2 ),
+				new HyperPlane( new double[] { -1, 0, 0 }, -3 ),
+				new HyperPlane( new double[] { 0, 1, 0 }, -1 ),
+				new HyperPlane( new double[] { 0, -1, 0 }, -4 ),
+				new HyperPlane( new double[] { 1, 1, 1 }, -5 ) );
+
+		final TIntArrayList inside = new TIntArrayList();
+		final int found = search.clip( polytope, inside );
+		assertEquals( found, inside.size() );
+
+		final TIntHashSet result = new TIntHashSet( inside );
+		assertEquals( found, result.size() );
+		int expected = 0;
+		for ( final RealPoint p : points )
+		{
+			boolean in = true;
+			for ( final HyperPlane plane : polytope.getHyperplanes() )
+			{
+				double dot = 0;
+				for ( int d = 0; d < 3; ++d )
+					dot += plane.getNormal()[ d ] * p.getDoublePosition( d );
+				in &= dot >= plane.getDistance();
+			}
+			assertEquals( in, result.contains( pool.getId( p ) ) );
+			if ( in )
+				++expected;
+		}
+		assertEquals( expected, found );
+		assertTrue( found > 0 );
+	}
+
+	@Test
+	public void testEmpty()
+	{
+		pool.clear();
+		points.clear();
+		final FloatKDTree< RealPoint > kdtree = FloatKDTree.kdtree( points, pool );
+		final FloatKDTreeSearch< RealPoint > search = new FloatKDTreeSearch<>( kdtree );
+		assertEquals( -1, search.nearestNeighbor( randomQuery( rnd, 9 ) ) );
+		assertEquals( Double.POSITIVE_INFINITY, search.getSquareDistance(), 0 );
+		assertEquals( 0, search.kNearestNeighbors( randomQuery( rnd, 9 ), 3, new int[ 3 ], null ) );
+		assertEquals( 0, search.radiusNeighbors( randomQuery( rnd, 9 ), 1, new TIntArrayList(), null ) );
+	}
+}
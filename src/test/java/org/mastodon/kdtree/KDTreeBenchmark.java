@@ -154,6 +154,47 @@ public class KDTreeBenchmark
 			}
 	}
 
+	public void kNearestNeighborSearch( final int numRuns )
+	{
+		final KNearestNeighborSearchOnKDTree< RealPoint, DoubleMappedElement > kd = new KNearestNeighborSearchOnKDTree<>( kdtree, 10 );
+		for ( int i = 0; i < numRuns; ++i )
+			for ( final RealLocalizable t : testVertices )
+			{
+				kd.search( t );
+				kd.getSampler().get();
+			}
+	}
+
+	private BucketKDTree< RealPoint > bucketKDTree;
+
+	public void createBucketKDTree()
+	{
+		bucketKDTree = BucketKDTree.kdtree( dataVertices, vertexPool );
+	}
+
+	public void nearestNeighborSearchBucket( final int numRuns )
+	{
+		final BucketKDTreeSearch< RealPoint > kd = new BucketKDTreeSearch<>( bucketKDTree );
+		for ( int i = 0; i < numRuns; ++i )
+			for ( final RealLocalizable t : testVertices )
+				kd.nearestNeighbor( t );
+	}
+
+	private LeftBalancedKDTree< RealPoint > leftBalancedKDTree;
+
+	public void createLeftBalancedKDTree()
+	{
+		leftBalancedKDTree = LeftBalancedKDTree.kdtree( dataVertices, vertexPool );
+	}
+
+	public void nearestNeighborSearchLeftBalanced( final int numRuns )
+	{
+		final LeftBalancedKDTreeSearch< RealPoint > kd = new LeftBalancedKDTreeSearch<>( leftBalancedKDTree );
+		for ( int i = 0; i < numRuns; ++i )
+			for ( final RealLocalizable t : testVertices )
+				kd.nearestNeighbor( t );
+	}
+
 	private net.imglib2.KDTree< RealPoint > kdtreeImgLib2;
 
 	public void createKDTreeImgLib2()
@@ -240,6 +281,56 @@ public class KDTreeBenchmark
 			}
 		} );
 
+		System.out.println( "kNearestNeighborSearch() 10 neighbors" );
+		BenchmarkHelper.benchmarkAndPrint( 10, printIndividualTimes, new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				b.kNearestNeighborSearch( 10 );
+			}
+		} );
+
+		System.out.println( "createBucketKDTree()" );
+		BenchmarkHelper.benchmarkAndPrint( 10, printIndividualTimes, new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				b.createBucketKDTree();
+			}
+		} );
+
+		System.out.println( "nearestNeighborSearchBucket()" );
+		BenchmarkHelper.benchmarkAndPrint( 10, printIndividualTimes, new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				b.nearestNeighborSearchBucket( 10 );
+			}
+		} );
+
+		System.out.println( "createLeftBalancedKDTree()" );
+		BenchmarkHelper.benchmarkAndPrint( 10, printIndividualTimes, new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				b.createLeftBalancedKDTree();
+			}
+		} );
+
+		System.out.println( "nearestNeighborSearchLeftBalanced()" );
+		BenchmarkHelper.benchmarkAndPrint( 10, printIndividualTimes, new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				b.nearestNeighborSearchLeftBalanced( 10 );
+			}
+		} );
+
 		System.out.println( "createKDTreeImgLib2()" );
 		BenchmarkHelper.benchmarkAndPrint( 10, printIndividualTimes, new Runnable()
 		{
@@ -30,7 +30,10 @@ package org.mastodon.kdtree;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
+import java.util.Arrays;
 import java.util.Random;
 
 import org.junit.Before;
@@ -42,8 +45,13 @@ import org.mastodon.pool.ByteMappedElement;
 import org.mastodon.pool.ByteMappedElementArray;
 import org.mastodon.pool.DoubleMappedElement;
 import org.mastodon.pool.SingleArrayMemPool;
+import org.mastodon.properties.DoublePropertyMap;
 
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
 import net.imglib2.RealLocalizable;
+import net.imglib2.algorithm.kdtree.ConvexPolytope;
+import net.imglib2.algorithm.kdtree.HyperPlane;
 import net.imglib2.util.Util;
 
 public class KDTreeTest
@@ -328,4 +336,394 @@ public class KDTreeTest
 			assertEquals( i, sorted.size() );
 		}
 	}
+
+	@Test
+	public void testParallelKDTree()
+	{
+		final int numPoints = 20 * KDTree.PARALLEL_THRESHOLD;
+		final RealPointPool pool = new RealPointPool( 3, numPoints );
+		final RefArrayList< RealPoint > points = new RefArrayList<>( pool, numPoints );
+		final RealPoint vertex = pool.createRef();
+		final double[] p = new double[ 3 ];
+		final Random rnd = new Random( 7 );
+		for ( int i = 0; i < numPoints; ++i )
+		{
+			for ( int d = 0; d < 3; ++d )
+				p[ d ] = rnd.nextInt( 1000 ); // include duplicate coordinates
+			pool.create( vertex );
+			vertex.setPosition( p );
+			points.add( vertex );
+		}
+		pool.releaseRef( vertex );
+
+		final KDTree< RealPoint, DoubleMappedElement > sequential = KDTree.kdtree( points, pool );
+		final KDTree< RealPoint, DoubleMappedElement > parallel = KDTree.kdtree( points, pool, true );
+		assertEquals( sequential.size(), parallel.size() );
+		assertEquals( sequential.rootIndex, parallel.rootIndex );
+		for ( int d = 0; d < 3; ++d )
+		{
+			assertEquals( sequential.realMin( d ), parallel.realMin( d ), 0 );
+			assertEquals( sequential.realMax( d ), parallel.realMax( d ), 0 );
+		}
+		final KDTreeNode< RealPoint, DoubleMappedElement > ns = sequential.createRef();
+		final KDTreeNode< RealPoint, DoubleMappedElement > np = parallel.createRef();
+		for ( int i = 0; i < numPoints; ++i )
+		{
+			sequential.getObject( i, ns );
+			parallel.getObject( i, np );
+			assertEquals( ns.getDataIndex(), np.getDataIndex() );
+			assertEquals( ns.getLeftIndex(), np.getLeftIndex() );
+			assertEquals( ns.getRightIndex(), np.getRightIndex() );
+			for ( int d = 0; d < 3; ++d )
+				assertEquals( ns.getPosition( d ), np.getPosition( d ), 0 );
+		}
+
+		final KDTree< RealPoint, ByteMappedElement > parallelBytes = KDTree.kdtree( dataVertices, vertexPool, SingleArrayMemPool.factory( ByteMappedElementArray.factory ), true );
+		final NearestNeighborSearchOnKDTree< RealPoint, ByteMappedElement > kd = new NearestNeighborSearchOnKDTree<>( parallelBytes );
+		final RealPoint nnExhaustive = vertexPool.createRef();
+		for ( final RealLocalizable t : testVertices )
+		{
+			kd.search( t );
+			findNearestNeighborExhaustive( nnExhaustive, t );
+			assertEquals( kd.getSampler().get(), nnExhaustive );
+		}
+		vertexPool.releaseRef( nnExhaustive );
+	}
+
+	@Test
+	public void testKNearestNeighborSearch()
+	{
+		final int k = 10;
+		final KDTree< RealPoint, DoubleMappedElement > kdtree = KDTree.kdtree( dataVertices, vertexPool );
+		final KDTree< RealPoint, ByteMappedElement > kdtreeBytes = KDTree.kdtree( dataVertices, vertexPool, SingleArrayMemPool.factory( ByteMappedElementArray.factory ) );
+		final KNearestNeighborSearchOnKDTree< RealPoint, DoubleMappedElement > kd = new KNearestNeighborSearchOnKDTree<>( kdtree, k );
+		final KNearestNeighborSearchOnKDTree< RealPoint, ByteMappedElement > kdBytes = new KNearestNeighborSearchOnKDTree<>( kdtreeBytes, k );
+		final RefArrayList< RealPoint > sorted = new RefArrayList<>( vertexPool, numDataVertices );
+		final int[] indices = new int[ k ];
+		final double[] squDistances = new double[ k ];
+		for ( final RealLocalizable t : testVertices )
+		{
+			getOrderedNeighborList( sorted, t );
+			kd.search( t );
+			kdBytes.search( t );
+			assertEquals( k, kd.getResults( indices, squDistances ) );
+			for ( int i = 0; i < k; ++i )
+			{
+				assertEquals( sorted.get( i ), kd.getSampler( i ).get() );
+				assertEquals( sorted.get( i ), kdBytes.getSampler( i ).get() );
+				assertEquals( sorted.get( i ).getInternalPoolIndex(), indices[ i ] );
+				assertEquals( Util.distance( sorted.get( i ), t ), Math.sqrt( squDistances[ i ] ), 1e-10 );
+				assertEquals( squDistances[ i ], kdBytes.getSquareDistance( i ), 0 );
+			}
+		}
+
+		// fewer elements than k
+		final RefArrayList< RealPoint > few = new RefArrayList<>( vertexPool );
+		for ( int i = 0; i < 3; ++i )
+			few.add( dataVertices.get( i ) );
+		final KNearestNeighborSearchOnKDTree< RealPoint, DoubleMappedElement > kdFew = new KNearestNeighborSearchOnKDTree<>( KDTree.kdtree( few, vertexPool ), k );
+		kdFew.search( testVertices.get( 0 ) );
+		assertEquals( 3, kdFew.numFound() );
+		assertNull( kdFew.getSampler( 3 ).get() );
+	}
+
+	@Test
+	public void testKNearestValidNeighborSearch()
+	{
+		final int k = 10;
+		final KDTree< RealPoint, DoubleMappedElement > kdtree = KDTree.kdtree( dataVertices, vertexPool );
+		final RefRefMap< RealPoint, KDTreeNode< RealPoint, DoubleMappedElement > > map = KDTree.createRefToKDTreeNodeMap( kdtree );
+		for ( final RealPoint invalid : invalidDataVertices )
+			map.get( invalid ).setValid( false );
+		final KDTree< RealPoint, ByteMappedElement > kdtreeBytes = KDTree.kdtree( dataVertices, vertexPool, SingleArrayMemPool.factory( ByteMappedElementArray.factory ) );
+		final RefRefMap< RealPoint, KDTreeNode< RealPoint, ByteMappedElement > > mapBytes = KDTree.createRefToKDTreeNodeMap( kdtreeBytes );
+		for ( final RealPoint invalid : invalidDataVertices )
+			mapBytes.get( invalid ).setValid( false );
+		final KNearestValidNeighborSearchOnKDTree< RealPoint, DoubleMappedElement > kd = new KNearestValidNeighborSearchOnKDTree<>( kdtree, k );
+		final KNearestValidNeighborSearchOnKDTree< RealPoint, ByteMappedElement > kdBytes = new KNearestValidNeighborSearchOnKDTree<>( kdtreeBytes, k );
+		final RefArrayList< RealPoint > sorted = new RefArrayList<>( vertexPool, numDataVertices );
+		for ( final RealLocalizable t : testVertices )
+		{
+			getOrderedValidNeighborList( sorted, t );
+			kd.search( t );
+			kdBytes.search( t );
+			for ( int i = 0; i < k; ++i )
+			{
+				assertEquals( sorted.get( i ), kd.getSampler( i ).get() );
+				assertEquals( sorted.get( i ), kdBytes.getSampler( i ).get() );
+			}
+		}
+	}
+
+	@Test
+	public void testRadiusNeighborSearch()
+	{
+		final KDTree< RealPoint, DoubleMappedElement > kdtree = KDTree.kdtree( dataVertices, vertexPool );
+		final KDTree< RealPoint, ByteMappedElement > kdtreeBytes = KDTree.kdtree( dataVertices, vertexPool, SingleArrayMemPool.factory( ByteMappedElementArray.factory ) );
+		final RadiusNeighborSearchOnKDTree< RealPoint, DoubleMappedElement > rs = new RadiusNeighborSearchOnKDTree<>( kdtree );
+		final RadiusNeighborSearchOnKDTree< RealPoint, ByteMappedElement > rsBytes = new RadiusNeighborSearchOnKDTree<>( kdtreeBytes );
+		final RefArrayList< RealPoint > sorted = new RefArrayList<>( vertexPool, numDataVertices );
+		final TIntArrayList indices = new TIntArrayList();
+		final TDoubleArrayList squDistances = new TDoubleArrayList();
+		final double[] radii = { 0.5, 1.5, 4, 100 };
+		for ( final RealLocalizable t : testVertices )
+		{
+			getOrderedNeighborList( sorted, t );
+			for ( final double radius : radii )
+			{
+				int expected = 0;
+				while ( expected < sorted.size() && Util.distance( sorted.get( expected ), t ) <= radius )
+					++expected;
+
+				// sorted
+				rs.search( t, radius, true );
+				indices.resetQuick();
+				squDistances.resetQuick();
+				assertEquals( expected, rs.getResults( indices, squDistances ) );
+				for ( int i = 0; i < expected; ++i )
+				{
+					assertEquals( sorted.get( i ).getInternalPoolIndex(), indices.get( i ) );
+					assertEquals( Util.distance( sorted.get( i ), t ), Math.sqrt( squDistances.get( i ) ), 1e-10 );
+				}
+				int i = 0;
+				for ( final RealPoint v : rs.getValues() )
+					assertEquals( sorted.get( i++ ), v );
+				assertEquals( expected, i );
+
+				// unsorted
+				for ( final RadiusNeighborSearchOnKDTree< RealPoint, ? > search : Arrays.asList( rs, rsBytes ) )
+				{
+					search.search( t, radius );
+					final RefSetImp< RealPoint > found = new RefSetImp<>( vertexPool );
+					for ( final RealPoint v : search.getValues() )
+						found.add( v );
+					assertEquals( expected, found.size() );
+					assertTrue( found.containsAll( sorted.subList( 0, expected ) ) );
+					assertEquals( expected, search.numFound() );
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testRadiusValidNeighborSearch()
+	{
+		final KDTree< RealPoint, DoubleMappedElement > kdtree = KDTree.kdtree( dataVertices, vertexPool );
+		final RefRefMap< RealPoint, KDTreeNode< RealPoint, DoubleMappedElement > > map = KDTree.createRefToKDTreeNodeMap( kdtree );
+		for ( final RealPoint invalid : invalidDataVertices )
+			map.get( invalid ).setValid( false );
+		final RadiusNeighborSearchOnKDTree< RealPoint, DoubleMappedElement > rs = new RadiusNeighborSearchOnKDTree<>( kdtree, true );
+		final RefArrayList< RealPoint > sorted = new RefArrayList<>( vertexPool, numDataVertices );
+		for ( final RealLocalizable t : testVertices )
+		{
+			getOrderedValidNeighborList( sorted, t );
+			int expected = 0;
+			while ( expected < sorted.size() && Util.distance( sorted.get( expected ), t ) <= 3 )
+				++expected;
+
+			rs.search( t, 3 );
+			int found = 0;
+			for ( final RealPoint v : rs.getValues() )
+			{
+				assertTrue( !invalidDataVertices.contains( v ) );
+				++found;
+			}
+			assertEquals( expected, found );
+			assertEquals( expected, rs.numFound() );
+
+			rs.search( t, 3, true );
+			int i = 0;
+			for ( final RealPoint v : rs.getValues() )
+				assertEquals( sorted.get( i++ ), v );
+			assertEquals( expected, i );
+		}
+	}
+
+	@Test
+	public void testBatchNearestNeighborSearch()
+	{
+		final KDTree< RealPoint, DoubleMappedElement > kdtree = KDTree.kdtree( dataVertices, vertexPool );
+		final KDTree< RealPoint, ByteMappedElement > kdtreeBytes = KDTree.kdtree( dataVertices, vertexPool, SingleArrayMemPool.factory( ByteMappedElementArray.factory ) );
+		final NearestNeighborSearchOnKDTree< RealPoint, DoubleMappedElement > kd = new NearestNeighborSearchOnKDTree<>( kdtree );
+
+		// more queries than fit into one chunk
+		final int numQueries = 3 * BatchNearestNeighborSearchOnKDTree.CHUNK_SIZE + 17;
+		final double[] coordinates = new double[ numQueries * 3 ];
+		final Random rnd = new Random( 11 );
+		for ( int i = 0; i < coordinates.length; ++i )
+			coordinates[ i ] = rnd.nextDouble() * 20 - 10;
+
+		final int[] indices = new int[ numQueries ];
+		final double[] squDistances = new double[ numQueries ];
+		final int[] indicesBytes = new int[ numQueries ];
+		new BatchNearestNeighborSearchOnKDTree<>( kdtree ).search( coordinates, indices, squDistances );
+		new BatchNearestNeighborSearchOnKDTree<>( kdtreeBytes ).search( coordinates, indicesBytes, null );
+		final net.imglib2.RealPoint query = new net.imglib2.RealPoint( 3 );
+		for ( int i = 0; i < numQueries; ++i )
+		{
+			query.setPosition( new double[] { coordinates[ 3 * i ], coordinates[ 3 * i + 1 ], coordinates[ 3 * i + 2 ] } );
+			kd.search( query );
+			assertEquals( kd.getSampler().get().getInternalPoolIndex(), indices[ i ] );
+			assertEquals( kd.getSquareDistance(), squDistances[ i ], 0 );
+			assertEquals( indices[ i ], indicesBytes[ i ] );
+		}
+
+		// RealLocalizable queries
+		final int[] testIndices = new int[ numTestVertices ];
+		new BatchNearestNeighborSearchOnKDTree<>( kdtree ).search( testVertices, testIndices, null );
+		final RealPoint nnExhaustive = vertexPool.createRef();
+		for ( int i = 0; i < numTestVertices; ++i )
+		{
+			findNearestNeighborExhaustive( nnExhaustive, testVertices.get( i ) );
+			assertEquals( nnExhaustive.getInternalPoolIndex(), testIndices[ i ] );
+		}
+		vertexPool.releaseRef( nnExhaustive );
+	}
+
+	@Test
+	public void testClipInterval()
+	{
+		final KDTree< RealPoint, DoubleMappedElement > kdtree = KDTree.kdtree( dataVertices, vertexPool );
+		final KDTree< RealPoint, ByteMappedElement > kdtreeBytes = KDTree.kdtree( dataVertices, vertexPool, SingleArrayMemPool.factory( ByteMappedElementArray.factory ) );
+		final RefRefMap< RealPoint, KDTreeNode< RealPoint, DoubleMappedElement > > map = KDTree.createRefToKDTreeNodeMap( kdtree );
+		for ( final RealPoint invalid : invalidDataVertices )
+			map.get( invalid ).setValid( false );
+		final ClipIntervalKDTree< RealPoint, DoubleMappedElement > clip = new ClipIntervalKDTree<>( kdtree );
+		final ClipIntervalKDTree< RealPoint, ByteMappedElement > clipBytes = new ClipIntervalKDTree<>( kdtreeBytes );
+
+		final Random rnd = new Random( 23 );
+		final double[] min = new double[ 3 ];
+		final double[] max = new double[ 3 ];
+		for ( int r = 0; r < 20; ++r )
+		{
+			for ( int d = 0; d < 3; ++d )
+			{
+				final double a = rnd.nextDouble() * 14 - 7;
+				final double b = a + rnd.nextDouble() * 6;
+				min[ d ] = a;
+				max[ d ] = b;
+			}
+			final RefSetImp< RealPoint > expected = new RefSetImp<>( vertexPool );
+			for ( final RealPoint v : dataVertices )
+			{
+				boolean inside = true;
+				for ( int d = 0; d < 3; ++d )
+					inside &= v.getDoublePosition( d ) >= min[ d ] && v.getDoublePosition( d ) <= max[ d ];
+				if ( inside )
+					expected.add( v );
+			}
+
+			clip.clip( min, max );
+			final RefSetImp< RealPoint > inside = new RefSetImp<>( vertexPool );
+			for ( final RealPoint v : clip.getInsideValues() )
+				assertTrue( inside.add( v ) );
+			assertEquals( expected.size(), inside.size() );
+			assertTrue( inside.containsAll( expected ) );
+			assertEquals( expected.size(), clip.getInsideCount() );
+
+			int numOutside = 0;
+			for ( final RealPoint v : clip.getOutsideValues() )
+			{
+				assertTrue( !expected.contains( v ) );
+				++numOutside;
+			}
+			assertEquals( numDataVertices - expected.size(), numOutside );
+
+			for ( final RealPoint v : clip.getValidInsideValues() )
+			{
+				assertTrue( expected.contains( v ) );
+				assertTrue( !invalidDataVertices.contains( v ) );
+			}
+
+			assertEquals( expected.size(), clip.count( new net.imglib2.FinalRealInterval( min, max ) ) );
+
+			clipBytes.clip( new net.imglib2.FinalRealInterval( min, max ) );
+			final RefSetImp< RealPoint > insideBytes = new RefSetImp<>( vertexPool );
+			for ( final RealPoint v : clipBytes.getInsideValues() )
+				insideBytes.add( v );
+			assertEquals( expected.size(), insideBytes.size() );
+			assertTrue( insideBytes.containsAll( expected ) );
+			assertEquals( expected.size(), clipBytes.count( min, max ) );
+		}
+	}
+
+	@Test
+	public void testKDTreeAggregates()
+	{
+		final KDTree< RealPoint, DoubleMappedElement > kdtree = KDTree.kdtree( dataVertices, vertexPool );
+		final DoublePropertyMap< RealPoint > weights = new DoublePropertyMap<>( vertexPool, 0 );
+		final Random rnd = new Random( 31 );
+		for ( final RealPoint v : dataVertices )
+			weights.set( v, rnd.nextDouble() );
+
+		final KDTreeAggregates< RealPoint, DoubleMappedElement > aggregates = new KDTreeAggregates<>( kdtree );
+		assertEquals( 0, aggregates.addValues( weights::getDouble ) );
+		assertEquals( 1, aggregates.addValues( v -> v.getDoublePosition( 0 ) ) );
+		assertEquals( 2, aggregates.numValues() );
+
+		final ClipIntervalKDTree< RealPoint, DoubleMappedElement > clipInterval = new ClipIntervalKDTree<>( kdtree, aggregates );
+		final ClipConvexPolytopeKDTree< RealPoint, DoubleMappedElement > clipPolytope = new ClipConvexPolytopeKDTree<>( kdtree, aggregates );
+		final double[] min = new double[ 3 ];
+		final double[] max = new double[ 3 ];
+		for ( int r = 0; r < 20; ++r )
+		{
+			for ( int d = 0; d < 3; ++d )
+			{
+				min[ d ] = rnd.nextDouble() * 14 - 7;
+				max[ d ] = min[ d ] + rnd.nextDouble() * 8;
+			}
+			int expected = 0;
+			double expectedWeight = 0;
+			double expectedX = 0;
+			for ( final RealPoint v : dataVertices )
+			{
+				boolean inside = true;
+				for ( int d = 0; d < 3; ++d )
+					inside &= v.getDoublePosition( d ) >= min[ d ] && v.getDoublePosition( d ) <= max[ d ];
+				if ( inside )
+				{
+					++expected;
+					expectedWeight += weights.getDouble( v );
+					expectedX += v.getDoublePosition( 0 );
+				}
+			}
+			final net.imglib2.FinalRealInterval interval = new net.imglib2.FinalRealInterval( min, max );
+			assertEquals( expected, clipInterval.count( interval ) );
+			assertEquals( expectedWeight, clipInterval.getInsideSum( 0 ), 1e-8 );
+			assertEquals( expectedX, clipInterval.getInsideSum( 1 ), 1e-8 );
+			clipInterval.clip( interval );
+			assertEquals( expected, clipInterval.getInsideCount() );
+			assertEquals( expectedWeight, clipInterval.getInsideSum( 0 ), 1e-8 );
+
+			// the same box as a polytope
+			final ConvexPolytope box = new ConvexPolytope(
+					new HyperPlane( new double[] { 1, 0, 0 }, min[ 0 ] ),
+					new HyperPlane( new double[] { -1, 0, 0 }, -max[ 0 ] ),
+					new HyperPlane( new double[] { 0, 1, 0 }, min[ 1 ] ),
+					new HyperPlane( new double[] { 0, -1, 0 }, -max[ 1 ] ),
+					new HyperPlane( new double[] { 0, 0, 1 }, min[ 2 ] ),
+					new HyperPlane( new double[] { 0, 0, -1 }, -max[ 2 ] ) );
+			clipPolytope.clip( box );
+			assertEquals( expected, clipPolytope.getInsideCount() );
+			assertEquals( expectedWeight, clipPolytope.getInsideSum( 0 ), 1e-8 );
+			assertEquals( expectedX, clipPolytope.getInsideSum( 1 ), 1e-8 );
+		}
+
+		// values are re-read on update()
+		for ( final RealPoint v : dataVertices )
+			weights.set( v, 1 );
+		aggregates.update();
+		final net.imglib2.FinalRealInterval all = new net.imglib2.FinalRealInterval( new double[] { -10, -10, -10 }, new double[] { 10, 10, 10 } );
+		assertEquals( numDataVertices, clipInterval.count( all ) );
+		assertEquals( numDataVertices, clipInterval.getInsideSum( 0 ), 1e-8 );
+	}
+
+	@Test( expected = IllegalStateException.class )
+	public void testClipWithoutAggregates()
+	{
+		final KDTree< RealPoint, DoubleMappedElement > kdtree = KDTree.kdtree( dataVertices, vertexPool );
+		final ClipIntervalKDTree< RealPoint, DoubleMappedElement > clip = new ClipIntervalKDTree<>( kdtree );
+		clip.count( new double[] { -1, -1, -1 }, new double[] { 1, 1, 1 } );
+		clip.getInsideSum( 0 );
+	}
 }
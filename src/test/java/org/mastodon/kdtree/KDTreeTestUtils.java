@@ -0,0 +1,114 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.kdtree;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+import java.util.function.DoubleSupplier;
+
+import org.mastodon.collection.ref.RefArrayList;
+
+import net.imglib2.RealLocalizable;
+
+/**
+ * Random points and brute-force distances shared by
+ * {@link FloatKDTreeTest}, {@link BucketKDTreeTest} and
+ * {@link LeftBalancedKDTreeTest}.
+ */
+final class KDTreeTestUtils
+{
+	/**
+	 * Creates {@code numPoints} 3D points in {@code pool}.
+	 *
+	 * @param pool
+	 *            the pool to create the points in.
+	 * @param numPoints
+	 *            the number of points.
+	 * @param coordinate
+	 *            generates the coordinates, in order {@code x, y, z} for every
+	 *            point.
+	 * @return the points.
+	 */
+	static RefArrayList< RealPoint > createPoints( final RealPointPool pool, final int numPoints, final DoubleSupplier coordinate )
+	{
+		final RefArrayList< RealPoint > points = new RefArrayList<>( pool, numPoints );
+		final RealPoint vertex = pool.createRef();
+		final double[] p = new double[ 3 ];
+		for ( int i = 0; i < numPoints; ++i )
+		{
+			for ( int d = 0; d < 3; ++d )
+				p[ d ] = coordinate.getAsDouble();
+			pool.create( vertex );
+			vertex.setPosition( p );
+			points.add( vertex );
+		}
+		pool.releaseRef( vertex );
+		return points;
+	}
+
+	/**
+	 * Returns a random 3D query point in {@code [-range, range)^3}.
+	 */
+	static RealLocalizable randomQuery( final Random rnd, final double range )
+	{
+		final double[] p = new double[ 3 ];
+		for ( int d = 0; d < 3; ++d )
+			p[ d ] = rnd.nextDouble() * 2 * range - range;
+		return new net.imglib2.RealPoint( p );
+	}
+
+	static double squDistance( final RealLocalizable a, final RealLocalizable b )
+	{
+		double sum = 0;
+		for ( int d = 0; d < a.numDimensions(); ++d )
+		{
+			final double diff = a.getDoublePosition( d ) - b.getDoublePosition( d );
+			sum += diff * diff;
+		}
+		return sum;
+	}
+
+	/**
+	 * Returns the squared distances of all {@code points} to {@code q}, in
+	 * ascending order.
+	 */
+	static double[] sortedSquDistances( final RealLocalizable q, final Collection< ? extends RealLocalizable > points )
+	{
+		final double[] squDistances = new double[ points.size() ];
+		int i = 0;
+		for ( final RealLocalizable p : points )
+			squDistances[ i++ ] = squDistance( q, p );
+		Arrays.sort( squDistances );
+		return squDistances;
+	}
+
+	private KDTreeTestUtils()
+	{}
+}
@@ -0,0 +1,193 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.kdtree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mastodon.kdtree.KDTreeTestUtils.createPoints;
+import static org.mastodon.kdtree.KDTreeTestUtils.randomQuery;
+import static org.mastodon.kdtree.KDTreeTestUtils.sortedSquDistances;
+import static org.mastodon.kdtree.KDTreeTestUtils.squDistance;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mastodon.collection.ref.RefArrayList;
+
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.set.hash.TIntHashSet;
+import net.imglib2.RealLocalizable;
+
+public class LeftBalancedKDTreeTest
+{
+	private static final int NUM_POINTS = 5000;
+
+	private static final int NUM_QUERIES = 200;
+
+	private RealPointPool pool;
+
+	private RefArrayList< RealPoint > points;
+
+	private Random rnd;
+
+	@Before
+	public void setUp()
+	{
+		pool = new RealPointPool( 3, NUM_POINTS );
+		rnd = new Random( 8642 );
+		points = createPoints( pool, NUM_POINTS, () -> rnd.nextDouble() * 10 - 5 );
+	}
+
+	@Test
+	public void testLeftSubtreeSize()
+	{
+		// count nodes of the left subtree of a complete tree with m nodes in heap order
+		for ( int m = 1; m < 300; ++m )
+		{
+			int count = 0;
+			for ( int first = 1, width = 1; first < m; first = 2 * first + 1, width *= 2 )
+				count += Math.max( 0, Math.min( width, m - first ) );
+			assertEquals( count, LeftBalancedKDTree.leftSubtreeSize( m ) );
+		}
+	}
+
+	@Test
+	public void testStructure()
+	{
+		final LeftBalancedKDTree< RealPoint > kdtree = LeftBalancedKDTree.kdtree( points, pool );
+		assertEquals( NUM_POINTS, kdtree.size() );
+		assertEquals( 28L * NUM_POINTS, kdtree.getSizeInBytes() );
+
+		final TIntHashSet indices = new TIntHashSet();
+		for ( int node = 0; node < kdtree.size(); ++node )
+			indices.add( kdtree.getDataIndex( node ) );
+		assertEquals( NUM_POINTS, indices.size() );
+
+		checkSubtree( kdtree, 0, 0 );
+	}
+
+	private void checkSubtree( final LeftBalancedKDTree< RealPoint > kdtree, final int node, final int d )
+	{
+		final double split = kdtree.getDoublePosition( node, d );
+		final int dChild = ( d + 1 ) % 3;
+		for ( int child = 1; child <= 2; ++child )
+		{
+			final int root = 2 * node + child;
+			// walk the subtree below root level by level
+			for ( int first = root, width = 1; first < kdtree.size(); first = 2 * first + 1, width *= 2 )
+				for ( int i = first; i < Math.min( first + width, kdtree.size() ); ++i )
+				{
+					if ( child == 1 )
+						assertTrue( kdtree.getDoublePosition( i, d ) <= split );
+					else
+						assertTrue( kdtree.getDoublePosition( i, d ) >= split );
+				}
+			if ( root < kdtree.size() )
+				checkSubtree( kdtree, root, dChild );
+		}
+	}
+
+	@Test
+	public void testNearestNeighbor()
+	{
+		final LeftBalancedKDTree< RealPoint > kdtree = LeftBalancedKDTree.kdtree( points, pool );
+		final LeftBalancedKDTreeSearch< RealPoint > search = new LeftBalancedKDTreeSearch<>( kdtree );
+		final RealPoint ref = pool.createRef();
+		for ( int i = 0; i < NUM_QUERIES; ++i )
+		{
+			final RealLocalizable q = randomQuery( rnd, 6 );
+			final int dataIndex = search.nearestNeighbor( q );
+			assertEquals( sortedSquDistances( q, points )[ 0 ], search.getSquareDistance(), 0 );
+			assertEquals( squDistance( q, pool.getObject( dataIndex, ref ) ), search.getSquareDistance(), 0 );
+		}
+		pool.releaseRef( ref );
+	}
+
+	@Test
+	public void testKNearestNeighbors()
+	{
+		final int k = 10;
+		final LeftBalancedKDTree< RealPoint > kdtree = LeftBalancedKDTree.kdtree( points, pool );
+		final LeftBalancedKDTreeSearch< RealPoint > search = new LeftBalancedKDTreeSearch<>( kdtree );
+		final int[] dataIndices = new int[ k ];
+		final double[] squDistances = new double[ k ];
+		for ( int i = 0; i < NUM_QUERIES; ++i )
+		{
+			final RealLocalizable q = randomQuery( rnd, 6 );
+			assertEquals( k, search.kNearestNeighbors( q, k, dataIndices, squDistances ) );
+			final double[] expected = sortedSquDistances( q, points );
+			for ( int j = 0; j < k; ++j )
+				assertEquals( expected[ j ], squDistances[ j ], 0 );
+		}
+	}
+
+	@Test
+	public void testRadiusNeighbors()
+	{
+		final double radius = 1.5;
+		final LeftBalancedKDTree< RealPoint > kdtree = LeftBalancedKDTree.kdtree( points, pool );
+		final LeftBalancedKDTreeSearch< RealPoint > search = new LeftBalancedKDTreeSearch<>( kdtree );
+		final TIntArrayList dataIndices = new TIntArrayList();
+		final TDoubleArrayList squDistances = new TDoubleArrayList();
+		for ( int i = 0; i < NUM_QUERIES; ++i )
+		{
+			final RealLocalizable q = randomQuery( rnd, 6 );
+			dataIndices.clear();
+			squDistances.clear();
+			final int found = search.radiusNeighbors( q, radius, dataIndices, squDistances );
+			assertEquals( found, squDistances.size() );
+			final TIntHashSet expected = new TIntHashSet();
+			for ( final RealPoint p : points )
+				if ( squDistance( q, p ) <= radius * radius )
+					expected.add( pool.getId( p ) );
+			assertEquals( expected.size(), found );
+			assertEquals( expected, new TIntHashSet( dataIndices ) );
+		}
+
+		// a negative radius finds nothing
+		dataIndices.clear();
+		assertEquals( 0, search.radiusNeighbors( randomQuery( rnd, 6 ), -radius, dataIndices, null ) );
+		assertEquals( 0, dataIndices.size() );
+	}
+
+	@Test
+	public void testEmpty()
+	{
+		pool.clear();
+		points.clear();
+		final LeftBalancedKDTree< RealPoint > kdtree = LeftBalancedKDTree.kdtree( points, pool );
+		final LeftBalancedKDTreeSearch< RealPoint > search = new LeftBalancedKDTreeSearch<>( kdtree );
+		assertEquals( -1, search.nearestNeighbor( randomQuery( rnd, 6 ) ) );
+		assertEquals( Double.POSITIVE_INFINITY, search.getSquareDistance(), 0 );
+		assertEquals( 0, search.kNearestNeighbors( randomQuery( rnd, 6 ), 3, new int[ 3 ], null ) );
+		assertEquals( 0, search.radiusNeighbors( randomQuery( rnd, 6 ), 1, new TIntArrayList(), null ) );
+	}
+}
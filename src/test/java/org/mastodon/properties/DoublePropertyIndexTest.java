@@ -0,0 +1,244 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mastodon.collection.ref.RefArrayList;
+import org.mastodon.pool.TestObject;
+import org.mastodon.pool.TestObjectPool;
+
+public class DoublePropertyIndexTest
+{
+	private static final int N = 5000;
+
+	private TestObjectPool pool;
+
+	private ArrayList< TestObject > objs;
+
+	private DoublePropertyMap< TestObject > property;
+
+	private DoublePropertyIndex< TestObject > index;
+
+	private Random random;
+
+	@Before
+	public void setUp()
+	{
+		random = new Random( 42 );
+		pool = new TestObjectPool( N );
+		objs = new ArrayList<>( N );
+		for ( int i = 0; i < N; i++ )
+			objs.add( pool.create( pool.createRef() ).init( i ) );
+		property = new DoublePropertyMap<>( pool, Double.NaN );
+		// set half of the values before creating the index, half after.
+		for ( int i = 0; i < N; i += 2 )
+			property.set( objs.get( i ), Math.floor( random.nextDouble() * 200 ) - 100 );
+		index = new DoublePropertyIndex<>( pool, property );
+		for ( int i = 1; i < N; i += 2 )
+			property.set( objs.get( i ), Math.floor( random.nextDouble() * 200 ) - 100 );
+	}
+
+	@Test
+	public void testRangeAndCount()
+	{
+		assertEquals( N, index.size() );
+		for ( int t = 0; t < 100; t++ )
+		{
+			final double a = random.nextDouble() * 220 - 110;
+			final double b = random.nextDouble() * 220 - 110;
+			assertRange( Math.min( a, b ), Math.max( a, b ) );
+		}
+		assertRange( -50, -50 );
+		assertRange( 10, 10 );
+		assertEquals( 0, index.count( 10, -10 ) );
+		assertEquals( 0, index.count( Double.NaN, 10 ) );
+		assertEquals( N, index.count( Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY ) );
+	}
+
+	@Test
+	public void testTopK()
+	{
+		final RefArrayList< TestObject > top = index.topK( 100, new RefArrayList<>( pool ) );
+		assertEquals( 100, top.size() );
+		double threshold = Double.POSITIVE_INFINITY;
+		for ( final TestObject o : top )
+		{
+			final double v = property.getDouble( o );
+			assertTrue( v <= threshold );
+			threshold = v;
+		}
+		int larger = 0;
+		for ( final TestObject o : objs )
+			if ( property.getDouble( o ) > threshold )
+				++larger;
+		assertTrue( larger < 100 );
+
+		final RefArrayList< TestObject > bottom = index.bottomK( 10, new RefArrayList<>( pool ) );
+		assertEquals( 10, bottom.size() );
+		assertEquals( index.getValue( 0 ), property.getDouble( bottom.get( 0 ) ), 0 );
+		assertEquals( N, index.topK( 2 * N, new RefArrayList<>( pool ) ).size() );
+	}
+
+	@Test
+	public void testSync()
+	{
+		// change, remove and delete random objects
+		for ( int t = 0; t < 2000; t++ )
+		{
+			final TestObject o = objs.get( random.nextInt( N ) );
+			if ( random.nextInt( 4 ) == 0 )
+				property.remove( o );
+			else
+				property.set( o, random.nextGaussian() * 30 );
+		}
+		for ( int i = 0; i < N; i += 7 )
+			pool.delete( objs.get( i ) );
+		assertEquals( property.size(), index.size() );
+		for ( int t = 0; t < 50; t++ )
+		{
+			final double a = random.nextGaussian() * 50;
+			final double b = a + random.nextDouble() * 50;
+			assertRange( a, b );
+		}
+
+		// changes while listeners are paused require a rebuild
+		property.pauseListeners();
+		property.set( objs.get( 1 ), 1e6 );
+		property.resumeListeners();
+		index.rebuild();
+		assertEquals( 1, index.count( 1e6, 1e6 ) );
+
+		index.release();
+		property.set( objs.get( 2 ), 2e6 );
+		assertEquals( 0, index.size() );
+	}
+
+	@Test
+	public void testIntPropertyIndex()
+	{
+		final IntPropertyMap< TestObject > ints = new IntPropertyMap<>( pool, Integer.MIN_VALUE );
+		final IntPropertyIndex< TestObject > intIndex = new IntPropertyIndex<>( pool, ints );
+		for ( int i = 0; i < N; i++ )
+			ints.set( objs.get( i ), i % 100 );
+		assertEquals( N / 100, intIndex.count( 42, 42 ) );
+		assertEquals( 10 * N / 100, intIndex.count( 0, 9 ) );
+		final RefArrayList< TestObject > range = intIndex.range( 98, 99, new RefArrayList<>( pool ) );
+		assertEquals( 2 * N / 100, range.size() );
+		for ( final TestObject o : range )
+			assertTrue( ints.getInt( o ) >= 98 );
+		assertEquals( 0, intIndex.getValue( 0 ) );
+		assertEquals( 99, intIndex.getValue( N - 1 ) );
+	}
+
+	@Test
+	public void testClear()
+	{
+		property.clear();
+		assertEquals( 0, property.size() );
+		assertEquals( 0, index.size() );
+		assertEquals( 0, index.count( Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY ) );
+
+		// refill one by one, splitting blocks while querying ranks
+		for ( int i = 0; i < N; i++ )
+		{
+			property.set( objs.get( i ), i % 1000 );
+			if ( i % 500 == 0 )
+				assertRange( 100, 899 );
+		}
+		assertEquals( N, index.size() );
+		assertEquals( N / 10, index.count( 100, 199 ) );
+		assertRange( -1, 1001 );
+
+		final IntPropertyMap< TestObject > ints = new IntPropertyMap<>( pool, Integer.MIN_VALUE );
+		final IntPropertyIndex< TestObject > intIndex = new IntPropertyIndex<>( pool, ints );
+		for ( int i = 0; i < N; i++ )
+			ints.set( objs.get( i ), i );
+		ints.clear();
+		assertEquals( 0, intIndex.size() );
+		assertEquals( 0, intIndex.count( Integer.MIN_VALUE, Integer.MAX_VALUE ) );
+		ints.set( objs.get( 3 ), 3 );
+		assertEquals( 1, intIndex.count( 0, 10 ) );
+	}
+
+	@Test
+	public void testBulkRemoval()
+	{
+		// remove all but every 20th value, in random order, merging blocks
+		final ArrayList< TestObject > shuffled = new ArrayList<>( objs );
+		Collections.shuffle( shuffled, random );
+		for ( int i = 0; i < N; i++ )
+		{
+			final TestObject o = shuffled.get( i );
+			if ( o.getId() % 20 != 0 )
+				property.remove( o );
+			if ( i % 250 == 0 )
+				assertRange( -50, 50 );
+		}
+		assertEquals( N / 20, index.size() );
+		assertRange( -1000, 1000 );
+		for ( int r = 1; r < index.size(); r++ )
+			assertTrue( index.getValue( r - 1 ) <= index.getValue( r ) );
+
+		// and refill
+		for ( int i = 0; i < N; i++ )
+			property.set( objs.get( i ), i % 100 );
+		assertEquals( N, index.size() );
+		assertEquals( N / 10, index.count( 40, 49 ) );
+		assertRange( 10, 20 );
+	}
+
+	private void assertRange( final double lo, final double hi )
+	{
+		int expected = 0;
+		for ( final TestObject o : pool )
+		{
+			final double v = property.getDouble( o );
+			if ( property.isSet( o ) && v >= lo && v <= hi )
+				++expected;
+		}
+		assertEquals( expected, index.count( lo, hi ) );
+		final RefArrayList< TestObject > range = index.range( lo, hi, new RefArrayList<>( pool ) );
+		assertEquals( expected, range.size() );
+		double previous = Double.NEGATIVE_INFINITY;
+		for ( final TestObject o : range )
+		{
+			final double v = property.getDouble( o );
+			assertTrue( v >= lo && v <= hi && v >= previous );
+			previous = v;
+		}
+	}
+}
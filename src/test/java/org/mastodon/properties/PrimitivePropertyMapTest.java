@@ -0,0 +1,158 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mastodon.collection.ref.RefByteArrayMap;
+import org.mastodon.collection.ref.RefFloatArrayMap;
+import org.mastodon.collection.ref.RefLongArrayMap;
+import org.mastodon.collection.ref.RefShortArrayMap;
+import org.mastodon.pool.TestObject;
+import org.mastodon.pool.TestObjectPool;
+
+public class PrimitivePropertyMapTest
+{
+	private static final int N = 20;
+
+	private TestObjectPool pool;
+
+	private ArrayList< TestObject > objs;
+
+	@Before
+	public void setUp()
+	{
+		pool = new TestObjectPool( N );
+		objs = new ArrayList<>( N );
+		for ( int i = 0; i < N; i++ )
+			objs.add( pool.create( pool.createRef() ).init( i ) );
+	}
+
+	@Test
+	public void testClearByte()
+	{
+		testClearByte( new BytePropertyMap<>( pool, ( byte ) -1 ) );
+		testClearByte( new BytePropertyMap<>( pool, new RefByteArrayMap<>( pool, ( byte ) -1 ) ) );
+	}
+
+	private void testClearByte( final BytePropertyMap< TestObject > map )
+	{
+		for ( int i = 0; i < N; i += 2 )
+			map.set( objs.get( i ), ( byte ) i );
+		assertEquals( N / 2, map.size() );
+		map.clear();
+		assertEquals( 0, map.size() );
+		for ( final TestObject o : objs )
+		{
+			assertFalse( map.isSet( o ) );
+			assertEquals( -1, map.getByte( o ) );
+		}
+		map.set( objs.get( 1 ), ( byte ) 7 );
+		assertTrue( map.isSet( objs.get( 1 ) ) );
+		assertEquals( 7, map.getByte( objs.get( 1 ) ) );
+	}
+
+	@Test
+	public void testClearShort()
+	{
+		testClearShort( new ShortPropertyMap<>( pool, ( short ) -1 ) );
+		testClearShort( new ShortPropertyMap<>( pool, new RefShortArrayMap<>( pool, ( short ) -1 ) ) );
+	}
+
+	private void testClearShort( final ShortPropertyMap< TestObject > map )
+	{
+		for ( int i = 0; i < N; i += 2 )
+			map.set( objs.get( i ), ( short ) ( 1000 * i ) );
+		assertEquals( N / 2, map.size() );
+		map.clear();
+		assertEquals( 0, map.size() );
+		for ( final TestObject o : objs )
+		{
+			assertFalse( map.isSet( o ) );
+			assertEquals( -1, map.getShort( o ) );
+		}
+		map.set( objs.get( 1 ), ( short ) 7 );
+		assertTrue( map.isSet( objs.get( 1 ) ) );
+		assertEquals( 7, map.getShort( objs.get( 1 ) ) );
+	}
+
+	@Test
+	public void testClearLong()
+	{
+		testClearLong( new LongPropertyMap<>( pool, -1L ) );
+		testClearLong( new LongPropertyMap<>( pool, new RefLongArrayMap<>( pool, -1L ) ) );
+	}
+
+	private void testClearLong( final LongPropertyMap< TestObject > map )
+	{
+		for ( int i = 0; i < N; i += 2 )
+			map.set( objs.get( i ), Integer.MAX_VALUE + ( long ) i );
+		assertEquals( N / 2, map.size() );
+		map.clear();
+		assertEquals( 0, map.size() );
+		for ( final TestObject o : objs )
+		{
+			assertFalse( map.isSet( o ) );
+			assertEquals( -1L, map.getLong( o ) );
+		}
+		map.set( objs.get( 1 ), 7L );
+		assertTrue( map.isSet( objs.get( 1 ) ) );
+		assertEquals( 7L, map.getLong( objs.get( 1 ) ) );
+	}
+
+	@Test
+	public void testClearFloat()
+	{
+		testClearFloat( new FloatPropertyMap<>( pool, Float.NaN ) );
+		testClearFloat( new FloatPropertyMap<>( pool, new RefFloatArrayMap<>( pool, Float.NaN ) ) );
+	}
+
+	private void testClearFloat( final FloatPropertyMap< TestObject > map )
+	{
+		for ( int i = 0; i < N; i += 2 )
+			map.set( objs.get( i ), 0.5f * i );
+		assertEquals( N / 2, map.size() );
+		map.clear();
+		assertEquals( 0, map.size() );
+		for ( final TestObject o : objs )
+		{
+			assertFalse( map.isSet( o ) );
+			assertTrue( Float.isNaN( map.getFloat( o ) ) );
+		}
+		map.set( objs.get( 1 ), 7f );
+		assertTrue( map.isSet( objs.get( 1 ) ) );
+		assertEquals( 7f, map.getFloat( objs.get( 1 ) ), 0f );
+	}
+}